@@ -6,127 +6,183 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import android.Manifest;
+import android.app.PictureInPictureParams;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.media.projection.MediaProjectionManager;
+import android.opengl.GLSurfaceView;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
-import android.view.SurfaceView;
+import android.util.Rational;
 import android.view.View;
-import android.view.ViewGroup;
-import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 
-import io.agora.rtc.Constants;
+import com.example.zurivideosample.camera.Camera2Capturer;
+import com.example.zurivideosample.camera.CameraVideoSource;
+import com.example.zurivideosample.call.CallController;
+import com.example.zurivideosample.call.ChannelSession;
+import com.example.zurivideosample.call.ChannelSessionRegistry;
+import com.example.zurivideosample.call.ConnectionSupervisor;
+import com.example.zurivideosample.call.HandlerTimer;
+import com.example.zurivideosample.call.NetworkKey;
+import com.example.zurivideosample.effects.BackgroundBlurStage;
+import com.example.zurivideosample.effects.FramePipeline;
+import com.example.zurivideosample.effects.FramePool;
+import com.example.zurivideosample.effects.LowLightStage;
+import com.example.zurivideosample.effects.ProcessedVideoSource;
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.engine.CallEngineHolder;
+import com.example.zurivideosample.journal.CallJournal;
+import com.example.zurivideosample.journal.JournalingEventHandler;
+import com.example.zurivideosample.recording.CallRecorder;
+import com.example.zurivideosample.render.TileCompositor;
+import com.example.zurivideosample.screenshare.ScreenShareService;
+import com.example.zurivideosample.telemetry.ProcessMeter;
+import com.example.zurivideosample.telemetry.StartupTimings;
+import com.example.zurivideosample.video.VideoGridLayout;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
 import io.agora.rtc.IRtcEngineEventHandler;
-import io.agora.rtc.RtcEngine;
-import io.agora.rtc.video.VideoCanvas;
-import io.agora.rtc.video.VideoEncoderConfiguration;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
 
     private static final int PERMISSION_REQ_ID = 22;
+    private static final int SCREEN_CAPTURE_REQ_ID = 23;
     private static final String[] REQUESTED_PERMISSIONS = {
             Manifest.permission.RECORD_AUDIO,
             Manifest.permission.CAMERA,
             Manifest.permission.WRITE_EXTERNAL_STORAGE
     };
 
-    private RtcEngine mRtcEngine;
+    // The channel to join, and breakout rooms to listen in on next to it.
+    public static final String EXTRA_CHANNEL = "com.example.zurivideosample.CHANNEL";
+    public static final String EXTRA_BREAKOUT_CHANNELS = "com.example.zurivideosample.BREAKOUT_CHANNELS";
+    // Effects on the outgoing video, off unless asked for.
+    public static final String EXTRA_LOW_LIGHT = "com.example.zurivideosample.LOW_LIGHT";
+    public static final String EXTRA_BACKGROUND_BLUR = "com.example.zurivideosample.BACKGROUND_BLUR";
+    private static final String DEFAULT_CHANNEL = "demoChannel";
+    // Each effect gets half of a frame at 15 fps, and the frames in flight
+    // on the capture thread are one being filled and one being sent.
+    private static final long EFFECT_BUDGET_US = 8000;
+    private static final int EFFECT_FRAMES = 2;
+    // A portrait window, the way most phones send their video.
+    private static final int PIP_ASPECT_WIDTH = 9;
+    private static final int PIP_ASPECT_HEIGHT = 16;
+
+    private CallEngineHolder mEngineHolder;
+    private StartupTimings mStartup;
+    private CallController mCall;
+    private CallJournal mJournal;
+    private String mChannelName;
+    private String[] mBreakoutChannels;
     private boolean mCallEnd;
     private boolean mMuted;
+    private boolean mReceiverRegistered;
+    private boolean mSharingScreen;
+    private boolean mStartupReported;
 
     private FrameLayout mLocalContainer;
     private RelativeLayout mRemoteContainer;
-    private VideoCanvas mLocalVideo;
-    private VideoCanvas mRemoteVideo;
+    private VideoGridLayout mRemoteGrid;
+    private GLSurfaceView mRemoteSurface;
+    private TileCompositor mCompositor;
 
     private ImageView mCallBtn;
     private ImageView mMuteBtn;
     private ImageView mSwitchCameraBtn;
+    private ImageView mShareScreenBtn;
+    private ImageView mRecordBtn;
+    private View mEngineError;
 
-
-    private final IRtcEngineEventHandler mRtcEventHandler = new IRtcEngineEventHandler() {
-//        @Override
-//        public void onJoinChannelSuccess(String channel, final int uid, int elapsed) {
-//            runOnUiThread(new Runnable() {
-//                @Override
-//                public void run() {
-//                    mLogView.logI("Join channel success, uid: " + (uid & 0xFFFFFFFFL));
-//                }
-//            });
-//        }
-
-
-        @Override
-        public void onFirstRemoteVideoDecoded(final int uid, int width, int height, int elapsed) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-//                    mLogView.logI("First remote video decoded, uid: " + (uid & 0xFFFFFFFFL));
-                    setupRemoteVideo(uid);
-                }
-            });
-        }
-
-
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
         @Override
-        public void onUserOffline(final int uid, int reason) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-//                    mLogView.logI("User offline, uid: " + (uid & 0xFFFFFFFFL));
-                    onRemoteUserLeft(uid);
-                }
-            });
+        public void onReceive(Context context, Intent intent) {
+            int temperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            if (temperature > 0) {
+                mCall.onBatteryTemperature(temperature);
+            }
         }
     };
 
-    private void setupRemoteVideo(int uid) {
-        ViewGroup parent = mRemoteContainer;
-        if (parent.indexOfChild(mLocalVideo.view) > -1) {
-            parent = mLocalContainer;
-        }
-
-        // Only one remote video view is available for this
-        // tutorial. Here we check if there exists a surface
-        // view tagged as this uid.
-        if (mRemoteVideo != null) {
-            return;
-        }
-
-        /*
-          Creates the video renderer view.
-          CreateRendererView returns the SurfaceView type. The operation and layout of the view
-          are managed by the app, and the Agora SDK renders the view provided by the app.
-          The video display view must be created using this method instead of directly
-          calling SurfaceView.
-         */
-        SurfaceView view = RtcEngine.CreateRendererView(getBaseContext());
-        view.setZOrderMediaOverlay(parent == mLocalContainer);
-        parent.addView(view);
-        mRemoteVideo = new VideoCanvas(view, VideoCanvas.RENDER_MODE_HIDDEN, uid);
-        // Initializes the video view of a remote user.
-        mRtcEngine.setupRemoteVideo(mRemoteVideo);
-    }
-
-    private void onRemoteUserLeft(int uid) {
-        if (mRemoteVideo != null && mRemoteVideo.uid == uid) {
-            removeFromParent(mRemoteVideo);
-            // Destroys remote view
-            mRemoteVideo = null;
-        }
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         initUI();
+        readChannels();
+        // The controls wait for the engine.
+        mCallBtn.setVisibility(View.GONE);
+        showButtons(false);
+
+        // The engine lives in the application and may already be warm from
+        // a previous call screen. If it is not, it is created on a worker
+        // thread while this screen draws, and the call starts once it is
+        // ready and the permissions below are granted.
+        ZuriVideoApplication application = (ZuriVideoApplication) getApplication();
+        mEngineHolder = application.getEngineHolder();
+        mStartup = application.getStartupTimings();
+        watchFirstDraw();
+        // Journals the callbacks and clicks of this screen, on the same
+        // clock as the call's timers, so it can be replayed later.
+        HandlerTimer timer = new HandlerTimer(new Handler(Looper.getMainLooper()));
+        mJournal = new CallJournal(new File(getFilesDir(), CallJournal.FILE_NAME),
+                CallJournal.DEFAULT_MAX_BYTES, timer, application.getJournalExecutor());
+        mCall = new CallController(getBaseContext(), mLocalContainer, mRemoteGrid,
+                mEngineHolder.getTimings(), application.getTelemetryStore());
+        mCall.setCompositor(mCompositor);
+        // Capture the camera ourselves where Camera2 is fully supported;
+        // legacy devices keep the SDK's own capture.
+        if (Camera2Capturer.isSupported(this)) {
+            mCall.setCameraCapturer(new Camera2Capturer(this, new CameraVideoSource()));
+            // Effects need the pixels, which only our own capture has.
+            mCall.setVideoEffects(createVideoEffects());
+        }
+        mCall.setLinkEstimateCache(application.getLinkEstimateCache());
+        mCall.setConnectionSupervisor(new ConnectionSupervisor(timer, application.getTokenProvider()));
+        mCall.getBackgroundGovernor().setMeter(new ProcessMeter(getApplicationContext()));
+        mCall.setListener(new CallController.Listener() {
+            @Override
+            public void onJoining() {
+                // Not before: other calls may interrupt the probe of the
+                // link.
+                openBreakoutChannels();
+            }
+
+            @Override
+            public void onCallFailed(int reason) {
+                showLongToast("Call failed, reason " + reason);
+                mCallEnd = true;
+                mCallBtn.setImageResource(R.drawable.btn_startcall);
+                showButtons(false);
+            }
+
+            @Override
+            public void onCameraFailed() {
+                showLongToast("The camera is not available");
+            }
+        });
+        mEngineHolder.prewarm();
 
         // Ask for permissions at runtime.
         // This is just an example set of permissions. Other permissions
@@ -138,14 +194,130 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private void watchFirstDraw() {
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                mStartup.onFirstDraw(SystemClock.elapsedRealtime());
+                reportStartup();
+                return true;
+            }
+        });
+    }
+
+    // Reports the launch once the screen is drawn and ready for the call.
+    private void reportStartup() {
+        if (mStartupReported || !mStartup.isComplete()) {
+            return;
+        }
+        mStartupReported = true;
+        // Lets the system, and launch benchmarks, time the full launch.
+        reportFullyDrawn();
+        if (mStartup.onReported()) {
+            Log.i(TAG, "Startup: " + mStartup);
+        }
+    }
+
     private void initUI() {
         mLocalContainer = findViewById(R.id.local_video_view_container);
         mRemoteContainer = findViewById(R.id.remote_video_view_container);
+        mRemoteGrid = findViewById(R.id.remote_video_grid);
+        mRemoteSurface = findViewById(R.id.remote_video_surface);
+
+        // Every tile of the call is drawn into one surface. The local
+        // container only marks where the preview goes and takes the clicks,
+        // so it must not cover the surface.
+        mCompositor = new TileCompositor(ContextCompat.getColor(this, R.color.teal_700));
+        mCompositor.attachTo(mRemoteSurface);
+        mLocalContainer.removeAllViews();
+        mLocalContainer.setBackground(null);
+        mLocalContainer.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                updateLocalInset();
+            }
+        });
 
         mCallBtn = findViewById(R.id.btn_call);
         mMuteBtn = findViewById(R.id.btn_mute);
         mSwitchCameraBtn = findViewById(R.id.btn_switch_camera);
+        mShareScreenBtn = findViewById(R.id.btn_share_screen);
+        mRecordBtn = findViewById(R.id.btn_record);
+        mEngineError = findViewById(R.id.engine_error);
+        if (!CallRecorder.isSupported()) {
+            mRecordBtn.setVisibility(View.GONE);
+        }
+
+        // A long press on the grid moves the video focus to the next room.
+        mRemoteGrid.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                focusNextChannel();
+                return true;
+            }
+        });
+    }
+
+    private void updateLocalInset() {
+        int[] surface = new int[2];
+        int[] local = new int[2];
+        mRemoteSurface.getLocationInWindow(surface);
+        mLocalContainer.getLocationInWindow(local);
+        int left = local[0] - surface[0];
+        int top = local[1] - surface[1];
+        mCompositor.setInset(left, top, left + mLocalContainer.getWidth(),
+                top + mLocalContainer.getHeight());
+    }
+
+    private ProcessedVideoSource createVideoEffects() {
+        FramePipeline pipeline = new FramePipeline();
+        pipeline.addStage(new LowLightStage(), EFFECT_BUDGET_US)
+                .setEnabled(getIntent().getBooleanExtra(EXTRA_LOW_LIGHT, false));
+        pipeline.addStage(new BackgroundBlurStage(), EFFECT_BUDGET_US)
+                .setEnabled(getIntent().getBooleanExtra(EXTRA_BACKGROUND_BLUR, false));
+        return new ProcessedVideoSource(pipeline, new FramePool(EFFECT_FRAMES));
+    }
+
+    private void readChannels() {
+        mChannelName = getIntent().getStringExtra(EXTRA_CHANNEL);
+        if (TextUtils.isEmpty(mChannelName)) {
+            mChannelName = DEFAULT_CHANNEL;
+        }
+        mBreakoutChannels = getIntent().getStringArrayExtra(EXTRA_BREAKOUT_CHANNELS);
+    }
+
+    private void openBreakoutChannels() {
+        if (mBreakoutChannels != null) {
+            for (String channel : mBreakoutChannels) {
+                // A room that cannot be joined is left out; the call goes on.
+                if (mCall.getChannels().open(channel) == null) {
+                    showLongToast("Cannot open breakout room " + channel);
+                }
+            }
+        }
+    }
 
+    private void focusNextChannel() {
+        ChannelSessionRegistry channels = mCall.getChannels();
+        if (channels == null || channels.size() == 0) {
+            return;
+        }
+        // Primary, then every breakout room in the order they were opened.
+        ChannelSession focused = channels.getFocused();
+        int next = 0;
+        if (focused != null) {
+            for (int i = 0; i < channels.size(); i++) {
+                if (channels.valueAt(i) == focused) {
+                    next = i + 1;
+                }
+            }
+        }
+        String channel = next < channels.size() ? channels.valueAt(next).getChannelId() : null;
+        channels.focus(channel);
+        showLongToast("Watching " + (channel != null ? channel : mChannelName));
     }
 
 
@@ -188,106 +360,170 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void initEngineAndJoinChannel() {
+        // Callbacks are journaled as the call receives them.
+        IRtcEngineEventHandler handler = new JournalingEventHandler(mJournal, mCall.getEventHandler());
+        mEngineHolder.acquire(handler, new CallEngineHolder.Callback() {
+            @Override
+            public void onEngineReady(CallEngine engine) {
+                joinChannel(engine);
+            }
+
+            @Override
+            public void onEngineFailed(Exception e) {
+                Log.e(TAG, Log.getStackTraceString(e));
+                // The holder creates the engine afresh on the next acquire.
+                mEngineError.setVisibility(View.VISIBLE);
+            }
+        });
+    }
+
+    public void onRetryEngineClicked(View view) {
+        mEngineError.setVisibility(View.GONE);
+        initEngineAndJoinChannel();
+    }
+
+    private void joinChannel(CallEngine engine) {
         // This is our usual steps for joining
         // a channel and starting a call.
-        initializeEngine();
-        setupVideoConfig();
-        setupLocalVideo();
-        joinChannel();
-    }
-
-    private void initializeEngine() {
-        try {
-            mRtcEngine = RtcEngine.create(getBaseContext(), getString(R.string.agora_app_id), mRtcEventHandler);
-        } catch (Exception e) {
-            Log.e(TAG, Log.getStackTraceString(e));
-            throw new RuntimeException("NEED TO check rtc sdk init fatal error\n" + Log.getStackTraceString(e));
+        mCall.setup(engine);
+        mCallBtn.setVisibility(View.VISIBLE);
+        showButtons(true);
+        // The battery broadcast is sticky, so the current temperature is
+        // delivered straight away.
+        registerReceiver(mBatteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        mReceiverRegistered = true;
+
+        // Create the first renderers once the UI thread has nothing
+        // better to do, so they are ready when users start joining.
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                mCall.prewarmRenderers();
+                return false;
+            }
+        });
+        mJournal.recordAction(CallJournal.ACTION_JOIN, 0);
+        mCall.joinChannel(mChannelName, NetworkKey.current(this));
+        mStartup.onCallReady(SystemClock.elapsedRealtime());
+        reportStartup();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mJournal.recordAction(CallJournal.ACTION_BACKGROUND, 0);
+        mCall.setInBackground(false);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mCompositor.onResume();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // The picture-in-picture window is paused but still shows the call.
+        if (!isInPictureInPicture()) {
+            mCompositor.onPause();
         }
     }
 
-    private void setupVideoConfig() {
-        // In simple use cases, we only need to enable video capturing
-        // and rendering once at the initialization step.
-        // Note: audio recording and playing is enabled by default.
-        mRtcEngine.enableVideo();
-
-        // Please go to this page for detailed explanation
-        // https://docs.agora.io/en/Video/API%20Reference/java/classio_1_1agora_1_1rtc_1_1_rtc_engine.html#af5f4de754e2c1f493096641c5c5c1d8f
-        mRtcEngine.setVideoEncoderConfiguration(new VideoEncoderConfiguration(
-                VideoEncoderConfiguration.VD_640x360,
-                VideoEncoderConfiguration.FRAME_RATE.FRAME_RATE_FPS_15,
-                VideoEncoderConfiguration.STANDARD_BITRATE,
-                VideoEncoderConfiguration.ORIENTATION_MODE.ORIENTATION_MODE_FIXED_PORTRAIT));
-    }
-
-    private void setupLocalVideo() {
-        // This is used to set a local preview.
-        // The steps setting local and remote view are very similar.
-        // But note that if the local user do not have a uid or do
-        // not care what the uid is, he can set his uid as ZERO.
-        // Our server will assign one and return the uid via the event
-        // handler callback function (onJoinChannelSuccess) after
-        // joining the channel successfully.
-        SurfaceView view = RtcEngine.CreateRendererView(getBaseContext());
-        view.setZOrderMediaOverlay(true);
-        mLocalContainer.addView(view);
-        // Initializes the local video view.
-        // RENDER_MODE_HIDDEN: Uniformly scale the video until it fills the visible boundaries. One dimension of the video may have clipped contents.
-        mLocalVideo = new VideoCanvas(view, VideoCanvas.RENDER_MODE_HIDDEN, 0);
-        mRtcEngine.setupLocalVideo(mLocalVideo);
-    }
-
-    private void joinChannel() {
-        // 1. Users can only see each other after they join the
-        // same channel successfully using the same app id.
-        // 2. One token is only valid for the channel name that
-        // you use to generate this token.
-        String token = getString(R.string.agora_access_token);
-        if (TextUtils.isEmpty(token)){
-            token = null; // default, no token
+    @Override
+    protected void onUserLeaveHint() {
+        super.onUserLeaveHint();
+        // Leaving for another app shrinks the call into a window rather
+        // than sending it to the background.
+        if (mCall.isInCall() && supportsPictureInPicture()) {
+            enterPictureInPictureMode(new PictureInPictureParams.Builder()
+                    .setAspectRatio(new Rational(PIP_ASPECT_WIDTH, PIP_ASPECT_HEIGHT))
+                    .build());
         }
-        mRtcEngine.joinChannel(token, "demoChannel", "Extra Optional Data", 0);
     }
 
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (!mCallEnd) {
-            leaveChannel();
+    public void onPictureInPictureModeChanged(boolean isInPictureInPictureMode, Configuration newConfig) {
+        super.onPictureInPictureModeChanged(isInPictureInPictureMode, newConfig);
+        // The window only has room for the speaker's video. The activity
+        // handles the size change itself, so the call carries on as is.
+        mCallBtn.setVisibility(isInPictureInPictureMode ? View.GONE : View.VISIBLE);
+        mLocalContainer.setVisibility(isInPictureInPictureMode ? View.GONE : View.VISIBLE);
+        showButtons(!isInPictureInPictureMode && !mCallEnd);
+        mJournal.recordAction(CallJournal.ACTION_PICTURE_IN_PICTURE, isInPictureInPictureMode ? 1 : 0);
+        mCall.setPictureInPicture(isInPictureInPictureMode);
+    }
+
+    private boolean supportsPictureInPicture() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                && getPackageManager().hasSystemFeature(PackageManager.FEATURE_PICTURE_IN_PICTURE);
+    }
+
+    private boolean isInPictureInPicture() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && isInPictureInPictureMode();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // This is the app's only activity, so once it stops the whole
+        // process is in the background, closed picture-in-picture window
+        // included. Any configuration change the activity does not handle
+        // itself tears the call down in onDestroy anyway.
+        if (!isChangingConfigurations()) {
+            mJournal.recordAction(CallJournal.ACTION_BACKGROUND, 1);
+            mCall.setInBackground(true);
         }
-        /*
-          Destroys the RtcEngine instance and releases all resources used by the Agora SDK.
+        // The process may be killed from here on without notice.
+        mJournal.flush();
+    }
 
-          This method is useful for apps that occasionally make voice or video calls,
-          to free up resources for other operations when not making calls.
-         */
-        RtcEngine.destroy();
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mCall.onTrimMemory(level);
     }
 
-    private void leaveChannel() {
-        mRtcEngine.leaveChannel();
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (!isChangingConfigurations()) {
+            stopScreenShare();
+        }
+        if (mReceiverRegistered) {
+            unregisterReceiver(mBatteryReceiver);
+        }
+        mCall.release();
+        // Nothing may reach the handler once the activity is gone. The
+        // engine itself stays warm for the next call screen.
+        mEngineHolder.release();
+        mJournal.close();
+        Log.i(TAG, "Journal: " + mJournal);
     }
 
     public void onLocalAudioMuteClicked(View view) {
         mMuted = !mMuted;
-        // Stops/Resumes sending the local audio stream.
-        mRtcEngine.muteLocalAudioStream(mMuted);
+        mJournal.recordAction(CallJournal.ACTION_MUTE, mMuted ? 1 : 0);
+        mCall.setLocalAudioMuted(mMuted);
         int res = mMuted ? R.drawable.btn_mute : R.drawable.btn_unmute;
         mMuteBtn.setImageResource(res);
     }
 
     public void onSwitchCameraClicked(View view) {
-        // Switches between front and rear cameras.
-        mRtcEngine.switchCamera();
+        mJournal.recordAction(CallJournal.ACTION_SWITCH_CAMERA, 0);
+        mCall.switchCamera();
     }
 
     public void onCallClicked(View view) {
+        mJournal.recordAction(CallJournal.ACTION_CALL, mCallEnd ? 1 : 0);
         if (mCallEnd) {
-            startCall();
+            mCall.startCall(mChannelName, NetworkKey.current(this));
             mCallEnd = false;
             mCallBtn.setImageResource(R.drawable.btn_endcall);
         } else {
-            endCall();
+            stopScreenShare();
+            mCall.endCall();
+            mRecordBtn.setActivated(false);
             mCallEnd = true;
             mCallBtn.setImageResource(R.drawable.btn_startcall);
         }
@@ -295,55 +531,77 @@ public class MainActivity extends AppCompatActivity {
         showButtons(!mCallEnd);
     }
 
-    private void startCall() {
-        setupLocalVideo();
-        joinChannel();
-    }
-
-    private void endCall() {
-        removeFromParent(mLocalVideo);
-        mLocalVideo = null;
-        removeFromParent(mRemoteVideo);
-        mRemoteVideo = null;
-        leaveChannel();
-    }
-
     private void showButtons(boolean show) {
         int visibility = show ? View.VISIBLE : View.GONE;
         mMuteBtn.setVisibility(visibility);
         mSwitchCameraBtn.setVisibility(visibility);
+        mShareScreenBtn.setVisibility(visibility);
+        if (CallRecorder.isSupported()) {
+            mRecordBtn.setVisibility(visibility);
+        }
     }
 
-    private ViewGroup removeFromParent(VideoCanvas canvas) {
-        if (canvas != null) {
-            ViewParent parent = canvas.view.getParent();
-            if (parent != null) {
-                ViewGroup group = (ViewGroup) parent;
-                group.removeView(canvas.view);
-                return group;
-            }
+    public void onRecordClicked(View view) {
+        if (mCall.getRecorder() != null) {
+            mCall.stopRecording();
+            mRecordBtn.setActivated(false);
+            return;
+        }
+        // The app's own directory needs no storage permission.
+        File dir = getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+        String name = "call-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date())
+                + ".mp4";
+        File file = new File(dir != null ? dir : getFilesDir(), name);
+        if (mCall.startRecording(file)) {
+            mRecordBtn.setActivated(true);
+            showLongToast("Recording to " + file.getName());
+        } else {
+            showLongToast("Cannot record right now");
         }
-        return null;
     }
 
-    private void switchView(VideoCanvas canvas) {
-        ViewGroup parent = removeFromParent(canvas);
-        if (parent == mLocalContainer) {
-            if (canvas.view instanceof SurfaceView) {
-                ((SurfaceView) canvas.view).setZOrderMediaOverlay(false);
-            }
-            mRemoteContainer.addView(canvas.view);
-        } else if (parent == mRemoteContainer) {
-            if (canvas.view instanceof SurfaceView) {
-                ((SurfaceView) canvas.view).setZOrderMediaOverlay(true);
-            }
-            mLocalContainer.addView(canvas.view);
+    public void onShareScreenClicked(View view) {
+        if (mSharingScreen) {
+            stopScreenShare();
+            return;
+        }
+        if (!mCall.getConnectionSupervisor().isConnected()) {
+            showLongToast("Screen sharing starts once the call is connected");
+            return;
+        }
+        // The system asks the user before anything is captured.
+        MediaProjectionManager manager =
+                (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        startActivityForResult(manager.createScreenCaptureIntent(), SCREEN_CAPTURE_REQ_ID);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != SCREEN_CAPTURE_REQ_ID || resultCode != RESULT_OK || !mCall.isInCall()) {
+            return;
+        }
+        // The screen joins as a user of its own, which this screen must
+        // not show back to us.
+        int uid = mCall.getConnectionSupervisor().getUid();
+        mCall.setOwnScreenUid(ScreenShareService.screenUidFor(uid));
+        ScreenShareService.start(this, resultCode, data, mChannelName, uid);
+        mSharingScreen = true;
+        mShareScreenBtn.setActivated(true);
+    }
+
+    private void stopScreenShare() {
+        if (!mSharingScreen) {
+            return;
         }
+        ScreenShareService.stop(this);
+        mSharingScreen = false;
+        mShareScreenBtn.setActivated(false);
     }
 
     public void onLocalContainerClick(View view) {
-        switchView(mLocalVideo);
-        switchView(mRemoteVideo);
+        mJournal.recordAction(CallJournal.ACTION_SWAP_LOCAL_VIDEO, 0);
+        mCall.swapLocalVideo();
     }
 
 //    private RtcEngine mRtcEngine;
@@ -0,0 +1,139 @@
+package com.example.zurivideosample;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.example.zurivideosample.call.LinkEstimateCache;
+import com.example.zurivideosample.call.StaticTokenProvider;
+import com.example.zurivideosample.call.TokenProvider;
+import com.example.zurivideosample.engine.AgoraCallEngine;
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.engine.CallEngineHolder;
+import com.example.zurivideosample.telemetry.CallTimings;
+import com.example.zurivideosample.telemetry.StartupTimings;
+import com.example.zurivideosample.telemetry.TelemetryStore;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+public class ZuriVideoApplication extends Application {
+    private TokenProvider mTokens;
+    private CallEngineHolder mEngineHolder;
+    private TelemetryStore mTelemetryStore;
+    private StartupTimings mStartup;
+    // Outlives the call screen, so its next instance can skip the probe.
+    private final LinkEstimateCache mLinkEstimates = new LinkEstimateCache();
+    // Shared by the journals of all call screens, so a new screen's
+    // journal is only opened once the previous one is closed.
+    private Executor mJournalExecutor;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Both processes join channels, so both need tokens. The token from
+        // the resources is used for every join. Swap in a provider that asks
+        // the token server for a token per uid, so they can be renewed
+        // before they expire.
+        mTokens = new StaticTokenProvider(getToken());
+        // The screen share service runs in a process of its own, which
+        // neither calls nor records: it needs none of what follows.
+        if (!getPackageName().equals(getCurrentProcessName())) {
+            return;
+        }
+        // Before N only the application's own start is known.
+        mStartup = new StartupTimings(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime());
+
+        // Nothing here may touch the SDK: its classes load the native
+        // libraries, which the holder leaves to a worker thread.
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mEngineHolder = new CallEngineHolder(new CallEngineHolder.Factory() {
+            @Override
+            public CallEngine create(IRtcEngineEventHandler handler) throws Exception {
+                return AgoraCallEngine.create(ZuriVideoApplication.this,
+                        getString(R.string.agora_app_id), handler);
+            }
+        }, new CallTimings(), mStartup, Executors.newSingleThreadExecutor(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        });
+        mTelemetryStore = new TelemetryStore(new File(getFilesDir(), TelemetryStore.FILE_NAME),
+                TelemetryStore.DEFAULT_CAPACITY, Executors.newSingleThreadExecutor());
+        mJournalExecutor = Executors.newSingleThreadExecutor();
+        mStartup.onApplicationCreated(SystemClock.elapsedRealtime());
+    }
+
+    public TokenProvider getTokenProvider() {
+        return mTokens;
+    }
+
+    public CallEngineHolder getEngineHolder() {
+        return mEngineHolder;
+    }
+
+    public TelemetryStore getTelemetryStore() {
+        return mTelemetryStore;
+    }
+
+    public StartupTimings getStartupTimings() {
+        return mStartup;
+    }
+
+    public LinkEstimateCache getLinkEstimateCache() {
+        return mLinkEstimates;
+    }
+
+    public Executor getJournalExecutor() {
+        return mJournalExecutor;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Once the UI is gone and no call screen holds the engine, give the
+        // native SDK's memory back. The next call pays for a cold start.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && mEngineHolder != null) {
+            mEngineHolder.destroyIfIdle();
+        }
+    }
+
+    private String getToken() {
+        String token = getString(R.string.agora_access_token);
+        if (TextUtils.isEmpty(token)){
+            token = null; // default, no token
+        }
+        return token;
+    }
+
+    private String getCurrentProcessName() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return Application.getProcessName();
+        }
+        ActivityManager manager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes =
+                manager != null ? manager.getRunningAppProcesses() : null;
+        if (processes != null) {
+            int pid = Process.myPid();
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pid == pid) {
+                    return process.processName;
+                }
+            }
+        }
+        // Not found: assume the main process rather than lose the call.
+        return getPackageName();
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.zurivideosample.audio;
+
+import com.example.zurivideosample.call.ConnectionSupervisor;
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.util.UidMap;
+import com.example.zurivideosample.video.VideoGridLayout;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Places each remote voice where its tile is and evens out their levels.
+ *
+ * A user's voice is panned by the column of their tile in the grid, so
+ * voices on the left of the screen come from the left. Users without a
+ * grid slot, such as the one pinned to the inset, are centered.
+ *
+ * Levels from onAudioVolumeIndication are smoothed per user while they
+ * speak, and the playback gain moves the long-term level towards a common
+ * target: a participant who shouts is turned down, a quiet one turned up.
+ * Playback can only be attenuated, so everyone plays at
+ * {@link #NOMINAL_GAIN} percent by default, leaving headroom for the
+ * quiet ones. Levels are taken as the SDK reports them for the received
+ * streams, independent of this mixer's gain.
+ *
+ * Changes are not sent as they happen. Users whose pan or gain moved are
+ * marked, and the SDK is called for them at most once per
+ * {@link #AUDIO_FRAME_MS}, the SDK's audio frame period; a layout change
+ * that moves every tile then costs one call per user, not one per step.
+ * Values the SDK already has are not sent again.
+ *
+ * Requires CallEngine.enableSoundPositionIndication(true) before joining.
+ * Not thread safe, all calls are expected on the UI thread.
+ */
+public class SpatialAudioMixer {
+
+    // The SDK mixes audio in 10 ms frames; parameters set more often than
+    // that are not heard anyway.
+    public static final int AUDIO_FRAME_MS = 10;
+
+    // Percent of the received volume, the SDK's scale for gain.
+    static final int NOMINAL_GAIN = 70;
+    static final int MIN_GAIN = 30;
+    static final int MAX_GAIN = 100;
+    // Smaller gain changes are not worth a call.
+    private static final int GAIN_STEP = 3;
+
+    // The far columns are not hard left and right, which sounds unnatural
+    // on headphones.
+    static final double MAX_PAN = 0.8;
+
+    // Volumes reported by the SDK range from 0 to 255. Below the speech
+    // level a user is taken to be silent and their estimate is kept.
+    static final float TARGET_LEVEL = 90f;
+    private static final float SPEECH_LEVEL = 20f;
+    // Per report, about every 200 ms: the estimate follows within a few
+    // seconds of speech, not within a word.
+    private static final float LEVEL_SMOOTHING = 0.1f;
+
+    private static final class Voice {
+        float level;
+        double pan;
+        int gain = NOMINAL_GAIN;
+        boolean dirty;
+        // What the SDK has, NaN and -1 for nothing yet.
+        double appliedPan = Double.NaN;
+        int appliedGain = -1;
+    }
+
+    private final CallEngine mEngine;
+    private final ConnectionSupervisor.Timer mTimer;
+    private final UidMap<Voice> mVoices = new UidMap<>(16);
+
+    private boolean mNormalizing = true;
+    private boolean mFlushScheduled;
+    private long mFlushedAtMs = Long.MIN_VALUE / 2;
+    private long mCalls;
+    private long mErrors;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    public SpatialAudioMixer(CallEngine engine, ConnectionSupervisor.Timer timer) {
+        mEngine = engine;
+        mTimer = timer;
+    }
+
+    /**
+     * Turns level normalization on or off; every voice is back at the
+     * nominal gain while it is off.
+     */
+    public void setNormalizing(boolean normalizing) {
+        if (mNormalizing == normalizing) {
+            return;
+        }
+        mNormalizing = normalizing;
+        for (int i = 0; i < mVoices.size(); i++) {
+            Voice voice = mVoices.valueAt(i);
+            setGain(voice, normalizing ? gainFor(voice.level) : NOMINAL_GAIN);
+        }
+        schedule();
+    }
+
+    /**
+     * Places the user's voice by their tile.
+     *
+     * @param slot  the tile's slot in the grid, numbered row by row as
+     *              {@link VideoGridLayout} lays them out, or -1 if it is not
+     *              in the grid
+     * @param count the slots in the grid
+     */
+    public void setPosition(int uid, int slot, int count) {
+        Voice voice = voice(uid);
+        double pan = panFor(slot, count);
+        if (voice.pan != pan) {
+            voice.pan = pan;
+            voice.dirty = true;
+            schedule();
+        }
+    }
+
+    public void removeUser(int uid) {
+        mVoices.remove(uid);
+    }
+
+    /**
+     * Reported by IRtcEngineEventHandler.onAudioVolumeIndication.
+     */
+    public void onAudioVolumeIndication(IRtcEngineEventHandler.AudioVolumeInfo[] speakers) {
+        if (speakers == null) {
+            return;
+        }
+        boolean changed = false;
+        for (IRtcEngineEventHandler.AudioVolumeInfo speaker : speakers) {
+            // The local user is reported as uid 0.
+            if (speaker.uid == 0 || speaker.volume < SPEECH_LEVEL) {
+                continue;
+            }
+            // Only users placed by setPosition: a report can still name
+            // someone who has just left, and their voice must stay gone.
+            Voice voice = mVoices.get(speaker.uid);
+            if (voice == null) {
+                continue;
+            }
+            voice.level = voice.level == 0f ? speaker.volume
+                    : voice.level + LEVEL_SMOOTHING * (speaker.volume - voice.level);
+            if (mNormalizing) {
+                changed |= setGain(voice, gainFor(voice.level));
+            }
+        }
+        if (changed) {
+            schedule();
+        }
+    }
+
+    /**
+     * Sends every voice again, after the engine lost them by leaving the
+     * channel.
+     */
+    public void reapplyAll() {
+        for (int i = 0; i < mVoices.size(); i++) {
+            Voice voice = mVoices.valueAt(i);
+            voice.appliedPan = Double.NaN;
+            voice.appliedGain = -1;
+            voice.dirty = true;
+        }
+        if (mVoices.size() > 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * Forgets every user, as when leaving the channel. The SDK drops the
+     * positions it had along with the users.
+     */
+    public void clear() {
+        mVoices.clear();
+        if (mFlushScheduled) {
+            mTimer.removeCallbacks(mFlushTask);
+            mFlushScheduled = false;
+        }
+    }
+
+    static double panFor(int slot, int count) {
+        if (slot < 0 || count <= 0) {
+            return 0;
+        }
+        int columns = VideoGridLayout.columnsFor(count);
+        if (columns == 1) {
+            return 0;
+        }
+        int column = slot % columns;
+        return ((column + 0.5) / columns * 2 - 1) * MAX_PAN;
+    }
+
+    static int gainFor(float level) {
+        if (level <= 0f) {
+            return NOMINAL_GAIN;
+        }
+        int gain = Math.round(NOMINAL_GAIN * TARGET_LEVEL / level);
+        return Math.max(MIN_GAIN, Math.min(MAX_GAIN, gain));
+    }
+
+    private Voice voice(int uid) {
+        Voice voice = mVoices.get(uid);
+        if (voice == null) {
+            voice = new Voice();
+            voice.dirty = true;
+            mVoices.put(uid, voice);
+            schedule();
+        }
+        return voice;
+    }
+
+    private boolean setGain(Voice voice, int gain) {
+        // Small moves are not worth a call, unless they reach a limit.
+        if (gain == voice.gain || (Math.abs(gain - voice.gain) < GAIN_STEP
+                && gain != MIN_GAIN && gain != MAX_GAIN && gain != NOMINAL_GAIN)) {
+            return false;
+        }
+        voice.gain = gain;
+        voice.dirty = true;
+        return true;
+    }
+
+    private void schedule() {
+        if (mFlushScheduled) {
+            return;
+        }
+        long now = mTimer.now();
+        mFlushScheduled = true;
+        mTimer.postDelayed(mFlushTask, Math.max(0, mFlushedAtMs + AUDIO_FRAME_MS - now));
+    }
+
+    private void flush() {
+        mFlushedAtMs = mTimer.now();
+        for (int i = 0; i < mVoices.size(); i++) {
+            Voice voice = mVoices.valueAt(i);
+            if (!voice.dirty) {
+                continue;
+            }
+            voice.dirty = false;
+            if (voice.pan == voice.appliedPan && voice.gain == voice.appliedGain) {
+                continue;
+            }
+            mCalls++;
+            if (mEngine.setRemoteVoicePosition(mVoices.keyAt(i), voice.pan, voice.gain) < 0) {
+                mErrors++;
+                continue;
+            }
+            voice.appliedPan = voice.pan;
+            voice.appliedGain = voice.gain;
+        }
+    }
+
+    /**
+     * The gain the user plays at, in percent, or -1 if unknown.
+     */
+    public int getGain(int uid) {
+        Voice voice = mVoices.get(uid);
+        return voice != null ? voice.gain : -1;
+    }
+
+    public double getPan(int uid) {
+        Voice voice = mVoices.get(uid);
+        return voice != null ? voice.pan : 0;
+    }
+
+    /**
+     * Calls made to the SDK.
+     */
+    public long getCallCount() {
+        return mCalls;
+    }
+
+    public long getErrorCount() {
+        return mErrors;
+    }
+
+    @Override
+    public String toString() {
+        return mVoices.size() + " voices, " + mCalls + " updates, " + mErrors + " errors";
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.zurivideosample.call;
+
+/**
+ * Keeps track of whether a call is running in the background and of what
+ * that saves.
+ *
+ * {@link CallController} does the actual work on every change: the camera
+ * stops, remote video is unsubscribed and the encoder drops to a keep-alive
+ * profile, and all of it comes back on return without rejoining. This
+ * class samples a {@link Meter} while the call runs and splits the process
+ * CPU time and battery current between foreground and background, so the
+ * savings can be estimated as what the background time would have cost at
+ * the foreground rate minus what it did cost.
+ *
+ * Not thread safe, all calls are expected on the UI thread.
+ */
+public class BackgroundGovernor {
+
+    /**
+     * Reads the resources the process is using.
+     */
+    public interface Meter {
+        /**
+         * CPU time used by the process so far.
+         */
+        long getCpuTimeMs();
+
+        /**
+         * Current battery draw, or {@link #UNKNOWN_CURRENT} if the device
+         * does not report it.
+         */
+        int getCurrentMicroAmps();
+    }
+
+    public static final int UNKNOWN_CURRENT = Integer.MIN_VALUE;
+
+    private static final int FOREGROUND = 0;
+    private static final int BACKGROUND = 1;
+
+    private Meter mMeter;
+    private boolean mBackground;
+    private boolean mActive;
+    private int mTransitions;
+
+    private long mLastSampleMs;
+    private long mLastCpuMs;
+    // Per state: wall time, CPU time, and the integral of battery current
+    // over the part of the wall time the current was known.
+    private final long[] mWallMs = new long[2];
+    private final long[] mCpuMs = new long[2];
+    private final double[] mMicroAmpMs = new double[2];
+    private final long[] mMeteredMs = new long[2];
+
+    public void setMeter(Meter meter) {
+        mMeter = meter;
+    }
+
+    /**
+     * Starts accounting for a call.
+     */
+    public void start(long nowMs) {
+        for (int i = 0; i < 2; i++) {
+            mWallMs[i] = 0;
+            mCpuMs[i] = 0;
+            mMicroAmpMs[i] = 0;
+            mMeteredMs[i] = 0;
+        }
+        mTransitions = 0;
+        mActive = true;
+        mLastSampleMs = nowMs;
+        mLastCpuMs = mMeter != null ? mMeter.getCpuTimeMs() : 0;
+    }
+
+    /**
+     * Closes the current interval. Called on every stats round, on every
+     * transition and when the call ends.
+     */
+    public void sample(long nowMs) {
+        if (!mActive) {
+            return;
+        }
+        int state = mBackground ? BACKGROUND : FOREGROUND;
+        long elapsed = nowMs - mLastSampleMs;
+        mWallMs[state] += elapsed;
+        if (mMeter != null) {
+            long cpu = mMeter.getCpuTimeMs();
+            mCpuMs[state] += cpu - mLastCpuMs;
+            mLastCpuMs = cpu;
+            int current = mMeter.getCurrentMicroAmps();
+            if (current != UNKNOWN_CURRENT && current != 0) {
+                // Devices disagree on the sign of a discharging current.
+                mMicroAmpMs[state] += (double) Math.abs(current) * elapsed;
+                mMeteredMs[state] += elapsed;
+            }
+        }
+        mLastSampleMs = nowMs;
+    }
+
+    /**
+     * @return true if this changed the state
+     */
+    public boolean setBackground(boolean background, long nowMs) {
+        if (mBackground == background) {
+            return false;
+        }
+        sample(nowMs);
+        mBackground = background;
+        if (mActive) {
+            mTransitions++;
+        }
+        return true;
+    }
+
+    public void stop(long nowMs) {
+        sample(nowMs);
+        mActive = false;
+    }
+
+    public boolean isBackground() {
+        return mBackground;
+    }
+
+    public int getTransitionCount() {
+        return mTransitions;
+    }
+
+    public long getBackgroundTimeMs() {
+        return mWallMs[BACKGROUND];
+    }
+
+    /**
+     * CPU time saved by running the background part of the call in the
+     * reduced mode, or 0 if there is no foreground time to compare with.
+     */
+    public long getCpuSavedMs() {
+        if (mWallMs[FOREGROUND] == 0) {
+            return 0;
+        }
+        double foregroundRate = (double) mCpuMs[FOREGROUND] / mWallMs[FOREGROUND];
+        return Math.max(0, Math.round(foregroundRate * mWallMs[BACKGROUND]) - mCpuMs[BACKGROUND]);
+    }
+
+    /**
+     * Battery charge saved the same way, in micro amp hours.
+     */
+    public long getChargeSavedMicroAmpHours() {
+        if (mMeteredMs[FOREGROUND] == 0 || mMeteredMs[BACKGROUND] == 0) {
+            return 0;
+        }
+        double foreground = mMicroAmpMs[FOREGROUND] / mMeteredMs[FOREGROUND];
+        double background = mMicroAmpMs[BACKGROUND] / mMeteredMs[BACKGROUND];
+        double saved = (foreground - background) * mWallMs[BACKGROUND] / 3600000d;
+        return Math.max(0, Math.round(saved));
+    }
+
+    @Override
+    public String toString() {
+        return "background " + mWallMs[BACKGROUND] + "ms over " + mTransitions
+                + " transitions, cpu saved " + getCpuSavedMs()
+                + "ms, charge saved " + getChargeSavedMicroAmpHours() + "uAh";
+    }
+}
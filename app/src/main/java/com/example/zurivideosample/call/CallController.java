@@ -0,0 +1,1305 @@
+package com.example.zurivideosample.call;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.SurfaceView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import com.example.zurivideosample.audio.SpatialAudioMixer;
+import com.example.zurivideosample.camera.Camera2Capturer;
+import com.example.zurivideosample.effects.I420Frame;
+import com.example.zurivideosample.effects.ProcessedVideoSource;
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.engine.CallEventDispatcher;
+import com.example.zurivideosample.messaging.CallMessenger;
+import com.example.zurivideosample.recording.CallRecorder;
+import com.example.zurivideosample.render.Snapshot;
+import com.example.zurivideosample.render.TileCompositor;
+import com.example.zurivideosample.telemetry.CallQualityRecorder;
+import com.example.zurivideosample.telemetry.CallSummary;
+import com.example.zurivideosample.telemetry.CallTimings;
+import com.example.zurivideosample.telemetry.TelemetryStore;
+import com.example.zurivideosample.R;
+import com.example.zurivideosample.util.UidMap;
+import com.example.zurivideosample.video.ActiveSpeaker;
+import com.example.zurivideosample.video.AudioOnlyFallback;
+import com.example.zurivideosample.video.EncoderProfile;
+import com.example.zurivideosample.video.EncoderProfileController;
+import com.example.zurivideosample.video.RemoteVideoGrid;
+import com.example.zurivideosample.video.RendererPool;
+import com.example.zurivideosample.video.SnapshotCache;
+import com.example.zurivideosample.video.SnapshotTier;
+import com.example.zurivideosample.video.SubscriptionScheduler;
+import com.example.zurivideosample.video.VideoGridLayout;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.video.VideoCanvas;
+
+/**
+ * The call itself: engine configuration, the local preview, the grid of
+ * remote tiles and everything the engine callbacks change about them.
+ *
+ * The activity owns the permissions, buttons and broadcast receivers and
+ * forwards to this class. Nothing here needs an Activity, so the same code
+ * runs in JVM tests and benchmarks against a fake {@link CallEngine}.
+ *
+ * All methods, and the event handler, must be called on the UI thread.
+ */
+public class CallController {
+    private static final String TAG = CallController.class.getSimpleName();
+
+    // Rooms routinely have 6-12 people; keep enough idle renderers around
+    // for that and create the first few before anyone joins.
+    public static final int MAX_POOLED_RENDERERS = 12;
+    public static final int PREWARMED_RENDERERS = 4;
+
+    // How often the SDK reports who is speaking, and how many reports
+    // it averages over.
+    private static final int VOLUME_INDICATION_INTERVAL_MS = 200;
+    private static final int VOLUME_INDICATION_SMOOTH = 3;
+
+    // After a rejoin, tiles of users who did not come back within this
+    // time are removed.
+    static final long STALE_TILE_TIMEOUT_MS = 5000;
+
+    // The mixed audio handed to a recording: one AAC frame's worth of
+    // samples per callback.
+    private static final int RECORDING_SAMPLE_RATE = 44100;
+    private static final int RECORDING_SAMPLES_PER_CALL = 1024;
+
+    public interface Listener {
+        /**
+         * The join went out, after any probe of the link. Secondary
+         * channels may be opened from now on.
+         */
+        void onJoining();
+
+        /**
+         * The server refused the call and it ended.
+         */
+        void onCallFailed(int reason);
+
+        /**
+         * The camera failed and could not be reopened. Others see the last
+         * frame until it comes back, at the latest when the screen returns
+         * to the foreground.
+         */
+        void onCameraFailed();
+    }
+
+    private final Context mContext;
+    private final ViewGroup mLocalContainer;
+    private final VideoGridLayout mRemoteGrid;
+    private final CallTimings mTimings;
+    private final TelemetryStore mTelemetryStore;
+    private final CallQualityRecorder mQuality = new CallQualityRecorder();
+    private final BackgroundGovernor mGovernor = new BackgroundGovernor();
+
+    private CallEngine mCallEngine;
+    private ConnectionSupervisor mSupervisor;
+    private Listener mListener;
+    private boolean mInCall;
+    private VideoCanvas mLocalVideo;
+    private RendererPool mRendererPool;
+    // Shows instead of the video of a user whose camera is off, in every
+    // channel.
+    private final RemoteVideoGrid.PlaceholderFactory mPlaceholderFactory =
+            new RemoteVideoGrid.PlaceholderFactory() {
+                @Override
+                public View create() {
+                    View view = new View(mContext);
+                    view.setBackgroundResource(R.color.teal_700);
+                    return view;
+                }
+            };
+    private RemoteVideoGrid mRemoteVideos;
+    private SubscriptionScheduler mSubscriptions;
+    // Which tiles are live and which show snapshots.
+    private SnapshotTier mSnapshots;
+    private ActiveSpeaker mActiveSpeaker;
+    // Only the active speaker is shown while in picture-in-picture.
+    private boolean mPictureInPicture;
+    private EncoderProfileController mEncoderProfiles;
+    private AudioOnlyFallback mFallback;
+    private ChannelSessionRegistry mChannels;
+    private String mChannelName;
+    // False while a secondary channel has the focus.
+    private boolean mVideoFocused = true;
+    // The remote tile currently swapped into the small local container.
+    private VideoCanvas mPinnedVideo;
+    // The uid this device's own screen share joins with, 0 for none.
+    private int mOwnScreenUid;
+    private CallRecorder mRecorder;
+    private CallMessenger mMessenger;
+    private SpatialAudioMixer mMixer;
+    // Measures the link before each join, if there is a cache for it.
+    private LinkEstimateCache mLinkEstimates;
+    private LastmileProbe mProbe;
+    // Draws the local preview and the primary channel's tiles, if set.
+    private TileCompositor mCompositor;
+    // Captures the camera for the SDK, if set.
+    private Camera2Capturer mCamera;
+    // Runs the camera's frames through effects, if set; recordings take
+    // their video from it too.
+    private ProcessedVideoSource mEffects;
+    // Whether the camera's frames currently come through the CPU.
+    private boolean mCpuCapture;
+
+    private final Camera2Capturer.FrameConsumer mEffectsInput = new Camera2Capturer.FrameConsumer() {
+        @Override
+        public void onFrame(I420Frame frame) {
+            mEffects.onFrame(frame);
+        }
+    };
+
+    // While rejoining, the remote users that were seen again.
+    private boolean mReconciling;
+    private final UidMap<Boolean> mConfirmed = new UidMap<>(MAX_POOLED_RENDERERS);
+
+    private final LastmileProbe.Listener mProbeListener = new LastmileProbe.Listener() {
+        @Override
+        public void onLinkEstimated(LinkEstimate estimate) {
+            if (estimate != null) {
+                int level = EncoderProfileController.levelForUplink(estimate.uplinkKbps,
+                        estimate.uplinkLossPercent, estimate.uplinkJitterMs);
+                Log.i(TAG, "Link before joining: " + estimate + ", starting on level " + level);
+                mEncoderProfiles.setStartLevel(level);
+            }
+            startJoin();
+        }
+    };
+
+    private final SnapshotTier.Host mSnapshotHost = new SnapshotTier.Host() {
+        @Override
+        public void setLive(int uid, boolean live) {
+            mSubscriptions.setVisible(uid, live, now());
+            mRemoteVideos.setLive(uid, live);
+        }
+
+        @Override
+        public void setCapturing(int uid, boolean capturing) {
+            mSubscriptions.setVisible(uid, capturing, now());
+        }
+
+        @Override
+        public boolean requestSnapshot(int uid) {
+            return mRemoteVideos.requestSnapshot(uid);
+        }
+
+        @Override
+        public Snapshot takeSnapshot(int uid) {
+            return mRemoteVideos.takeSnapshot(uid);
+        }
+
+        @Override
+        public void showSnapshot(int uid, Snapshot snapshot) {
+            mRemoteVideos.setSnapshot(uid, snapshot);
+        }
+    };
+
+    private final ActiveSpeaker.Listener mSpeakerListener = new ActiveSpeaker.Listener() {
+        @Override
+        public void onActiveSpeakerChanged(int uid) {
+            if (mPictureInPicture) {
+                showSpeaker(uid);
+            }
+        }
+    };
+
+    private final Runnable mStaleTileCheck = new Runnable() {
+        @Override
+        public void run() {
+            removeStaleTiles();
+        }
+    };
+
+    private final ConnectionSupervisor.Listener mConnectionListener = new ConnectionSupervisor.Listener() {
+        @Override
+        public void onRejoining(int attempt) {
+            mReconciling = true;
+            mConfirmed.clear();
+            mSupervisor.getTimer().removeCallbacks(mStaleTileCheck);
+        }
+
+        @Override
+        public void onReconnected(boolean rejoined, long latencyMs) {
+            if (rejoined) {
+                // Leaving the channel dropped the remote render bindings.
+                // Bind every tile again right away; users who are still in
+                // the channel show up in them as soon as they are decoded.
+                mRemoteVideos.rebindAll();
+                mMixer.reapplyAll();
+                mSupervisor.getTimer().postDelayed(mStaleTileCheck, STALE_TILE_TIMEOUT_MS);
+            }
+        }
+
+        @Override
+        public void onConnectionFailed(int reason) {
+            endCall();
+            if (mListener != null) {
+                mListener.onCallFailed(reason);
+            }
+        }
+    };
+
+    private final AudioOnlyFallback.Listener mFallbackListener = new AudioOnlyFallback.Listener() {
+        @Override
+        public void onLocalVideoSuspended(boolean suspended) {
+            Log.i(TAG, suspended ? "Uplink too poor, sending audio only" : "Sending video again");
+            mCallEngine.muteLocalVideoStream(suspended);
+        }
+
+        @Override
+        public void onRemoteVideoSuspended(boolean suspended) {
+            Log.i(TAG, suspended ? "Downlink too poor, receiving audio only" : "Receiving video again");
+            if (suspended && mPinnedVideo != null) {
+                // Put the local preview back in front of a placeholder.
+                swapLocalVideo();
+            }
+            updateRemoteSuspension(now());
+            mRemoteVideos.setAllSuspended(suspended);
+        }
+    };
+
+    // Engine callbacks are recorded by the engine holder's dispatcher on
+    // the SDK thread and replayed to this handler on the UI thread once per
+    // frame, so the methods below can touch views directly.
+    private final IRtcEngineEventHandler mRtcEventHandler = new IRtcEngineEventHandler() {
+        @Override
+        public void onJoinChannelSuccess(String channel, int uid, int elapsed) {
+//            mLogView.logI("Join channel success, uid: " + (uid & 0xFFFFFFFFL));
+            mTimings.onJoined(now());
+            mSupervisor.onJoinChannelSuccess(uid);
+        }
+
+        @Override
+        public void onRejoinChannelSuccess(String channel, int uid, int elapsed) {
+            mSupervisor.onRejoinChannelSuccess(uid);
+        }
+
+        @Override
+        public void onConnectionStateChanged(int state, int reason) {
+            mSupervisor.onConnectionStateChanged(state, reason);
+        }
+
+        @Override
+        public void onConnectionLost() {
+            mSupervisor.onConnectionLost();
+        }
+
+        @Override
+        public void onTokenPrivilegeWillExpire(String token) {
+            mSupervisor.onTokenPrivilegeWillExpire();
+        }
+
+        @Override
+        public void onRequestToken() {
+            mSupervisor.onRequestToken();
+        }
+
+        @Override
+        public void onUserJoined(int uid, int elapsed) {
+            if (uid == mOwnScreenUid) {
+                // Our own screen, sent from another engine. Never download it.
+                mCallEngine.muteRemoteVideoStream(uid, true);
+                return;
+            }
+            mQuality.onUserJoined(uid);
+            confirm(uid);
+        }
+
+        @Override
+        public void onFirstLocalVideoFrame(int width, int height, int elapsed) {
+            mTimings.onFirstLocalFrame(now());
+        }
+
+        @Override
+        public void onFirstRemoteVideoDecoded(int uid, int width, int height, int elapsed) {
+//            mLogView.logI("First remote video decoded, uid: " + (uid & 0xFFFFFFFFL));
+            if (mTimings.onFirstRemoteFrame(now())) {
+                Log.i(TAG, "Time to first frame: " + mTimings);
+            }
+            confirm(uid);
+            setupRemoteVideo(uid);
+        }
+
+
+        @Override
+        public void onRemoteVideoStateChanged(int uid, int state, int reason, int elapsed) {
+            // Show a placeholder while the user has their camera off.
+            if (mRemoteVideos == null) {
+                return;
+            }
+            if (reason == Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_MUTED) {
+                mRemoteVideos.setRemoteVideoMuted(uid, true);
+            } else if (reason == Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_UNMUTED) {
+                mRemoteVideos.setRemoteVideoMuted(uid, false);
+            }
+        }
+
+        @Override
+        public void onUserOffline(int uid, int reason) {
+//            mLogView.logI("User offline, uid: " + (uid & 0xFFFFFFFFL));
+            mQuality.onUserOffline(uid);
+            onRemoteUserLeft(uid);
+        }
+
+        @Override
+        public void onLastmileQuality(int quality) {
+            if (mProbe != null) {
+                mProbe.onLastmileQuality(quality);
+            }
+        }
+
+        @Override
+        public void onLastmileProbeResult(LastmileProbeResult result) {
+            if (mProbe != null) {
+                mProbe.onLastmileProbeResult(result);
+            }
+        }
+
+        @Override
+        public void onAudioVolumeIndication(AudioVolumeInfo[] speakers, int totalVolume) {
+            // Only the remote report says who is talking; in the local one
+            // every remote user would count as silent.
+            if (CallEventDispatcher.isLocalReport(speakers)) {
+                return;
+            }
+            if (mSubscriptions != null) {
+                mSubscriptions.onAudioVolumeIndication(speakers, now());
+            }
+            if (mSnapshots != null) {
+                mSnapshots.onAudioVolumeIndication(speakers);
+            }
+            if (mActiveSpeaker != null) {
+                mActiveSpeaker.onAudioVolumeIndication(speakers, now());
+            }
+            if (mMixer != null) {
+                mMixer.onAudioVolumeIndication(speakers);
+            }
+        }
+
+        @Override
+        public void onNetworkQuality(int uid, int txQuality, int rxQuality) {
+            mQuality.onNetworkQuality(uid, txQuality, rxQuality);
+            // uid 0 reports the local user's own link.
+            if (uid == 0 && mEncoderProfiles != null) {
+                mEncoderProfiles.onNetworkQuality(txQuality);
+                mFallback.onNetworkQuality(txQuality, rxQuality, now());
+            }
+        }
+
+        @Override
+        public void onLocalVideoStats(LocalVideoStats stats) {
+            mQuality.onLocalVideoStats(stats);
+            if (mEncoderProfiles != null) {
+                mEncoderProfiles.onLocalVideoStats(stats, now());
+            }
+        }
+
+        @Override
+        public void onRemoteVideoStats(RemoteVideoStats stats) {
+            mQuality.onRemoteVideoStats(stats);
+        }
+
+        @Override
+        public void onRtcStats(RtcStats stats) {
+            mQuality.onRtcStats(stats);
+            mGovernor.sample(now());
+            if (mFallback != null) {
+                mFallback.onPacketLoss(stats.txPacketLossRate, stats.rxPacketLossRate);
+            }
+        }
+
+        @Override
+        public void onLocalPublishFallbackToAudioOnly(boolean isFallbackOrRecover) {
+            if (mFallback != null) {
+                mFallback.onLocalPublishFallback(isFallbackOrRecover, now());
+            }
+        }
+
+        @Override
+        public void onRemoteSubscribeFallbackToAudioOnly(int uid, boolean isFallbackOrRecover) {
+            if (mRemoteVideos != null) {
+                mRemoteVideos.setAudioOnlyFallback(uid, isFallbackOrRecover);
+            }
+        }
+
+        @Override
+        public void onStreamMessage(int uid, int streamId, byte[] data) {
+            if (mMessenger != null) {
+                mMessenger.onStreamMessage(uid, streamId, data);
+            }
+        }
+
+        @Override
+        public void onStreamMessageError(int uid, int streamId, int error, int missed, int cached) {
+            Log.w(TAG, "Stream message error " + error + " from " + (uid & 0xFFFFFFFFL)
+                    + ", missed " + missed);
+            if (mMessenger != null) {
+                mMessenger.onStreamMessageError(uid, streamId, error, missed, cached);
+            }
+        }
+    };
+
+    /**
+     * @param context used to create renderer views
+     * @param localContainer shows the local preview, or a pinned remote tile
+     * @param remoteGrid shows a tile per remote user
+     * @param timings collects the time to first frame
+     * @param telemetryStore receives a quality summary after every call
+     */
+    public CallController(Context context, ViewGroup localContainer, VideoGridLayout remoteGrid,
+                          CallTimings timings, TelemetryStore telemetryStore) {
+        mContext = context;
+        mLocalContainer = localContainer;
+        mRemoteGrid = remoteGrid;
+        mTimings = timings;
+        mTelemetryStore = telemetryStore;
+    }
+
+    /**
+     * The handler to register with the engine. It may receive events
+     * before {@link #setup(CallEngine)} and ignores the ones it cannot use
+     * yet.
+     */
+    public IRtcEngineEventHandler getEventHandler() {
+        return mRtcEventHandler;
+    }
+
+    public CallEngine getEngine() {
+        return mCallEngine;
+    }
+
+    /**
+     * Sets who keeps the call connected. Must be called before
+     * {@link #setup(CallEngine)}. Its timer is the call's clock: every
+     * time the call logic sees comes from it, so a replay on the JVM runs
+     * on the replayed times.
+     */
+    public void setConnectionSupervisor(ConnectionSupervisor supervisor) {
+        mSupervisor = supervisor;
+        supervisor.setListener(mConnectionListener);
+    }
+
+    public ConnectionSupervisor getConnectionSupervisor() {
+        return mSupervisor;
+    }
+
+    private long now() {
+        return mSupervisor.getTimer().now();
+    }
+
+    /**
+     * Draws the local preview and the primary channel's remote video into
+     * the compositor's surface rather than a SurfaceView each. Breakout
+     * rooms keep their views. Must be called before {@link #setup(CallEngine)}.
+     */
+    public void setCompositor(TileCompositor compositor) {
+        mCompositor = compositor;
+    }
+
+    public TileCompositor getCompositor() {
+        return mCompositor;
+    }
+
+    /**
+     * Captures the local video with the capturer rather than the SDK's own
+     * camera, at whatever the encoder is set to. Must be called before
+     * {@link #setup(CallEngine)}.
+     */
+    public void setCameraCapturer(Camera2Capturer camera) {
+        mCamera = camera;
+        mCamera.setListener(new Camera2Capturer.Listener() {
+            @Override
+            public void onCameraFailed() {
+                if (mListener != null) {
+                    mListener.onCameraFailed();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the capturer's frames through the source's pipeline before the
+     * SDK encodes them. Needs a capturer, and must be called before
+     * {@link #setup(CallEngine)}. Frames only go through the CPU while a
+     * stage is enabled when the call is set up, or while recording.
+     */
+    public void setVideoEffects(ProcessedVideoSource effects) {
+        mEffects = effects;
+    }
+
+    public ProcessedVideoSource getVideoEffects() {
+        return mEffects;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public boolean isInCall() {
+        return mInCall;
+    }
+
+    public VideoCanvas getLocalVideo() {
+        return mLocalVideo;
+    }
+
+    public VideoCanvas getPinnedVideo() {
+        return mPinnedVideo;
+    }
+
+    public RemoteVideoGrid getRemoteVideos() {
+        return mRemoteVideos;
+    }
+
+    public RendererPool getRendererPool() {
+        return mRendererPool;
+    }
+
+    RemoteVideoGrid.PlaceholderFactory getPlaceholderFactory() {
+        return mPlaceholderFactory;
+    }
+
+    public SubscriptionScheduler getSubscriptions() {
+        return mSubscriptions;
+    }
+
+    public SnapshotTier getSnapshotTier() {
+        return mSnapshots;
+    }
+
+    public EncoderProfileController getEncoderProfiles() {
+        return mEncoderProfiles;
+    }
+
+    public AudioOnlyFallback getAudioOnlyFallback() {
+        return mFallback;
+    }
+
+    public BackgroundGovernor getBackgroundGovernor() {
+        return mGovernor;
+    }
+
+    /**
+     * The secondary channels of the call, and which channel has the focus.
+     */
+    public ChannelSessionRegistry getChannels() {
+        return mChannels;
+    }
+
+    /**
+     * The primary channel, null before the first join.
+     */
+    public String getChannelName() {
+        return mChannelName;
+    }
+
+    /**
+     * Sets the uid this device's screen share joins the channel with, so
+     * it gets no tile and its video is not subscribed. 0 for none.
+     */
+    public void setOwnScreenUid(int uid) {
+        mOwnScreenUid = uid;
+        if (uid == 0 || mCallEngine == null) {
+            return;
+        }
+        mCallEngine.muteRemoteVideoStream(uid, true);
+        if (mRemoteVideos.get(uid) != null) {
+            mQuality.onUserOffline(uid);
+            onRemoteUserLeft(uid);
+        }
+    }
+
+    /**
+     * Configures the engine and starts the local preview. Call once, before
+     * the first {@link #joinChannel(String, String)}.
+     */
+    public void setup(CallEngine engine) {
+        mCallEngine = engine;
+        mSupervisor.setEngine(engine);
+        setupVideoConfig();
+        setupLocalVideo();
+        setupRemoteVideoGrid();
+        mChannels = new ChannelSessionRegistry(this);
+        mMessenger = new CallMessenger(engine, mSupervisor.getTimer());
+        mMixer = new SpatialAudioMixer(engine, mSupervisor.getTimer());
+        if (mLinkEstimates != null) {
+            mProbe = new LastmileProbe(engine, mSupervisor.getTimer(), mLinkEstimates);
+        }
+    }
+
+    /**
+     * Probes the link before every join and starts the encoder on a profile
+     * it can carry, keeping the results per network in the cache. Set
+     * before {@link #setup}.
+     */
+    public void setLinkEstimateCache(LinkEstimateCache cache) {
+        mLinkEstimates = cache;
+    }
+
+    public LastmileProbe getProbe() {
+        return mProbe;
+    }
+
+    private void setupVideoConfig() {
+        // In simple use cases, we only need to enable video capturing
+        // and rendering once at the initialization step.
+        // Note: audio recording and playing is enabled by default.
+        mCallEngine.enableVideo();
+
+        // Please go to this page for detailed explanation
+        // https://docs.agora.io/en/Video/API%20Reference/java/classio_1_1agora_1_1rtc_1_1_rtc_engine.html#af5f4de754e2c1f493096641c5c5c1d8f
+        // The call starts at 640x360@15, or where a probe of the link before
+        // joining says it should. From there the controller moves the
+        // encoder up or down its ladder as the uplink, device temperature
+        // and room size change.
+        mEncoderProfiles = new EncoderProfileController(new EncoderProfileController.Listener() {
+            @Override
+            public void onProfileChanged(EncoderProfile profile) {
+                Log.i(TAG, "Encoder profile " + profile);
+                mCallEngine.setVideoEncoderConfiguration(profile.toConfiguration());
+                if (mCamera != null) {
+                    mCamera.setFormat(profile);
+                }
+            }
+        });
+        mCallEngine.setVideoEncoderConfiguration(mEncoderProfiles.getProfile().toConfiguration());
+        if (mCamera != null) {
+            // The camera captures at exactly the encoder's size and rate,
+            // so the SDK neither scales nor drops frames, and hands over
+            // textures rather than copies unless effects need the pixels.
+            mCamera.setFormat(mEncoderProfiles.getProfile());
+            setCapturePath(needsCpuCapture());
+            updateMirrorMode();
+        }
+
+        // Publish a low quality stream next to the normal one and subscribe
+        // to it by default. The subscription scheduler moves only the
+        // loudest speakers up to the high quality stream, which keeps
+        // decoding cost down in large rooms.
+        mCallEngine.enableDualStreamMode(true);
+        mCallEngine.setRemoteDefaultVideoStreamType(Constants.VIDEO_STREAM_LOW);
+        mCallEngine.enableAudioVolumeIndication(VOLUME_INDICATION_INTERVAL_MS, VOLUME_INDICATION_SMOOTH, false);
+        // Each voice is panned to where its tile is; see updateVoicePositions().
+        mCallEngine.enableSoundPositionIndication(true);
+
+        // When a link gets too poor for video, let the SDK drop to audio
+        // only right away rather than only to the low stream. The fallback
+        // policy then keeps video off until the link has been good for a
+        // while, so it does not blink on and off.
+        mCallEngine.setLocalPublishFallbackOption(Constants.STREAM_FALLBACK_OPTION_AUDIO_ONLY);
+        mCallEngine.setRemoteSubscribeFallbackOption(Constants.STREAM_FALLBACK_OPTION_AUDIO_ONLY);
+        mFallback = new AudioOnlyFallback(mFallbackListener);
+    }
+
+    private boolean needsCpuCapture() {
+        return mEffects != null
+                && (mRecorder != null || mEffects.getPipeline().hasEnabledStages());
+    }
+
+    private void updateCapturePath() {
+        if (mCamera != null && needsCpuCapture() != mCpuCapture) {
+            setCapturePath(!mCpuCapture);
+        }
+    }
+
+    // Moves the SDK's source between the camera's textures and the
+    // effects, with the capturer following.
+    private void setCapturePath(boolean cpu) {
+        mCpuCapture = cpu;
+        if (cpu) {
+            mCamera.setFrameConsumer(mEffectsInput, mEffects.getPool());
+            mCallEngine.setVideoSource(mEffects);
+        } else {
+            mCamera.setFrameConsumer(null, null);
+            mCallEngine.setVideoSource(mCamera.getSource());
+        }
+    }
+
+    private void setupLocalVideo() {
+        if (mCompositor != null) {
+            // The canvas only stands for the local tile, which the
+            // compositor draws in the local container's place.
+            mLocalVideo = new VideoCanvas(null, VideoCanvas.RENDER_MODE_HIDDEN, 0);
+            mCallEngine.setLocalVideoRenderer(mCompositor.getLocalSink());
+            startPreview();
+            return;
+        }
+        // This is used to set a local preview.
+        // The steps setting local and remote view are very similar.
+        // But note that if the local user do not have a uid or do
+        // not care what the uid is, he can set his uid as ZERO.
+        // Our server will assign one and return the uid via the event
+        // handler callback function (onJoinChannelSuccess) after
+        // joining the channel successfully.
+        SurfaceView view = mCallEngine.createRendererView(mContext);
+        view.setZOrderMediaOverlay(true);
+        mLocalContainer.addView(view);
+        // Initializes the local video view.
+        // RENDER_MODE_HIDDEN: Uniformly scale the video until it fills the visible boundaries. One dimension of the video may have clipped contents.
+        mLocalVideo = new VideoCanvas(view, VideoCanvas.RENDER_MODE_HIDDEN, 0);
+        mCallEngine.setupLocalVideo(mLocalVideo);
+        startPreview();
+    }
+
+    private void startPreview() {
+        // Start the camera before joining so it warms up while the join
+        // handshake is in flight.
+        setLocalVideoVisible(true);
+        mTimings.onPreviewStarted(now());
+        mCallEngine.startPreview();
+        if (mCamera != null) {
+            mCamera.start();
+        }
+    }
+
+    private void stopPreview() {
+        mCallEngine.stopPreview();
+        if (mCamera != null) {
+            mCamera.stop();
+        }
+    }
+
+    private void setupRemoteVideoGrid() {
+        mRendererPool = new RendererPool(new RendererPool.Factory() {
+            @Override
+            public SurfaceView create() {
+                return mCallEngine.createRendererView(mContext);
+            }
+        }, MAX_POOLED_RENDERERS);
+        mRemoteVideos = new RemoteVideoGrid(mRemoteGrid, mRendererPool, MAX_POOLED_RENDERERS);
+        mRemoteVideos.setEngine(mCallEngine);
+        mRemoteVideos.setCompositor(mCompositor);
+        mRemoteVideos.setPlaceholderFactory(mPlaceholderFactory);
+        mSubscriptions = new SubscriptionScheduler(mCallEngine);
+        mSnapshots = new SnapshotTier(mSnapshotHost, mSupervisor.getTimer(), new SnapshotCache());
+        mActiveSpeaker = new ActiveSpeaker(mSpeakerListener);
+    }
+
+    /**
+     * Creates the first renderers so they are ready when users start
+     * joining. Best called when the UI thread is idle.
+     */
+    public void prewarmRenderers() {
+        if (mCompositor != null) {
+            // Only breakout rooms still use views, created as they open.
+            return;
+        }
+        mRendererPool.prewarm(PREWARMED_RENDERERS);
+    }
+
+    public void joinChannel(String channelName) {
+        joinChannel(channelName, null);
+    }
+
+    /**
+     * Joins, after probing the link if there is a cache for estimates.
+     *
+     * @param network the network's name, see {@link NetworkKey}; null to
+     *                probe without caching
+     */
+    public void joinChannel(String channelName, String network) {
+        mQuality.start(System.currentTimeMillis(), now());
+        mGovernor.start(now());
+        mChannelName = channelName;
+        mInCall = true;
+        if (mProbe != null) {
+            // The preview is already running, so the camera warms up while
+            // the link is measured.
+            mProbe.start(network, mProbeListener);
+        } else {
+            startJoin();
+        }
+    }
+
+    private void startJoin() {
+        // 1. Users can only see each other after they join the
+        // same channel successfully using the same app id.
+        // 2. One token is only valid for the channel name that
+        // you use to generate this token. The supervisor gets it from
+        // its token provider.
+        mTimings.onJoinRequested(now());
+        mSupervisor.join(mChannelName);
+        if (mListener != null) {
+            mListener.onJoining();
+        }
+    }
+
+    private void leaveChannel() {
+        if (mProbe != null) {
+            mProbe.cancel();
+        }
+        mSupervisor.leave();
+        mInCall = false;
+        mReconciling = false;
+        mConfirmed.clear();
+        mSupervisor.getTimer().removeCallbacks(mStaleTileCheck);
+        if (mSupervisor.getRejoinCount() > 0 || mSupervisor.getReconnectLatency().getCount() > 0) {
+            Log.i(TAG, "Reconnects: " + mSupervisor.getReconnectLatency().getCount()
+                    + ", rejoins " + mSupervisor.getRejoinCount()
+                    + ", latency p50 " + mSupervisor.getReconnectLatency().percentile(50)
+                    + "ms, p99 " + mSupervisor.getReconnectLatency().percentile(99) + "ms");
+        }
+        mGovernor.stop(now());
+        if (mGovernor.getTransitionCount() > 0) {
+            Log.i(TAG, "In the background: " + mGovernor);
+        }
+        // Stats were only kept in histograms during the call; store one
+        // compact summary of it now.
+        CallSummary summary = mQuality.finish(now());
+        if (summary != null) {
+            Log.i(TAG, "Call quality: " + summary);
+            mTelemetryStore.save(summary);
+        }
+        if (mCompositor != null && mCompositor.getPacing().getShownCount() > 0) {
+            Log.i(TAG, "Frame pacing: " + mCompositor.getPacing());
+            mCompositor.getPacing().reset();
+        }
+        if (mMessenger.getSentMessages() > 0 || mMessenger.getReceivedMessages() > 0) {
+            Log.i(TAG, "Messages: " + mMessenger);
+        }
+        if (mCamera != null && mCamera.getSource().getSentCount() > 0) {
+            Log.i(TAG, "Camera: " + mCamera.getSource());
+        }
+        if (mEffects != null && mEffects.getPipeline().getFrameCount() > 0) {
+            for (int i = 0; i < mEffects.getPipeline().getStageCount(); i++) {
+                Log.i(TAG, "Effect " + mEffects.getPipeline().getStage(i));
+            }
+        }
+        mMessenger.clear();
+        mMixer.clear();
+    }
+
+    public void startCall(String channelName) {
+        startCall(channelName, null);
+    }
+
+    public void startCall(String channelName, String network) {
+        // The local view and its canvas survive endCall, so restarting only
+        // needs the camera and the join.
+        startPreview();
+        joinChannel(channelName, network);
+    }
+
+    public void endCall() {
+        if (!mInCall) {
+            return;
+        }
+        stopRecording();
+        mChannels.closeAll();
+        restoreLocalVideo();
+        mPinnedVideo = null;
+        mRemoteVideos.clear();
+        mSubscriptions.clear();
+        if (mSnapshots.getSnapshotCount() > 0) {
+            Log.i(TAG, "Snapshots: " + mSnapshots.getSnapshotCount() + " taken, "
+                    + mSnapshots.getCache());
+        }
+        mSnapshots.clear();
+        if (mFallback.isLocalVideoSuspended()) {
+            mCallEngine.muteLocalVideoStream(false);
+        }
+        mActiveSpeaker.clear();
+        mEncoderProfiles.setKeepAlive(false, now());
+        mFallback = new AudioOnlyFallback(mFallbackListener);
+        leaveChannel();
+        // Keep the view bound to the engine but release the camera.
+        stopPreview();
+        setLocalVideoVisible(false);
+    }
+
+    private void setLocalVideoVisible(boolean visible) {
+        if (mCompositor != null) {
+            mCompositor.setLocalVisible(visible);
+        } else {
+            mLocalVideo.view.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+        }
+    }
+
+    /**
+     * Starts recording the call's mixed audio and the outgoing video, after
+     * every effect, into an MP4 file.
+     *
+     * The video needs the camera's frames in memory, so while recording
+     * they come through the effects' source even with no effect enabled;
+     * the camera's session is recreated for it, a short hitch. Without a
+     * capturer and effects there is only the audio.
+     *
+     * @return false if not in a call, already recording, or the file
+     * cannot be created
+     */
+    public boolean startRecording(File file) {
+        if (!mInCall || mRecorder != null || !CallRecorder.isSupported()) {
+            return false;
+        }
+        boolean withVideo = mCamera != null && mEffects != null;
+        final CallRecorder recorder;
+        try {
+            recorder = new CallRecorder(file, withVideo);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot record to " + file, e);
+            return false;
+        }
+        mRecorder = recorder;
+        mCallEngine.setMixedAudioFrameParameters(RECORDING_SAMPLE_RATE, RECORDING_SAMPLES_PER_CALL);
+        mCallEngine.registerAudioFrameObserver(recorder.getAudioObserver());
+        recorder.start();
+        if (withVideo) {
+            mEffects.setFrameObserver(new ProcessedVideoSource.FrameObserver() {
+                @Override
+                public void onFrameSent(I420Frame frame) {
+                    recorder.onVideoFrame(frame);
+                }
+            });
+            updateCapturePath();
+        }
+        return true;
+    }
+
+    public void stopRecording() {
+        if (mRecorder == null) {
+            return;
+        }
+        mCallEngine.registerAudioFrameObserver(null);
+        final CallRecorder recorder = mRecorder;
+        mRecorder = null;
+        if (mEffects != null) {
+            mEffects.setFrameObserver(null);
+            updateCapturePath();
+        }
+        // Draining the encoders takes a moment; don't hold up the UI.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+            }
+        }, "RecordingStop").start();
+    }
+
+    /**
+     * Sends and receives messages to the others in the call. Available
+     * after {@link #setup}.
+     */
+    public CallMessenger getMessenger() {
+        return mMessenger;
+    }
+
+    public SpatialAudioMixer getMixer() {
+        return mMixer;
+    }
+
+    public CallRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Leaves any call and unbinds every view given to the engine. The
+     * engine itself outlives this controller.
+     */
+    public void release() {
+        if (mCallEngine == null) {
+            return;
+        }
+        stopRecording();
+        mChannels.closeAll();
+        if (mInCall) {
+            leaveChannel();
+        }
+        mRemoteVideos.clear();
+        mSnapshots.clear();
+        stopPreview();
+        if (mCamera != null) {
+            mCallEngine.setVideoSource(null);
+            mCamera.release();
+        }
+        if (mCompositor != null) {
+            mCallEngine.setLocalVideoRenderer(null);
+        } else {
+            mCallEngine.setupLocalVideo(new VideoCanvas(null, VideoCanvas.RENDER_MODE_HIDDEN, 0));
+        }
+    }
+
+    /**
+     * Called when the call screen stops being visible, and when it is
+     * visible again. In the background the camera is released, remote
+     * video is unsubscribed and only a keep-alive stream is sent; the
+     * channel itself is kept, so coming back needs no rejoin.
+     */
+    public void setInBackground(boolean background) {
+        long now = now();
+        if (!mGovernor.setBackground(background, now) || !mInCall) {
+            return;
+        }
+        if (background) {
+            stopPreview();
+        } else {
+            mCallEngine.startPreview();
+            if (mCamera != null) {
+                mCamera.start();
+            }
+        }
+        updateRemoteSuspension(now);
+        mChannels.setInBackground(background);
+        mEncoderProfiles.setKeepAlive(background, now);
+    }
+
+    /**
+     * Shows and subscribes to the primary channel's video, or detaches its
+     * tiles and keeps it audio only while another channel has the focus.
+     * Use {@link ChannelSessionRegistry#focus(String)} to move the focus.
+     */
+    void setVideoFocused(boolean focused) {
+        if (mVideoFocused == focused) {
+            return;
+        }
+        if (!focused && mPinnedVideo != null) {
+            swapLocalVideo();
+        }
+        mVideoFocused = focused;
+        updateRemoteSuspension(now());
+        mRemoteVideos.setAttached(focused);
+        updateVoicePositions();
+    }
+
+    private void updateRemoteSuspension(long nowMs) {
+        boolean suspended = !mVideoFocused || mGovernor.isBackground()
+                || mFallback.isRemoteVideoSuspended();
+        mSubscriptions.setVideoSuspended(suspended, nowMs);
+        // No snapshot is refreshed for tiles that are not drawn.
+        mSnapshots.setSuspended(suspended || mPictureInPicture);
+    }
+
+    /**
+     * Called when the call screen enters or leaves picture-in-picture. In
+     * the small window only the active speaker is shown, on the low
+     * stream, and follows whoever speaks; no other user is subscribed and
+     * the local preview is not rendered. The engine and the channel are
+     * kept, so expanding again only restores the layout.
+     */
+    public void setPictureInPicture(boolean pictureInPicture) {
+        if (mPictureInPicture == pictureInPicture || mActiveSpeaker == null) {
+            return;
+        }
+        mPictureInPicture = pictureInPicture;
+        long now = now();
+        if (pictureInPicture) {
+            showSpeaker(mActiveSpeaker.getUid());
+        } else {
+            mSubscriptions.setFocus(0, now);
+            mSnapshots.setPinned(mPinnedVideo != null ? mPinnedVideo.uid : 0);
+            if (mCompositor != null) {
+                mCompositor.setSolo(TileCompositor.NO_SOLO);
+                mCallEngine.setLocalVideoRenderer(mCompositor.getLocalSink());
+            }
+            updateVoicePositions();
+        }
+        updateRemoteSuspension(now);
+    }
+
+    public boolean isPictureInPicture() {
+        return mPictureInPicture;
+    }
+
+    private void showSpeaker(int uid) {
+        // Pinned in the tier, the speaker's tile is live rather than a
+        // snapshot, and the scheduler then subscribes to it alone.
+        mSnapshots.setPinned(uid);
+        mSubscriptions.setFocus(uid, now());
+        if (mCompositor != null) {
+            // Alone in the call, the preview is better than nothing.
+            mCompositor.setSolo(uid != 0 ? uid : TileCompositor.LOCAL_UID);
+            mCallEngine.setLocalVideoRenderer(uid != 0 ? null : mCompositor.getLocalSink());
+        }
+        updateVoicePositions();
+    }
+
+    public ActiveSpeaker getActiveSpeaker() {
+        return mActiveSpeaker;
+    }
+
+    /**
+     * Forwarded from the activity's onTrimMemory: snapshots are the first
+     * thing to give back.
+     */
+    public void onTrimMemory(int level) {
+        if (mSnapshots != null) {
+            mSnapshots.getCache().onTrimMemory(level);
+        }
+    }
+
+    public void setLocalAudioMuted(boolean muted) {
+        // Stops/Resumes sending the local audio stream.
+        mCallEngine.muteLocalAudioStream(muted);
+    }
+
+    public void switchCamera() {
+        // Switches between front and rear cameras.
+        if (mCamera == null) {
+            mCallEngine.switchCamera();
+            return;
+        }
+        mCamera.switchCamera();
+        updateMirrorMode();
+    }
+
+    // The SDK's camera mirrors the front camera's preview by itself; with
+    // our own it has to be told which one is in use.
+    private void updateMirrorMode() {
+        mCallEngine.setLocalVideoMirrorMode(mCamera.isFrontFacing()
+                ? Constants.VIDEO_MIRROR_MODE_ENABLED : Constants.VIDEO_MIRROR_MODE_DISABLED);
+    }
+
+    public void onBatteryTemperature(int tenthsOfDegree) {
+        if (mEncoderProfiles != null) {
+            mEncoderProfiles.onBatteryTemperature(tenthsOfDegree, now());
+        }
+    }
+
+    private void setupRemoteVideo(int uid) {
+        if (uid == mOwnScreenUid) {
+            return;
+        }
+        // Every remote user gets a tile in the grid. The views come from
+        // a pool, so repeated joins and leaves reuse the same SurfaceViews
+        // rather than creating new ones with RtcEngine.CreateRendererView.
+        if (mRemoteVideos.add(uid)) {
+            long now = now();
+            mSubscriptions.addUser(uid, now);
+            mSnapshots.addUser(uid);
+            mActiveSpeaker.addUser(uid, now);
+            mEncoderProfiles.onParticipantCount(mRemoteVideos.size() + 1, now);
+            updateVoicePositions();
+        }
+    }
+
+    private void onRemoteUserLeft(int uid) {
+        if (mPinnedVideo != null && mPinnedVideo.uid == uid) {
+            // The user shown in the small container left, put the local
+            // preview back there.
+            mPinnedVideo = null;
+            switchView(mLocalVideo);
+        }
+        if (mRemoteVideos.remove(uid)) {
+            long now = now();
+            mSubscriptions.removeUser(uid, now);
+            mSnapshots.removeUser(uid);
+            mActiveSpeaker.removeUser(uid, now);
+            mEncoderProfiles.onParticipantCount(mRemoteVideos.size() + 1, now);
+        }
+        mMixer.removeUser(uid);
+        updateVoicePositions();
+    }
+
+    // Every tile may have moved; the mixer only sends what changed.
+    private void updateVoicePositions() {
+        int count = mRemoteVideos.getSlotCount();
+        for (int i = 0; i < mRemoteVideos.size(); i++) {
+            int uid = mRemoteVideos.valueAt(i).uid;
+            mMixer.setPosition(uid, mRemoteVideos.getSlot(uid), count);
+        }
+    }
+
+    private void confirm(int uid) {
+        if (mReconciling) {
+            mConfirmed.put(uid, Boolean.TRUE);
+        }
+    }
+
+    private void removeStaleTiles() {
+        mReconciling = false;
+        for (int i = mRemoteVideos.size() - 1; i >= 0; i--) {
+            int uid = mRemoteVideos.valueAt(i).uid;
+            if (!mConfirmed.containsKey(uid)) {
+                Log.i(TAG, "User " + (uid & 0xFFFFFFFFL) + " did not come back after the rejoin");
+                mQuality.onUserOffline(uid);
+                onRemoteUserLeft(uid);
+            }
+        }
+        mConfirmed.clear();
+    }
+
+    private void restoreLocalVideo() {
+        // The local preview may have been swapped into the grid.
+        if (mCompositor != null) {
+            mCompositor.setPinned(TileCompositor.LOCAL_UID);
+        } else if (mLocalVideo.view.getParent() != mLocalContainer) {
+            removeFromParent(mLocalVideo);
+            ((SurfaceView) mLocalVideo.view).setZOrderMediaOverlay(true);
+            mLocalContainer.addView(mLocalVideo.view);
+        }
+    }
+
+    private ViewGroup removeFromParent(VideoCanvas canvas) {
+        if (canvas != null) {
+            ViewParent parent = canvas.view.getParent();
+            if (parent != null) {
+                ViewGroup group = (ViewGroup) parent;
+                group.removeView(canvas.view);
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private void switchView(VideoCanvas canvas) {
+        if (mCompositor != null) {
+            // Nothing to move, see swapLocalVideo().
+            return;
+        }
+        ViewGroup parent = removeFromParent(canvas);
+        if (parent == mLocalContainer) {
+            if (canvas.view instanceof SurfaceView) {
+                ((SurfaceView) canvas.view).setZOrderMediaOverlay(false);
+            }
+            mRemoteGrid.addView(canvas.view, 0);
+        } else if (parent == mRemoteGrid) {
+            if (canvas.view instanceof SurfaceView) {
+                ((SurfaceView) canvas.view).setZOrderMediaOverlay(true);
+            }
+            mLocalContainer.addView(canvas.view);
+        }
+    }
+
+    /**
+     * Swaps the local preview with the first remote tile, or swaps the
+     * pinned remote tile back into the grid. With a compositor this only
+     * changes where it draws the two tiles.
+     */
+    public void swapLocalVideo() {
+        // The grid shows another channel's tiles while this one is not
+        // focused.
+        if (mLocalVideo == null || (!mVideoFocused && mPinnedVideo == null)) {
+            return;
+        }
+        VideoCanvas remote = mPinnedVideo;
+        if (remote == null && mRemoteVideos != null) {
+            // Only a tile that shows video is worth pinning.
+            for (int i = 0; i < mRemoteVideos.size() && remote == null; i++) {
+                VideoCanvas canvas = mRemoteVideos.valueAt(i);
+                if (!mRemoteVideos.isShowingPlaceholder(canvas.uid)) {
+                    remote = canvas;
+                }
+            }
+        }
+        switchView(mLocalVideo);
+        if (remote != null) {
+            switchView(remote);
+        }
+        mPinnedVideo = mPinnedVideo == null ? remote : null;
+        if (mCompositor != null) {
+            mCompositor.setPinned(mPinnedVideo != null ? mPinnedVideo.uid : TileCompositor.LOCAL_UID);
+        }
+        if (!mPictureInPicture) {
+            mSnapshots.setPinned(mPinnedVideo != null ? mPinnedVideo.uid : 0);
+        }
+        updateVoicePositions();
+    }
+}
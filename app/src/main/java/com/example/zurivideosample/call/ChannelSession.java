@@ -0,0 +1,196 @@
+package com.example.zurivideosample.call;
+
+import android.util.Log;
+
+import com.example.zurivideosample.engine.CallChannel;
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.video.RemoteVideoGrid;
+import com.example.zurivideosample.video.RendererPool;
+import com.example.zurivideosample.video.SubscriptionScheduler;
+import com.example.zurivideosample.video.VideoGridLayout;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * One secondary channel of a call, such as a breakout room, joined next
+ * to the primary channel on the same engine.
+ *
+ * The session has its own tiles and its own subscription policy. Audio of
+ * every user is always subscribed. Video is only subscribed while the
+ * session is focused; otherwise its tiles are detached from the layout
+ * but stay bound, so focusing it again takes no rejoin and no new views.
+ *
+ * All methods, and the event handler, run on the UI thread.
+ */
+public class ChannelSession {
+    private static final String TAG = ChannelSession.class.getSimpleName();
+
+    private static final String OPTIONAL_INFO = "";
+    private static final int EXPECTED_USERS = 8;
+
+    private final String mChannelId;
+    private final CallChannel mChannel;
+    private final TokenProvider mTokens;
+    private final ConnectionSupervisor.Timer mTimer;
+    private final RemoteVideoGrid mVideos;
+    private final SubscriptionScheduler mSubscriptions;
+
+    private boolean mFocused;
+    private boolean mBackground;
+    private boolean mJoined;
+    private boolean mLeft;
+    private int mUid;
+
+    private final IRtcEngineEventHandler mEventHandler = new IRtcEngineEventHandler() {
+        @Override
+        public void onJoinChannelSuccess(String channel, int uid, int elapsed) {
+            mJoined = true;
+            mUid = uid;
+        }
+
+        @Override
+        public void onUserJoined(int uid, int elapsed) {
+            if (mLeft) {
+                return;
+            }
+            // Every user gets a tile right away; unfocused it is simply
+            // not in the layout.
+            if (mVideos.add(uid)) {
+                mSubscriptions.addUser(uid, mTimer.now());
+            }
+        }
+
+        @Override
+        public void onUserOffline(int uid, int reason) {
+            if (mVideos.remove(uid)) {
+                mSubscriptions.removeUser(uid, mTimer.now());
+            }
+        }
+
+        @Override
+        public void onRemoteVideoStateChanged(int uid, int state, int reason, int elapsed) {
+            // Show a placeholder while the user has their camera off.
+            if (mLeft) {
+                return;
+            }
+            if (reason == Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_MUTED) {
+                mVideos.setRemoteVideoMuted(uid, true);
+            } else if (reason == Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_UNMUTED) {
+                mVideos.setRemoteVideoMuted(uid, false);
+            }
+        }
+
+        @Override
+        public void onTokenPrivilegeWillExpire(String token) {
+            mTokens.fetchToken(mChannelId, mUid, new TokenProvider.Callback() {
+                @Override
+                public void onToken(String token) {
+                    if (!mLeft) {
+                        mChannel.renewToken(token);
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.w(TAG, "Failed to renew the token for " + mChannelId, e);
+                }
+            });
+        }
+    };
+
+    /**
+     * @return the session, or null if the engine could not create the
+     * channel, such as for an invalid name
+     */
+    static ChannelSession create(String channelId, CallEngine engine, TokenProvider tokens,
+                                 ConnectionSupervisor.Timer timer, RendererPool pool,
+                                 RemoteVideoGrid.PlaceholderFactory placeholders,
+                                 VideoGridLayout grid) {
+        ChannelSession session = new ChannelSession(channelId, engine, tokens, timer, pool,
+                placeholders, grid);
+        return session.mChannel != null ? session : null;
+    }
+
+    private ChannelSession(String channelId, CallEngine engine, TokenProvider tokens,
+                           ConnectionSupervisor.Timer timer, RendererPool pool,
+                           RemoteVideoGrid.PlaceholderFactory placeholders, VideoGridLayout grid) {
+        mChannelId = channelId;
+        mTokens = tokens;
+        mTimer = timer;
+        mChannel = engine.createChannel(channelId, mEventHandler);
+        if (mChannel == null) {
+            mVideos = null;
+            mSubscriptions = null;
+            return;
+        }
+        mVideos = new RemoteVideoGrid(grid, pool, EXPECTED_USERS);
+        mVideos.setEngine(engine);
+        mVideos.setChannelId(channelId);
+        mVideos.setPlaceholderFactory(placeholders);
+        mVideos.setAttached(false);
+        mSubscriptions = new SubscriptionScheduler(mChannel);
+        mSubscriptions.setVideoSuspended(true, mTimer.now());
+    }
+
+    /**
+     * Fetches a token and joins with a uid assigned by the server.
+     */
+    void join() {
+        mTokens.fetchToken(mChannelId, 0, new TokenProvider.Callback() {
+            @Override
+            public void onToken(String token) {
+                if (!mLeft) {
+                    mChannel.joinChannel(token, OPTIONAL_INFO, 0, false);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.w(TAG, "Failed to fetch a token for " + mChannelId, e);
+            }
+        });
+    }
+
+    void setFocused(boolean focused, long nowMs) {
+        if (mFocused == focused) {
+            return;
+        }
+        mFocused = focused;
+        mSubscriptions.setVideoSuspended(!mFocused || mBackground, nowMs);
+        mVideos.setAttached(focused);
+    }
+
+    void setInBackground(boolean background, long nowMs) {
+        mBackground = background;
+        mSubscriptions.setVideoSuspended(!mFocused || mBackground, nowMs);
+    }
+
+    void leave() {
+        mLeft = true;
+        mVideos.clear();
+        mSubscriptions.clear();
+        mChannel.leaveChannel();
+        mChannel.destroy();
+    }
+
+    public String getChannelId() {
+        return mChannelId;
+    }
+
+    public boolean isJoined() {
+        return mJoined && !mLeft;
+    }
+
+    public boolean isFocused() {
+        return mFocused;
+    }
+
+    public RemoteVideoGrid getRemoteVideos() {
+        return mVideos;
+    }
+
+    public SubscriptionScheduler getSubscriptions() {
+        return mSubscriptions;
+    }
+}
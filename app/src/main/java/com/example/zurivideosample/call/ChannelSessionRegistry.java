@@ -0,0 +1,162 @@
+package com.example.zurivideosample.call;
+
+import android.util.Log;
+
+import com.example.zurivideosample.telemetry.Histogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The channels a call is in: the primary one, run by {@link CallController},
+ * and any number of secondary ones such as breakout rooms, each a
+ * {@link ChannelSession} on the same engine.
+ *
+ * Exactly one channel is focused. Its tiles are in the grid and its video
+ * is subscribed; every other channel is audio only. Moving the focus only
+ * swaps tiles and subscriptions between channels that stay joined, so it
+ * costs no leave and rejoin.
+ *
+ * All methods must be called on the UI thread.
+ */
+public class ChannelSessionRegistry {
+    private static final String TAG = ChannelSessionRegistry.class.getSimpleName();
+
+    // Time a focus change takes on the UI thread, in microseconds.
+    private static final int[] SWITCH_BOUNDS_US = Histogram.linearBounds(250, 20000);
+
+    private final CallController mPrimary;
+    private final HashMap<String, ChannelSession> mSessions = new HashMap<>();
+    private final ArrayList<ChannelSession> mOrder = new ArrayList<>();
+    private final Histogram mSwitchTime = new Histogram(SWITCH_BOUNDS_US);
+
+    // Null while the primary channel is focused.
+    private ChannelSession mFocused;
+
+    ChannelSessionRegistry(CallController primary) {
+        mPrimary = primary;
+    }
+
+    /**
+     * Joins a secondary channel, audio only until it is focused.
+     *
+     * @return the new session, the existing one for the channel, or null
+     * if the channel cannot be joined next to the primary one
+     */
+    public ChannelSession open(String channelId) {
+        if (channelId.equals(mPrimary.getChannelName())) {
+            Log.w(TAG, channelId + " is the primary channel");
+            return null;
+        }
+        ChannelSession session = mSessions.get(channelId);
+        if (session != null) {
+            return session;
+        }
+        ConnectionSupervisor supervisor = mPrimary.getConnectionSupervisor();
+        session = ChannelSession.create(channelId, mPrimary.getEngine(),
+                supervisor.getTokenProvider(), supervisor.getTimer(),
+                mPrimary.getRendererPool(), mPrimary.getPlaceholderFactory(),
+                mPrimary.getRemoteVideos().getLayout());
+        if (session == null) {
+            Log.w(TAG, "Cannot create channel " + channelId);
+            return null;
+        }
+        mSessions.put(channelId, session);
+        mOrder.add(session);
+        session.setInBackground(mPrimary.getBackgroundGovernor().isBackground(),
+                supervisor.getTimer().now());
+        session.join();
+        return session;
+    }
+
+    /**
+     * Leaves a secondary channel. If it was focused, the primary channel
+     * gets the focus back.
+     */
+    public void close(String channelId) {
+        ChannelSession session = mSessions.remove(channelId);
+        if (session == null) {
+            return;
+        }
+        if (session == mFocused) {
+            focus(null);
+        }
+        mOrder.remove(session);
+        session.leave();
+    }
+
+    public void closeAll() {
+        focus(null);
+        for (int i = mOrder.size() - 1; i >= 0; i--) {
+            mOrder.get(i).leave();
+        }
+        mOrder.clear();
+        mSessions.clear();
+    }
+
+    /**
+     * Moves the focus to the channel, or to the primary channel for null
+     * or the primary channel's name.
+     */
+    public void focus(String channelId) {
+        ChannelSession target = null;
+        if (channelId != null && !channelId.equals(mPrimary.getChannelName())) {
+            target = mSessions.get(channelId);
+            if (target == null) {
+                throw new IllegalArgumentException("Not in channel " + channelId);
+            }
+        }
+        if (target == mFocused) {
+            return;
+        }
+        long start = System.nanoTime();
+        long now = mPrimary.getConnectionSupervisor().getTimer().now();
+        // Unsubscribe first, so the two channels never decode at once.
+        if (mFocused != null) {
+            mFocused.setFocused(false, now);
+        } else {
+            mPrimary.setVideoFocused(false);
+        }
+        if (target != null) {
+            target.setFocused(true, now);
+        } else {
+            mPrimary.setVideoFocused(true);
+        }
+        mFocused = target;
+        long micros = (System.nanoTime() - start) / 1000;
+        mSwitchTime.record((int) Math.min(micros, Integer.MAX_VALUE));
+        Log.i(TAG, "Focused " + (target != null ? target.getChannelId() : mPrimary.getChannelName())
+                + " in " + micros + "us");
+    }
+
+    void setInBackground(boolean background) {
+        long now = mPrimary.getConnectionSupervisor().getTimer().now();
+        for (int i = 0; i < mOrder.size(); i++) {
+            mOrder.get(i).setInBackground(background, now);
+        }
+    }
+
+    /**
+     * @return the focused secondary session, or null while the primary
+     * channel is focused
+     */
+    public ChannelSession getFocused() {
+        return mFocused;
+    }
+
+    public ChannelSession get(String channelId) {
+        return mSessions.get(channelId);
+    }
+
+    public int size() {
+        return mOrder.size();
+    }
+
+    public ChannelSession valueAt(int index) {
+        return mOrder.get(index);
+    }
+
+    public Histogram getSwitchTime() {
+        return mSwitchTime;
+    }
+}
@@ -0,0 +1,442 @@
+package com.example.zurivideosample.call;
+
+import android.util.Log;
+
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.telemetry.Histogram;
+
+import java.util.Random;
+
+import io.agora.rtc.Constants;
+
+/**
+ * Keeps the call connected across network handovers and token expiry.
+ *
+ * Short interruptions are left to the SDK, which reconnects on its own.
+ * When it gives up (the connection fails) or stays lost for too long, the
+ * supervisor leaves and joins the same channel again with the same uid, on
+ * a backoff schedule, while the call screen keeps its tiles in place.
+ * Tokens are renewed from the {@link TokenProvider} before they expire, and
+ * fetched again only when the server rejected the current one.
+ *
+ * A join or renewal the engine refuses straight away, such as for a bad
+ * token or argument, reports no callback; it is retried on the same
+ * backoff, with a token fetched again.
+ *
+ * The time from losing the connection to being connected again is recorded
+ * in {@link #getReconnectLatency()}.
+ *
+ * Must be used on the UI thread, where the engine events and timer tasks
+ * are delivered.
+ */
+public class ConnectionSupervisor {
+    private static final String TAG = ConnectionSupervisor.class.getSimpleName();
+
+    // Backoff between rejoin attempts. The first attempt is immediate.
+    static final long INITIAL_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 30000;
+    private static final double BACKOFF_JITTER = 0.2;
+    // A rejoin that has not connected by then has failed.
+    static final long JOIN_TIMEOUT_MS = 10000;
+    // onConnectionLost comes after 10s without a connection. Give the
+    // SDK's own reconnection this much longer before rejoining ourselves.
+    static final long STALL_TIMEOUT_MS = 5000;
+
+    private static final String OPTIONAL_INFO = "Extra Optional Data";
+
+    private static final int[] LATENCY_BOUNDS = {
+            100, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000, 7500,
+            10000, 15000, 20000, 30000, 45000, 60000
+    };
+
+    static final int STATE_IDLE = 0;
+    static final int STATE_JOINING = 1;
+    static final int STATE_CONNECTED = 2;
+    // The SDK is reconnecting by itself.
+    static final int STATE_INTERRUPTED = 3;
+    // We are leaving and joining again, or waiting to.
+    static final int STATE_REJOINING = 4;
+    // The server refused the call; only a new join() helps.
+    static final int STATE_FAILED = 5;
+
+    public interface Timer {
+        long now();
+
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    public interface Listener {
+        /**
+         * The channel is about to be left for another join. The screen
+         * should keep its tiles, they are restored on reconnection.
+         */
+        void onRejoining(int attempt);
+
+        /**
+         * @param rejoined whether the channel was left and joined again, in
+         *                 which case remote render bindings must be restored
+         */
+        void onReconnected(boolean rejoined, long latencyMs);
+
+        /**
+         * The server refused the call for good, for example because the
+         * user was banned or the app id is wrong.
+         */
+        void onConnectionFailed(int reason);
+    }
+
+    private final Timer mTimer;
+    private final TokenProvider mTokens;
+    private final Random mRandom;
+    private final Histogram mReconnectLatency = new Histogram(LATENCY_BOUNDS);
+
+    private CallEngine mEngine;
+    private Listener mListener;
+
+    private int mState = STATE_IDLE;
+    private String mChannel;
+    private int mUid;
+    private String mToken;
+    private boolean mHaveToken;
+    // Answers from the token provider for older requests are ignored.
+    private int mTokenRequest;
+    private int mRenewRequest;
+
+    private long mDisconnectedAt = -1;
+    private int mAttempt;
+    private boolean mRejoined;
+
+    private int mRejoinCount;
+    private int mTokenRenewals;
+    private int mRenewAttempt;
+
+    private final Runnable mRejoinTask = new Runnable() {
+        @Override
+        public void run() {
+            rejoin();
+        }
+    };
+
+    private final Runnable mRenewTask = new Runnable() {
+        @Override
+        public void run() {
+            renewToken();
+        }
+    };
+
+    private final Runnable mJoinTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Rejoin attempt " + mAttempt + " timed out");
+            scheduleRejoin();
+        }
+    };
+
+    public ConnectionSupervisor(Timer timer, TokenProvider tokens) {
+        this(timer, tokens, new Random());
+    }
+
+    /**
+     * @param random jitters the backoff, seeded for deterministic tests
+     */
+    public ConnectionSupervisor(Timer timer, TokenProvider tokens, Random random) {
+        mTimer = timer;
+        mTokens = tokens;
+        mRandom = random;
+    }
+
+    public void setEngine(CallEngine engine) {
+        mEngine = engine;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public Timer getTimer() {
+        return mTimer;
+    }
+
+    public TokenProvider getTokenProvider() {
+        return mTokens;
+    }
+
+    /**
+     * Fetches a token and joins the channel with a uid assigned by the
+     * server.
+     */
+    public void join(String channelName) {
+        cancelTasks();
+        mChannel = channelName;
+        mUid = 0;
+        mHaveToken = false;
+        mToken = null;
+        mDisconnectedAt = -1;
+        mAttempt = 0;
+        mRenewAttempt = 0;
+        mRejoined = false;
+        mState = STATE_JOINING;
+        joinWithToken();
+    }
+
+    public void leave() {
+        cancelTasks();
+        mTokenRequest++;
+        mRenewRequest++;
+        mState = STATE_IDLE;
+        mEngine.leaveChannel();
+    }
+
+    public boolean isConnected() {
+        return mState == STATE_CONNECTED;
+    }
+
+    int getState() {
+        return mState;
+    }
+
+    /**
+     * Our uid in the channel, 0 until the first join succeeded. Rejoins
+     * keep it, so other users see the same participant come back.
+     */
+    public int getUid() {
+        return mUid;
+    }
+
+    public Histogram getReconnectLatency() {
+        return mReconnectLatency;
+    }
+
+    public int getRejoinCount() {
+        return mRejoinCount;
+    }
+
+    public int getTokenRenewalCount() {
+        return mTokenRenewals;
+    }
+
+    // ---- Engine events ----
+
+    public void onJoinChannelSuccess(int uid) {
+        mUid = uid;
+        onConnected();
+    }
+
+    public void onRejoinChannelSuccess(int uid) {
+        onConnected();
+    }
+
+    public void onConnectionStateChanged(int state, int reason) {
+        if (mState == STATE_IDLE || mState == STATE_FAILED) {
+            return;
+        }
+        switch (state) {
+            case Constants.CONNECTION_STATE_CONNECTED:
+                onConnected();
+                break;
+            case Constants.CONNECTION_STATE_RECONNECTING:
+                onInterrupted();
+                break;
+            case Constants.CONNECTION_STATE_FAILED:
+                onFailed(reason);
+                break;
+            default:
+                // Connecting and disconnected also follow our own leave
+                // and join calls.
+                break;
+        }
+    }
+
+    public void onConnectionLost() {
+        onInterrupted();
+        if (mState == STATE_INTERRUPTED) {
+            mTimer.removeCallbacks(mRejoinTask);
+            mTimer.postDelayed(mRejoinTask, STALL_TIMEOUT_MS);
+        }
+    }
+
+    public void onTokenPrivilegeWillExpire() {
+        renewToken();
+    }
+
+    public void onRequestToken() {
+        // The token already expired. Renewing is still faster than a
+        // rejoin; if the server gives up first, onFailed rejoins.
+        renewToken();
+    }
+
+    // ---- Internals ----
+
+    private void onConnected() {
+        if (mState == STATE_IDLE || mState == STATE_FAILED || mState == STATE_CONNECTED) {
+            return;
+        }
+        cancelTasks();
+        mState = STATE_CONNECTED;
+        if (mDisconnectedAt >= 0) {
+            long latency = mTimer.now() - mDisconnectedAt;
+            mReconnectLatency.record((int) Math.min(latency, Integer.MAX_VALUE));
+            Log.i(TAG, (mRejoined ? "Rejoined" : "Reconnected") + " after " + latency
+                    + "ms, " + mAttempt + " attempts");
+            boolean rejoined = mRejoined;
+            mDisconnectedAt = -1;
+            mAttempt = 0;
+            mRejoined = false;
+            if (mListener != null) {
+                mListener.onReconnected(rejoined, latency);
+            }
+        }
+    }
+
+    private void onInterrupted() {
+        if (mState == STATE_CONNECTED) {
+            mState = STATE_INTERRUPTED;
+            mDisconnectedAt = mTimer.now();
+        }
+    }
+
+    private void onFailed(int reason) {
+        switch (reason) {
+            case Constants.CONNECTION_CHANGED_BANNED_BY_SERVER:
+            case Constants.CONNECTION_CHANGED_INVALID_APP_ID:
+            case Constants.CONNECTION_CHANGED_INVALID_CHANNEL_NAME:
+                Log.e(TAG, "Connection refused, reason " + reason);
+                cancelTasks();
+                mState = STATE_FAILED;
+                if (mListener != null) {
+                    mListener.onConnectionFailed(reason);
+                }
+                return;
+            case Constants.CONNECTION_CHANGED_INVALID_TOKEN:
+            case Constants.CONNECTION_CHANGED_TOKEN_EXPIRED:
+                // The only case where a rejoin waits for the token server.
+                mHaveToken = false;
+                mToken = null;
+                break;
+            default:
+                break;
+        }
+        if (mState != STATE_REJOINING) {
+            mAttempt = 0;
+        }
+        scheduleRejoin();
+    }
+
+    private void scheduleRejoin() {
+        if (mDisconnectedAt < 0) {
+            mDisconnectedAt = mTimer.now();
+        }
+        cancelTasks();
+        mState = STATE_REJOINING;
+        mTimer.postDelayed(mRejoinTask, backoff(mAttempt));
+    }
+
+    private long backoff(int attempt) {
+        if (attempt == 0) {
+            return 0;
+        }
+        long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(attempt - 1, 16));
+        double jitter = 1 + BACKOFF_JITTER * (2 * mRandom.nextDouble() - 1);
+        return (long) (delay * jitter);
+    }
+
+    private void rejoin() {
+        if (mDisconnectedAt < 0) {
+            mDisconnectedAt = mTimer.now();
+        }
+        mState = STATE_REJOINING;
+        mAttempt++;
+        mRejoined = true;
+        mRejoinCount++;
+        Log.i(TAG, "Rejoining " + mChannel + ", attempt " + mAttempt);
+        if (mListener != null) {
+            mListener.onRejoining(mAttempt);
+        }
+        mEngine.leaveChannel();
+        mTimer.postDelayed(mJoinTimeoutTask, JOIN_TIMEOUT_MS);
+        joinWithToken();
+    }
+
+    private void joinWithToken() {
+        if (mHaveToken) {
+            joinEngine(mToken);
+            return;
+        }
+        final int request = ++mTokenRequest;
+        mTokens.fetchToken(mChannel, mUid, new TokenProvider.Callback() {
+            @Override
+            public void onToken(String token) {
+                if (request != mTokenRequest) {
+                    return;
+                }
+                mToken = token;
+                mHaveToken = true;
+                joinEngine(token);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (request != mTokenRequest) {
+                    return;
+                }
+                Log.w(TAG, "Failed to fetch a token", e);
+                scheduleRejoin();
+            }
+        });
+    }
+
+    private void joinEngine(String token) {
+        int result = mEngine.joinChannel(token, mChannel, OPTIONAL_INFO, mUid);
+        if (result < 0) {
+            // Nothing will be reported for this attempt. The token may be
+            // what was wrong, so fetch another.
+            Log.w(TAG, "Join refused, error " + result);
+            mHaveToken = false;
+            mToken = null;
+            scheduleRejoin();
+        }
+    }
+
+    private void renewToken() {
+        if (mState == STATE_IDLE || mState == STATE_FAILED) {
+            return;
+        }
+        final int request = ++mRenewRequest;
+        mTokens.fetchToken(mChannel, mUid, new TokenProvider.Callback() {
+            @Override
+            public void onToken(String token) {
+                if (request != mRenewRequest) {
+                    return;
+                }
+                int result = mEngine.renewToken(token);
+                if (result < 0) {
+                    // Try again on the backoff while the current token
+                    // lasts; once it expires, the rejoin takes over.
+                    Log.w(TAG, "Token renewal refused, error " + result);
+                    mTimer.removeCallbacks(mRenewTask);
+                    mTimer.postDelayed(mRenewTask, backoff(++mRenewAttempt));
+                    return;
+                }
+                mToken = token;
+                mHaveToken = true;
+                mTokenRenewals++;
+                mRenewAttempt = 0;
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // Keep the current token. If it expires, the connection
+                // fails with TOKEN_EXPIRED and the rejoin fetches again.
+                Log.w(TAG, "Failed to renew the token", e);
+            }
+        });
+    }
+
+    private void cancelTasks() {
+        mTimer.removeCallbacks(mRejoinTask);
+        mTimer.removeCallbacks(mJoinTimeoutTask);
+        mTimer.removeCallbacks(mRenewTask);
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.zurivideosample.call;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Runs {@link ConnectionSupervisor} tasks on a Handler's thread, timed with
+ * the elapsed realtime clock.
+ */
+public class HandlerTimer implements ConnectionSupervisor.Timer {
+    private final Handler mHandler;
+
+    public HandlerTimer(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        mHandler.postDelayed(task, delayMs);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+}
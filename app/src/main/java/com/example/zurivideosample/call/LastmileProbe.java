@@ -0,0 +1,213 @@
+package com.example.zurivideosample.call;
+
+import android.util.Log;
+
+import com.example.zurivideosample.engine.CallEngine;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.internal.LastmileProbeConfig;
+
+/**
+ * Measures the link before joining, so the call can start with an encoder
+ * profile the uplink can carry instead of finding out by congesting it.
+ *
+ * Runs the SDK's last-mile probe test, which reports a quality rating
+ * after about two seconds and bandwidth, loss and jitter in each direction
+ * up to {@link #LATE_RESULT_MS} later. The caller waits for the full result
+ * up to {@link #PROBE_TIMEOUT_MS} and otherwise gets a guess from the
+ * rating. Either is kept in a {@link LinkEstimateCache} under the network's
+ * name, and while it is fresh later calls on the same network skip the
+ * probe; the cache keeps a guess only briefly.
+ *
+ * Other calls to the SDK while it probes may interrupt the probe, so the
+ * caller waits before joining. After the timeout the probe is left running
+ * while the call joins, and a result that still comes replaces the guess
+ * in the cache for the next call. All methods must be called on the UI
+ * thread, where the event handler forwards the probe's callbacks.
+ */
+public class LastmileProbe {
+    private static final String TAG = LastmileProbe.class.getSimpleName();
+
+    // The camera preview warms up meanwhile; past this the wait is felt.
+    public static final long PROBE_TIMEOUT_MS = 6000;
+    // When the SDK's full result is due at the latest.
+    public static final long LATE_RESULT_MS = 30000;
+
+    // Enough to tell whether the top of the encoder ladder fits, with
+    // audio and the low stream next to it.
+    private static final int EXPECTED_UPLINK_BPS = 2500000;
+    private static final int EXPECTED_DOWNLINK_BPS = 2500000;
+
+    // LastmileProbeResult.state values.
+    private static final int RESULT_COMPLETE = 1;
+
+    public interface Listener {
+        /**
+         * @param estimate what is known about the link, or null if nothing
+         */
+        void onLinkEstimated(LinkEstimate estimate);
+    }
+
+    private final CallEngine mEngine;
+    private final ConnectionSupervisor.Timer mTimer;
+    private final LinkEstimateCache mCache;
+
+    // The caller is waiting for the estimate.
+    private boolean mRunning;
+    // The SDK is probing, after the timeout too.
+    private boolean mProbing;
+    private String mNetwork;
+    private Listener mListener;
+    private int mQuality = Constants.QUALITY_UNKNOWN;
+    private long mStartedAtMs;
+    private long mLastDurationMs = -1;
+    private int mProbeCount;
+    private int mLateResultCount;
+
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "No probe result in time, rated " + mQuality);
+            // The SDK keeps probing for the next call on this network.
+            mTimer.postDelayed(mLateTimeout, LATE_RESULT_MS - PROBE_TIMEOUT_MS);
+            finish(LinkEstimate.fromQuality(mQuality));
+        }
+    };
+
+    private final Runnable mLateTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "No probe result at all");
+            stop();
+        }
+    };
+
+    public LastmileProbe(CallEngine engine, ConnectionSupervisor.Timer timer, LinkEstimateCache cache) {
+        mEngine = engine;
+        mTimer = timer;
+        mCache = cache;
+    }
+
+    /**
+     * Estimates the link of the given network, from the cache if it is
+     * fresh there, otherwise by probing. The listener may be called before
+     * this returns.
+     *
+     * @param network the network's name for the cache, or null to always
+     *                probe and not cache
+     */
+    public void start(String network, Listener listener) {
+        cancel();
+        LinkEstimate cached = mCache.get(network, mTimer.now());
+        if (cached != null) {
+            listener.onLinkEstimated(cached);
+            return;
+        }
+        LastmileProbeConfig config = new LastmileProbeConfig();
+        config.probeUplink = true;
+        config.probeDownlink = true;
+        config.expectedUplinkBitrate = EXPECTED_UPLINK_BPS;
+        config.expectedDownlinkBitrate = EXPECTED_DOWNLINK_BPS;
+        int result = mEngine.startLastmileProbeTest(config);
+        if (result < 0) {
+            Log.w(TAG, "Cannot probe the link: " + result);
+            listener.onLinkEstimated(null);
+            return;
+        }
+        mProbeCount++;
+        mRunning = true;
+        mProbing = true;
+        mNetwork = network;
+        mListener = listener;
+        mQuality = Constants.QUALITY_UNKNOWN;
+        mStartedAtMs = mTimer.now();
+        mTimer.postDelayed(mTimeout, PROBE_TIMEOUT_MS);
+    }
+
+    /**
+     * Stops probing without calling the listener, also after the timeout.
+     */
+    public void cancel() {
+        if (!mProbing) {
+            return;
+        }
+        stop();
+        mListener = null;
+    }
+
+    /**
+     * @return whether the caller is still waiting for the estimate
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Reported by IRtcEngineEventHandler.onLastmileQuality.
+     */
+    public void onLastmileQuality(int quality) {
+        if (mRunning) {
+            mQuality = quality;
+        }
+    }
+
+    /**
+     * Reported by IRtcEngineEventHandler.onLastmileProbeResult.
+     */
+    public void onLastmileProbeResult(IRtcEngineEventHandler.LastmileProbeResult result) {
+        if (mRunning) {
+            stop();
+            // Without a bandwidth estimate the rating is all there is.
+            finish(result.state == RESULT_COMPLETE ? LinkEstimate.from(result)
+                    : LinkEstimate.fromQuality(mQuality));
+        } else if (mProbing) {
+            stop();
+            if (result.state == RESULT_COMPLETE) {
+                LinkEstimate estimate = LinkEstimate.from(result);
+                Log.i(TAG, "Late probe result: " + estimate);
+                mLateResultCount++;
+                mCache.put(mNetwork, estimate, mTimer.now());
+            }
+        }
+    }
+
+    private void finish(LinkEstimate estimate) {
+        mRunning = false;
+        mTimer.removeCallbacks(mTimeout);
+        mLastDurationMs = mTimer.now() - mStartedAtMs;
+        mCache.put(mNetwork, estimate, mTimer.now());
+        Listener listener = mListener;
+        mListener = null;
+        listener.onLinkEstimated(estimate);
+    }
+
+    private void stop() {
+        mRunning = false;
+        mProbing = false;
+        mTimer.removeCallbacks(mTimeout);
+        mTimer.removeCallbacks(mLateTimeout);
+        mEngine.stopLastmileProbeTest();
+    }
+
+    /**
+     * How long the last probe took, -1 if none finished.
+     */
+    public long getLastDurationMs() {
+        return mLastDurationMs;
+    }
+
+    /**
+     * Probes started, calls served from the cache not included.
+     */
+    public int getProbeCount() {
+        return mProbeCount;
+    }
+
+    /**
+     * Full results that came after the timeout and went to the cache.
+     */
+    public int getLateResultCount() {
+        return mLateResultCount;
+    }
+}
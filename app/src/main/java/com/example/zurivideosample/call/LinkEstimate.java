@@ -0,0 +1,65 @@
+package com.example.zurivideosample.call;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * What the last-mile probe found out about the link to the SDK's servers,
+ * in each direction.
+ */
+public final class LinkEstimate {
+    // Uplinks assumed for each onLastmileQuality rating, in Kbps, when the
+    // probe gave no bandwidth. Indexed by Constants.QUALITY_*.
+    private static final int[] QUALITY_UPLINK_KBPS = {0, 2000, 1000, 500, 250, 120, 0};
+
+    public final int uplinkKbps;
+    public final int downlinkKbps;
+    public final int uplinkLossPercent;
+    public final int downlinkLossPercent;
+    public final int uplinkJitterMs;
+    public final int downlinkJitterMs;
+    public final int rttMs;
+    // False if only the quality rating was known.
+    public final boolean measured;
+
+    public LinkEstimate(int uplinkKbps, int downlinkKbps, int uplinkLossPercent, int downlinkLossPercent,
+                        int uplinkJitterMs, int downlinkJitterMs, int rttMs, boolean measured) {
+        this.uplinkKbps = uplinkKbps;
+        this.downlinkKbps = downlinkKbps;
+        this.uplinkLossPercent = uplinkLossPercent;
+        this.downlinkLossPercent = downlinkLossPercent;
+        this.uplinkJitterMs = uplinkJitterMs;
+        this.downlinkJitterMs = downlinkJitterMs;
+        this.rttMs = rttMs;
+        this.measured = measured;
+    }
+
+    /**
+     * From a complete onLastmileProbeResult, whose bandwidths are in bps.
+     */
+    public static LinkEstimate from(IRtcEngineEventHandler.LastmileProbeResult result) {
+        return new LinkEstimate(result.uplinkReport.availableBandwidth / 1000,
+                result.downlinkReport.availableBandwidth / 1000,
+                result.uplinkReport.packetLossRate, result.downlinkReport.packetLossRate,
+                result.uplinkReport.jitter, result.downlinkReport.jitter, result.rtt, true);
+    }
+
+    /**
+     * A rough guess from an onLastmileQuality rating, or null if it says
+     * nothing.
+     */
+    public static LinkEstimate fromQuality(int quality) {
+        if (quality <= Constants.QUALITY_UNKNOWN || quality >= QUALITY_UPLINK_KBPS.length) {
+            return null;
+        }
+        int kbps = QUALITY_UPLINK_KBPS[quality];
+        return new LinkEstimate(kbps, kbps, 0, 0, 0, 0, 0, false);
+    }
+
+    @Override
+    public String toString() {
+        return (measured ? "" : "rated ") + "up " + uplinkKbps + "Kbps " + uplinkLossPercent + "% loss "
+                + uplinkJitterMs + "ms jitter, down " + downlinkKbps + "Kbps " + downlinkLossPercent
+                + "% loss " + downlinkJitterMs + "ms jitter, rtt " + rttMs + "ms";
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.zurivideosample.call;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The last {@link LinkEstimate} of each network the device was on, so a
+ * call on a network probed a few minutes ago can skip the probe.
+ *
+ * Networks are named by the caller, for example by Wi-Fi SSID or cellular
+ * type; see {@link NetworkKey}. Estimates expire after a time to live, as
+ * the same network may be busier later. A guess from the quality rating
+ * alone expires after {@link #RATED_TTL_MS}, so the next call soon probes
+ * again and gets a measurement. Only the most recently used networks are
+ * kept.
+ *
+ * Kept for the life of the process. Not thread safe; times are passed in.
+ */
+public class LinkEstimateCache {
+    public static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+    public static final long RATED_TTL_MS = 60 * 1000;
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private static final class Entry {
+        final LinkEstimate estimate;
+        final long expiresAtMs;
+
+        Entry(LinkEstimate estimate, long expiresAtMs) {
+            this.estimate = estimate;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private final long mTtlMs;
+    private final LinkedHashMap<String, Entry> mEntries;
+    private int mHits;
+    private int mMisses;
+
+    public LinkEstimateCache() {
+        this(DEFAULT_TTL_MS, DEFAULT_CAPACITY);
+    }
+
+    public LinkEstimateCache(long ttlMs, final int capacity) {
+        mTtlMs = ttlMs;
+        mEntries = new LinkedHashMap<String, Entry>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the network's estimate, or null if there is none or it
+     * expired
+     */
+    public LinkEstimate get(String network, long nowMs) {
+        Entry entry = network != null ? mEntries.get(network) : null;
+        if (entry != null && nowMs >= entry.expiresAtMs) {
+            mEntries.remove(network);
+            entry = null;
+        }
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.estimate;
+    }
+
+    public void put(String network, LinkEstimate estimate, long nowMs) {
+        if (network != null && estimate != null) {
+            long ttlMs = estimate.measured ? mTtlMs : Math.min(mTtlMs, RATED_TTL_MS);
+            mEntries.put(network, new Entry(estimate, nowMs + ttlMs));
+        }
+    }
+
+    public void clear() {
+        mEntries.clear();
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public int getHits() {
+        return mHits;
+    }
+
+    public int getMisses() {
+        return mMisses;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.zurivideosample.call;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+/**
+ * Names the network the device is on, for {@link LinkEstimateCache}.
+ */
+public final class NetworkKey {
+    // What WifiInfo.getSSID() returns when the app may not know.
+    private static final String UNKNOWN_SSID = "<unknown ssid>";
+
+    private NetworkKey() {
+    }
+
+    /**
+     * "wifi:" and the SSID, "cellular:" and the radio type, "ethernet", or
+     * null when offline or when the network cannot be told apart from
+     * others. Since Android 8.1 the SSID needs location access, which the
+     * app does not ask for; without it a Wi-Fi network has no name, so one
+     * hotspot's estimate is not reused on another. From Android 6 the radio
+     * type is only known on 7 and later, with the phone state permission;
+     * otherwise every mobile network is just "cellular".
+     */
+    public static String current(Context context) {
+        ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) {
+            return null;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return legacy(context, connectivity);
+        }
+        Network network = connectivity.getActiveNetwork();
+        NetworkCapabilities capabilities = network != null
+                ? connectivity.getNetworkCapabilities(network) : null;
+        if (capabilities == null) {
+            return null;
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return wifi(context);
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return cellular(context);
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return "ethernet";
+        }
+        return "other";
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String legacy(Context context, ConnectivityManager connectivity) {
+        NetworkInfo info = connectivity.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return null;
+        }
+        switch (info.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                return wifi(context);
+            case ConnectivityManager.TYPE_MOBILE:
+                return "cellular:" + info.getSubtypeName();
+            default:
+                return info.getTypeName();
+        }
+    }
+
+    private static String wifi(Context context) {
+        WifiManager wifi = (WifiManager) context.getApplicationContext()
+                .getSystemService(Context.WIFI_SERVICE);
+        WifiInfo wifiInfo = wifi != null ? wifi.getConnectionInfo() : null;
+        String ssid = wifiInfo != null ? wifiInfo.getSSID() : null;
+        return ssid == null || UNKNOWN_SSID.equals(ssid) ? null : "wifi:" + ssid;
+    }
+
+    private static String cellular(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N
+                || context.checkSelfPermission(Manifest.permission.READ_PHONE_STATE)
+                != PackageManager.PERMISSION_GRANTED) {
+            return "cellular";
+        }
+        TelephonyManager telephony =
+                (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        // One of TelephonyManager's NETWORK_TYPE_ constants, 13 for LTE.
+        return telephony != null ? "cellular:" + telephony.getDataNetworkType() : "cellular";
+    }
+}
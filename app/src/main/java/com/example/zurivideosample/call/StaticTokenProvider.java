@@ -0,0 +1,18 @@
+package com.example.zurivideosample.call;
+
+/**
+ * Always answers with the same token, such as a temporary token from the
+ * Agora console, or null for projects without tokens.
+ */
+public class StaticTokenProvider implements TokenProvider {
+    private final String mToken;
+
+    public StaticTokenProvider(String token) {
+        mToken = token;
+    }
+
+    @Override
+    public void fetchToken(String channelName, int uid, Callback callback) {
+        callback.onToken(mToken);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.zurivideosample.call;
+
+/**
+ * Supplies access tokens for joining a channel, typically fetched from the
+ * app's token server.
+ *
+ * Providers may answer synchronously, from {@link #fetchToken}, when they
+ * have a valid token at hand; that is the fast path used on every rejoin.
+ * Otherwise they answer later, but always on the UI thread.
+ */
+public interface TokenProvider {
+    interface Callback {
+        /**
+         * @param token the token, or null if the project does not use tokens
+         */
+        void onToken(String token);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * @param uid the uid the token is for, 0 before the first join
+     */
+    void fetchToken(String channelName, int uid, Callback callback);
+}
@@ -0,0 +1,817 @@
+package com.example.zurivideosample.camera;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.hardware.display.DisplayManager;
+import android.media.Image;
+import android.media.ImageReader;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Display;
+import android.view.Surface;
+import android.view.WindowManager;
+
+import com.example.zurivideosample.effects.FramePool;
+import com.example.zurivideosample.effects.I420Frame;
+import com.example.zurivideosample.video.EncoderProfile;
+
+import java.util.Collections;
+
+/**
+ * Captures the camera with Camera2 for a {@link CameraVideoSource}, in
+ * place of the SDK's own capturer.
+ *
+ * The SDK's capturer opens the camera at a size of its choosing and scales
+ * every frame to the encoder's. Here the camera captures at the encoder's
+ * size and frame rate, or the nearest it has, and follows the encoder as
+ * it changes profile. Frames land in a SurfaceTexture and are pushed as
+ * its OES texture, never touching the CPU. Where they are wanted on the
+ * CPU, for effects or a recording, a {@link FrameConsumer} takes them in
+ * I420 instead, read from an ImageReader the camera fills in place of the
+ * texture.
+ *
+ * Opening a camera is what makes switching slow. Once the active camera
+ * is running, the other one is opened as well and kept idle, so a switch
+ * only needs a new capture session. Devices that cannot keep two cameras
+ * open fall back to opening on switch. A camera that fails is reopened
+ * after a backoff, and the listener hears if it cannot be.
+ *
+ * Everything runs on a capture thread of its own, which also owns the EGL
+ * context of the texture. The public methods may be called from any
+ * thread.
+ */
+public class Camera2Capturer {
+    private static final String TAG = Camera2Capturer.class.getSimpleName();
+
+    // Reopening a failed camera waits this long, doubling every attempt.
+    private static final long REOPEN_DELAY_MS = 500;
+    private static final int MAX_REOPEN_ATTEMPTS = 5;
+    // Images the camera can fill while the consumer works on one.
+    private static final int MAX_IMAGES = 3;
+
+    public interface Listener {
+        /**
+         * The camera could not be opened, or failed and could not be
+         * reopened. Capture resumes on the next {@link #start()}. Called
+         * on the UI thread.
+         */
+        void onCameraFailed();
+    }
+
+    /**
+     * Takes the camera's frames on the CPU, in place of the
+     * {@link CameraVideoSource}.
+     */
+    public interface FrameConsumer {
+        /**
+         * A frame from the pool given with the consumer, which goes back
+         * to it once the consumer is done. Called on the capture thread;
+         * the frame's timestamp is on the elapsed realtime clock.
+         */
+        void onFrame(I420Frame frame);
+    }
+
+    private final Context mContext;
+    private final CameraManager mManager;
+    private final CameraVideoSource mSource;
+    private final float[] mMatrix = new float[16];
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener mListener;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    // The facing last asked for, which the capture thread catches up with.
+    private volatile boolean mFrontRequested = true;
+
+    // Capture thread only from here on.
+    private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mEglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;
+    private final int[] mTexture = new int[1];
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mSurface;
+    private ImageReader mReader;
+    private int mReaderWidth;
+    private int mReaderHeight;
+    // What the session captures into: the texture's surface or the reader's.
+    private Surface mTarget;
+
+    private String mFrontId;
+    private String mBackId;
+    private boolean mFront = true;
+    private boolean mRunning;
+    private CameraDevice mActive;
+    // The other camera, opened ahead of a switch.
+    private CameraDevice mStandby;
+    private boolean mStandbyOpening;
+    private boolean mStandbyFailed;
+    private CameraCaptureSession mSession;
+    private int mReopenAttempts;
+    // Null while frames go out as textures.
+    private FrameConsumer mFrameConsumer;
+    private FramePool mFramePool;
+
+    // What the encoder wants, landscape, and what the camera gives.
+    private int mWidth = 640;
+    private int mHeight = 360;
+    private int mFrameRate = 15;
+    private int mCaptureWidth;
+    private int mCaptureHeight;
+    private Range<Integer> mFrameRateRange;
+    private int mRotation;
+    private boolean mRealtimeTimestamps;
+    private long mSwitchStartedNs = -1;
+
+    private final CameraDevice.StateCallback mCameraCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice camera) {
+            String wanted = mFront ? mFrontId : mBackId;
+            if (!mRunning || (mActive != null && mStandby != null)) {
+                camera.close();
+            } else if (camera.getId().equals(wanted) && mActive == null) {
+                mActive = camera;
+                mReopenAttempts = 0;
+                createSession();
+            } else {
+                mStandby = camera;
+                mStandbyOpening = false;
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            Log.w(TAG, "Camera " + camera.getId() + " disconnected");
+            boolean active = camera == mActive;
+            forget(camera);
+            if (active && mRunning) {
+                // Opening the standby may have pushed it out; do without.
+                mStandbyFailed = true;
+                if (mStandby != null) {
+                    mStandby.close();
+                    mStandby = null;
+                }
+                openActive();
+            }
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            Log.w(TAG, "Camera " + camera.getId() + " error " + error);
+            boolean active = camera == mActive
+                    || (mActive == null && camera.getId().equals(mFront ? mFrontId : mBackId));
+            forget(camera);
+            if (!active) {
+                // Most likely the device cannot keep both cameras open.
+                mStandbyFailed = true;
+                return;
+            }
+            if (!mRunning) {
+                return;
+            }
+            // Make room, in case the standby is what is in the way.
+            mStandbyFailed = true;
+            if (mStandby != null) {
+                mStandby.close();
+                mStandby = null;
+            }
+            if (error == CameraDevice.StateCallback.ERROR_CAMERA_DISABLED) {
+                // By policy: trying again will not help.
+                reportFailure();
+            } else {
+                scheduleReopen();
+            }
+        }
+    };
+
+    private final Runnable mReopen = new Runnable() {
+        @Override
+        public void run() {
+            if (mRunning && mActive == null) {
+                openActive();
+            }
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback mSessionCallback =
+            new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    if (!mRunning || session.getDevice() != mActive) {
+                        session.close();
+                        return;
+                    }
+                    mSession = session;
+                    startRepeating();
+                    openStandby();
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "Cannot configure a capture session");
+                    session.close();
+                }
+            };
+
+    private final SurfaceTexture.OnFrameAvailableListener mFrameListener =
+            new SurfaceTexture.OnFrameAvailableListener() {
+                @Override
+                public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                    // Latching frees the camera's buffer, pushed or not.
+                    surfaceTexture.updateTexImage();
+                    if (!mRunning || mSession == null) {
+                        return;
+                    }
+                    surfaceTexture.getTransformMatrix(mMatrix);
+                    long now = mRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+                    long captured = surfaceTexture.getTimestamp();
+                    if (mSource.onTextureFrame(mTexture[0], mCaptureWidth, mCaptureHeight, mRotation,
+                            mMatrix, captured, now) && mSwitchStartedNs >= 0) {
+                        mSource.onSwitched((System.nanoTime() - mSwitchStartedNs) / 1000000);
+                        mSwitchStartedNs = -1;
+                    }
+                }
+            };
+
+    private final ImageReader.OnImageAvailableListener mImageListener =
+            new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    Image image = reader.acquireLatestImage();
+                    if (image == null) {
+                        return;
+                    }
+                    try {
+                        if (!mRunning || mSession == null) {
+                            return;
+                        }
+                        long captured = image.getTimestamp();
+                        long age = (mRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime())
+                                - captured;
+                        I420Frame frame = mFramePool.acquire(image.getWidth(), image.getHeight());
+                        Image.Plane[] planes = image.getPlanes();
+                        for (int i = 0; i < 3; i++) {
+                            frame.copyPlaneFrom(i, planes[i].getBuffer(), planes[i].getRowStride(),
+                                    planes[i].getPixelStride());
+                        }
+                        frame.rotation = mRotation;
+                        frame.timestampMs = (SystemClock.elapsedRealtimeNanos() - age) / 1000000;
+                        mFrameConsumer.onFrame(frame);
+                        long now = mRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+                        mSource.onFramePushed(captured, now);
+                        if (mSwitchStartedNs >= 0) {
+                            mSource.onSwitched((System.nanoTime() - mSwitchStartedNs) / 1000000);
+                            mSwitchStartedNs = -1;
+                        }
+                    } finally {
+                        image.close();
+                    }
+                }
+            };
+
+    /**
+     * @param context an activity, or another context with a display, for
+     *                the display's rotation
+     */
+    public Camera2Capturer(Context context, CameraVideoSource source) {
+        mContext = context;
+        mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mSource = source;
+        try {
+            for (String id : mManager.getCameraIdList()) {
+                Integer facing = mManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+                if (facing == null) {
+                    continue;
+                }
+                if (facing == CameraCharacteristics.LENS_FACING_FRONT && mFrontId == null) {
+                    mFrontId = id;
+                } else if (facing == CameraCharacteristics.LENS_FACING_BACK && mBackId == null) {
+                    mBackId = id;
+                }
+            }
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Cannot list the cameras", e);
+        }
+        if (mFrontId == null) {
+            mFront = false;
+            mFrontRequested = false;
+        }
+    }
+
+    /**
+     * Whether the device has a camera with more than Camera2's legacy
+     * support, which is just the old API underneath and gains nothing.
+     */
+    public static boolean isSupported(Context context) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            for (String id : manager.getCameraIdList()) {
+                Integer level = manager.getCameraCharacteristics(id)
+                        .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+                if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                    return false;
+                }
+            }
+            return manager.getCameraIdList().length > 0;
+        } catch (CameraAccessException e) {
+            return false;
+        }
+    }
+
+    public CameraVideoSource getSource() {
+        return mSource;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Hands frames to the consumer in I420, from the pool, rather than to
+     * the source as textures; null goes back to textures. A running camera
+     * gets a new capture session for it.
+     */
+    public void setFrameConsumer(final FrameConsumer consumer, final FramePool pool) {
+        if (mHandler == null) {
+            mFrameConsumer = consumer;
+            mFramePool = pool;
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (consumer == mFrameConsumer) {
+                    return;
+                }
+                mFrameConsumer = consumer;
+                mFramePool = pool;
+                if (mActive != null) {
+                    createSession();
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the camera and starts pushing frames.
+     */
+    public void start() {
+        if (mThread == null) {
+            mThread = new HandlerThread("CameraCapture");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRunning) {
+                    return;
+                }
+                mRunning = true;
+                mReopenAttempts = 0;
+                if (!setUpTexture()) {
+                    mRunning = false;
+                    return;
+                }
+                openActive();
+            }
+        });
+    }
+
+    /**
+     * Closes both cameras, so other apps can have them.
+     */
+    public void stop() {
+        if (mHandler == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRunning = false;
+                closeCameras();
+            }
+        });
+    }
+
+    /**
+     * Captures at the profile's size and frame rate from now on. Only the
+     * repeating request changes if the camera's size stays the same.
+     */
+    public void setFormat(EncoderProfile profile) {
+        final int width = Math.max(profile.width, profile.height);
+        final int height = Math.min(profile.width, profile.height);
+        final int frameRate = profile.frameRate.getValue();
+        if (mHandler == null) {
+            mWidth = width;
+            mHeight = height;
+            mFrameRate = frameRate;
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (width == mWidth && height == mHeight && frameRate == mFrameRate) {
+                    return;
+                }
+                mWidth = width;
+                mHeight = height;
+                mFrameRate = frameRate;
+                if (mActive == null) {
+                    return;
+                }
+                int oldWidth = mCaptureWidth;
+                int oldHeight = mCaptureHeight;
+                if (!chooseFormat(mActive.getId())) {
+                    return;
+                }
+                if (mSession != null && oldWidth == mCaptureWidth && oldHeight == mCaptureHeight) {
+                    startRepeating();
+                } else {
+                    createSession();
+                }
+            }
+        });
+    }
+
+    /**
+     * Switches between the front and back cameras.
+     */
+    public void switchCamera() {
+        if (mHandler == null || mFrontId == null || mBackId == null) {
+            return;
+        }
+        mFrontRequested = !mFrontRequested;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFront = !mFront;
+                if (!mRunning) {
+                    return;
+                }
+                mSwitchStartedNs = System.nanoTime();
+                closeSession();
+                CameraDevice previous = mActive;
+                mActive = mStandby;
+                mStandby = null;
+                if (mActive != null) {
+                    // The usual case: the other camera is already open.
+                    mStandby = previous;
+                    createSession();
+                } else if (mStandbyOpening) {
+                    // It is about to be, and becomes the active one then.
+                    mStandbyOpening = false;
+                    mStandby = previous;
+                } else {
+                    // Free the camera first, the device may not hold two.
+                    if (previous != null) {
+                        previous.close();
+                    }
+                    openActive();
+                }
+            }
+        });
+    }
+
+    public boolean isFrontFacing() {
+        return mFrontRequested;
+    }
+
+    /**
+     * Closes the cameras and frees the texture and the capture thread.
+     */
+    public void release() {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRunning = false;
+                closeCameras();
+                tearDownTexture();
+            }
+        });
+        mThread.quitSafely();
+        mThread = null;
+        mHandler = null;
+    }
+
+    private void openActive() {
+        String id = mFront ? mFrontId : mBackId;
+        if (id == null) {
+            return;
+        }
+        try {
+            mManager.openCamera(id, mCameraCallback, mHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Cannot open camera " + id, e);
+            scheduleReopen();
+        } catch (SecurityException e) {
+            Log.e(TAG, "No permission for camera " + id, e);
+            reportFailure();
+        }
+    }
+
+    private void scheduleReopen() {
+        if (mReopenAttempts >= MAX_REOPEN_ATTEMPTS) {
+            reportFailure();
+            return;
+        }
+        long delay = REOPEN_DELAY_MS << mReopenAttempts;
+        mReopenAttempts++;
+        Log.i(TAG, "Reopening the camera in " + delay + "ms, attempt " + mReopenAttempts);
+        mHandler.removeCallbacks(mReopen);
+        mHandler.postDelayed(mReopen, delay);
+    }
+
+    private void reportFailure() {
+        Log.e(TAG, "Giving up on the camera");
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onCameraFailed();
+                }
+            }
+        });
+    }
+
+    // Opened only once the active camera runs, so it does not delay the
+    // first frame.
+    private void openStandby() {
+        if (mStandby != null || mStandbyOpening || mStandbyFailed) {
+            return;
+        }
+        String id = mFront ? mBackId : mFrontId;
+        if (id == null) {
+            return;
+        }
+        mStandbyOpening = true;
+        try {
+            mManager.openCamera(id, mCameraCallback, mHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            Log.e(TAG, "Cannot open camera " + id, e);
+            mStandbyOpening = false;
+            mStandbyFailed = true;
+        }
+    }
+
+    private void forget(CameraDevice camera) {
+        if (camera == mActive) {
+            closeSession();
+            mActive = null;
+        } else if (camera == mStandby) {
+            mStandby = null;
+        }
+        mStandbyOpening = false;
+        camera.close();
+    }
+
+    private void closeSession() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+    }
+
+    private void closeCameras() {
+        closeSession();
+        if (mActive != null) {
+            mActive.close();
+            mActive = null;
+        }
+        if (mStandby != null) {
+            mStandby.close();
+            mStandby = null;
+        }
+        mStandbyOpening = false;
+        mSwitchStartedNs = -1;
+        mHandler.removeCallbacks(mReopen);
+    }
+
+    private void createSession() {
+        closeSession();
+        if (!chooseFormat(mActive.getId())) {
+            return;
+        }
+        if (mFrameConsumer != null) {
+            if (mReader == null || mReaderWidth != mCaptureWidth || mReaderHeight != mCaptureHeight) {
+                if (mReader != null) {
+                    mReader.close();
+                }
+                mReader = ImageReader.newInstance(mCaptureWidth, mCaptureHeight, ImageFormat.YUV_420_888,
+                        MAX_IMAGES);
+                mReader.setOnImageAvailableListener(mImageListener, mHandler);
+                mReaderWidth = mCaptureWidth;
+                mReaderHeight = mCaptureHeight;
+            }
+            mTarget = mReader.getSurface();
+        } else {
+            if (mReader != null) {
+                mReader.close();
+                mReader = null;
+            }
+            mSurfaceTexture.setDefaultBufferSize(mCaptureWidth, mCaptureHeight);
+            mTarget = mSurface;
+        }
+        try {
+            mActive.createCaptureSession(Collections.singletonList(mTarget), mSessionCallback, mHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Cannot create a capture session", e);
+        }
+    }
+
+    private void startRepeating() {
+        try {
+            CaptureRequest.Builder builder = mActive.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            builder.addTarget(mTarget);
+            if (mFrameRateRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFrameRateRange);
+            }
+            mSession.setRepeatingRequest(builder.build(), null, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Cannot start capturing", e);
+        }
+    }
+
+    // Picks the size, frame rate range and rotation for the camera.
+    private boolean chooseFormat(String id) {
+        CameraCharacteristics characteristics;
+        try {
+            characteristics = mManager.getCameraCharacteristics(id);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Cannot read camera " + id, e);
+            return false;
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map == null ? null : mFrameConsumer != null
+                ? map.getOutputSizes(ImageFormat.YUV_420_888) : map.getOutputSizes(SurfaceTexture.class);
+        if (sizes == null || sizes.length == 0) {
+            return false;
+        }
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        int size = CaptureFormat.chooseSize(widths, heights, mWidth, mHeight);
+        mCaptureWidth = widths[size];
+        mCaptureHeight = heights[size];
+
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        mFrameRateRange = null;
+        if (ranges != null && ranges.length > 0) {
+            // Some devices list them in thousandths.
+            int scale = ranges[0].getUpper() > 1000 ? 1000 : 1;
+            int[] lowers = new int[ranges.length];
+            int[] uppers = new int[ranges.length];
+            for (int i = 0; i < ranges.length; i++) {
+                lowers[i] = ranges[i].getLower() / scale;
+                uppers[i] = ranges[i].getUpper() / scale;
+            }
+            mFrameRateRange = ranges[CaptureFormat.chooseFrameRateRange(lowers, uppers, mFrameRate)];
+        }
+
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        mRotation = CaptureFormat.frameRotation(orientation != null ? orientation : 0, displayRotation(),
+                id.equals(mFrontId));
+        Integer source = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        mRealtimeTimestamps = source != null
+                && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        Log.i(TAG, "Camera " + id + " at " + mCaptureWidth + "x" + mCaptureHeight + " " + mFrameRateRange
+                + " for " + mWidth + "x" + mHeight + "@" + mFrameRate);
+        return true;
+    }
+
+    private int displayRotation() {
+        Display display = getDisplay();
+        switch (display != null ? display.getRotation() : Surface.ROTATION_0) {
+            case Surface.ROTATION_90:
+                return 90;
+            case Surface.ROTATION_180:
+                return 180;
+            case Surface.ROTATION_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private Display getDisplay() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return getDefaultDisplay();
+        }
+        try {
+            return mContext.getDisplay();
+        } catch (UnsupportedOperationException e) {
+            // Not a context with a display of its own: take the built-in one.
+            DisplayManager displays = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+            return displays != null ? displays.getDisplay(Display.DEFAULT_DISPLAY) : null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private Display getDefaultDisplay() {
+        WindowManager windowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        return windowManager.getDefaultDisplay();
+    }
+
+    // A context of our own with a 1x1 surface, current on the capture
+    // thread, and the texture the camera draws into.
+    private boolean setUpTexture() {
+        if (mSurfaceTexture != null) {
+            return true;
+        }
+        mEglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEglDisplay, version, 0, version, 1)) {
+            Log.e(TAG, "Cannot initialize EGL");
+            return false;
+        }
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        if (!EGL14.eglChooseConfig(mEglDisplay, configAttributes, 0, configs, 0, 1, count, 0)
+                || count[0] == 0) {
+            Log.e(TAG, "No EGL config");
+            return false;
+        }
+        mEglContext = EGL14.eglCreateContext(mEglDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
+                new int[]{EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE}, 0);
+        mEglSurface = EGL14.eglCreatePbufferSurface(mEglDisplay, configs[0],
+                new int[]{EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE}, 0);
+        if (!EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mEglContext)) {
+            Log.e(TAG, "Cannot make the EGL context current");
+            return false;
+        }
+
+        GLES20.glGenTextures(1, mTexture, 0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTexture[0]);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        mSurfaceTexture = new SurfaceTexture(mTexture[0]);
+        mSurfaceTexture.setOnFrameAvailableListener(mFrameListener, mHandler);
+        mSurface = new Surface(mSurfaceTexture);
+        return true;
+    }
+
+    private void tearDownTexture() {
+        if (mReader != null) {
+            mReader.close();
+            mReader = null;
+        }
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        if (mTexture[0] != 0) {
+            GLES20.glDeleteTextures(1, mTexture, 0);
+            mTexture[0] = 0;
+        }
+        if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(mEglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroySurface(mEglDisplay, mEglSurface);
+            EGL14.eglDestroyContext(mEglDisplay, mEglContext);
+            EGL14.eglTerminate(mEglDisplay);
+            mEglDisplay = EGL14.EGL_NO_DISPLAY;
+            mEglContext = EGL14.EGL_NO_CONTEXT;
+            mEglSurface = EGL14.EGL_NO_SURFACE;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.zurivideosample.camera;
+
+import com.example.zurivideosample.telemetry.Histogram;
+
+import io.agora.rtc.mediaio.IVideoFrameConsumer;
+import io.agora.rtc.mediaio.IVideoSource;
+import io.agora.rtc.mediaio.MediaIO;
+
+/**
+ * A custom video source for the camera that hands the SDK OES textures.
+ *
+ * The camera draws into a SurfaceTexture, and each frame goes to the SDK
+ * as that texture with its transform, so no frame is read back, converted
+ * or copied on the CPU. Frames arriving while the SDK is not consuming are
+ * dropped. When the frames are wanted on the CPU instead, the capturer
+ * hands them to its {@link Camera2Capturer.FrameConsumer}, which is then
+ * the SDK's source, and only reports them here to be measured.
+ *
+ * Measures how long frames take from the sensor to the SDK, and how long
+ * a camera switch takes until the other camera's first frame is pushed.
+ *
+ * {@link #onTextureFrame} and {@link #onSwitched} must be called on the
+ * capture thread, with the texture's EGL context current.
+ */
+public class CameraVideoSource implements IVideoSource {
+    // Capture-to-push latency, in milliseconds.
+    private final Histogram mLatency = new Histogram(Histogram.linearBounds(2, 100));
+    private final Histogram mSwitchTimes = new Histogram(Histogram.linearBounds(50, 2000));
+
+    private volatile IVideoFrameConsumer mConsumer;
+    private volatile boolean mStarted;
+    private long mSent;
+    private long mDropped;
+
+    /**
+     * Delivers a frame, if the SDK is consuming.
+     *
+     * @param matrix    the SurfaceTexture's transform for this frame
+     * @param captureNs when the sensor exposed the frame
+     * @param nowNs     the same clock now
+     * @return whether the frame was passed on
+     */
+    public boolean onTextureFrame(int textureId, int width, int height, int rotation, float[] matrix,
+                                  long captureNs, long nowNs) {
+        IVideoFrameConsumer consumer = mConsumer;
+        if (!mStarted || consumer == null) {
+            mDropped++;
+            return false;
+        }
+        consumer.consumeTextureFrame(textureId, MediaIO.PixelFormat.TEXTURE_OES.intValue(), width, height,
+                rotation, captureNs / 1000000, matrix);
+        onFramePushed(captureNs, nowNs);
+        return true;
+    }
+
+    /**
+     * Counts a frame that went to the SDK some other way, such as through
+     * the capturer's frame consumer.
+     */
+    void onFramePushed(long captureNs, long nowNs) {
+        mLatency.record((int) Math.max(0, (nowNs - captureNs) / 1000000));
+        mSent++;
+    }
+
+    /**
+     * Reported when the first frame of the other camera was pushed after a
+     * switch.
+     */
+    public void onSwitched(long durationMs) {
+        mSwitchTimes.record((int) durationMs);
+    }
+
+    public Histogram getLatency() {
+        return mLatency;
+    }
+
+    public Histogram getSwitchTimes() {
+        return mSwitchTimes;
+    }
+
+    public long getSentCount() {
+        return mSent;
+    }
+
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    @Override
+    public boolean onInitialize(IVideoFrameConsumer consumer) {
+        mConsumer = consumer;
+        return true;
+    }
+
+    @Override
+    public boolean onStart() {
+        mStarted = true;
+        return true;
+    }
+
+    @Override
+    public void onStop() {
+        mStarted = false;
+    }
+
+    @Override
+    public void onDispose() {
+        mConsumer = null;
+    }
+
+    @Override
+    public int getBufferType() {
+        return MediaIO.BufferType.TEXTURE.intValue();
+    }
+
+    @Override
+    public int getCaptureType() {
+        return MediaIO.CaptureType.CAMERA.intValue();
+    }
+
+    @Override
+    public int getContentHint() {
+        return MediaIO.ContentHint.NONE.intValue();
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + mSent + ", dropped " + mDropped + ", latency p50 " + mLatency.percentile(50)
+                + "ms p99 " + mLatency.percentile(99) + "ms, " + mSwitchTimes.getCount()
+                + " switches p50 " + mSwitchTimes.percentile(50) + "ms max " + mSwitchTimes.getMax() + "ms";
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.zurivideosample.camera;
+
+/**
+ * Picks what a camera captures at, given what the encoder is set to.
+ *
+ * Sizes are in the sensor's landscape orientation, the way cameras list
+ * them; the frame's rotation turns them upright afterwards.
+ */
+public final class CaptureFormat {
+    private CaptureFormat() {
+    }
+
+    /**
+     * The output size closest to the encoder's: the exact size if the
+     * camera has it, otherwise the smallest one that covers it with the
+     * nearest aspect ratio, so the SDK only crops or scales down. Failing
+     * that, the largest there is.
+     *
+     * @param width  the encoder's longer edge
+     * @param height the encoder's shorter edge
+     * @return an index into the arrays, -1 if they are empty
+     */
+    public static int chooseSize(int[] widths, int[] heights, int width, int height) {
+        int best = -1;
+        int largest = -1;
+        float aspect = (float) width / height;
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] == width && heights[i] == height) {
+                return i;
+            }
+            if (largest < 0 || widths[i] * heights[i] > widths[largest] * heights[largest]) {
+                largest = i;
+            }
+            if (widths[i] < width || heights[i] < height) {
+                continue;
+            }
+            if (best < 0) {
+                best = i;
+                continue;
+            }
+            float error = Math.abs((float) widths[i] / heights[i] - aspect);
+            float bestError = Math.abs((float) widths[best] / heights[best] - aspect);
+            if (error < bestError - 0.01f
+                    || (error < bestError + 0.01f && widths[i] * heights[i] < widths[best] * heights[best])) {
+                best = i;
+            }
+        }
+        return best >= 0 ? best : largest;
+    }
+
+    /**
+     * The auto-exposure frame rate range to ask for: the one whose top is
+     * closest to the encoder's rate without going under it, and of those
+     * the one with the lowest bottom, so exposure can lengthen in low
+     * light rather than the picture going dark.
+     *
+     * @return an index into the arrays, -1 if they are empty
+     */
+    public static int chooseFrameRateRange(int[] lowers, int[] uppers, int frameRate) {
+        int best = -1;
+        for (int i = 0; i < uppers.length; i++) {
+            if (best < 0) {
+                best = i;
+                continue;
+            }
+            boolean covers = uppers[i] >= frameRate;
+            boolean bestCovers = uppers[best] >= frameRate;
+            if (covers != bestCovers) {
+                if (covers) {
+                    best = i;
+                }
+                continue;
+            }
+            int distance = Math.abs(uppers[i] - frameRate);
+            int bestDistance = Math.abs(uppers[best] - frameRate);
+            if (distance < bestDistance || (distance == bestDistance && lowers[i] < lowers[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The clockwise rotation that turns a frame upright on screen.
+     *
+     * @param sensorOrientation CameraCharacteristics.SENSOR_ORIENTATION
+     * @param displayRotation   the display's rotation in degrees
+     */
+    public static int frameRotation(int sensorOrientation, int displayRotation, boolean frontFacing) {
+        // The front camera's frames are mirrored, which turns the other way.
+        int rotation = frontFacing ? displayRotation : 360 - displayRotation;
+        return (sensorOrientation + rotation) % 360;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.zurivideosample.effects;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Blurs the Y plane everywhere except a centered rectangle, where the
+ * person in a video call usually is.
+ *
+ * A box blur with running sums, so the cost does not depend on the radius.
+ * The scratch plane is only reallocated when the frame size changes.
+ */
+public class BackgroundBlurStage implements FrameStage {
+    private final int mRadius;
+    private final float mSubjectWidth;
+    private final float mSubjectHeight;
+    private byte[] mScratch = new byte[0];
+
+    public BackgroundBlurStage() {
+        this(6, 0.5f, 0.8f);
+    }
+
+    /**
+     * @param radius blur radius in pixels
+     * @param subjectWidth width of the sharp center, as a fraction of the frame
+     * @param subjectHeight height of the sharp center, as a fraction of the frame
+     */
+    public BackgroundBlurStage(int radius, float subjectWidth, float subjectHeight) {
+        mRadius = radius;
+        mSubjectWidth = subjectWidth;
+        mSubjectHeight = subjectHeight;
+    }
+
+    @Override
+    public String getName() {
+        return "background-blur";
+    }
+
+    @Override
+    public void process(I420Frame frame) {
+        ByteBuffer buffer = frame.getBuffer();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (mScratch.length != width * height) {
+            mScratch = new byte[width * height];
+        }
+        byte[] scratch = mScratch;
+        int radius = mRadius;
+        int window = 2 * radius + 1;
+
+        // Horizontal pass, from the frame into the scratch plane.
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int sum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                sum += buffer.get(row + clamp(i, width)) & 0xff;
+            }
+            for (int x = 0; x < width; x++) {
+                scratch[row + x] = (byte) (sum / window);
+                sum += (buffer.get(row + clamp(x + radius + 1, width)) & 0xff)
+                        - (buffer.get(row + clamp(x - radius, width)) & 0xff);
+            }
+        }
+
+        // Vertical pass, back into the frame, leaving the subject sharp.
+        int left = Math.round(width * (1 - mSubjectWidth) / 2);
+        int right = width - left;
+        int top = Math.round(height * (1 - mSubjectHeight) / 2);
+        int bottom = height - top;
+        for (int x = 0; x < width; x++) {
+            boolean subjectColumn = x >= left && x < right;
+            int sum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                sum += scratch[clamp(i, height) * width + x] & 0xff;
+            }
+            for (int y = 0; y < height; y++) {
+                if (!subjectColumn || y < top || y >= bottom) {
+                    buffer.put(y * width + x, (byte) (sum / window));
+                }
+                sum += (scratch[clamp(y + radius + 1, height) * width + x] & 0xff)
+                        - (scratch[clamp(y - radius, height) * width + x] & 0xff);
+            }
+        }
+    }
+
+    private static int clamp(int i, int size) {
+        return i < 0 ? 0 : i >= size ? size - 1 : i;
+    }
+}
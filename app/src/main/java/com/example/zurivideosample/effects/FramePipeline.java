@@ -0,0 +1,196 @@
+package com.example.zurivideosample.effects;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a chain of {@link FrameStage}s over every outgoing frame, each with
+ * its own time budget.
+ *
+ * A stage cannot be interrupted, so a stage that overruns its budget is
+ * skipped for the next few frames instead, and retried after that. Every
+ * further overrun doubles the number of frames it sits out, up to
+ * {@link #MAX_SKIPPED_FRAMES}; a run within budget resets it. Capture keeps
+ * its frame rate and the effect comes back as soon as the device can
+ * afford it again. A stage that throws is disabled.
+ *
+ * Stages are added before the first frame. {@link #process(I420Frame)}
+ * runs on the capture thread; enabling and disabling stages and reading
+ * their stats is safe from any thread.
+ */
+public class FramePipeline {
+    private static final String TAG = FramePipeline.class.getSimpleName();
+
+    static final int INITIAL_SKIPPED_FRAMES = 4;
+    static final int MAX_SKIPPED_FRAMES = 256;
+
+    // Weight of the latest run in the average stage time.
+    private static final double TIME_SMOOTHING = 0.1;
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * A stage with its budget and what happened to it so far.
+     */
+    public static final class Stage {
+        final FrameStage stage;
+        final long budgetNanos;
+        volatile boolean enabled = true;
+        volatile boolean failed;
+
+        long skipUntilFrame;
+        int skipFrames;
+
+        volatile long processed;
+        volatile long skipped;
+        volatile long overruns;
+        volatile long averageNanos;
+
+        Stage(FrameStage stage, long budgetNanos) {
+            this.stage = stage;
+            this.budgetNanos = budgetNanos;
+        }
+
+        public String getName() {
+            return stage.getName();
+        }
+
+        public long getBudgetNanos() {
+            return budgetNanos;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean hasFailed() {
+            return failed;
+        }
+
+        public long getProcessedCount() {
+            return processed;
+        }
+
+        /**
+         * Frames the stage sat out after overrunning its budget.
+         */
+        public long getSkippedCount() {
+            return skipped;
+        }
+
+        public long getOverrunCount() {
+            return overruns;
+        }
+
+        public long getAverageNanos() {
+            return averageNanos;
+        }
+
+        @Override
+        public String toString() {
+            return getName() + ": " + processed + " run, " + skipped + " skipped, "
+                    + overruns + " over " + budgetNanos / 1000 + "us, avg "
+                    + averageNanos / 1000 + "us" + (failed ? ", failed" : "");
+        }
+    }
+
+    private final Clock mClock;
+    private final List<Stage> mStages = new ArrayList<>();
+    private long mFrameIndex;
+
+    public FramePipeline() {
+        this(SYSTEM_CLOCK);
+    }
+
+    public FramePipeline(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Appends a stage that may take up to {@code budgetMicros} per frame.
+     */
+    public Stage addStage(FrameStage stage, long budgetMicros) {
+        Stage entry = new Stage(stage, budgetMicros * 1000);
+        mStages.add(entry);
+        return entry;
+    }
+
+    public int getStageCount() {
+        return mStages.size();
+    }
+
+    public Stage getStage(int index) {
+        return mStages.get(index);
+    }
+
+    /**
+     * Whether any stage would run, so frames are worth sending through.
+     */
+    public boolean hasEnabledStages() {
+        for (int i = 0; i < mStages.size(); i++) {
+            Stage stage = mStages.get(i);
+            if (stage.enabled && !stage.failed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs every enabled stage that is not sitting out over the frame.
+     */
+    public void process(I420Frame frame) {
+        long index = mFrameIndex++;
+        for (int i = 0; i < mStages.size(); i++) {
+            Stage stage = mStages.get(i);
+            if (!stage.enabled || stage.failed) {
+                continue;
+            }
+            if (index < stage.skipUntilFrame) {
+                stage.skipped++;
+                continue;
+            }
+
+            long start = mClock.nanoTime();
+            try {
+                stage.stage.process(frame);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Disabling " + stage.getName(), e);
+                stage.failed = true;
+                continue;
+            }
+            long elapsed = mClock.nanoTime() - start;
+
+            stage.processed++;
+            stage.averageNanos = stage.processed == 1 ? elapsed
+                    : (long) (stage.averageNanos + TIME_SMOOTHING * (elapsed - stage.averageNanos));
+            if (elapsed > stage.budgetNanos) {
+                stage.overruns++;
+                stage.skipFrames = stage.skipFrames == 0 ? INITIAL_SKIPPED_FRAMES
+                        : Math.min(stage.skipFrames * 2, MAX_SKIPPED_FRAMES);
+                stage.skipUntilFrame = index + 1 + stage.skipFrames;
+            } else {
+                stage.skipFrames = 0;
+            }
+        }
+    }
+
+    public long getFrameCount() {
+        return mFrameIndex;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.zurivideosample.effects;
+
+/**
+ * Recycles {@link I420Frame}s so capture does not allocate a direct buffer
+ * per frame.
+ *
+ * All idle frames have the same size; when the capture size changes, the
+ * idle frames of the old size are dropped and new ones are allocated.
+ * Thread safe: frames are acquired on the capture thread and may be
+ * released from the thread that consumed them.
+ */
+public class FramePool {
+    private final I420Frame[] mIdle;
+    private int mIdleCount;
+    private int mAllocated;
+
+    /**
+     * @param capacity how many idle frames are kept
+     */
+    public FramePool(int capacity) {
+        mIdle = new I420Frame[capacity];
+    }
+
+    public synchronized I420Frame acquire(int width, int height) {
+        while (mIdleCount > 0) {
+            I420Frame frame = mIdle[--mIdleCount];
+            mIdle[mIdleCount] = null;
+            if (frame.getWidth() == width && frame.getHeight() == height) {
+                return frame;
+            }
+        }
+        mAllocated++;
+        return new I420Frame(width, height);
+    }
+
+    public synchronized void release(I420Frame frame) {
+        if (mIdleCount < mIdle.length) {
+            mIdle[mIdleCount++] = frame;
+        }
+    }
+
+    /**
+     * Frames allocated since the pool was created. Steady capture at a
+     * fixed size should stop increasing this.
+     */
+    public synchronized int getAllocatedCount() {
+        return mAllocated;
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdleCount;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.zurivideosample.effects;
+
+/**
+ * One effect of the {@link FramePipeline}.
+ *
+ * Stages change the frame in place and run on the capture thread, so they
+ * should not allocate per frame. They are plain Java and can be exercised
+ * on the JVM with synthetic frames.
+ */
+public interface FrameStage {
+    String getName();
+
+    void process(I420Frame frame);
+}
@@ -0,0 +1,106 @@
+package com.example.zurivideosample.effects;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A video frame in I420: a full resolution Y plane followed by U and V
+ * planes at half resolution in both directions, tightly packed in one
+ * direct ByteBuffer.
+ *
+ * Frames come from a {@link FramePool} and are processed in place, so the
+ * buffer is handed to the SDK without another copy.
+ */
+public final class I420Frame {
+    private final ByteBuffer mBuffer;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChromaWidth;
+    private final int mChromaHeight;
+
+    // Set by the producer for every frame.
+    public int rotation;
+    public long timestampMs;
+
+    I420Frame(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = (width + 1) / 2;
+        mChromaHeight = (height + 1) / 2;
+        mBuffer = ByteBuffer.allocateDirect(sizeOf(width, height));
+    }
+
+    /**
+     * Bytes needed for a frame of the given size.
+     */
+    public static int sizeOf(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * The whole frame, Y then U then V. Stages use absolute gets and puts
+     * and must not change the position or limit.
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getChromaWidth() {
+        return mChromaWidth;
+    }
+
+    public int getChromaHeight() {
+        return mChromaHeight;
+    }
+
+    public int getUOffset() {
+        return mWidth * mHeight;
+    }
+
+    public int getVOffset() {
+        return getUOffset() + mChromaWidth * mChromaHeight;
+    }
+
+    public int getSize() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * Fills a plane from one that may have padded rows and, for the chroma
+     * planes of semi-planar formats, interleaved pixels, such as a plane of
+     * a camera's YUV_420_888 image.
+     *
+     * @param plane 0 for Y, 1 for U, 2 for V
+     */
+    public void copyPlaneFrom(int plane, ByteBuffer src, int rowStride, int pixelStride) {
+        int width = plane == 0 ? mWidth : mChromaWidth;
+        int height = plane == 0 ? mHeight : mChromaHeight;
+        int offset = plane == 0 ? 0 : plane == 1 ? getUOffset() : getVOffset();
+        // Rows are copied as longs, which must read and write alike.
+        src.order(mBuffer.order());
+        for (int y = 0; y < height; y++) {
+            int s = y * rowStride;
+            int d = offset + y * width;
+            if (pixelStride == 1) {
+                int x = 0;
+                for (; x + 8 <= width; x += 8) {
+                    mBuffer.putLong(d + x, src.getLong(s + x));
+                }
+                for (; x < width; x++) {
+                    mBuffer.put(d + x, src.get(s + x));
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    mBuffer.put(d + x, src.get(s + x * pixelStride));
+                }
+            }
+        }
+    }
+}
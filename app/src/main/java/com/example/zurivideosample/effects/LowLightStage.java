@@ -0,0 +1,92 @@
+package com.example.zurivideosample.effects;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Brightens dark frames by applying a gamma curve to the Y plane.
+ *
+ * The average luma is sampled on a sparse grid and the gamma chosen so the
+ * average moves up to the target. Shadows are lifted the most, while
+ * highlights do not clip. Chroma is left alone.
+ */
+public class LowLightStage implements FrameStage {
+    // Every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row.
+    private static final int SAMPLE_STEP = 16;
+    // Gammas are rounded to this step, so the lookup table is only rebuilt
+    // when the scene really gets brighter or darker.
+    private static final double GAMMA_STEP = 0.05;
+
+    private final int mTargetLuma;
+    private final double mMaxGamma;
+    private final byte[] mLut = new byte[256];
+    private double mGamma = 1;
+
+    public LowLightStage() {
+        this(100, 2.5);
+    }
+
+    /**
+     * @param targetLuma average luma, 0-255, that dark frames are lifted to
+     * @param maxGamma the strongest correction applied
+     */
+    public LowLightStage(int targetLuma, double maxGamma) {
+        mTargetLuma = targetLuma;
+        mMaxGamma = maxGamma;
+    }
+
+    @Override
+    public String getName() {
+        return "low-light";
+    }
+
+    @Override
+    public void process(I420Frame frame) {
+        ByteBuffer buffer = frame.getBuffer();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+
+        int mean = meanLuma(buffer, width, height);
+        if (mean >= mTargetLuma) {
+            return;
+        }
+        double gamma = Math.log(Math.max(mean, 1) / 255.0) / Math.log(mTargetLuma / 255.0);
+        gamma = Math.min(mMaxGamma, Math.round(gamma / GAMMA_STEP) * GAMMA_STEP);
+        if (gamma <= 1) {
+            return;
+        }
+        if (gamma != mGamma) {
+            buildLut(gamma);
+        }
+
+        byte[] lut = mLut;
+        int size = width * height;
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, lut[buffer.get(i) & 0xff]);
+        }
+    }
+
+    public double getGamma() {
+        return mGamma;
+    }
+
+    private static int meanLuma(ByteBuffer buffer, int width, int height) {
+        long sum = 0;
+        int count = 0;
+        for (int y = SAMPLE_STEP / 2; y < height; y += SAMPLE_STEP) {
+            int row = y * width;
+            for (int x = SAMPLE_STEP / 2; x < width; x += SAMPLE_STEP) {
+                sum += buffer.get(row + x) & 0xff;
+                count++;
+            }
+        }
+        return count == 0 ? 255 : (int) (sum / count);
+    }
+
+    private void buildLut(double gamma) {
+        mGamma = gamma;
+        double exponent = 1 / gamma;
+        for (int i = 0; i < 256; i++) {
+            mLut[i] = (byte) Math.round(255 * Math.pow(i / 255.0, exponent));
+        }
+    }
+}
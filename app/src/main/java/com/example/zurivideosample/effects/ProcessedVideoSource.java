@@ -0,0 +1,115 @@
+package com.example.zurivideosample.effects;
+
+import io.agora.rtc.mediaio.IVideoFrameConsumer;
+import io.agora.rtc.mediaio.IVideoSource;
+import io.agora.rtc.mediaio.MediaIO;
+
+/**
+ * A custom video source that runs captured frames through a
+ * {@link FramePipeline} before the SDK encodes them.
+ *
+ * The Java SDK has no raw frame observer for the local camera, so effects
+ * hook in here instead: the app's capturer fills pooled {@link I420Frame}s
+ * and calls {@link #onFrame(I420Frame)} on its capture thread. The frame's
+ * direct buffer is handed to the SDK as is and goes back to the pool after.
+ * See {@link com.example.zurivideosample.call.CallController#setVideoEffects}.
+ */
+public class ProcessedVideoSource implements IVideoSource {
+    public interface FrameObserver {
+        /**
+         * A frame went to the SDK, after every effect. Called on the capture
+         * thread; the frame goes back to the pool right after.
+         */
+        void onFrameSent(I420Frame frame);
+    }
+
+    private final FramePipeline mPipeline;
+    private final FramePool mPool;
+
+    private volatile IVideoFrameConsumer mConsumer;
+    private volatile FrameObserver mObserver;
+    private volatile boolean mStarted;
+    private long mDropped;
+
+    public ProcessedVideoSource(FramePipeline pipeline, FramePool pool) {
+        mPipeline = pipeline;
+        mPool = pool;
+    }
+
+    public FramePipeline getPipeline() {
+        return mPipeline;
+    }
+
+    public FramePool getPool() {
+        return mPool;
+    }
+
+    /**
+     * Sees the frames as they are sent, such as for a recording. Null to
+     * stop.
+     */
+    public void setFrameObserver(FrameObserver observer) {
+        mObserver = observer;
+    }
+
+    /**
+     * Processes and delivers a captured frame, then recycles it. Frames
+     * arriving while the SDK is not consuming are dropped.
+     */
+    public void onFrame(I420Frame frame) {
+        IVideoFrameConsumer consumer = mConsumer;
+        if (mStarted && consumer != null) {
+            mPipeline.process(frame);
+            consumer.consumeByteBufferFrame(frame.getBuffer(), MediaIO.PixelFormat.I420.intValue(),
+                    frame.getWidth(), frame.getHeight(), frame.rotation, frame.timestampMs);
+            FrameObserver observer = mObserver;
+            if (observer != null) {
+                observer.onFrameSent(frame);
+            }
+        } else {
+            mDropped++;
+        }
+        mPool.release(frame);
+    }
+
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    @Override
+    public boolean onInitialize(IVideoFrameConsumer consumer) {
+        mConsumer = consumer;
+        return true;
+    }
+
+    @Override
+    public boolean onStart() {
+        mStarted = true;
+        return true;
+    }
+
+    @Override
+    public void onStop() {
+        mStarted = false;
+    }
+
+    @Override
+    public void onDispose() {
+        mConsumer = null;
+    }
+
+    @Override
+    public int getBufferType() {
+        return MediaIO.BufferType.BYTE_BUFFER.intValue();
+    }
+
+    @Override
+    public int getCaptureType() {
+        return MediaIO.CaptureType.CAMERA.intValue();
+    }
+
+    @Override
+    public int getContentHint() {
+        return MediaIO.ContentHint.NONE.intValue();
+    }
+}
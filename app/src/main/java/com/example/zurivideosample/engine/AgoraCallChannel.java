@@ -0,0 +1,151 @@
+package com.example.zurivideosample.engine;
+
+import io.agora.rtc.IRtcChannelEventHandler;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.RtcChannel;
+import io.agora.rtc.models.ChannelMediaOptions;
+
+/**
+ * {@link CallChannel} backed by an Agora RtcChannel.
+ *
+ * Channel events arrive on the SDK thread like the engine's own. They are
+ * turned into engine callbacks and go through a dispatcher of their own, so
+ * the handler sees them on the UI thread, batched once per frame.
+ */
+class AgoraCallChannel implements CallChannel {
+    // Secondary channels are listen-only and see far fewer events.
+    private static final int EVENT_QUEUE_CAPACITY = 64;
+
+    private final RtcChannel mRtcChannel;
+    private final CallEventDispatcher mDispatcher;
+
+    /**
+     * Must be called on the UI thread.
+     */
+    AgoraCallChannel(RtcChannel rtcChannel, IRtcEngineEventHandler handler) {
+        mRtcChannel = rtcChannel;
+        mDispatcher = new CallEventDispatcher(handler, EVENT_QUEUE_CAPACITY);
+        mDispatcher.setScheduler(new CallEventDispatcher.FrameScheduler(mDispatcher));
+        rtcChannel.setRtcChannelEventHandler(new EventAdapter(mDispatcher));
+    }
+
+    @Override
+    public String getChannelId() {
+        return mRtcChannel.channelId();
+    }
+
+    @Override
+    public int joinChannel(String token, String optionalInfo, int uid, boolean autoSubscribeVideo) {
+        ChannelMediaOptions options = new ChannelMediaOptions();
+        options.autoSubscribeAudio = true;
+        options.autoSubscribeVideo = autoSubscribeVideo;
+        return mRtcChannel.joinChannel(token, optionalInfo, uid, options);
+    }
+
+    @Override
+    public int leaveChannel() {
+        return mRtcChannel.leaveChannel();
+    }
+
+    @Override
+    public int renewToken(String token) {
+        return mRtcChannel.renewToken(token);
+    }
+
+    @Override
+    public int setRemoteVideoStreamType(int uid, int streamType) {
+        return mRtcChannel.setRemoteVideoStreamType(uid, streamType);
+    }
+
+    @Override
+    public int muteRemoteVideoStream(int uid, boolean muted) {
+        return mRtcChannel.muteRemoteVideoStream(uid, muted);
+    }
+
+    @Override
+    public void destroy() {
+        mDispatcher.shutdown();
+        mRtcChannel.destroy();
+    }
+
+    /**
+     * Forwards channel callbacks as the matching engine callbacks.
+     */
+    private static class EventAdapter extends IRtcChannelEventHandler {
+        private final IRtcEngineEventHandler mTarget;
+
+        EventAdapter(IRtcEngineEventHandler target) {
+            mTarget = target;
+        }
+
+        @Override
+        public void onChannelError(RtcChannel channel, int err) {
+            mTarget.onError(err);
+        }
+
+        @Override
+        public void onJoinChannelSuccess(RtcChannel channel, int uid, int elapsed) {
+            mTarget.onJoinChannelSuccess(channel.channelId(), uid, elapsed);
+        }
+
+        @Override
+        public void onRejoinChannelSuccess(RtcChannel channel, int uid, int elapsed) {
+            mTarget.onRejoinChannelSuccess(channel.channelId(), uid, elapsed);
+        }
+
+        @Override
+        public void onLeaveChannel(RtcChannel channel, IRtcEngineEventHandler.RtcStats stats) {
+            mTarget.onLeaveChannel(stats);
+        }
+
+        @Override
+        public void onUserJoined(RtcChannel channel, int uid, int elapsed) {
+            mTarget.onUserJoined(uid, elapsed);
+        }
+
+        @Override
+        public void onUserOffline(RtcChannel channel, int uid, int reason) {
+            mTarget.onUserOffline(uid, reason);
+        }
+
+        @Override
+        public void onConnectionStateChanged(RtcChannel channel, int state, int reason) {
+            mTarget.onConnectionStateChanged(state, reason);
+        }
+
+        @Override
+        public void onConnectionLost(RtcChannel channel) {
+            mTarget.onConnectionLost();
+        }
+
+        @Override
+        public void onTokenPrivilegeWillExpire(RtcChannel channel, String token) {
+            mTarget.onTokenPrivilegeWillExpire(token);
+        }
+
+        @Override
+        public void onRequestToken(RtcChannel channel) {
+            mTarget.onRequestToken();
+        }
+
+        @Override
+        public void onRemoteVideoStateChanged(RtcChannel channel, int uid, int state, int reason, int elapsed) {
+            mTarget.onRemoteVideoStateChanged(uid, state, reason, elapsed);
+        }
+
+        @Override
+        public void onRtcStats(RtcChannel channel, IRtcEngineEventHandler.RtcStats stats) {
+            mTarget.onRtcStats(stats);
+        }
+
+        @Override
+        public void onNetworkQuality(RtcChannel channel, int uid, int txQuality, int rxQuality) {
+            mTarget.onNetworkQuality(uid, txQuality, rxQuality);
+        }
+
+        @Override
+        public void onRemoteVideoStats(RtcChannel channel, IRtcEngineEventHandler.RemoteVideoStats stats) {
+            mTarget.onRemoteVideoStats(stats);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.zurivideosample.engine;
+
+import android.content.Context;
+import android.view.SurfaceView;
+
+import io.agora.rtc.IAudioFrameObserver;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.RtcChannel;
+import io.agora.rtc.RtcEngine;
+import io.agora.rtc.internal.LastmileProbeConfig;
+import io.agora.rtc.mediaio.IVideoSink;
+import io.agora.rtc.mediaio.IVideoSource;
+import io.agora.rtc.video.VideoCanvas;
+import io.agora.rtc.video.VideoEncoderConfiguration;
+
+/**
+ * {@link CallEngine} backed by the Agora RtcEngine.
+ */
+public class AgoraCallEngine implements CallEngine {
+    private final RtcEngine mRtcEngine;
+    // Data stream ids by reliable | ordered << 1, 0 until created.
+    private final int[] mDataStreams = new int[4];
+
+    private AgoraCallEngine(RtcEngine rtcEngine) {
+        mRtcEngine = rtcEngine;
+    }
+
+    /**
+     * Creates the underlying RtcEngine. Only one engine can exist at a time.
+     */
+    public static AgoraCallEngine create(Context context, String appId,
+                                         IRtcEngineEventHandler handler) throws Exception {
+        return new AgoraCallEngine(RtcEngine.create(context, appId, handler));
+    }
+
+    public RtcEngine getRtcEngine() {
+        return mRtcEngine;
+    }
+
+    @Override
+    public SurfaceView createRendererView(Context context) {
+        /*
+          CreateRendererView returns the SurfaceView type. The operation and layout of the view
+          are managed by the app, and the Agora SDK renders the view provided by the app.
+          The video display view must be created using this method instead of directly
+          calling SurfaceView.
+         */
+        return RtcEngine.CreateRendererView(context);
+    }
+
+    @Override
+    public int enableVideo() {
+        return mRtcEngine.enableVideo();
+    }
+
+    @Override
+    public int setVideoEncoderConfiguration(VideoEncoderConfiguration config) {
+        return mRtcEngine.setVideoEncoderConfiguration(config);
+    }
+
+    @Override
+    public int enableDualStreamMode(boolean enabled) {
+        return mRtcEngine.enableDualStreamMode(enabled);
+    }
+
+    @Override
+    public int setRemoteDefaultVideoStreamType(int streamType) {
+        return mRtcEngine.setRemoteDefaultVideoStreamType(streamType);
+    }
+
+    @Override
+    public int disableAudio() {
+        return mRtcEngine.disableAudio();
+    }
+
+    @Override
+    public int setVideoSource(IVideoSource source) {
+        return mRtcEngine.setVideoSource(source);
+    }
+
+    @Override
+    public int registerAudioFrameObserver(IAudioFrameObserver observer) {
+        return mRtcEngine.registerAudioFrameObserver(observer);
+    }
+
+    @Override
+    public int setMixedAudioFrameParameters(int sampleRate, int samplesPerCall) {
+        return mRtcEngine.setMixedAudioFrameParameters(sampleRate, samplesPerCall);
+    }
+
+    @Override
+    public int enableAudioVolumeIndication(int intervalMs, int smooth, boolean reportVad) {
+        return mRtcEngine.enableAudioVolumeIndication(intervalMs, smooth, reportVad);
+    }
+
+    @Override
+    public int enableSoundPositionIndication(boolean enabled) {
+        return mRtcEngine.enableSoundPositionIndication(enabled);
+    }
+
+    @Override
+    public int setRemoteVoicePosition(int uid, double pan, double gain) {
+        return mRtcEngine.setRemoteVoicePosition(uid, pan, gain);
+    }
+
+    @Override
+    public int setupLocalVideo(VideoCanvas canvas) {
+        return mRtcEngine.setupLocalVideo(canvas);
+    }
+
+    @Override
+    public int startPreview() {
+        return mRtcEngine.startPreview();
+    }
+
+    @Override
+    public int stopPreview() {
+        return mRtcEngine.stopPreview();
+    }
+
+    @Override
+    public int setupRemoteVideo(VideoCanvas canvas) {
+        return mRtcEngine.setupRemoteVideo(canvas);
+    }
+
+    @Override
+    public int setLocalVideoRenderer(IVideoSink sink) {
+        return mRtcEngine.setLocalVideoRenderer(sink);
+    }
+
+    @Override
+    public int setRemoteVideoRenderer(int uid, IVideoSink sink) {
+        return mRtcEngine.setRemoteVideoRenderer(uid, sink);
+    }
+
+    @Override
+    public int createDataStream(boolean reliable, boolean ordered) {
+        int kind = (reliable ? 1 : 0) | (ordered ? 2 : 0);
+        if (mDataStreams[kind] <= 0) {
+            int id = mRtcEngine.createDataStream(reliable, ordered);
+            if (id < 0) {
+                return id;
+            }
+            mDataStreams[kind] = id;
+        }
+        return mDataStreams[kind];
+    }
+
+    @Override
+    public int sendStreamMessage(int streamId, byte[] message) {
+        return mRtcEngine.sendStreamMessage(streamId, message);
+    }
+
+    @Override
+    public int startLastmileProbeTest(LastmileProbeConfig config) {
+        return mRtcEngine.startLastmileProbeTest(config);
+    }
+
+    @Override
+    public int stopLastmileProbeTest() {
+        return mRtcEngine.stopLastmileProbeTest();
+    }
+
+    @Override
+    public int joinChannel(String token, String channelName, String optionalInfo, int uid) {
+        return mRtcEngine.joinChannel(token, channelName, optionalInfo, uid);
+    }
+
+    @Override
+    public int leaveChannel() {
+        return mRtcEngine.leaveChannel();
+    }
+
+    @Override
+    public int renewToken(String token) {
+        return mRtcEngine.renewToken(token);
+    }
+
+    @Override
+    public int muteLocalAudioStream(boolean muted) {
+        return mRtcEngine.muteLocalAudioStream(muted);
+    }
+
+    @Override
+    public int muteLocalVideoStream(boolean muted) {
+        return mRtcEngine.muteLocalVideoStream(muted);
+    }
+
+    @Override
+    public int switchCamera() {
+        return mRtcEngine.switchCamera();
+    }
+
+    @Override
+    public int setLocalVideoMirrorMode(int mode) {
+        return mRtcEngine.setLocalVideoMirrorMode(mode);
+    }
+
+    @Override
+    public int setRemoteVideoStreamType(int uid, int streamType) {
+        return mRtcEngine.setRemoteVideoStreamType(uid, streamType);
+    }
+
+    @Override
+    public int muteRemoteVideoStream(int uid, boolean muted) {
+        return mRtcEngine.muteRemoteVideoStream(uid, muted);
+    }
+
+    @Override
+    public int muteAllRemoteVideoStreams(boolean muted) {
+        return mRtcEngine.muteAllRemoteVideoStreams(muted);
+    }
+
+    @Override
+    public int setLocalPublishFallbackOption(int option) {
+        return mRtcEngine.setLocalPublishFallbackOption(option);
+    }
+
+    @Override
+    public int setRemoteSubscribeFallbackOption(int option) {
+        return mRtcEngine.setRemoteSubscribeFallbackOption(option);
+    }
+
+    @Override
+    public CallChannel createChannel(String channelId, IRtcEngineEventHandler handler) {
+        RtcChannel channel = mRtcEngine.createRtcChannel(channelId);
+        return channel != null ? new AgoraCallChannel(channel, handler) : null;
+    }
+
+    @Override
+    public void destroy() {
+        /*
+          Destroys the RtcEngine instance and releases all resources used by the Agora SDK.
+
+          This method is useful for apps that occasionally make voice or video calls,
+          to free up resources for other operations when not making calls.
+         */
+        RtcEngine.destroy();
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.zurivideosample.engine;
+
+/**
+ * A further channel joined by the same engine, next to the engine's own.
+ *
+ * Mirrors the RtcChannel methods of the same name. The local user only
+ * listens in these channels; audio and video are published to the engine's
+ * own channel. Remote video is bound through
+ * {@link CallEngine#setupRemoteVideo} with a canvas that carries the
+ * channel id.
+ */
+public interface CallChannel extends RemoteVideoControl {
+
+    String getChannelId();
+
+    /**
+     * Audio of every user is subscribed to automatically, video only if
+     * {@code autoSubscribeVideo} is set.
+     */
+    int joinChannel(String token, String optionalInfo, int uid, boolean autoSubscribeVideo);
+
+    int leaveChannel();
+
+    int renewToken(String token);
+
+    /**
+     * Releases the channel. No other method may be called afterwards.
+     */
+    void destroy();
+}
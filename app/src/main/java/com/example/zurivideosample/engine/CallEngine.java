@@ -0,0 +1,143 @@
+package com.example.zurivideosample.engine;
+
+import android.content.Context;
+import android.view.SurfaceView;
+
+import io.agora.rtc.IAudioFrameObserver;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.internal.LastmileProbeConfig;
+import io.agora.rtc.mediaio.IVideoSink;
+import io.agora.rtc.mediaio.IVideoSource;
+import io.agora.rtc.video.VideoCanvas;
+import io.agora.rtc.video.VideoEncoderConfiguration;
+
+/**
+ * The engine calls made by the call screen.
+ *
+ * Mirrors the RtcEngine methods of the same name so the Agora-backed
+ * implementation is a straight pass-through, while tests can run the same
+ * call logic against an in-process fake. Methods return the SDK's error
+ * code, 0 on success.
+ *
+ * Events are delivered to the IRtcEngineEventHandler the engine was created
+ * with.
+ */
+public interface CallEngine extends RemoteVideoControl {
+
+    SurfaceView createRendererView(Context context);
+
+    int enableVideo();
+
+    int setVideoEncoderConfiguration(VideoEncoderConfiguration config);
+
+    int enableDualStreamMode(boolean enabled);
+
+    int setRemoteDefaultVideoStreamType(int streamType);
+
+    int disableAudio();
+
+    /**
+     * Replaces the camera with a custom source, or restores the camera for
+     * null.
+     */
+    int setVideoSource(IVideoSource source);
+
+    /**
+     * Sets the observer of raw audio frames, or removes it for null.
+     */
+    int registerAudioFrameObserver(IAudioFrameObserver observer);
+
+    int setMixedAudioFrameParameters(int sampleRate, int samplesPerCall);
+
+    int enableAudioVolumeIndication(int intervalMs, int smooth, boolean reportVad);
+
+    /**
+     * Lets {@link #setRemoteVoicePosition} take effect. Call before joining.
+     */
+    int enableSoundPositionIndication(boolean enabled);
+
+    /**
+     * Places a remote user's voice between the left and right speakers.
+     *
+     * @param pan  -1 for left, 0 for the center, 1 for right
+     * @param gain 0 to 100, percent of the received volume
+     */
+    int setRemoteVoicePosition(int uid, double pan, double gain);
+
+    int setupLocalVideo(VideoCanvas canvas);
+
+    int startPreview();
+
+    int stopPreview();
+
+    int setupRemoteVideo(VideoCanvas canvas);
+
+    /**
+     * Renders the local preview into a custom sink instead of a view, or
+     * stops for null.
+     */
+    int setLocalVideoRenderer(IVideoSink sink);
+
+    /**
+     * Renders a remote user's video into a custom sink instead of a view,
+     * or stops for null.
+     */
+    int setRemoteVideoRenderer(int uid, IVideoSink sink);
+
+    /**
+     * Probes the link to the SDK's servers, before joining. Results arrive
+     * in onLastmileQuality and onLastmileProbeResult, the full result up to
+     * 30s later; other calls meanwhile may interrupt the probe.
+     */
+    int startLastmileProbeTest(LastmileProbeConfig config);
+
+    int stopLastmileProbeTest();
+
+    int joinChannel(String token, String channelName, String optionalInfo, int uid);
+
+    int leaveChannel();
+
+    int renewToken(String token);
+
+    int muteLocalAudioStream(boolean muted);
+
+    int muteLocalVideoStream(boolean muted);
+
+    int switchCamera();
+
+    int setLocalVideoMirrorMode(int mode);
+
+    int muteAllRemoteVideoStreams(boolean muted);
+
+    int setLocalPublishFallbackOption(int option);
+
+    int setRemoteSubscribeFallbackOption(int option);
+
+    /**
+     * Returns a data stream with the given delivery, creating it on first
+     * use. The SDK allows only a few per engine, so each kind is kept for
+     * the engine's lifetime.
+     *
+     * @return the stream id, or a negative error code
+     */
+    int createDataStream(boolean reliable, boolean ordered);
+
+    /**
+     * Sends a packet of at most 1 KB to everyone in the channel.
+     */
+    int sendStreamMessage(int streamId, byte[] message);
+
+    /**
+     * Creates a further channel on this engine. Its events are delivered
+     * to {@code handler} on the UI thread, through the same callbacks as
+     * the engine's own, with the channel id where a callback takes one.
+     *
+     * @return the channel, or null if the id is invalid or already in use
+     */
+    CallChannel createChannel(String channelId, IRtcEngineEventHandler handler);
+
+    /**
+     * Releases the engine. No other method may be called afterwards.
+     */
+    void destroy();
+}
@@ -0,0 +1,197 @@
+package com.example.zurivideosample.engine;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.zurivideosample.telemetry.CallTimings;
+import com.example.zurivideosample.telemetry.StartupTimings;
+
+import java.util.concurrent.Executor;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Keeps one engine alive for the whole process.
+ *
+ * Creating the engine loads and initialises the native SDK, which is by far
+ * the slowest step of starting a call. The holder does that on a worker
+ * thread, ahead of time, so the call screen can draw while the libraries
+ * load, and lets the engine survive the screen being recreated; the screen
+ * acquires it when it needs it and releases it when it goes away. The
+ * engine is only destroyed when nobody holds it and the system asks the
+ * app to trim memory.
+ *
+ * All methods must be called on the UI thread, and callbacks arrive there.
+ */
+public class CallEngineHolder {
+    private static final String TAG = CallEngineHolder.class.getSimpleName();
+
+    // Pending engine events the dispatcher can hold before it has to grow.
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+
+    public interface Factory {
+        /**
+         * Called on the worker thread.
+         */
+        CallEngine create(IRtcEngineEventHandler handler) throws Exception;
+    }
+
+    public interface Callback {
+        void onEngineReady(CallEngine engine);
+
+        void onEngineFailed(Exception e);
+    }
+
+    private final Factory mFactory;
+    private final CallTimings mTimings;
+    private final StartupTimings mStartup;
+    private final Executor mWorker;
+    private final Executor mMainThread;
+
+    private CallEventDispatcher mDispatcher;
+    private CallEngine mEngine;
+    private boolean mCreating;
+    private boolean mAcquired;
+
+    // Who is waiting for the engine being created.
+    private IRtcEngineEventHandler mPendingHandler;
+    private Callback mPendingCallback;
+
+    /**
+     * @param worker     creates the engine, off the UI thread
+     * @param mainThread runs tasks on the UI thread
+     */
+    public CallEngineHolder(Factory factory, CallTimings timings, StartupTimings startup,
+                            Executor worker, Executor mainThread) {
+        mFactory = factory;
+        mTimings = timings;
+        mStartup = startup;
+        mWorker = worker;
+        mMainThread = mainThread;
+    }
+
+    public CallTimings getTimings() {
+        return mTimings;
+    }
+
+    public boolean isWarm() {
+        return mEngine != null;
+    }
+
+    /**
+     * Starts creating the engine if it does not exist yet. Failures are
+     * only logged here; {@link #acquire} reports them.
+     */
+    public void prewarm() {
+        startCreating();
+    }
+
+    /**
+     * Routes the engine's events to {@code handler} on the UI thread and
+     * hands the engine to the callback, right away if it is warm, or once
+     * it has been created.
+     */
+    public void acquire(IRtcEngineEventHandler handler, Callback callback) {
+        if (mEngine != null) {
+            mDispatcher.setTarget(handler);
+            mAcquired = true;
+            callback.onEngineReady(mEngine);
+            return;
+        }
+        mPendingHandler = handler;
+        mPendingCallback = callback;
+        startCreating();
+    }
+
+    /**
+     * Stops delivering events to the handler passed to {@link #acquire}, or
+     * drops its callback if the engine is not ready yet. The caller must
+     * have left the channel and unbound its views.
+     */
+    public void release() {
+        mPendingHandler = null;
+        mPendingCallback = null;
+        if (mDispatcher != null) {
+            mDispatcher.setTarget(null);
+        }
+        mAcquired = false;
+    }
+
+    public CallEventDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    /**
+     * Destroys the engine unless someone holds it.
+     */
+    public void destroyIfIdle() {
+        if (mAcquired || mEngine == null) {
+            return;
+        }
+        mDispatcher.shutdown();
+        Log.i(TAG, "Engine events: recorded " + mDispatcher.getRecordedCount()
+                + ", coalesced " + mDispatcher.getCoalescedCount()
+                + ", delivered " + mDispatcher.getDeliveredCount()
+                + " in " + mDispatcher.getBatchCount() + " frames"
+                + ", max queue depth " + mDispatcher.getMaxQueueDepth());
+        mEngine.destroy();
+        mEngine = null;
+        mDispatcher = null;
+    }
+
+    private void startCreating() {
+        if (mEngine != null || mCreating) {
+            return;
+        }
+        mCreating = true;
+        // The dispatcher's scheduler belongs to the UI thread, only the
+        // engine is created on the worker.
+        final CallEventDispatcher dispatcher = new CallEventDispatcher(null, EVENT_QUEUE_CAPACITY);
+        dispatcher.setScheduler(new CallEventDispatcher.FrameScheduler(dispatcher));
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                CallEngine engine = null;
+                Exception failure = null;
+                try {
+                    engine = mFactory.create(dispatcher);
+                } catch (Exception e) {
+                    failure = e;
+                }
+                final long finished = SystemClock.elapsedRealtime();
+                final CallEngine created = engine;
+                final Exception error = failure;
+                mMainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCreated(dispatcher, created, error, start, finished);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onCreated(CallEventDispatcher dispatcher, CallEngine engine, Exception error,
+                           long start, long finished) {
+        mCreating = false;
+        IRtcEngineEventHandler handler = mPendingHandler;
+        Callback callback = mPendingCallback;
+        mPendingHandler = null;
+        mPendingCallback = null;
+        if (engine == null) {
+            Log.w(TAG, "Engine creation failed", error);
+            if (callback != null) {
+                callback.onEngineFailed(error);
+            }
+            return;
+        }
+        mTimings.onEngineCreated(start, finished);
+        mStartup.onEngineReady(finished);
+        mEngine = engine;
+        mDispatcher = dispatcher;
+        if (callback != null) {
+            acquire(handler, callback);
+        }
+    }
+}
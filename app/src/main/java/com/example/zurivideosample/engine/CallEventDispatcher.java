@@ -0,0 +1,534 @@
+package com.example.zurivideosample.engine;
+
+import android.view.Choreographer;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Moves engine callbacks from the SDK thread to the UI thread in batches.
+ *
+ * The dispatcher is the handler the engine is created with. Each callback is
+ * recorded into a preallocated ring of event records on the SDK thread and
+ * the whole batch is replayed to the target handler on the UI thread once
+ * per frame, instead of posting one Runnable per callback.
+ *
+ * Callbacks that only report the latest state (stats, network quality,
+ * speaker volumes) are coalesced: a newer one replaces a pending one of the
+ * same kind and uid, so a burst of stats costs one delivery per frame.
+ * Join, leave and other state changes are always delivered, in order.
+ */
+public class CallEventDispatcher extends IRtcEngineEventHandler {
+
+    /**
+     * Arranges for {@link #drain()} to be called on the UI thread.
+     */
+    public interface Scheduler {
+        void requestDrain();
+    }
+
+    /**
+     * Drains once per frame using the UI thread's Choreographer. Must be
+     * created on the UI thread.
+     */
+    public static class FrameScheduler implements Scheduler, Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+        private final CallEventDispatcher mDispatcher;
+
+        public FrameScheduler(CallEventDispatcher dispatcher) {
+            mDispatcher = dispatcher;
+        }
+
+        @Override
+        public void requestDrain() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mDispatcher.drain();
+        }
+    }
+
+    // Event types. The ones up to LAST_COALESCED only report the latest
+    // state and may replace a pending event of the same type and uid.
+    static final int RTC_STATS = 1;
+    static final int LOCAL_VIDEO_STATS = 2;
+    static final int REMOTE_VIDEO_STATS = 3;
+    static final int NETWORK_QUALITY = 4;
+    static final int AUDIO_VOLUME = 5;
+    static final int LAST_COALESCED = AUDIO_VOLUME;
+
+    static final int JOIN_CHANNEL_SUCCESS = 10;
+    static final int REJOIN_CHANNEL_SUCCESS = 11;
+    static final int LEAVE_CHANNEL = 12;
+    static final int USER_JOINED = 13;
+    static final int USER_OFFLINE = 14;
+    static final int FIRST_REMOTE_VIDEO_DECODED = 15;
+    static final int REMOTE_VIDEO_STATE_CHANGED = 16;
+    static final int CONNECTION_STATE_CHANGED = 17;
+    static final int CONNECTION_LOST = 18;
+    static final int TOKEN_WILL_EXPIRE = 19;
+    static final int REQUEST_TOKEN = 20;
+    static final int ERROR = 21;
+    static final int FIRST_LOCAL_VIDEO_FRAME = 22;
+    static final int LOCAL_PUBLISH_FALLBACK = 23;
+    static final int REMOTE_SUBSCRIBE_FALLBACK = 24;
+    static final int STREAM_MESSAGE = 25;
+    static final int STREAM_MESSAGE_ERROR = 26;
+    static final int LASTMILE_QUALITY = 27;
+    static final int LASTMILE_PROBE_RESULT = 28;
+
+    private static final class Event {
+        int type;
+        int uid;
+        int a;
+        int b;
+        int c;
+        int d;
+        String text;
+        Object data;
+
+        void copyFrom(Event other) {
+            type = other.type;
+            uid = other.uid;
+            a = other.a;
+            b = other.b;
+            c = other.c;
+            d = other.d;
+            text = other.text;
+            data = other.data;
+        }
+
+        void clear() {
+            text = null;
+            data = null;
+        }
+    }
+
+    private IRtcEngineEventHandler mTarget;
+    private final Object mLock = new Object();
+    private Scheduler mScheduler;
+
+    // Guarded by mLock.
+    private Event[] mRing;
+    private int mHead;
+    private int mCount;
+    private boolean mDrainRequested;
+    private boolean mShutdown;
+    private int mMaxDepth;
+    private long mRecorded;
+    private long mCoalesced;
+    private int mGrowths;
+
+    // Only touched on the UI thread.
+    private Event[] mBatch;
+    private long mDelivered;
+    private int mBatches;
+
+    public CallEventDispatcher(IRtcEngineEventHandler target, int capacity) {
+        mTarget = target;
+        mRing = newEvents(capacity);
+        mBatch = newEvents(capacity);
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Changes the handler events are delivered to, for example when the
+     * engine outlives the screen that started it. Events drained while
+     * there is no target are dropped. Call on the UI thread.
+     */
+    public void setTarget(IRtcEngineEventHandler target) {
+        mTarget = target;
+    }
+
+    /**
+     * Delivers every pending event to the target. Call on the UI thread.
+     */
+    public void drain() {
+        int count;
+        synchronized (mLock) {
+            mDrainRequested = false;
+            count = mCount;
+            if (mBatch.length < count) {
+                mBatch = newEvents(mRing.length);
+            }
+            for (int i = 0; i < count; i++) {
+                Event event = mRing[(mHead + i) % mRing.length];
+                mBatch[i].copyFrom(event);
+                event.clear();
+            }
+            mHead = 0;
+            mCount = 0;
+        }
+
+        // Deliver outside the lock so the target may call back into the
+        // engine, which may in turn report new events.
+        for (int i = 0; i < count; i++) {
+            Event event = mBatch[i];
+            deliver(event);
+            event.clear();
+        }
+        mDelivered += count;
+        if (count > 0) {
+            mBatches++;
+        }
+    }
+
+    /**
+     * Drops every pending event and stops scheduling drains.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            for (int i = 0; i < mCount; i++) {
+                mRing[(mHead + i) % mRing.length].clear();
+            }
+            mCount = 0;
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mCount;
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        synchronized (mLock) {
+            return mMaxDepth;
+        }
+    }
+
+    public long getRecordedCount() {
+        synchronized (mLock) {
+            return mRecorded;
+        }
+    }
+
+    /**
+     * Number of events dropped because a newer one of the same kind
+     * superseded them before they were delivered.
+     */
+    public long getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalesced;
+        }
+    }
+
+    /**
+     * Number of times the ring was full and had to grow.
+     */
+    public int getGrowthCount() {
+        synchronized (mLock) {
+            return mGrowths;
+        }
+    }
+
+    public long getDeliveredCount() {
+        return mDelivered;
+    }
+
+    public int getBatchCount() {
+        return mBatches;
+    }
+
+    // ---- Recording, on the SDK thread ----
+
+    @Override
+    public void onJoinChannelSuccess(String channel, int uid, int elapsed) {
+        record(JOIN_CHANNEL_SUCCESS, uid, elapsed, 0, 0, channel, null);
+    }
+
+    @Override
+    public void onRejoinChannelSuccess(String channel, int uid, int elapsed) {
+        record(REJOIN_CHANNEL_SUCCESS, uid, elapsed, 0, 0, channel, null);
+    }
+
+    @Override
+    public void onLeaveChannel(RtcStats stats) {
+        record(LEAVE_CHANNEL, 0, 0, 0, 0, null, stats);
+    }
+
+    @Override
+    public void onUserJoined(int uid, int elapsed) {
+        record(USER_JOINED, uid, elapsed, 0, 0, null, null);
+    }
+
+    @Override
+    public void onUserOffline(int uid, int reason) {
+        record(USER_OFFLINE, uid, reason, 0, 0, null, null);
+    }
+
+    @Override
+    public void onFirstRemoteVideoDecoded(int uid, int width, int height, int elapsed) {
+        record(FIRST_REMOTE_VIDEO_DECODED, uid, width, height, elapsed, null, null);
+    }
+
+    @Override
+    public void onFirstLocalVideoFrame(int width, int height, int elapsed) {
+        record(FIRST_LOCAL_VIDEO_FRAME, 0, width, height, elapsed, null, null);
+    }
+
+    @Override
+    public void onRemoteVideoStateChanged(int uid, int state, int reason, int elapsed) {
+        record(REMOTE_VIDEO_STATE_CHANGED, uid, state, reason, elapsed, null, null);
+    }
+
+    @Override
+    public void onConnectionStateChanged(int state, int reason) {
+        record(CONNECTION_STATE_CHANGED, 0, state, reason, 0, null, null);
+    }
+
+    @Override
+    public void onConnectionLost() {
+        record(CONNECTION_LOST, 0, 0, 0, 0, null, null);
+    }
+
+    @Override
+    public void onTokenPrivilegeWillExpire(String token) {
+        record(TOKEN_WILL_EXPIRE, 0, 0, 0, 0, token, null);
+    }
+
+    @Override
+    public void onRequestToken() {
+        record(REQUEST_TOKEN, 0, 0, 0, 0, null, null);
+    }
+
+    @Override
+    public void onError(int err) {
+        record(ERROR, 0, err, 0, 0, null, null);
+    }
+
+    @Override
+    public void onLocalPublishFallbackToAudioOnly(boolean isFallbackOrRecover) {
+        record(LOCAL_PUBLISH_FALLBACK, 0, isFallbackOrRecover ? 1 : 0, 0, 0, null, null);
+    }
+
+    @Override
+    public void onRemoteSubscribeFallbackToAudioOnly(int uid, boolean isFallbackOrRecover) {
+        record(REMOTE_SUBSCRIBE_FALLBACK, uid, isFallbackOrRecover ? 1 : 0, 0, 0, null, null);
+    }
+
+    @Override
+    public void onStreamMessage(int uid, int streamId, byte[] data) {
+        record(STREAM_MESSAGE, uid, streamId, 0, 0, null, data);
+    }
+
+    @Override
+    public void onStreamMessageError(int uid, int streamId, int error, int missed, int cached) {
+        record(STREAM_MESSAGE_ERROR, uid, streamId, error, missed, cached, null, null);
+    }
+
+    @Override
+    public void onLastmileQuality(int quality) {
+        record(LASTMILE_QUALITY, 0, quality, 0, 0, null, null);
+    }
+
+    @Override
+    public void onLastmileProbeResult(LastmileProbeResult result) {
+        record(LASTMILE_PROBE_RESULT, 0, 0, 0, 0, null, result);
+    }
+
+    @Override
+    public void onRtcStats(RtcStats stats) {
+        record(RTC_STATS, 0, 0, 0, 0, null, stats);
+    }
+
+    @Override
+    public void onLocalVideoStats(LocalVideoStats stats) {
+        record(LOCAL_VIDEO_STATS, 0, 0, 0, 0, null, stats);
+    }
+
+    @Override
+    public void onRemoteVideoStats(RemoteVideoStats stats) {
+        record(REMOTE_VIDEO_STATS, stats.uid, 0, 0, 0, null, stats);
+    }
+
+    @Override
+    public void onNetworkQuality(int uid, int txQuality, int rxQuality) {
+        record(NETWORK_QUALITY, uid, txQuality, rxQuality, 0, null, null);
+    }
+
+    @Override
+    public void onAudioVolumeIndication(AudioVolumeInfo[] speakers, int totalVolume) {
+        // Reports for the local user and for remote users arrive
+        // separately; keep them apart when coalescing.
+        int uid = isLocalReport(speakers) ? 0 : -1;
+        record(AUDIO_VOLUME, uid, totalVolume, 0, 0, null, speakers);
+    }
+
+    /**
+     * Every interval the SDK reports the local user's volume, as uid 0
+     * alone, separately from the remote speakers' report. Remote users are
+     * missing from the local report but are not silent.
+     */
+    public static boolean isLocalReport(AudioVolumeInfo[] speakers) {
+        return speakers != null && speakers.length == 1 && speakers[0].uid == 0;
+    }
+
+    private void record(int type, int uid, int a, int b, int c, String text, Object data) {
+        record(type, uid, a, b, c, 0, text, data);
+    }
+
+    private void record(int type, int uid, int a, int b, int c, int d, String text, Object data) {
+        boolean requestDrain = false;
+        synchronized (mLock) {
+            if (mShutdown) {
+                return;
+            }
+            mRecorded++;
+            Event event = type <= LAST_COALESCED ? findPending(type, uid) : null;
+            if (event != null) {
+                mCoalesced++;
+            } else {
+                if (mCount == mRing.length) {
+                    grow();
+                }
+                event = mRing[(mHead + mCount) % mRing.length];
+                mCount++;
+                mMaxDepth = Math.max(mMaxDepth, mCount);
+            }
+            event.type = type;
+            event.uid = uid;
+            event.a = a;
+            event.b = b;
+            event.c = c;
+            event.d = d;
+            event.text = text;
+            event.data = data;
+
+            if (!mDrainRequested) {
+                mDrainRequested = true;
+                requestDrain = true;
+            }
+        }
+        if (requestDrain && mScheduler != null) {
+            mScheduler.requestDrain();
+        }
+    }
+
+    private Event findPending(int type, int uid) {
+        // Walk back from the newest event. Stop at a state change for the
+        // same uid so stats never jump ahead of the user joining or leaving.
+        for (int i = mCount - 1; i >= 0; i--) {
+            Event event = mRing[(mHead + i) % mRing.length];
+            if (event.uid == uid) {
+                if (event.type == type) {
+                    return event;
+                }
+                if (event.type > LAST_COALESCED) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void grow() {
+        Event[] ring = new Event[mRing.length * 2];
+        for (int i = 0; i < mCount; i++) {
+            ring[i] = mRing[(mHead + i) % mRing.length];
+        }
+        for (int i = mCount; i < ring.length; i++) {
+            ring[i] = new Event();
+        }
+        mRing = ring;
+        mHead = 0;
+        mGrowths++;
+    }
+
+    // ---- Delivery, on the UI thread ----
+
+    private void deliver(Event event) {
+        if (mTarget == null) {
+            return;
+        }
+        switch (event.type) {
+            case RTC_STATS:
+                mTarget.onRtcStats((RtcStats) event.data);
+                break;
+            case LOCAL_VIDEO_STATS:
+                mTarget.onLocalVideoStats((LocalVideoStats) event.data);
+                break;
+            case REMOTE_VIDEO_STATS:
+                mTarget.onRemoteVideoStats((RemoteVideoStats) event.data);
+                break;
+            case NETWORK_QUALITY:
+                mTarget.onNetworkQuality(event.uid, event.a, event.b);
+                break;
+            case AUDIO_VOLUME:
+                mTarget.onAudioVolumeIndication((AudioVolumeInfo[]) event.data, event.a);
+                break;
+            case JOIN_CHANNEL_SUCCESS:
+                mTarget.onJoinChannelSuccess(event.text, event.uid, event.a);
+                break;
+            case REJOIN_CHANNEL_SUCCESS:
+                mTarget.onRejoinChannelSuccess(event.text, event.uid, event.a);
+                break;
+            case LEAVE_CHANNEL:
+                mTarget.onLeaveChannel((RtcStats) event.data);
+                break;
+            case USER_JOINED:
+                mTarget.onUserJoined(event.uid, event.a);
+                break;
+            case USER_OFFLINE:
+                mTarget.onUserOffline(event.uid, event.a);
+                break;
+            case FIRST_REMOTE_VIDEO_DECODED:
+                mTarget.onFirstRemoteVideoDecoded(event.uid, event.a, event.b, event.c);
+                break;
+            case FIRST_LOCAL_VIDEO_FRAME:
+                mTarget.onFirstLocalVideoFrame(event.a, event.b, event.c);
+                break;
+            case REMOTE_VIDEO_STATE_CHANGED:
+                mTarget.onRemoteVideoStateChanged(event.uid, event.a, event.b, event.c);
+                break;
+            case CONNECTION_STATE_CHANGED:
+                mTarget.onConnectionStateChanged(event.a, event.b);
+                break;
+            case CONNECTION_LOST:
+                mTarget.onConnectionLost();
+                break;
+            case TOKEN_WILL_EXPIRE:
+                mTarget.onTokenPrivilegeWillExpire(event.text);
+                break;
+            case REQUEST_TOKEN:
+                mTarget.onRequestToken();
+                break;
+            case ERROR:
+                mTarget.onError(event.a);
+                break;
+            case LOCAL_PUBLISH_FALLBACK:
+                mTarget.onLocalPublishFallbackToAudioOnly(event.a != 0);
+                break;
+            case REMOTE_SUBSCRIBE_FALLBACK:
+                mTarget.onRemoteSubscribeFallbackToAudioOnly(event.uid, event.a != 0);
+                break;
+            case STREAM_MESSAGE:
+                mTarget.onStreamMessage(event.uid, event.a, (byte[]) event.data);
+                break;
+            case STREAM_MESSAGE_ERROR:
+                mTarget.onStreamMessageError(event.uid, event.a, event.b, event.c, event.d);
+                break;
+            case LASTMILE_QUALITY:
+                mTarget.onLastmileQuality(event.a);
+                break;
+            case LASTMILE_PROBE_RESULT:
+                mTarget.onLastmileProbeResult((LastmileProbeResult) event.data);
+                break;
+            default:
+                throw new IllegalStateException("Unknown event type " + event.type);
+        }
+    }
+
+    private static Event[] newEvents(int capacity) {
+        Event[] events = new Event[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new Event();
+        }
+        return events;
+    }
+}
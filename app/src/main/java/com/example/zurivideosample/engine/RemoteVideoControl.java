@@ -0,0 +1,12 @@
+package com.example.zurivideosample.engine;
+
+/**
+ * The per-user video subscription calls, offered both by the engine for
+ * its own channel and by every {@link CallChannel}.
+ */
+public interface RemoteVideoControl {
+
+    int setRemoteVideoStreamType(int uid, int streamType);
+
+    int muteRemoteVideoStream(int uid, boolean muted);
+}
@@ -0,0 +1,348 @@
+package com.example.zurivideosample.journal;
+
+import android.util.Log;
+
+import com.example.zurivideosample.call.ConnectionSupervisor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Records what happened on the call screen, engine callbacks and user
+ * actions, so a call that misbehaved in the field can be replayed with
+ * {@link JournalReader} on a JVM.
+ *
+ * Every record has the same size and goes straight into a memory-mapped
+ * file of fixed size, so recording costs a few stores on the UI thread
+ * and no allocation. The kernel writes the pages back by itself; every
+ * {@link #FLUSH_RECORDS} records, and on {@link #flush()}, they are also
+ * forced to disk on the executor, so little is lost if the process dies.
+ * The file is mapped on the executor too; until it is, records wait in a
+ * small buffer in memory, so the start of the screen is not lost.
+ *
+ * The records are a ring: once the file is full each record replaces the
+ * oldest one and the journal is marked wrapped. What went wrong is most
+ * likely near the end of the call, so the end is what is kept.
+ *
+ * Header: magic, version and record size, capacity in records, records
+ * written since the start (the newest is at that count minus one, modulo
+ * the capacity), flags, and the wall clock time recording started.
+ *
+ * Record: milliseconds since the journal was opened, type, a count of
+ * records that continue this one, uid and five values whose meaning
+ * depends on the type; see {@link JournalingEventHandler}.
+ *
+ * Recording is expected on the UI thread.
+ */
+public class CallJournal {
+    private static final String TAG = CallJournal.class.getSimpleName();
+
+    public static final String FILE_NAME = "call_journal.bin";
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    static final int MAGIC = 0x5a4a4c31; // "ZJL1"
+    static final int VERSION = 2;
+    static final int RECORD_SIZE = 32;
+    // The header takes the first record's place.
+    static final int HEADER_SIZE = RECORD_SIZE;
+    static final int FLAG_WRAPPED = 1;
+    static final int FLUSH_RECORDS = 512;
+    // Records kept while the file is being mapped.
+    static final int PENDING_RECORDS = 256;
+
+    // Record types. Engine events are numbered below ACTION.
+    static final int JOIN_CHANNEL_SUCCESS = 1;
+    static final int REJOIN_CHANNEL_SUCCESS = 2;
+    static final int LEAVE_CHANNEL = 3;
+    static final int USER_JOINED = 4;
+    static final int USER_OFFLINE = 5;
+    static final int FIRST_REMOTE_VIDEO_DECODED = 6;
+    static final int FIRST_LOCAL_VIDEO_FRAME = 7;
+    static final int REMOTE_VIDEO_STATE_CHANGED = 8;
+    static final int CONNECTION_STATE_CHANGED = 9;
+    static final int CONNECTION_LOST = 10;
+    static final int TOKEN_WILL_EXPIRE = 11;
+    static final int REQUEST_TOKEN = 12;
+    static final int ERROR = 13;
+    static final int LOCAL_PUBLISH_FALLBACK = 14;
+    static final int REMOTE_SUBSCRIBE_FALLBACK = 15;
+    static final int STREAM_MESSAGE = 16;
+    static final int STREAM_MESSAGE_ERROR = 17;
+    static final int LASTMILE_QUALITY = 18;
+    static final int LASTMILE_PROBE_RESULT = 19;
+    static final int RTC_STATS = 20;
+    static final int LOCAL_VIDEO_STATS = 21;
+    static final int REMOTE_VIDEO_STATS = 22;
+    static final int NETWORK_QUALITY = 23;
+    static final int AUDIO_VOLUME = 24;
+    // Continues an AUDIO_VOLUME record, one per speaker.
+    static final int SPEAKER = 25;
+    static final int ACTION = 100;
+
+    // User actions, recorded as ACTION with the action in uid. Joining
+    // once the engine is ready and going to the background are not clicks,
+    // but a replay needs them as much.
+    public static final int ACTION_JOIN = 1;
+    public static final int ACTION_CALL = 2;
+    public static final int ACTION_MUTE = 3;
+    public static final int ACTION_SWITCH_CAMERA = 4;
+    public static final int ACTION_SWAP_LOCAL_VIDEO = 5;
+    public static final int ACTION_BACKGROUND = 6;
+    public static final int ACTION_PICTURE_IN_PICTURE = 7;
+
+    private final File mFile;
+    private final int mCapacity;
+    private final ConnectionSupervisor.Timer mTimer;
+    private final Executor mExecutor;
+    private final long mStartedAtMs;
+
+    // Set once the file is mapped, on the executor.
+    private volatile MappedByteBuffer mBuffer;
+    private RandomAccessFile mRandomAccessFile;
+
+    // UI thread only, until closed. The pending records are laid out as
+    // in the file.
+    private final ByteBuffer mPending =
+            ByteBuffer.allocate(PENDING_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private int mPendingCount;
+    private int mCount;
+    private int mUnflushed;
+    private long mDropped;
+    private boolean mWrapped;
+    private boolean mClosed;
+
+    /**
+     * @param file     replaced by a new journal; the previous one is kept
+     *                 next to it, see {@link #previousFile(File)}
+     * @param maxBytes the size of the file
+     * @param timer    times the records
+     * @param executor maps, flushes and closes the file, off the UI thread
+     */
+    public CallJournal(File file, int maxBytes, ConnectionSupervisor.Timer timer, Executor executor) {
+        mFile = file;
+        mCapacity = maxBytes / RECORD_SIZE - 1;
+        mTimer = timer;
+        mExecutor = executor;
+        mStartedAtMs = timer.now();
+        final long startedAtWallMs = System.currentTimeMillis();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    map(startedAtWallMs);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot open the journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Where the journal of the call screen before is kept.
+     */
+    public static File previousFile(File file) {
+        return new File(file.getPath() + ".prev");
+    }
+
+    private void map(long startedAtWallMs) throws IOException {
+        File previous = previousFile(mFile);
+        if (mFile.exists() && (!previous.exists() || previous.delete()) && !mFile.renameTo(previous)) {
+            Log.w(TAG, "Cannot keep the previous journal");
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(0);
+        long size = HEADER_SIZE + (long) mCapacity * RECORD_SIZE;
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, (short) VERSION);
+        buffer.putShort(6, (short) RECORD_SIZE);
+        buffer.putInt(8, mCapacity);
+        buffer.putInt(12, 0);
+        buffer.putInt(16, 0);
+        buffer.putLong(20, startedAtWallMs);
+        synchronized (this) {
+            mRandomAccessFile = file;
+        }
+        mBuffer = buffer;
+    }
+
+    /**
+     * Records a user action.
+     *
+     * @param value what the action changed to, as 1 for muted; 0 if it
+     *              toggles nothing
+     */
+    public void recordAction(int action, int value) {
+        record(ACTION, 0, action, value, 0, 0, 0, 0);
+    }
+
+    /**
+     * Appends one record. Dropped only after close, or if more than
+     * {@link #PENDING_RECORDS} come before the file is mapped.
+     *
+     * @param continued how many of the following records belong to this one
+     */
+    void record(int type, int continued, int uid, int a, int b, int c, int d, int e) {
+        if (mClosed) {
+            mDropped++;
+            return;
+        }
+        int time = (int) (mTimer.now() - mStartedAtMs);
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer == null) {
+            if (mPendingCount == PENDING_RECORDS) {
+                mDropped++;
+                return;
+            }
+            put(mPending, mPendingCount++ * RECORD_SIZE, time, type, continued, uid, a, b, c, d, e);
+            return;
+        }
+        if (mPendingCount > 0) {
+            movePending(buffer);
+        }
+        put(buffer, nextOffset(), time, type, continued, uid, a, b, c, d, e);
+        commit(buffer);
+        if (mUnflushed >= FLUSH_RECORDS) {
+            flush();
+        }
+    }
+
+    private static void put(ByteBuffer buffer, int offset, int time, int type, int continued,
+                            int uid, int a, int b, int c, int d, int e) {
+        buffer.putInt(offset, time);
+        buffer.putShort(offset + 4, (short) type);
+        buffer.putShort(offset + 6, (short) continued);
+        buffer.putInt(offset + 8, uid);
+        buffer.putInt(offset + 12, a);
+        buffer.putInt(offset + 16, b);
+        buffer.putInt(offset + 20, c);
+        buffer.putInt(offset + 24, d);
+        buffer.putInt(offset + 28, e);
+    }
+
+    // Where the next record goes: after the newest, over the oldest once
+    // the file is full.
+    private int nextOffset() {
+        return HEADER_SIZE + (mCount % mCapacity) * RECORD_SIZE;
+    }
+
+    private void commit(MappedByteBuffer buffer) {
+        mCount++;
+        if (mCount > mCapacity && !mWrapped) {
+            mWrapped = true;
+            buffer.putInt(16, FLAG_WRAPPED);
+            Log.i(TAG, "Journal full after " + mCapacity + " records, overwriting the oldest");
+        }
+        // Written after the record, so a reader never sees a count ahead
+        // of the records.
+        buffer.putInt(12, mCount);
+        mUnflushed++;
+    }
+
+    private void movePending(MappedByteBuffer buffer) {
+        for (int i = 0; i < mPendingCount; i++) {
+            int offset = nextOffset();
+            for (int j = 0; j < RECORD_SIZE; j += 8) {
+                buffer.putLong(offset + j, mPending.getLong(i * RECORD_SIZE + j));
+            }
+            commit(buffer);
+        }
+        mPendingCount = 0;
+    }
+
+    /**
+     * Forces what was recorded so far to disk, on the executor.
+     */
+    public void flush() {
+        final MappedByteBuffer buffer = mBuffer;
+        if (buffer == null) {
+            return;
+        }
+        if (mPendingCount > 0) {
+            movePending(buffer);
+        }
+        if (mUnflushed == 0) {
+            return;
+        }
+        mUnflushed = 0;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                buffer.force();
+            }
+        });
+    }
+
+    /**
+     * Flushes and closes the file. Nothing is recorded after. Records
+     * still waiting for the file are written once it is mapped.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        flush();
+        mClosed = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CallJournal.this) {
+                    if (mRandomAccessFile == null) {
+                        return;
+                    }
+                    // Mapped after the last record; nothing else touches
+                    // the records once closed.
+                    MappedByteBuffer buffer = mBuffer;
+                    if (mPendingCount > 0) {
+                        movePending(buffer);
+                        buffer.force();
+                    }
+                    try {
+                        mRandomAccessFile.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Cannot close the journal", e);
+                    }
+                    mRandomAccessFile = null;
+                }
+            }
+        });
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Records made since the start, including those since overwritten.
+     */
+    public int getRecordCount() {
+        return mCount + mPendingCount;
+    }
+
+    /**
+     * Records lost because too many came before the file was mapped, or
+     * after close.
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Whether the file filled up and the oldest records were overwritten.
+     */
+    public boolean isWrapped() {
+        return mWrapped;
+    }
+
+    @Override
+    public String toString() {
+        return getRecordCount() + " records, " + mDropped + " dropped" + (mWrapped ? ", wrapped" : "");
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.zurivideosample.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Reads a {@link CallJournal} back and replays it, so a call pulled from a
+ * device can be run through the call logic again on a JVM.
+ *
+ * Replay is driven by the records alone: the player's clock is moved to
+ * each record's time before the record is delivered, so timers in the call
+ * logic fire between the same events they fired between on the device.
+ * Callbacks go to the given handler with the stats rebuilt from the
+ * recorded fields; user actions go to the player.
+ *
+ * A journal that wrapped only has the end of the call, from the oldest
+ * record kept; the replay starts there, mid-call. Run one pulled off a
+ * device with {@code ./gradlew replayJournal -Pjournal=<file>}.
+ */
+public class JournalReader {
+
+    /**
+     * Drives the call logic being replayed into.
+     */
+    public interface Player {
+        /**
+         * Runs whatever is due up to this time, in milliseconds since the
+         * journal was opened. Never goes back.
+         */
+        void advanceTo(long timeMs);
+
+        /**
+         * @param action one of CallJournal's ACTION_ constants
+         */
+        void onAction(int action, int value);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    // The slot of the oldest record kept.
+    private final int mFirst;
+    private final int mCount;
+    private final boolean mWrapped;
+    private final long mStartedAtWallMs;
+
+    public JournalReader(File file) throws IOException {
+        byte[] bytes;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() < CallJournal.HEADER_SIZE) {
+                throw new IOException("Not a journal: " + file);
+            }
+            // Only read as far as the records written.
+            byte[] header = new byte[CallJournal.HEADER_SIZE];
+            in.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != CallJournal.MAGIC) {
+                throw new IOException("Not a journal: " + file);
+            }
+            if (buffer.getShort(4) != CallJournal.VERSION || buffer.getShort(6) != CallJournal.RECORD_SIZE) {
+                throw new IOException("Unsupported journal version " + buffer.getShort(4));
+            }
+            long available = (in.length() - CallJournal.HEADER_SIZE) / CallJournal.RECORD_SIZE;
+            int capacity = buffer.getInt(8);
+            int written = buffer.getInt(12);
+            if (capacity <= 0 || capacity > available) {
+                throw new IOException("Journal cut short: " + file);
+            }
+            int slots = Math.min(written, capacity);
+            bytes = new byte[CallJournal.HEADER_SIZE + slots * CallJournal.RECORD_SIZE];
+            System.arraycopy(header, 0, bytes, 0, header.length);
+            in.readFully(bytes, header.length, bytes.length - header.length);
+            mCapacity = capacity;
+            mWrapped = written > capacity;
+            if (mWrapped) {
+                // The oldest slot is the next to be overwritten, and may
+                // have been half way when the process died: skip it.
+                mFirst = (written + 1) % capacity;
+                mCount = capacity - 1;
+            } else {
+                mFirst = 0;
+                mCount = written;
+            }
+        } finally {
+            in.close();
+        }
+        mBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        mStartedAtWallMs = mBuffer.getLong(20);
+    }
+
+    public int getRecordCount() {
+        return mCount;
+    }
+
+    /**
+     * Whether the journal filled up and the start of the call is missing.
+     */
+    public boolean isWrapped() {
+        return mWrapped;
+    }
+
+    public long getStartedAtWallMs() {
+        return mStartedAtWallMs;
+    }
+
+    /**
+     * @return the time of the first record kept, in milliseconds since the
+     * journal was opened
+     */
+    public long getStartMs() {
+        return mCount > 0 ? time(0) : 0;
+    }
+
+    /**
+     * @return the time of the last record, in milliseconds since the journal
+     * was opened
+     */
+    public long getDurationMs() {
+        return mCount > 0 ? time(mCount - 1) : 0;
+    }
+
+    /**
+     * Feeds every record to the handler and the player, in order.
+     */
+    public void replay(IRtcEngineEventHandler events, Player player) {
+        int i = 0;
+        while (i < mCount) {
+            player.advanceTo(time(i));
+            i = deliver(i, events, player);
+        }
+    }
+
+    private long time(int index) {
+        return mBuffer.getInt(offset(index)) & 0xffffffffL;
+    }
+
+    private int type(int index) {
+        return mBuffer.getShort(offset(index) + 4);
+    }
+
+    private int field(int index, int field) {
+        return mBuffer.getInt(offset(index) + 8 + field * 4);
+    }
+
+    // Where the index-th record kept, from the oldest, is in the file.
+    private int offset(int index) {
+        return CallJournal.HEADER_SIZE + ((mFirst + index) % mCapacity) * CallJournal.RECORD_SIZE;
+    }
+
+    // Delivers the record at index, returns the index of the next one.
+    private int deliver(int i, IRtcEngineEventHandler events, Player player) {
+        int uid = field(i, 0);
+        int a = field(i, 1);
+        int b = field(i, 2);
+        int c = field(i, 3);
+        int d = field(i, 4);
+        int e = field(i, 5);
+        switch (type(i)) {
+            case CallJournal.JOIN_CHANNEL_SUCCESS:
+                events.onJoinChannelSuccess(null, uid, a);
+                break;
+            case CallJournal.REJOIN_CHANNEL_SUCCESS:
+                events.onRejoinChannelSuccess(null, uid, a);
+                break;
+            case CallJournal.LEAVE_CHANNEL:
+                events.onLeaveChannel(rtcStats(uid, a, b, c, d));
+                break;
+            case CallJournal.USER_JOINED:
+                events.onUserJoined(uid, a);
+                break;
+            case CallJournal.USER_OFFLINE:
+                events.onUserOffline(uid, a);
+                break;
+            case CallJournal.FIRST_REMOTE_VIDEO_DECODED:
+                events.onFirstRemoteVideoDecoded(uid, a, b, c);
+                break;
+            case CallJournal.FIRST_LOCAL_VIDEO_FRAME:
+                events.onFirstLocalVideoFrame(a, b, c);
+                break;
+            case CallJournal.REMOTE_VIDEO_STATE_CHANGED:
+                events.onRemoteVideoStateChanged(uid, a, b, c);
+                break;
+            case CallJournal.CONNECTION_STATE_CHANGED:
+                events.onConnectionStateChanged(a, b);
+                break;
+            case CallJournal.CONNECTION_LOST:
+                events.onConnectionLost();
+                break;
+            case CallJournal.TOKEN_WILL_EXPIRE:
+                events.onTokenPrivilegeWillExpire(null);
+                break;
+            case CallJournal.REQUEST_TOKEN:
+                events.onRequestToken();
+                break;
+            case CallJournal.ERROR:
+                events.onError(a);
+                break;
+            case CallJournal.LOCAL_PUBLISH_FALLBACK:
+                events.onLocalPublishFallbackToAudioOnly(a != 0);
+                break;
+            case CallJournal.REMOTE_SUBSCRIBE_FALLBACK:
+                events.onRemoteSubscribeFallbackToAudioOnly(uid, a != 0);
+                break;
+            case CallJournal.STREAM_MESSAGE:
+                // The contents were never recorded.
+                break;
+            case CallJournal.STREAM_MESSAGE_ERROR:
+                events.onStreamMessageError(uid, a, b, c, d);
+                break;
+            case CallJournal.LASTMILE_QUALITY:
+                events.onLastmileQuality(a);
+                break;
+            case CallJournal.LASTMILE_PROBE_RESULT:
+                events.onLastmileProbeResult(probeResult(uid, a, b, c, d, e));
+                break;
+            case CallJournal.RTC_STATS:
+                events.onRtcStats(rtcStats(uid, a, b, c, d));
+                break;
+            case CallJournal.LOCAL_VIDEO_STATS:
+                IRtcEngineEventHandler.LocalVideoStats local = new IRtcEngineEventHandler.LocalVideoStats();
+                local.sentBitrate = a;
+                local.sentFrameRate = b;
+                local.targetBitrate = c;
+                local.targetFrameRate = d;
+                local.txPacketLossRate = e;
+                events.onLocalVideoStats(local);
+                break;
+            case CallJournal.REMOTE_VIDEO_STATS:
+                IRtcEngineEventHandler.RemoteVideoStats remote = new IRtcEngineEventHandler.RemoteVideoStats();
+                remote.uid = uid;
+                remote.delay = a;
+                remote.receivedBitrate = b;
+                remote.rendererOutputFrameRate = c;
+                remote.packetLossRate = d;
+                remote.totalFrozenTime = e;
+                events.onRemoteVideoStats(remote);
+                break;
+            case CallJournal.NETWORK_QUALITY:
+                events.onNetworkQuality(uid, a, b);
+                break;
+            case CallJournal.AUDIO_VOLUME:
+                return deliverAudioVolume(i, events);
+            case CallJournal.SPEAKER:
+                // Its report was overwritten.
+                break;
+            case CallJournal.ACTION:
+                player.onAction(uid, a);
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + type(i) + " at " + i);
+        }
+        return i + 1;
+    }
+
+    private int deliverAudioVolume(int i, IRtcEngineEventHandler events) {
+        int declared = mBuffer.getShort(offset(i) + 6);
+        // The speakers that made it into the file; the last report of a
+        // journal cut short may have lost some.
+        int count = 0;
+        while (count < declared && i + 1 + count < mCount && type(i + 1 + count) == CallJournal.SPEAKER) {
+            count++;
+        }
+        IRtcEngineEventHandler.AudioVolumeInfo[] speakers = new IRtcEngineEventHandler.AudioVolumeInfo[count];
+        for (int s = 0; s < count; s++) {
+            IRtcEngineEventHandler.AudioVolumeInfo speaker = new IRtcEngineEventHandler.AudioVolumeInfo();
+            speaker.uid = field(i + 1 + s, 0);
+            speaker.volume = field(i + 1 + s, 1);
+            speaker.vad = field(i + 1 + s, 2);
+            speakers[s] = speaker;
+        }
+        events.onAudioVolumeIndication(speakers, field(i, 1));
+        return i + 1 + count;
+    }
+
+    private static IRtcEngineEventHandler.RtcStats rtcStats(int users, int txLoss, int rxLoss, int gatewayRtt,
+                                                            int lastmileDelay) {
+        IRtcEngineEventHandler.RtcStats stats = new IRtcEngineEventHandler.RtcStats();
+        stats.users = users;
+        stats.txPacketLossRate = txLoss;
+        stats.rxPacketLossRate = rxLoss;
+        stats.gatewayRtt = gatewayRtt;
+        stats.lastmileDelay = lastmileDelay;
+        return stats;
+    }
+
+    private static IRtcEngineEventHandler.LastmileProbeResult probeResult(int state, int rtt, int uplink,
+                                                                          int uplinkBandwidth, int downlink,
+                                                                          int downlinkBandwidth) {
+        IRtcEngineEventHandler.LastmileProbeResult result = new IRtcEngineEventHandler.LastmileProbeResult();
+        result.state = (short) state;
+        result.rtt = rtt;
+        result.uplinkReport.packetLossRate = uplink >>> 16;
+        result.uplinkReport.jitter = uplink & 0xffff;
+        result.uplinkReport.availableBandwidth = uplinkBandwidth;
+        result.downlinkReport.packetLossRate = downlink >>> 16;
+        result.downlinkReport.jitter = downlink & 0xffff;
+        result.downlinkReport.availableBandwidth = downlinkBandwidth;
+        return result;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.zurivideosample.journal;
+
+import com.example.zurivideosample.messaging.MessageCodec;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Records every engine callback into a {@link CallJournal}, then passes it
+ * on to the call's handler.
+ *
+ * It sits between the {@link com.example.zurivideosample.engine.CallEventDispatcher}
+ * and the call, so callbacks are recorded on the UI thread as the call
+ * sees them, after coalescing and in delivery order, and a replay feeds
+ * the call exactly what it got.
+ *
+ * Stats keep only the fields the app reads. Channel names, tokens and
+ * the contents of stream messages are never recorded: a stream message
+ * keeps its sender, stream, length and sequence number, and is not
+ * replayed.
+ */
+public class JournalingEventHandler extends IRtcEngineEventHandler {
+    private final CallJournal mJournal;
+    private final IRtcEngineEventHandler mTarget;
+
+    public JournalingEventHandler(CallJournal journal, IRtcEngineEventHandler target) {
+        mJournal = journal;
+        mTarget = target;
+    }
+
+    @Override
+    public void onJoinChannelSuccess(String channel, int uid, int elapsed) {
+        mJournal.record(CallJournal.JOIN_CHANNEL_SUCCESS, 0, uid, elapsed, 0, 0, 0, 0);
+        mTarget.onJoinChannelSuccess(channel, uid, elapsed);
+    }
+
+    @Override
+    public void onRejoinChannelSuccess(String channel, int uid, int elapsed) {
+        mJournal.record(CallJournal.REJOIN_CHANNEL_SUCCESS, 0, uid, elapsed, 0, 0, 0, 0);
+        mTarget.onRejoinChannelSuccess(channel, uid, elapsed);
+    }
+
+    @Override
+    public void onLeaveChannel(RtcStats stats) {
+        recordRtcStats(CallJournal.LEAVE_CHANNEL, stats);
+        mTarget.onLeaveChannel(stats);
+    }
+
+    @Override
+    public void onUserJoined(int uid, int elapsed) {
+        mJournal.record(CallJournal.USER_JOINED, 0, uid, elapsed, 0, 0, 0, 0);
+        mTarget.onUserJoined(uid, elapsed);
+    }
+
+    @Override
+    public void onUserOffline(int uid, int reason) {
+        mJournal.record(CallJournal.USER_OFFLINE, 0, uid, reason, 0, 0, 0, 0);
+        mTarget.onUserOffline(uid, reason);
+    }
+
+    @Override
+    public void onFirstRemoteVideoDecoded(int uid, int width, int height, int elapsed) {
+        mJournal.record(CallJournal.FIRST_REMOTE_VIDEO_DECODED, 0, uid, width, height, elapsed, 0, 0);
+        mTarget.onFirstRemoteVideoDecoded(uid, width, height, elapsed);
+    }
+
+    @Override
+    public void onFirstLocalVideoFrame(int width, int height, int elapsed) {
+        mJournal.record(CallJournal.FIRST_LOCAL_VIDEO_FRAME, 0, 0, width, height, elapsed, 0, 0);
+        mTarget.onFirstLocalVideoFrame(width, height, elapsed);
+    }
+
+    @Override
+    public void onRemoteVideoStateChanged(int uid, int state, int reason, int elapsed) {
+        mJournal.record(CallJournal.REMOTE_VIDEO_STATE_CHANGED, 0, uid, state, reason, elapsed, 0, 0);
+        mTarget.onRemoteVideoStateChanged(uid, state, reason, elapsed);
+    }
+
+    @Override
+    public void onConnectionStateChanged(int state, int reason) {
+        mJournal.record(CallJournal.CONNECTION_STATE_CHANGED, 0, 0, state, reason, 0, 0, 0);
+        mTarget.onConnectionStateChanged(state, reason);
+    }
+
+    @Override
+    public void onConnectionLost() {
+        mJournal.record(CallJournal.CONNECTION_LOST, 0, 0, 0, 0, 0, 0, 0);
+        mTarget.onConnectionLost();
+    }
+
+    @Override
+    public void onTokenPrivilegeWillExpire(String token) {
+        mJournal.record(CallJournal.TOKEN_WILL_EXPIRE, 0, 0, 0, 0, 0, 0, 0);
+        mTarget.onTokenPrivilegeWillExpire(token);
+    }
+
+    @Override
+    public void onRequestToken() {
+        mJournal.record(CallJournal.REQUEST_TOKEN, 0, 0, 0, 0, 0, 0, 0);
+        mTarget.onRequestToken();
+    }
+
+    @Override
+    public void onError(int err) {
+        mJournal.record(CallJournal.ERROR, 0, 0, err, 0, 0, 0, 0);
+        mTarget.onError(err);
+    }
+
+    @Override
+    public void onLocalPublishFallbackToAudioOnly(boolean isFallbackOrRecover) {
+        mJournal.record(CallJournal.LOCAL_PUBLISH_FALLBACK, 0, 0, isFallbackOrRecover ? 1 : 0, 0, 0, 0, 0);
+        mTarget.onLocalPublishFallbackToAudioOnly(isFallbackOrRecover);
+    }
+
+    @Override
+    public void onRemoteSubscribeFallbackToAudioOnly(int uid, boolean isFallbackOrRecover) {
+        mJournal.record(CallJournal.REMOTE_SUBSCRIBE_FALLBACK, 0, uid, isFallbackOrRecover ? 1 : 0, 0, 0, 0, 0);
+        mTarget.onRemoteSubscribeFallbackToAudioOnly(uid, isFallbackOrRecover);
+    }
+
+    @Override
+    public void onStreamMessage(int uid, int streamId, byte[] data) {
+        mJournal.record(CallJournal.STREAM_MESSAGE, 0, uid, streamId, data.length,
+                MessageCodec.readSequence(data, data.length), 0, 0);
+        mTarget.onStreamMessage(uid, streamId, data);
+    }
+
+    @Override
+    public void onStreamMessageError(int uid, int streamId, int error, int missed, int cached) {
+        mJournal.record(CallJournal.STREAM_MESSAGE_ERROR, 0, uid, streamId, error, missed, cached, 0);
+        mTarget.onStreamMessageError(uid, streamId, error, missed, cached);
+    }
+
+    @Override
+    public void onLastmileQuality(int quality) {
+        mJournal.record(CallJournal.LASTMILE_QUALITY, 0, 0, quality, 0, 0, 0, 0);
+        mTarget.onLastmileQuality(quality);
+    }
+
+    @Override
+    public void onLastmileProbeResult(LastmileProbeResult result) {
+        // Loss and jitter share an int, each fits 16 bits.
+        mJournal.record(CallJournal.LASTMILE_PROBE_RESULT, 0, result.state, result.rtt,
+                pack(result.uplinkReport.packetLossRate, result.uplinkReport.jitter),
+                result.uplinkReport.availableBandwidth,
+                pack(result.downlinkReport.packetLossRate, result.downlinkReport.jitter),
+                result.downlinkReport.availableBandwidth);
+        mTarget.onLastmileProbeResult(result);
+    }
+
+    @Override
+    public void onRtcStats(RtcStats stats) {
+        recordRtcStats(CallJournal.RTC_STATS, stats);
+        mTarget.onRtcStats(stats);
+    }
+
+    @Override
+    public void onLocalVideoStats(LocalVideoStats stats) {
+        mJournal.record(CallJournal.LOCAL_VIDEO_STATS, 0, 0, stats.sentBitrate, stats.sentFrameRate,
+                stats.targetBitrate, stats.targetFrameRate, stats.txPacketLossRate);
+        mTarget.onLocalVideoStats(stats);
+    }
+
+    @Override
+    public void onRemoteVideoStats(RemoteVideoStats stats) {
+        mJournal.record(CallJournal.REMOTE_VIDEO_STATS, 0, stats.uid, stats.delay, stats.receivedBitrate,
+                stats.rendererOutputFrameRate, stats.packetLossRate, stats.totalFrozenTime);
+        mTarget.onRemoteVideoStats(stats);
+    }
+
+    @Override
+    public void onNetworkQuality(int uid, int txQuality, int rxQuality) {
+        mJournal.record(CallJournal.NETWORK_QUALITY, 0, uid, txQuality, rxQuality, 0, 0, 0);
+        mTarget.onNetworkQuality(uid, txQuality, rxQuality);
+    }
+
+    @Override
+    public void onAudioVolumeIndication(AudioVolumeInfo[] speakers, int totalVolume) {
+        // One record for the report, then one per speaker.
+        int count = speakers != null ? speakers.length : 0;
+        mJournal.record(CallJournal.AUDIO_VOLUME, count, 0, totalVolume, 0, 0, 0, 0);
+        for (int i = 0; i < count; i++) {
+            AudioVolumeInfo speaker = speakers[i];
+            mJournal.record(CallJournal.SPEAKER, 0, speaker.uid, speaker.volume, speaker.vad, 0, 0, 0);
+        }
+        mTarget.onAudioVolumeIndication(speakers, totalVolume);
+    }
+
+    private void recordRtcStats(int type, RtcStats stats) {
+        if (stats == null) {
+            mJournal.record(type, 0, 0, 0, 0, 0, 0, 0);
+            return;
+        }
+        mJournal.record(type, 0, stats.users, stats.txPacketLossRate, stats.rxPacketLossRate,
+                stats.gatewayRtt, stats.lastmileDelay, 0);
+    }
+
+    static int pack(int high, int low) {
+        return (high << 16) | (low & 0xffff);
+    }
+}
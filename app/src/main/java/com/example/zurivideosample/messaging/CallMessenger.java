@@ -0,0 +1,354 @@
+package com.example.zurivideosample.messaging;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.zurivideosample.call.ConnectionSupervisor;
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.telemetry.Histogram;
+import com.example.zurivideosample.util.UidMap;
+
+/**
+ * Application messages between the users of a call, such as reactions,
+ * raised hands or cursor positions, over the SDK's data streams.
+ *
+ * Every message is sent with a choice of {@link #FLAG_RELIABLE} and
+ * {@link #FLAG_ORDERED}; each combination has a data stream of its own,
+ * created on first use. Messages are batched per stream by a
+ * {@link MessageBatcher} within {@link #BATCH_WINDOW_MS} and encoded with
+ * {@link MessageCodec}. Packets are paced to the SDK's limit of 30 a
+ * second per user, shared by all streams.
+ *
+ * Latency is measured end to end, from {@link #send} on one device to
+ * delivery on another, with the senders' wall clocks. Phones keep those
+ * within a few tens of milliseconds of each other, which is as precise
+ * as the figure gets.
+ *
+ * All methods must be called on the UI thread, where the event handler
+ * delivers stream messages.
+ */
+public class CallMessenger {
+    private static final String TAG = CallMessenger.class.getSimpleName();
+
+    public static final int FLAG_RELIABLE = 1;
+    public static final int FLAG_ORDERED = 2;
+
+    // About a frame: long enough to catch a burst, short enough not to
+    // show.
+    public static final int BATCH_WINDOW_MS = 15;
+
+    // The SDK allows 30 packets a second per user. Allow a short burst,
+    // then one every interval.
+    static final int PACKETS_PER_SECOND = 30;
+    static final int PACKET_BURST = 6;
+    private static final int PACKET_INTERVAL_MS = 1000 / PACKETS_PER_SECOND + 1;
+
+    // A lossy stream only keeps the freshest packets; a reliable one up to
+    // about a second's worth.
+    private static final int LOSSY_BACKLOG = 2;
+    private static final int RELIABLE_BACKLOG = PACKETS_PER_SECOND;
+
+    private static final int[] LATENCY_BOUNDS_MS = {
+            10, 20, 30, 40, 50, 60, 80, 100, 120, 150, 200, 250, 300, 400,
+            500, 750, 1000, 1500, 2000, 3000, 5000
+    };
+
+    public interface Listener {
+        /**
+         * A message arrived. The payload is only valid during the call.
+         */
+        void onMessage(int uid, int type, byte[] payload, int offset, int length);
+    }
+
+    private final CallEngine mEngine;
+    private final ConnectionSupervisor.Timer mTimer;
+    // Wall clock minus the timer's clock, to stamp packets without asking
+    // the system clock for every message.
+    private final long mWallClockOffsetMs;
+    private Listener mListener;
+
+    // One per combination of flags, and its stream, 0 until created.
+    private final MessageBatcher[] mBatchers = new MessageBatcher[4];
+    private final int[] mStreamIds = new int[4];
+    private final MessageBatcher.Output[] mOutputs = new MessageBatcher.Output[4];
+
+    private double mTokens = PACKET_BURST;
+    private long mTokensAtMs;
+    private boolean mFlushScheduled;
+    private long mFlushAtMs;
+
+    // Last sequence number per uid and stream id, -1 for none.
+    private final UidMap<int[]> mSequences = new UidMap<>();
+    private final Histogram mLatency = new Histogram(LATENCY_BOUNDS_MS);
+    private long mReceivedMessages;
+    private long mLostPackets;
+    private long mMalformedPackets;
+    private long mStreamErrors;
+    private long mSendErrors;
+    private int mReceivingUid;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    private final MessageCodec.Handler mReader = new MessageCodec.Handler() {
+        @Override
+        public void onMessage(int type, byte[] packet, int offset, int length, long queuedAtMs) {
+            mReceivedMessages++;
+            long latency = MessageCodec.elapsed(queuedAtMs, wallNow());
+            mLatency.record((int) Math.max(0, Math.min(latency, Integer.MAX_VALUE)));
+            if (mListener != null) {
+                mListener.onMessage(mReceivingUid, type, packet, offset, length);
+            }
+        }
+    };
+
+    public CallMessenger(CallEngine engine, ConnectionSupervisor.Timer timer) {
+        mEngine = engine;
+        mTimer = timer;
+        mWallClockOffsetMs = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        mTokensAtMs = timer.now();
+        for (int i = 0; i < mBatchers.length; i++) {
+            boolean reliable = (i & FLAG_RELIABLE) != 0;
+            mBatchers[i] = new MessageBatcher(BATCH_WINDOW_MS,
+                    reliable ? RELIABLE_BACKLOG : LOSSY_BACKLOG, !reliable);
+            final int kind = i;
+            mOutputs[i] = new MessageBatcher.Output() {
+                @Override
+                public boolean send(byte[] packet) {
+                    return sendPacket(kind, packet);
+                }
+            };
+        }
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Queues a message to everyone in the channel.
+     *
+     * @param type    what the message is, small numbers encode smallest
+     * @param payload the message, at most {@link MessageBatcher#maxPayload}
+     *                bytes; copied before this returns
+     * @param flags   {@link #FLAG_RELIABLE} to have it retransmitted until
+     *                it arrives, {@link #FLAG_ORDERED} to have it arrive in
+     *                the order sent
+     * @return false if it was dropped
+     */
+    public boolean send(int type, byte[] payload, int flags) {
+        return send(type, payload, 0, payload.length, flags);
+    }
+
+    public boolean send(int type, byte[] payload, int offset, int length, int flags) {
+        int kind = flags & (FLAG_RELIABLE | FLAG_ORDERED);
+        long now = mTimer.now();
+        if (!mBatchers[kind].add(type, payload, offset, length, now, now + mWallClockOffsetMs)) {
+            return false;
+        }
+        schedule(now);
+        return true;
+    }
+
+    /**
+     * Drops every queued message, as when leaving the channel.
+     */
+    public void clear() {
+        for (MessageBatcher batcher : mBatchers) {
+            batcher.clear();
+        }
+        mSequences.clear();
+        if (mFlushScheduled) {
+            mTimer.removeCallbacks(mFlushTask);
+            mFlushScheduled = false;
+        }
+    }
+
+    /**
+     * Reported by IRtcEngineEventHandler.onStreamMessage.
+     */
+    public void onStreamMessage(int uid, int streamId, byte[] data) {
+        int sequence = MessageCodec.readSequence(data, data.length);
+        if (sequence < 0) {
+            mMalformedPackets++;
+            return;
+        }
+        countLost(uid, streamId, sequence);
+        mReceivingUid = uid;
+        if (MessageCodec.read(data, data.length, mReader) < 0) {
+            mMalformedPackets++;
+        }
+    }
+
+    /**
+     * Reported by IRtcEngineEventHandler.onStreamMessageError, when a
+     * reliable stream gave up on packets.
+     */
+    public void onStreamMessageError(int uid, int streamId, int error, int missed, int cached) {
+        mStreamErrors++;
+        mLostPackets += missed;
+    }
+
+    // Packets from a stream carry consecutive sequence numbers, so a jump
+    // means packets were lost; a step back on an unordered stream is one
+    // arriving late.
+    private void countLost(int uid, int streamId, int sequence) {
+        if (streamId < 0 || streamId >= 8) {
+            return;
+        }
+        int[] last = mSequences.get(uid);
+        if (last == null) {
+            last = new int[8];
+            for (int i = 0; i < last.length; i++) {
+                last[i] = -1;
+            }
+            mSequences.put(uid, last);
+        }
+        if (last[streamId] >= 0) {
+            int gap = (sequence - last[streamId]) & 0xFFFF;
+            if (gap == 0 || gap >= 0x8000) {
+                return;
+            }
+            mLostPackets += gap - 1;
+        }
+        last[streamId] = sequence;
+    }
+
+    private void schedule(long now) {
+        long due = Long.MAX_VALUE;
+        for (MessageBatcher batcher : mBatchers) {
+            long at = batcher.getDueAtMs();
+            if (at >= 0) {
+                due = Math.min(due, at);
+            }
+        }
+        if (due == Long.MAX_VALUE) {
+            return;
+        }
+        due = Math.max(due, now);
+        if (mFlushScheduled) {
+            if (mFlushAtMs <= due) {
+                return;
+            }
+            mTimer.removeCallbacks(mFlushTask);
+        }
+        mFlushScheduled = true;
+        mFlushAtMs = due;
+        mTimer.postDelayed(mFlushTask, due - now);
+    }
+
+    private void flush() {
+        long now = mTimer.now();
+        refillTokens(now);
+        for (int i = 0; i < mBatchers.length; i++) {
+            mBatchers[i].flush(now, mOutputs[i]);
+        }
+        // Whatever the budget did not cover goes out as tokens come back.
+        boolean waiting = false;
+        for (MessageBatcher batcher : mBatchers) {
+            waiting |= batcher.getBacklogSize() > 0;
+        }
+        if (waiting) {
+            mFlushScheduled = true;
+            mFlushAtMs = now + PACKET_INTERVAL_MS;
+            mTimer.postDelayed(mFlushTask, PACKET_INTERVAL_MS);
+        } else {
+            schedule(now);
+        }
+    }
+
+    private void refillTokens(long now) {
+        mTokens = Math.min(PACKET_BURST, mTokens + (now - mTokensAtMs) * PACKETS_PER_SECOND / 1000.0);
+        mTokensAtMs = now;
+    }
+
+    private boolean sendPacket(int kind, byte[] packet) {
+        if (mTokens < 1) {
+            return false;
+        }
+        if (mStreamIds[kind] <= 0) {
+            int id = mEngine.createDataStream((kind & FLAG_RELIABLE) != 0, (kind & FLAG_ORDERED) != 0);
+            if (id <= 0) {
+                Log.w(TAG, "Cannot create a data stream: " + id);
+                mSendErrors++;
+                // Drop the packet rather than retry forever.
+                return true;
+            }
+            mStreamIds[kind] = id;
+        }
+        int result = mEngine.sendStreamMessage(mStreamIds[kind], packet);
+        if (result < 0) {
+            mSendErrors++;
+        }
+        mTokens--;
+        return true;
+    }
+
+    private long wallNow() {
+        return mTimer.now() + mWallClockOffsetMs;
+    }
+
+    /**
+     * End-to-end latency of received messages, in milliseconds.
+     */
+    public Histogram getLatency() {
+        return mLatency;
+    }
+
+    public long getSentMessages() {
+        long sent = 0;
+        for (MessageBatcher batcher : mBatchers) {
+            sent += batcher.getSentMessages();
+        }
+        return sent;
+    }
+
+    public long getSentPackets() {
+        long sent = 0;
+        for (MessageBatcher batcher : mBatchers) {
+            sent += batcher.getSentPackets();
+        }
+        return sent;
+    }
+
+    public long getDroppedMessages() {
+        long dropped = 0;
+        for (MessageBatcher batcher : mBatchers) {
+            dropped += batcher.getDroppedMessages();
+        }
+        return dropped;
+    }
+
+    public long getReceivedMessages() {
+        return mReceivedMessages;
+    }
+
+    /**
+     * Packets from others that never arrived.
+     */
+    public long getLostPackets() {
+        return mLostPackets;
+    }
+
+    public long getMalformedPackets() {
+        return mMalformedPackets;
+    }
+
+    public long getSendErrors() {
+        return mSendErrors;
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + getSentMessages() + " in " + getSentPackets() + " packets, dropped "
+                + getDroppedMessages() + ", send errors " + mSendErrors + "; received "
+                + mReceivedMessages + ", lost packets " + mLostPackets + ", stream errors "
+                + mStreamErrors + ", latency p50 " + mLatency.percentile(50) + "ms p95 "
+                + mLatency.percentile(95) + "ms";
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.zurivideosample.messaging;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Packs the messages of one data stream into packets.
+ *
+ * Messages are appended to an open packet, which closes when the next
+ * message does not fit or when the batching window since its first message
+ * has passed; a burst of small messages then costs one packet, not one
+ * each. Closed packets wait in a bounded backlog until the stream may
+ * send. While they wait, the open packet stays open past its window and
+ * keeps filling, so a stream held back by the rate limit sends fewer,
+ * fuller packets. When the backlog is full, a lossy stream drops its
+ * oldest packet, which is the most stale, while a reliable stream refuses
+ * new messages.
+ *
+ * Pure Java and not thread-safe: times are passed in, and sending and
+ * scheduling are up to the owner.
+ */
+public class MessageBatcher {
+    public interface Output {
+        /**
+         * @return false if the packet cannot be sent now and should be
+         * tried again later
+         */
+        boolean send(byte[] packet);
+    }
+
+    private final int mWindowMs;
+    private final int mMaxBacklog;
+    private final boolean mLossy;
+
+    private final byte[] mOpen = new byte[MessageCodec.MAX_PACKET_BYTES];
+    private int mOpenLength;
+    private int mOpenCount;
+    private long mOpenedAtMs;
+    private long mOpenedAtWallMs;
+
+    private final ArrayDeque<byte[]> mBacklog = new ArrayDeque<>();
+    // Messages in each backlog packet, for the drop counter.
+    private final ArrayDeque<Integer> mBacklogCounts = new ArrayDeque<>();
+    private int mSequence;
+
+    private long mQueuedMessages;
+    private long mSentMessages;
+    private long mSentPackets;
+    private long mDroppedMessages;
+
+    /**
+     * @param windowMs   how long the first message of a packet may wait
+     *                   for more
+     * @param maxBacklog closed packets that may wait to be sent
+     * @param lossy      whether old packets may be dropped for new ones
+     */
+    public MessageBatcher(int windowMs, int maxBacklog, boolean lossy) {
+        mWindowMs = windowMs;
+        mMaxBacklog = maxBacklog;
+        mLossy = lossy;
+    }
+
+    /**
+     * The largest payload a message can have.
+     */
+    public static int maxPayload(int type) {
+        int room = MessageCodec.MAX_PACKET_BYTES - MessageCodec.HEADER_BYTES;
+        // The offset and length take at most two bytes each within a packet.
+        return room - 2 - MessageCodec.varintSize(type) - 2;
+    }
+
+    /**
+     * Queues a message.
+     *
+     * @param nowMs     monotonic time, for the batching window
+     * @param wallNowMs wall clock time, sent along for the receiver's
+     *                  latency
+     * @return false if the message was dropped: too large, or the backlog
+     * of a reliable stream is full
+     */
+    public boolean add(int type, byte[] payload, int offset, int length, long nowMs, long wallNowMs) {
+        if (length > maxPayload(type)) {
+            mDroppedMessages++;
+            return false;
+        }
+        int offsetMs = mOpenCount == 0 ? 0 : (int) Math.max(0, wallNowMs - mOpenedAtWallMs);
+        int size = MessageCodec.messageSize(offsetMs, type, length);
+        // A packet past its window is closed even if nobody flushed it, so
+        // offsets stay small, unless it would only wait behind others.
+        if (mOpenCount > 0 && (mOpenLength + size > mOpen.length
+                || (nowMs >= mOpenedAtMs + mWindowMs && mBacklog.isEmpty()))) {
+            if (!close()) {
+                mDroppedMessages++;
+                return false;
+            }
+            offsetMs = 0;
+        }
+        if (mOpenCount == 0) {
+            mOpenLength = MessageCodec.HEADER_BYTES;
+            mOpenedAtMs = nowMs;
+            mOpenedAtWallMs = wallNowMs;
+        }
+        mOpenLength = MessageCodec.writeMessage(mOpen, mOpenLength, offsetMs, type, payload, offset, length);
+        mOpenCount++;
+        mQueuedMessages++;
+        return true;
+    }
+
+    /**
+     * When the open packet's window ends, or -1 if there is none. Packets in
+     * the backlog are due right away.
+     */
+    public long getDueAtMs() {
+        if (!mBacklog.isEmpty()) {
+            return 0;
+        }
+        return mOpenCount > 0 ? mOpenedAtMs + mWindowMs : -1;
+    }
+
+    public boolean hasPending() {
+        return mOpenCount > 0 || !mBacklog.isEmpty();
+    }
+
+    /**
+     * Sends from the backlog until the output refuses, then closes and
+     * sends the open packet if its window has passed.
+     *
+     * @return packets sent
+     */
+    public int flush(long nowMs, Output output) {
+        int sent = send(output);
+        if (mOpenCount > 0 && nowMs >= mOpenedAtMs + mWindowMs && mBacklog.isEmpty()) {
+            close();
+            sent += send(output);
+        }
+        return sent;
+    }
+
+    private int send(Output output) {
+        int sent = 0;
+        while (!mBacklog.isEmpty()) {
+            if (!output.send(mBacklog.peekFirst())) {
+                break;
+            }
+            mBacklog.pollFirst();
+            mSentMessages += mBacklogCounts.pollFirst();
+            mSentPackets++;
+            sent++;
+        }
+        return sent;
+    }
+
+    /**
+     * Drops every queued message.
+     */
+    public void clear() {
+        for (Integer count : mBacklogCounts) {
+            mDroppedMessages += count;
+        }
+        mDroppedMessages += mOpenCount;
+        mBacklog.clear();
+        mBacklogCounts.clear();
+        mOpenCount = 0;
+    }
+
+    // Moves the open packet to the backlog.
+    private boolean close() {
+        if (mBacklog.size() >= mMaxBacklog) {
+            if (!mLossy) {
+                return false;
+            }
+            mBacklog.pollFirst();
+            mDroppedMessages += mBacklogCounts.pollFirst();
+        }
+        MessageCodec.writeHeader(mOpen, mSequence, mOpenedAtWallMs);
+        mSequence = (mSequence + 1) & 0xFFFF;
+        mBacklog.addLast(Arrays.copyOf(mOpen, mOpenLength));
+        mBacklogCounts.addLast(mOpenCount);
+        mOpenCount = 0;
+        return true;
+    }
+
+    public int getBacklogSize() {
+        return mBacklog.size();
+    }
+
+    public long getQueuedMessages() {
+        return mQueuedMessages;
+    }
+
+    public long getSentMessages() {
+        return mSentMessages;
+    }
+
+    public long getSentPackets() {
+        return mSentPackets;
+    }
+
+    public long getDroppedMessages() {
+        return mDroppedMessages;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.zurivideosample.messaging;
+
+/**
+ * The wire format of application messages on the SDK's data streams.
+ *
+ * A packet is a fixed header followed by any number of messages:
+ *
+ * <pre>
+ * header   version:1 sequence:2 queuedAt:6
+ * message  offset:varint type:varint length:varint payload:length
+ * </pre>
+ *
+ * Multi-byte header fields are big-endian. {@code queuedAt} is the low 48
+ * bits of the wall clock time, in milliseconds, the packet's first message
+ * was queued; each message's {@code offset} is how much later it was
+ * queued itself, so the receiver can tell how old every message is.
+ * Varints are unsigned LEB128, so small types and lengths take a byte.
+ *
+ * Packets are at most {@link #MAX_PACKET_BYTES}, the SDK's limit.
+ */
+public final class MessageCodec {
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 9;
+    public static final int MAX_PACKET_BYTES = 1024;
+
+    private static final long TIME_MASK = (1L << 48) - 1;
+
+    /**
+     * Receives the messages of a packet. The payload is only valid during
+     * the call.
+     */
+    public interface Handler {
+        /**
+         * @param queuedAtMs wall clock time the sender queued the message,
+         *                   in the low 48 bits
+         */
+        void onMessage(int type, byte[] packet, int offset, int length, long queuedAtMs);
+    }
+
+    private MessageCodec() {
+    }
+
+    public static void writeHeader(byte[] packet, int sequence, long queuedAtMs) {
+        packet[0] = (byte) VERSION;
+        packet[1] = (byte) (sequence >>> 8);
+        packet[2] = (byte) sequence;
+        long time = queuedAtMs & TIME_MASK;
+        for (int i = 0; i < 6; i++) {
+            packet[3 + i] = (byte) (time >>> (40 - 8 * i));
+        }
+    }
+
+    /**
+     * The packet's sequence number, 0 to 65535, or -1 if it is not a
+     * packet of this format.
+     */
+    public static int readSequence(byte[] packet, int length) {
+        if (length < HEADER_BYTES || packet[0] != VERSION) {
+            return -1;
+        }
+        return (packet[1] & 0xFF) << 8 | (packet[2] & 0xFF);
+    }
+
+    public static long readQueuedAt(byte[] packet) {
+        long time = 0;
+        for (int i = 0; i < 6; i++) {
+            time = time << 8 | (packet[3 + i] & 0xFF);
+        }
+        return time;
+    }
+
+    /**
+     * Bytes a message takes in a packet.
+     */
+    public static int messageSize(int offsetMs, int type, int length) {
+        return varintSize(offsetMs) + varintSize(type) + varintSize(length) + length;
+    }
+
+    /**
+     * Appends a message at {@code position}, which must leave room for
+     * {@link #messageSize}.
+     *
+     * @return the position after the message
+     */
+    public static int writeMessage(byte[] packet, int position, int offsetMs, int type,
+                                   byte[] payload, int payloadOffset, int length) {
+        position = writeVarint(packet, position, offsetMs);
+        position = writeVarint(packet, position, type);
+        position = writeVarint(packet, position, length);
+        System.arraycopy(payload, payloadOffset, packet, position, length);
+        return position + length;
+    }
+
+    /**
+     * Hands every message of a packet to the handler, in order.
+     *
+     * @return the number of messages, or -1 if the packet is malformed, in
+     * which case none after the first bad one were handed over
+     */
+    public static int read(byte[] packet, int length, Handler handler) {
+        if (readSequence(packet, length) < 0) {
+            return -1;
+        }
+        long queuedAt = readQueuedAt(packet);
+        int position = HEADER_BYTES;
+        int count = 0;
+        // Each varint comes back packed with the position after it, so
+        // reading allocates nothing.
+        while (position < length) {
+            long offsetField = readVarint(packet, position, length);
+            if (offsetField < 0) {
+                return -1;
+            }
+            position = (int) (offsetField >>> 32);
+            int offsetMs = (int) offsetField;
+
+            long typeField = readVarint(packet, position, length);
+            if (typeField < 0) {
+                return -1;
+            }
+            position = (int) (typeField >>> 32);
+            int type = (int) typeField;
+
+            long lengthField = readVarint(packet, position, length);
+            if (lengthField < 0) {
+                return -1;
+            }
+            position = (int) (lengthField >>> 32);
+            int payloadLength = (int) lengthField;
+            if (payloadLength > length - position) {
+                return -1;
+            }
+            handler.onMessage(type, packet, position, payloadLength, (queuedAt + offsetMs) & TIME_MASK);
+            position += payloadLength;
+            count++;
+        }
+        return count;
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static int writeVarint(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Reads a non-negative int varint.
+     *
+     * @return the position after it in the high 32 bits and the value in
+     * the low 32, or -1 if it is truncated or too large
+     */
+    static long readVarint(byte[] buffer, int position, int limit) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position >= limit) {
+                return -1;
+            }
+            int b = buffer[position++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value < 0 ? -1 : (long) position << 32 | value;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * How much older {@code later} is than {@code earlier}, both 48-bit
+     * wall clock times, allowing for wrap-around.
+     */
+    public static long elapsed(long earlier, long later) {
+        long delta = (later - earlier) & TIME_MASK;
+        // More than half the range apart means later is actually earlier.
+        return delta > TIME_MASK / 2 ? delta - TIME_MASK - 1 : delta;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.zurivideosample.recording;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * AAC encoder for the recorded audio, fed with 16-bit PCM of a fixed
+ * sample rate and channel count.
+ *
+ * Presentation times come from the number of samples, not the clock, so
+ * the track plays at exactly its sample rate. A dropped frame still
+ * counts, leaving a gap rather than shifting everything after it.
+ */
+class AudioTrackEncoder extends TrackEncoder implements Encoder.Audio {
+    private static final String MIME = MediaFormat.MIMETYPE_AUDIO_AAC;
+    private static final int BIT_RATE = 64000;
+    private static final int INPUT_BUFFERS = 16;
+
+    private final int mSampleRate;
+    private final int mChannels;
+    private long mSamples;
+    private long mMismatched;
+
+    /**
+     * @param maxFrameBytes the largest PCM frame that will be passed in
+     */
+    AudioTrackEncoder(int sampleRate, int channels, int maxFrameBytes, SampleWriter writer,
+                      Listener listener, long startMs) throws IOException {
+        super("Audio", createFormat(sampleRate, channels, maxFrameBytes), INPUT_BUFFERS,
+                writer, listener, startMs);
+        mSampleRate = sampleRate;
+        mChannels = channels;
+    }
+
+    private static MediaFormat createFormat(int sampleRate, int channels, int maxFrameBytes) {
+        MediaFormat format = MediaFormat.createAudioFormat(MIME, sampleRate, channels);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxFrameBytes);
+        return format;
+    }
+
+    /**
+     * Copies a frame into the codec, or drops it if the codec is busy.
+     * Called on the SDK's audio thread.
+     *
+     * @param samplesPerChannel samples in the frame, per channel
+     */
+    @Override
+    public void encode(byte[] pcm, int samplesPerChannel, int channels, int sampleRate) {
+        if (channels != mChannels || sampleRate != mSampleRate) {
+            mMismatched++;
+            return;
+        }
+        synchronized (getInputLock()) {
+            long presentationTimeUs = mSamples * 1000000 / mSampleRate;
+            mSamples += samplesPerChannel;
+            int size = samplesPerChannel * channels * 2;
+            int index = takeInput();
+            if (index < 0) {
+                return;
+            }
+            ByteBuffer input = mCodec.getInputBuffer(index);
+            if (input.capacity() < size) {
+                // Give the buffer back empty.
+                queueInput(index, 0, presentationTimeUs);
+                mMismatched++;
+                return;
+            }
+            input.clear();
+            input.put(pcm, 0, size);
+            queueInput(index, size, presentationTimeUs);
+        }
+    }
+
+    @Override
+    public long getMismatchedCount() {
+        return mMismatched;
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.zurivideosample.recording;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.zurivideosample.effects.I420Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.agora.rtc.IAudioFrameObserver;
+
+/**
+ * Records a call into an MP4 file on the device.
+ *
+ * Audio is the SDK's mix of the local and remote audio, taken from its
+ * audio frame observer. Video is the outgoing video, taken from the end of
+ * the {@link com.example.zurivideosample.effects.FramePipeline} it runs
+ * through; the Java SDK has no raw video observer. Each is encoded by a
+ * hardware encoder of its own, asynchronously, and the samples are written
+ * to a MediaMuxer by one {@link SampleWriter} per track.
+ *
+ * Memory stays bounded however slow the encoders or the disk are: raw
+ * frames wait in the codecs' input buffers only, encoded ones in the
+ * writers' fixed buffers, and anything beyond that is dropped and counted.
+ *
+ * Encoders are created on the first frame of their track, with its format.
+ * The file starts once every expected track has one.
+ */
+public class CallRecorder {
+    private static final String TAG = CallRecorder.class.getSimpleName();
+
+    // Samples that can wait for the disk: over a second of video, and
+    // about two of audio.
+    private static final int VIDEO_WRITE_BUFFERS = 24;
+    private static final int VIDEO_MAX_SAMPLE_BYTES = 256 * 1024;
+    private static final int AUDIO_WRITE_BUFFERS = 96;
+    private static final int AUDIO_MAX_SAMPLE_BYTES = 2048;
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final File mFile;
+    private final boolean mWithVideo;
+    private final Encoder.Factory mFactory;
+    private final Muxer mMuxer;
+    private final SampleWriter mVideoWriter;
+    private final SampleWriter mAudioWriter;
+
+    private long mStartMs;
+    private volatile boolean mRecording;
+    private boolean mMuxerStarted;
+    private int mTracks;
+    // Created under the recorder's lock, read without it.
+    private volatile Encoder.Video mVideo;
+    private volatile Encoder.Audio mAudio;
+    private volatile boolean mVideoFailed;
+    private volatile boolean mAudioFailed;
+
+    // Only the muxer's own thread-unsafe calls need the lock; the writers
+    // take it for every sample.
+    private final SampleWriter.Sink mMuxerSink = new SampleWriter.Sink() {
+        private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+        @Override
+        public void writeSample(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+            synchronized (mMuxer) {
+                mInfo.set(data.position(), data.remaining(), presentationTimeUs,
+                        (flags & SampleWriter.FLAG_SYNC) != 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                mMuxer.writeSampleData(track, data, mInfo);
+            }
+        }
+    };
+
+    private final TrackEncoder.Listener mEncoderListener = new TrackEncoder.Listener() {
+        @Override
+        public int onOutputFormat(Encoder encoder, MediaFormat format) {
+            synchronized (mMuxer) {
+                int track = mMuxer.addTrack(format);
+                if (encoder instanceof Encoder.Video) {
+                    mVideoWriter.setNeedsSync(track, true);
+                }
+                if (++mTracks == (mWithVideo ? 2 : 1)) {
+                    mMuxer.start();
+                    mMuxerStarted = true;
+                    mVideoWriter.setReady();
+                    mAudioWriter.setReady();
+                    Log.i(TAG, "Recording to " + mFile);
+                }
+                return track;
+            }
+        }
+    };
+
+    private final IAudioFrameObserver mAudioObserver = new IAudioFrameObserver() {
+        @Override
+        public boolean onRecordFrame(byte[] samples, int numOfSamples, int bytesPerSample,
+                                     int channels, int samplesPerSec) {
+            return true;
+        }
+
+        @Override
+        public boolean onPlaybackFrame(byte[] samples, int numOfSamples, int bytesPerSample,
+                                       int channels, int samplesPerSec) {
+            return true;
+        }
+
+        @Override
+        public boolean onPlaybackFrameBeforeMixing(byte[] samples, int numOfSamples,
+                                                   int bytesPerSample, int channels,
+                                                   int samplesPerSec, int uid) {
+            return true;
+        }
+
+        @Override
+        public boolean onMixedFrame(byte[] samples, int numOfSamples, int bytesPerSample,
+                                    int channels, int samplesPerSec) {
+            onAudioFrame(samples, numOfSamples, bytesPerSample, channels, samplesPerSec);
+            return true;
+        }
+
+        @Override
+        public boolean isMultipleChannelFrameWanted() {
+            return false;
+        }
+
+        @Override
+        public boolean onPlaybackFrameBeforeMixingEx(byte[] samples, int numOfSamples,
+                                                     int bytesPerSample, int channels,
+                                                     int samplesPerSec, int uid, String channelId) {
+            return true;
+        }
+    };
+
+    private static final Encoder.Factory DEVICE = new Encoder.Factory() {
+        @Override
+        public Muxer createMuxer(File file) throws IOException {
+            final MediaMuxer muxer = new MediaMuxer(file.getPath(),
+                    MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            return new Muxer() {
+                @Override
+                public int addTrack(MediaFormat format) {
+                    return muxer.addTrack(format);
+                }
+
+                @Override
+                public void setOrientationHint(int degrees) {
+                    muxer.setOrientationHint(degrees);
+                }
+
+                @Override
+                public void start() {
+                    muxer.start();
+                }
+
+                @Override
+                public void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+                    muxer.writeSampleData(track, data, info);
+                }
+
+                @Override
+                public void stop() {
+                    muxer.stop();
+                }
+
+                @Override
+                public void release() {
+                    muxer.release();
+                }
+            };
+        }
+
+        @Override
+        public Encoder.Video createVideo(int width, int height, SampleWriter writer,
+                                         TrackEncoder.Listener listener, long startMs)
+                throws IOException {
+            return new VideoTrackEncoder(width, height, writer, listener, startMs);
+        }
+
+        @Override
+        public Encoder.Audio createAudio(int sampleRate, int channels, int maxFrameBytes,
+                                         SampleWriter writer, TrackEncoder.Listener listener,
+                                         long startMs) throws IOException {
+            return new AudioTrackEncoder(sampleRate, channels, maxFrameBytes, writer, listener,
+                    startMs);
+        }
+    };
+
+    public static boolean isSupported() {
+        // The encoders' callbacks need a handler of their own.
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * @param withVideo whether outgoing video frames will be passed in; the
+     *                  file only starts once one has been
+     */
+    public CallRecorder(File file, boolean withVideo) throws IOException {
+        this(file, withVideo, DEVICE);
+    }
+
+    CallRecorder(File file, boolean withVideo, Encoder.Factory factory) throws IOException {
+        mFile = file;
+        mWithVideo = withVideo;
+        mFactory = factory;
+        mMuxer = factory.createMuxer(file);
+        mVideoWriter = new SampleWriter(mMuxerSink, VIDEO_WRITE_BUFFERS, VIDEO_MAX_SAMPLE_BYTES);
+        mAudioWriter = new SampleWriter(mMuxerSink, AUDIO_WRITE_BUFFERS, AUDIO_MAX_SAMPLE_BYTES);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    public void start() {
+        mStartMs = SystemClock.elapsedRealtime();
+        mVideoWriter.start();
+        mAudioWriter.start();
+        mRecording = true;
+    }
+
+    /**
+     * The observer to register with the engine for the mixed audio.
+     */
+    public IAudioFrameObserver getAudioObserver() {
+        return mAudioObserver;
+    }
+
+    /**
+     * Called on the SDK's audio thread.
+     */
+    void onAudioFrame(byte[] samples, int numOfSamples, int bytesPerSample,
+                      int channels, int samplesPerSec) {
+        if (!mRecording || mAudioFailed || bytesPerSample != BYTES_PER_SAMPLE) {
+            return;
+        }
+        Encoder.Audio audio = mAudio;
+        if (audio == null) {
+            synchronized (this) {
+                if (!mRecording) {
+                    return;
+                }
+                try {
+                    audio = mFactory.createAudio(samplesPerSec, channels,
+                            numOfSamples * channels * bytesPerSample, mAudioWriter,
+                            mEncoderListener, mStartMs);
+                } catch (IOException e) {
+                    Log.w(TAG, "No audio encoder", e);
+                    mAudioFailed = true;
+                    return;
+                }
+                mAudio = audio;
+            }
+        }
+        audio.encode(samples, numOfSamples, channels, samplesPerSec);
+    }
+
+    /**
+     * Records an outgoing video frame, after every effect. Called on the
+     * capture thread.
+     */
+    public void onVideoFrame(I420Frame frame) {
+        if (!mRecording || !mWithVideo || mVideoFailed) {
+            return;
+        }
+        Encoder.Video video = mVideo;
+        if (video == null) {
+            synchronized (this) {
+                if (!mRecording) {
+                    return;
+                }
+                try {
+                    synchronized (mMuxer) {
+                        if (!mMuxerStarted) {
+                            mMuxer.setOrientationHint(frame.rotation);
+                        }
+                    }
+                    video = mFactory.createVideo(frame.getWidth(), frame.getHeight(), mVideoWriter,
+                            mEncoderListener, mStartMs);
+                } catch (IOException e) {
+                    Log.w(TAG, "No video encoder", e);
+                    mVideoFailed = true;
+                    return;
+                }
+                mVideo = video;
+            }
+        }
+        video.encode(frame);
+    }
+
+    /**
+     * Stops the encoders, writes what is left and closes the file. A file
+     * that never started is deleted. Waits for the encoders to drain, up
+     * to a second each, so it should not run on the UI thread.
+     *
+     * @return whether a file was written
+     */
+    public boolean stop() {
+        synchronized (this) {
+            if (!mRecording) {
+                return false;
+            }
+            mRecording = false;
+        }
+        // Frames already inside encode() finish under the encoders' locks.
+        if (mVideo != null) {
+            mVideo.stop();
+        }
+        if (mAudio != null) {
+            mAudio.stop();
+        }
+        mVideoWriter.stop();
+        mAudioWriter.stop();
+        boolean written;
+        synchronized (mMuxer) {
+            written = mMuxerStarted;
+            try {
+                if (mMuxerStarted) {
+                    mMuxer.stop();
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Recording did not end cleanly", e);
+            }
+            mMuxer.release();
+        }
+        if (!written && !mFile.delete()) {
+            Log.w(TAG, "Cannot delete " + mFile);
+        }
+        Log.i(TAG, "Recording stopped: " + this);
+        return written;
+    }
+
+    public long getDroppedVideoFrames() {
+        return (mVideo != null ? mVideo.getDroppedCount() + mVideo.getMismatchedCount() : 0)
+                + mVideoWriter.getDroppedCount() + mVideoWriter.getDroppedForSyncCount();
+    }
+
+    public long getDroppedAudioFrames() {
+        return (mAudio != null ? mAudio.getDroppedCount() + mAudio.getMismatchedCount() : 0)
+                + mAudioWriter.getDroppedCount();
+    }
+
+    /**
+     * The longest time a frame took from capture to leaving its encoder,
+     * or 0 before any did.
+     */
+    public int getMaxEncoderLagMs() {
+        int lag = mVideo != null ? mVideo.getLag().getMax() : 0;
+        return mAudio != null ? Math.max(lag, mAudio.getLag().getMax()) : lag;
+    }
+
+    @Override
+    public String toString() {
+        return (mVideo != null ? mVideo + ", writer " + mVideoWriter + "; " : "")
+                + (mAudio != null ? mAudio + ", writer " + mAudioWriter : "no audio");
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.zurivideosample.recording;
+
+import com.example.zurivideosample.effects.I420Frame;
+import com.example.zurivideosample.telemetry.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * What a {@link CallRecorder} needs of the encoder of one of its tracks.
+ * On the device these are {@link VideoTrackEncoder} and
+ * {@link AudioTrackEncoder}.
+ */
+interface Encoder {
+    interface Video extends Encoder {
+        /**
+         * Called on the capture thread.
+         */
+        void encode(I420Frame frame);
+    }
+
+    interface Audio extends Encoder {
+        /**
+         * Called on the SDK's audio thread.
+         */
+        void encode(byte[] pcm, int samplesPerChannel, int channels, int sampleRate);
+    }
+
+    /**
+     * Makes the parts of a recording: the device's MediaMuxer and hardware
+     * codecs, or stand-ins when testing the recorder itself.
+     */
+    interface Factory {
+        Muxer createMuxer(File file) throws IOException;
+
+        Video createVideo(int width, int height, SampleWriter writer,
+                          TrackEncoder.Listener listener, long startMs) throws IOException;
+
+        Audio createAudio(int sampleRate, int channels, int maxFrameBytes, SampleWriter writer,
+                          TrackEncoder.Listener listener, long startMs) throws IOException;
+    }
+
+    /**
+     * Ends the stream and releases the codec.
+     */
+    void stop();
+
+    /**
+     * Frames dropped because the codec had no free input buffer.
+     */
+    long getDroppedCount();
+
+    /**
+     * Frames dropped for not having the format the encoder was set up with.
+     */
+    long getMismatchedCount();
+
+    Histogram getLag();
+}
@@ -0,0 +1,24 @@
+package com.example.zurivideosample.recording;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The calls a {@link CallRecorder} makes on its MediaMuxer. None of them
+ * are thread-safe; the recorder serializes them.
+ */
+interface Muxer {
+    int addTrack(MediaFormat format);
+
+    void setOrientationHint(int degrees);
+
+    void start();
+
+    void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info);
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,228 @@
+package com.example.zurivideosample.recording;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Hands encoded samples from the encoders to the file on a writer thread
+ * of its own, through a fixed set of buffers.
+ *
+ * Every sample is copied into one of the buffers and queued. When the disk
+ * cannot keep up and all buffers are queued, new samples are dropped
+ * rather than allocating more. A dropped sample of a track whose samples
+ * depend on each other, such as video, would break every sample after it,
+ * so such a track drops everything up to its next sync sample; the encoder
+ * should ask for one as soon as {@link #offer} refuses a sample.
+ *
+ * Nothing is written until {@link #setReady()}, which the recorder calls
+ * once the file has all its tracks. Samples wait in the buffers until then.
+ */
+public class SampleWriter {
+    private static final String TAG = SampleWriter.class.getSimpleName();
+
+    // Flag of a sample that can be decoded on its own, as MediaCodec's.
+    public static final int FLAG_SYNC = 1;
+
+    public static final int MAX_TRACKS = 2;
+
+    /**
+     * Where the samples end up, typically a MediaMuxer. Called on the
+     * writer thread only.
+     */
+    public interface Sink {
+        void writeSample(int track, ByteBuffer data, long presentationTimeUs, int flags)
+                throws IOException;
+    }
+
+    private static final class Sample {
+        final ByteBuffer data;
+        int track;
+        long presentationTimeUs;
+        int flags;
+
+        Sample(int capacity) {
+            data = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    // Queued to stop the writer thread once everything before it is written.
+    private final Sample mEnd = new Sample(0);
+
+    private final Sink mSink;
+    private final int mBufferSize;
+    private final ArrayBlockingQueue<Sample> mFree;
+    private final ArrayBlockingQueue<Sample> mQueued;
+    private final CountDownLatch mReady = new CountDownLatch(1);
+    private final boolean[] mNeedsSync = new boolean[MAX_TRACKS];
+    private final boolean[] mWaitingForSync = new boolean[MAX_TRACKS];
+
+    private Thread mThread;
+    private volatile boolean mFailed;
+    private volatile boolean mDiscarding;
+    // Each counter has a single writer: offer() under the lock, or the
+    // writer thread.
+    private volatile long mWritten;
+    private volatile long mDropped;
+    private volatile long mDroppedForSync;
+    private volatile int mMaxQueued;
+
+    /**
+     * @param bufferCount how many samples can wait for the disk
+     * @param bufferSize  the largest sample, larger ones are dropped
+     */
+    public SampleWriter(Sink sink, int bufferCount, int bufferSize) {
+        mSink = sink;
+        mBufferSize = bufferSize;
+        mFree = new ArrayBlockingQueue<>(bufferCount);
+        // One more for the end marker.
+        mQueued = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            mFree.add(new Sample(bufferSize));
+        }
+    }
+
+    /**
+     * Declares that samples of the track depend on each other, so a drop
+     * must be followed by a sync sample.
+     */
+    public void setNeedsSync(int track, boolean needsSync) {
+        mNeedsSync[track] = needsSync;
+    }
+
+    public void start() {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "SampleWriter");
+        mThread.start();
+    }
+
+    /**
+     * Lets queued samples through to the sink.
+     */
+    public void setReady() {
+        mReady.countDown();
+    }
+
+    /**
+     * Copies a sample from {@code data}'s position to its limit and queues
+     * it. Never blocks.
+     *
+     * @return false if the sample was dropped
+     */
+    public synchronized boolean offer(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+        boolean sync = (flags & FLAG_SYNC) != 0;
+        if (mWaitingForSync[track] && !sync) {
+            mDroppedForSync++;
+            return false;
+        }
+        Sample sample = data.remaining() <= mBufferSize && !mFailed ? mFree.poll() : null;
+        if (sample == null) {
+            mDropped++;
+            mWaitingForSync[track] = mNeedsSync[track];
+            return false;
+        }
+        mWaitingForSync[track] = false;
+        sample.data.clear();
+        sample.data.put(data);
+        sample.data.flip();
+        sample.track = track;
+        sample.presentationTimeUs = presentationTimeUs;
+        sample.flags = flags;
+        mQueued.add(sample);
+        mMaxQueued = Math.max(mMaxQueued, mQueued.size());
+        return true;
+    }
+
+    /**
+     * Writes what is queued and stops the writer thread. If the writer
+     * never became ready, queued samples are discarded.
+     */
+    public void stop() {
+        if (mThread == null) {
+            return;
+        }
+        synchronized (this) {
+            mQueued.add(mEnd);
+        }
+        if (mReady.getCount() > 0) {
+            mDiscarding = true;
+            mReady.countDown();
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    private void drain() {
+        try {
+            mReady.await();
+            while (true) {
+                Sample sample = mQueued.take();
+                if (sample == mEnd) {
+                    return;
+                }
+                if (!mFailed && !mDiscarding) {
+                    try {
+                        mSink.writeSample(sample.track, sample.data, sample.presentationTimeUs,
+                                sample.flags);
+                        mWritten++;
+                    } catch (IOException | RuntimeException e) {
+                        // Out of space, most likely. Keep the file as far as
+                        // it got and drop the rest.
+                        Log.w(TAG, "Writing failed, dropping further samples", e);
+                        mFailed = true;
+                    }
+                }
+                mFree.add(sample);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean hasFailed() {
+        return mFailed;
+    }
+
+    public int getFreeCount() {
+        return mFree.size();
+    }
+
+    public long getWrittenCount() {
+        return mWritten;
+    }
+
+    /**
+     * Samples dropped because every buffer was taken.
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Samples dropped while their track waited for a sync sample.
+     */
+    public long getDroppedForSyncCount() {
+        return mDroppedForSync;
+    }
+
+    public int getMaxQueuedCount() {
+        return mMaxQueued;
+    }
+
+    @Override
+    public String toString() {
+        return "written " + mWritten + ", dropped " + mDropped + " full + " + mDroppedForSync
+                + " waiting for sync, max queued " + mMaxQueued;
+    }
+}
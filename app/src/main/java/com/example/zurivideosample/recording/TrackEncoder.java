@@ -0,0 +1,247 @@
+package com.example.zurivideosample.recording;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.zurivideosample.telemetry.Histogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One hardware encoder of a recording, run asynchronously.
+ *
+ * The codec's callbacks run on a thread of the encoder's own. Free input
+ * buffers are collected there, and the producer of raw frames, on its own
+ * thread, fills one if there is any and drops the frame otherwise: the
+ * codec's input buffers are the only raw buffering there is. Encoded
+ * samples go to a {@link SampleWriter}.
+ *
+ * Encoder lag is the time from a frame's capture to its encoded sample
+ * leaving the codec.
+ */
+abstract class TrackEncoder implements Encoder {
+    private static final String TAG = TrackEncoder.class.getSimpleName();
+
+    private static final long EOS_TIMEOUT_MS = 1000;
+    private static final int[] LAG_BOUNDS_MS = Histogram.linearBounds(20, 2000);
+
+    interface Listener {
+        /**
+         * The encoder's output format is known.
+         *
+         * @return the track of the file its samples go to
+         */
+        int onOutputFormat(Encoder encoder, MediaFormat format);
+    }
+
+    protected final MediaCodec mCodec;
+    private final String mName;
+    private final SampleWriter mWriter;
+    private final Listener mListener;
+    private final long mStartMs;
+    private final HandlerThread mThread;
+    // Indexes are small, so boxing them hits the Integer cache.
+    private final ArrayBlockingQueue<Integer> mFreeInputs;
+    private final CountDownLatch mEnded = new CountDownLatch(1);
+    private final Histogram mLag = new Histogram(LAG_BOUNDS_MS);
+    // Guards input against stop().
+    private final Object mInputLock = new Object();
+
+    private volatile int mTrack = -1;
+    private volatile boolean mFailed;
+    private boolean mStopped;
+    private boolean mSyncRequested;
+    private long mLastInputUs = -1;
+    private volatile long mEncoded;
+    private volatile long mDropped;
+
+    private final MediaCodec.Callback mCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            mFreeInputs.offer(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0 && mTrack >= 0) {
+                ByteBuffer data = codec.getOutputBuffer(index);
+                data.limit(info.offset + info.size);
+                data.position(info.offset);
+                onSample(data, info.presentationTimeUs,
+                        (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+            }
+            codec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mEnded.countDown();
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            Log.w(TAG, mName + " encoder failed", e);
+            mFailed = true;
+            mEnded.countDown();
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            mTrack = mListener.onOutputFormat(TrackEncoder.this, format);
+        }
+    };
+
+    /**
+     * Creates, configures and starts the codec.
+     *
+     * @param inputBuffers how many input buffers to expect at most
+     * @param startMs      capture time, elapsedRealtime, of the recording's start
+     */
+    TrackEncoder(String name, MediaFormat format, int inputBuffers, SampleWriter writer,
+                 Listener listener, long startMs) throws IOException {
+        mName = name;
+        mWriter = writer;
+        mListener = listener;
+        mStartMs = startMs;
+        mFreeInputs = new ArrayBlockingQueue<>(inputBuffers);
+        mThread = new HandlerThread(name + "Encoder");
+        mThread.start();
+        mCodec = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME));
+        try {
+            mCodec.setCallback(mCallback, new Handler(mThread.getLooper()));
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mCodec.start();
+        } catch (RuntimeException e) {
+            mCodec.release();
+            mThread.quitSafely();
+            throw new IOException("Cannot start the " + name + " encoder", e);
+        }
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * The capture time of a frame as the encoder's presentation time.
+     *
+     * @return the time, or -1 if it is not after the previous input's
+     */
+    protected long toPresentationTimeUs(long captureMs) {
+        long us = (captureMs - mStartMs) * 1000;
+        return us > mLastInputUs ? us : -1;
+    }
+
+    /**
+     * Takes a free input buffer for a frame. Must be followed by
+     * {@link #queueInput} on success. Called on the producer's thread,
+     * under {@link #getInputLock()}.
+     *
+     * @return the buffer index, or -1 if the frame has to be dropped
+     */
+    protected int takeInput() {
+        Integer index = mStopped || mFailed ? null : mFreeInputs.poll();
+        if (index == null) {
+            mDropped++;
+            return -1;
+        }
+        return index;
+    }
+
+    protected void queueInput(int index, int size, long presentationTimeUs) {
+        mCodec.queueInputBuffer(index, 0, size, presentationTimeUs, 0);
+        mLastInputUs = presentationTimeUs;
+    }
+
+    protected Object getInputLock() {
+        return mInputLock;
+    }
+
+    private void onSample(ByteBuffer data, long presentationTimeUs, boolean sync) {
+        long lagMs = SystemClock.elapsedRealtime() - mStartMs - presentationTimeUs / 1000;
+        mLag.record((int) Math.max(0, Math.min(lagMs, Integer.MAX_VALUE)));
+        if (sync) {
+            mSyncRequested = false;
+        }
+        if (mWriter.offer(mTrack, data, presentationTimeUs, sync ? SampleWriter.FLAG_SYNC : 0)) {
+            mEncoded++;
+        } else if (!mSyncRequested) {
+            // The writer now waits for a sync sample; don't make it wait for
+            // the next regular one.
+            mSyncRequested = requestSyncSample();
+        }
+    }
+
+    /**
+     * Asks the codec for a sync sample as soon as possible.
+     *
+     * @return whether the codec can be asked
+     */
+    protected boolean requestSyncSample() {
+        return false;
+    }
+
+    /**
+     * Ends the stream and releases the codec, waiting a bounded time for
+     * the samples still in it.
+     */
+    @Override
+    public void stop() {
+        synchronized (mInputLock) {
+            if (mStopped) {
+                return;
+            }
+            mStopped = true;
+        }
+        try {
+            Integer index = mFailed ? null : mFreeInputs.poll(EOS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (index != null) {
+                mCodec.queueInputBuffer(index, 0, 0, Math.max(0, mLastInputUs),
+                        MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                mEnded.await(EOS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            Log.w(TAG, mName + " encoder did not end cleanly", e);
+        }
+        try {
+            mCodec.stop();
+        } catch (RuntimeException e) {
+            // Already in the error state.
+        }
+        mCodec.release();
+        mThread.quitSafely();
+    }
+
+    boolean hasFailed() {
+        return mFailed;
+    }
+
+    long getEncodedCount() {
+        return mEncoded;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    @Override
+    public Histogram getLag() {
+        return mLag;
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": encoded " + mEncoded + ", dropped " + mDropped
+                + ", lag p50 " + mLag.percentile(50) + "ms p95 " + mLag.percentile(95)
+                + "ms max " + mLag.getMax() + "ms";
+    }
+}
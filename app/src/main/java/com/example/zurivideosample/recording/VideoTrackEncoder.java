@@ -0,0 +1,121 @@
+package com.example.zurivideosample.recording;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+
+import com.example.zurivideosample.effects.I420Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * H.264 encoder for the recorded video, fed with I420 frames of a fixed
+ * size. Frames of any other size, as after a camera switch to a different
+ * capture size, are dropped.
+ */
+class VideoTrackEncoder extends TrackEncoder implements Encoder.Video {
+    private static final String MIME = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int FRAME_RATE = 15;
+    private static final int KEY_FRAME_INTERVAL_S = 2;
+    private static final int INPUT_BUFFERS = 8;
+    // About 0.1 bits per pixel, 1.4 Mbps for 720p at 15 fps.
+    private static final int BITS_PER_PIXEL_TENTHS = 1;
+
+    private final int mWidth;
+    private final int mHeight;
+    private long mMismatched;
+
+    VideoTrackEncoder(int width, int height, SampleWriter writer, Listener listener, long startMs)
+            throws IOException {
+        super("Video", createFormat(width, height), INPUT_BUFFERS, writer, listener, startMs);
+        mWidth = width;
+        mHeight = height;
+    }
+
+    private static MediaFormat createFormat(int width, int height) {
+        MediaFormat format = MediaFormat.createVideoFormat(MIME, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE,
+                width * height * FRAME_RATE * BITS_PER_PIXEL_TENTHS / 10);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, KEY_FRAME_INTERVAL_S);
+        return format;
+    }
+
+    /**
+     * Copies a frame into the codec, or drops it if the codec is busy.
+     * Called on the capture thread.
+     */
+    @Override
+    public void encode(I420Frame frame) {
+        if (frame.getWidth() != mWidth || frame.getHeight() != mHeight) {
+            mMismatched++;
+            return;
+        }
+        synchronized (getInputLock()) {
+            long presentationTimeUs = toPresentationTimeUs(frame.timestampMs);
+            if (presentationTimeUs < 0) {
+                return;
+            }
+            int index = takeInput();
+            if (index < 0) {
+                return;
+            }
+            Image image = mCodec.getInputImage(index);
+            Image.Plane[] planes = image.getPlanes();
+            ByteBuffer src = frame.getBuffer();
+            copyPlane(src, 0, mWidth, mHeight, planes[0]);
+            copyPlane(src, frame.getUOffset(), frame.getChromaWidth(), frame.getChromaHeight(), planes[1]);
+            copyPlane(src, frame.getVOffset(), frame.getChromaWidth(), frame.getChromaHeight(), planes[2]);
+            queueInput(index, I420Frame.sizeOf(mWidth, mHeight), presentationTimeUs);
+        }
+    }
+
+    /**
+     * Copies a packed plane into a codec plane, which may have padded rows
+     * and, for chroma planes of semi-planar codecs, interleaved pixels.
+     */
+    private static void copyPlane(ByteBuffer src, int offset, int width, int height, Image.Plane plane) {
+        // Rows are copied as longs, which must read and write alike.
+        ByteBuffer dst = plane.getBuffer().order(src.order());
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        for (int y = 0; y < height; y++) {
+            int s = offset + y * width;
+            int d = y * rowStride;
+            if (pixelStride == 1) {
+                int x = 0;
+                for (; x + 8 <= width; x += 8) {
+                    dst.putLong(d + x, src.getLong(s + x));
+                }
+                for (; x < width; x++) {
+                    dst.put(d + x, src.get(s + x));
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    dst.put(d + x * pixelStride, src.get(s + x));
+                }
+            }
+        }
+    }
+
+    @Override
+    protected boolean requestSyncSample() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mCodec.setParameters(params);
+        return true;
+    }
+
+    /**
+     * Frames dropped for not having the size the encoder was set up with.
+     */
+    @Override
+    public long getMismatchedCount() {
+        return mMismatched;
+    }
+}
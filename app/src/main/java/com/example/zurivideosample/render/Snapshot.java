@@ -0,0 +1,122 @@
+package com.example.zurivideosample.render;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A small still of one user's video, shown in place of the live stream
+ * while the user's tile is not worth decoding.
+ *
+ * Taken from an I420 frame by nearest-neighbour sampling, turned upright
+ * and scaled down so its longer side is at most {@link #LONG_EDGE}. Pixels
+ * are RGB565, top row first, which is half the memory of ARGB and can be
+ * uploaded to a texture as is. Immutable once taken.
+ */
+public final class Snapshot {
+    // A grid tile of a crowded call is about this wide; stills are
+    // stretched a little on larger tiles, which is fine for a still.
+    public static final int LONG_EDGE = 160;
+
+    private final short[] mPixels;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mTakenAtMs;
+
+    private Snapshot(short[] pixels, int width, int height, long takenAtMs) {
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+        mTakenAtMs = takenAtMs;
+    }
+
+    /**
+     * @param frame    packed I420, from position 0
+     * @param rotation the frame's clockwise rotation in degrees
+     */
+    public static Snapshot fromI420(ByteBuffer frame, int width, int height, int rotation,
+                                    int longEdge, long takenAtMs) {
+        boolean sideways = rotation == 90 || rotation == 270;
+        int uprightWidth = sideways ? height : width;
+        int uprightHeight = sideways ? width : height;
+        int outWidth = uprightWidth;
+        int outHeight = uprightHeight;
+        int longer = Math.max(uprightWidth, uprightHeight);
+        if (longer > longEdge) {
+            outWidth = Math.max(1, uprightWidth * longEdge / longer);
+            outHeight = Math.max(1, uprightHeight * longEdge / longer);
+        }
+
+        int chromaWidth = (width + 1) / 2;
+        int uOffset = width * height;
+        int vOffset = uOffset + chromaWidth * ((height + 1) / 2);
+        short[] pixels = new short[outWidth * outHeight];
+        for (int oy = 0; oy < outHeight; oy++) {
+            int uy = (oy * uprightHeight + uprightHeight / 2) / outHeight;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int ux = (ox * uprightWidth + uprightWidth / 2) / outWidth;
+                // Undo the rotation, as TileLayout.setCropMatrix does.
+                int sx;
+                int sy;
+                switch (rotation) {
+                    case 90:
+                        sx = uy;
+                        sy = height - 1 - ux;
+                        break;
+                    case 180:
+                        sx = width - 1 - ux;
+                        sy = height - 1 - uy;
+                        break;
+                    case 270:
+                        sx = width - 1 - uy;
+                        sy = ux;
+                        break;
+                    default:
+                        sx = ux;
+                        sy = uy;
+                        break;
+                }
+                int chroma = (sy / 2) * chromaWidth + sx / 2;
+                pixels[oy * outWidth + ox] = toRgb565(frame.get(sy * width + sx) & 0xFF,
+                        frame.get(uOffset + chroma) & 0xFF, frame.get(vOffset + chroma) & 0xFF);
+            }
+        }
+        return new Snapshot(pixels, outWidth, outHeight, takenAtMs);
+    }
+
+    // BT.601, limited range, as the compositor's shader converts it.
+    static short toRgb565(int y, int u, int v) {
+        int c = 298 * (y - 16) + 128;
+        int d = u - 128;
+        int e = v - 128;
+        int r = clamp((c + 409 * e) >> 8);
+        int g = clamp((c - 100 * d - 208 * e) >> 8);
+        int b = clamp((c + 516 * d) >> 8);
+        return (short) (((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3));
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * RGB565 pixels, row by row, top row first. Not to be changed.
+     */
+    public short[] getPixels() {
+        return mPixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getTakenAtMs() {
+        return mTakenAtMs;
+    }
+
+    public int getByteCount() {
+        return mPixels.length * 2;
+    }
+}
@@ -0,0 +1,750 @@
+package com.example.zurivideosample.render;
+
+import android.graphics.Color;
+import android.graphics.PixelFormat;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.zurivideosample.telemetry.FramePacing;
+import com.example.zurivideosample.util.UidMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Draws every video tile of the call, the local preview included, into one
+ * GLSurfaceView.
+ *
+ * One SurfaceView per user means one SurfaceFlinger layer per user, and
+ * moving a tile between containers destroys its surface and shows black
+ * until the next frame. Here each user has a {@link TileSink} the SDK
+ * renders into instead, and the compositor draws the latest frame of each
+ * into its rectangle of the shared surface. Tiles are added, removed,
+ * suspended or swapped by changing what is drawn where; no view is added
+ * or removed and no surface is created.
+ *
+ * A tile that is not live shows a {@link Snapshot} of its user instead,
+ * or the placeholder if there is none, and its video textures are freed.
+ * Made live again, it keeps showing the snapshot until the first new
+ * frame arrives, so it never goes blank in between.
+ *
+ * One tile can also be drawn alone, filling the surface, as in
+ * picture-in-picture; the others are not drawn and their frames are not
+ * uploaded.
+ *
+ * The surface is translucent: where no tile is drawn, the views behind it
+ * show through. It is drawn only when a frame arrives or the layout
+ * changes, and {@link #getPacing()} measures how evenly frames are shown.
+ *
+ * Tiles are changed on the UI thread. Drawing runs on the view's GL
+ * thread, which takes a copy of the layout at the start of each frame.
+ */
+public class TileCompositor implements GLSurfaceView.Renderer {
+    private static final String TAG = TileCompositor.class.getSimpleName();
+
+    // The local preview's tile, the uid the SDK uses for it.
+    public static final int LOCAL_UID = 0;
+    // For setSolo: every tile in its usual place.
+    public static final int NO_SOLO = -1;
+
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;\n"
+            + "attribute vec4 aTexCoord;\n"
+            + "uniform mat4 uTexMatrix;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "void main() {\n"
+            + "    gl_Position = aPosition;\n"
+            + "    vTexCoord = (uTexMatrix * aTexCoord).xy;\n"
+            + "}\n";
+
+    // BT.601, limited range, as decoders deliver it.
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "uniform sampler2D uY;\n"
+            + "uniform sampler2D uU;\n"
+            + "uniform sampler2D uV;\n"
+            + "void main() {\n"
+            + "    float y = 1.164 * (texture2D(uY, vTexCoord).r - 0.0625);\n"
+            + "    float u = texture2D(uU, vTexCoord).r - 0.5;\n"
+            + "    float v = texture2D(uV, vTexCoord).r - 0.5;\n"
+            + "    gl_FragColor = vec4(y + 1.596 * v, y - 0.391 * u - 0.813 * v, y + 2.018 * u, 1.0);\n"
+            + "}\n";
+
+    private static final String SNAPSHOT_FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "uniform sampler2D uRgb;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = vec4(texture2D(uRgb, vTexCoord).rgb, 1.0);\n"
+            + "}\n";
+
+    // A full viewport quad as a triangle strip, and the tile coordinates
+    // of its corners.
+    private static final float[] QUAD = {-1f, -1f, 1f, -1f, -1f, 1f, 1f, 1f};
+    private static final float[] QUAD_COORDS = {0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f};
+
+    private static final class Tile {
+        final TileSink sink;
+        volatile boolean suspended;
+        volatile boolean live = true;
+        volatile Snapshot snapshot;
+
+        // GL thread only: the planes' textures, 0 until the first frame,
+        // and their size.
+        final int[] textures = new int[3];
+        int textureWidth;
+        int textureHeight;
+        long shownAtMs = -1;
+        long shownArrivedAtMs = -1;
+        // Whether the textures hold a frame that arrived since the tile
+        // was last made live.
+        boolean showingLive;
+        // The snapshot's texture, 0 if none, and the snapshot in it.
+        final int[] snapshotTexture = new int[1];
+        Snapshot uploadedSnapshot;
+
+        Tile(TileSink sink) {
+            this.sink = sink;
+        }
+    }
+
+    private final int mPlaceholderColor;
+    private final FramePacing mPacing = new FramePacing();
+    private final Tile mLocal;
+    private GLSurfaceView mView;
+
+    // The layout, changed on the UI thread and guarded by mLock.
+    private final Object mLock = new Object();
+    private final UidMap<Tile> mTiles = new UidMap<>();
+    private final ArrayList<Tile> mGrid = new ArrayList<>();
+    private final ArrayList<Tile> mRemoved = new ArrayList<>();
+    private final int[] mInset = new int[4];
+    private int mPinnedUid = LOCAL_UID;
+    private boolean mGridVisible = true;
+    private boolean mLocalVisible = true;
+    private int mSoloUid = NO_SOLO;
+
+    // GL thread only.
+    private final ArrayList<Tile> mDrawGrid = new ArrayList<>();
+    private final ArrayList<Tile> mDrawRemoved = new ArrayList<>();
+    private final int[] mDrawInset = new int[4];
+    private final int[] mRect = new int[4];
+    private final float[] mTexMatrix = new float[16];
+    private final FloatBuffer mQuad = floatBuffer(QUAD);
+    private final FloatBuffer mQuadCoords = floatBuffer(QUAD_COORDS);
+    private int mWidth;
+    private int mHeight;
+    private int mProgram;
+    private int mPositionLoc;
+    private int mTexCoordLoc;
+    private int mTexMatrixLoc;
+    private int mSnapshotProgram;
+    private int mSnapshotPositionLoc;
+    private int mSnapshotTexCoordLoc;
+    private int mSnapshotTexMatrixLoc;
+
+    /**
+     * @param placeholderColor fills tiles that have no frame yet, or are
+     *                         suspended
+     */
+    public TileCompositor(int placeholderColor) {
+        mPlaceholderColor = placeholderColor;
+        mLocal = new Tile(new TileSink(LOCAL_UID, this));
+    }
+
+    /**
+     * Sets the compositor up as the view's renderer. Call once, before the
+     * view is attached to a window.
+     */
+    public void attachTo(GLSurfaceView view) {
+        mView = view;
+        view.setEGLContextClientVersion(2);
+        view.setEGLConfigChooser(8, 8, 8, 8, 0, 0);
+        view.getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        // Above any SurfaceView the views around it still create, which is
+        // fine as it is transparent wherever it has no tile.
+        view.setZOrderMediaOverlay(true);
+        view.setRenderer(this);
+        view.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+    }
+
+    public void onResume() {
+        if (mView != null) {
+            mView.onResume();
+        }
+    }
+
+    public void onPause() {
+        if (mView != null) {
+            mView.onPause();
+        }
+    }
+
+    /**
+     * The sink the SDK renders the local preview into.
+     */
+    public TileSink getLocalSink() {
+        return mLocal.sink;
+    }
+
+    /**
+     * Adds a grid tile for a remote user.
+     *
+     * @return the sink to render the user's video into
+     */
+    public TileSink addTile(int uid) {
+        synchronized (mLock) {
+            Tile tile = mTiles.get(uid);
+            if (tile == null) {
+                tile = new Tile(new TileSink(uid, this));
+                mTiles.put(uid, tile);
+                mGrid.add(tile);
+            }
+            requestRender();
+            return tile.sink;
+        }
+    }
+
+    public void removeTile(int uid) {
+        synchronized (mLock) {
+            Tile tile = mTiles.remove(uid);
+            if (tile == null) {
+                return;
+            }
+            mGrid.remove(tile);
+            mRemoved.add(tile);
+            if (mPinnedUid == uid) {
+                mPinnedUid = LOCAL_UID;
+            }
+            requestRender();
+        }
+    }
+
+    /**
+     * The sink a remote user's video is rendered into, or null if the user
+     * has no tile.
+     */
+    public TileSink getSink(int uid) {
+        synchronized (mLock) {
+            Tile tile = mTiles.get(uid);
+            return tile != null ? tile.sink : null;
+        }
+    }
+
+    public int getTileCount() {
+        synchronized (mLock) {
+            return mTiles.size();
+        }
+    }
+
+    public boolean hasTile(int uid) {
+        synchronized (mLock) {
+            return mTiles.containsKey(uid);
+        }
+    }
+
+    /**
+     * The grid slot a remote user is drawn in, numbered as
+     * {@link TileLayout#gridRect} does, or -1 if the user is in the inset,
+     * the grid is hidden or there is no such tile.
+     */
+    public int getGridSlot(int uid) {
+        synchronized (mLock) {
+            Tile tile = mTiles.get(uid);
+            if (mSoloUid != NO_SOLO) {
+                return tile != null && uid == mSoloUid ? 0 : -1;
+            }
+            if (tile == null || !mGridVisible || uid == mPinnedUid) {
+                return -1;
+            }
+            int slot = mGrid.indexOf(tile);
+            // As drawn: the pinned user leaves the grid and the preview
+            // takes the first slot.
+            Tile pinned = mTiles.get(mPinnedUid);
+            if (pinned != null) {
+                if (mGrid.indexOf(pinned) < slot) {
+                    slot--;
+                }
+                if (mLocalVisible) {
+                    slot++;
+                }
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * The number of grid slots drawn, the preview's included.
+     */
+    public int getGridSlotCount() {
+        synchronized (mLock) {
+            if (mSoloUid != NO_SOLO) {
+                return 1;
+            }
+            if (!mGridVisible) {
+                return 0;
+            }
+            int count = mGrid.size();
+            if (mTiles.get(mPinnedUid) != null) {
+                count += mLocalVisible ? 0 : -1;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Shows the placeholder in a tile instead of its video, or the video
+     * again.
+     */
+    public void setSuspended(int uid, boolean suspended) {
+        Tile tile = uid == LOCAL_UID ? mLocal : mTiles.get(uid);
+        if (tile != null && tile.suspended != suspended) {
+            tile.suspended = suspended;
+            requestRender();
+        }
+    }
+
+    public boolean isSuspended(int uid) {
+        Tile tile = uid == LOCAL_UID ? mLocal : mTiles.get(uid);
+        return tile != null && tile.suspended;
+    }
+
+    /**
+     * Shows a remote user's video, or the user's snapshot instead and
+     * frees the video's textures. Frames that arrive while the tile is not
+     * live are not shown.
+     */
+    public void setLive(int uid, boolean live) {
+        Tile tile = mTiles.get(uid);
+        if (tile != null && tile.live != live) {
+            tile.live = live;
+            requestRender();
+        }
+    }
+
+    public boolean isLive(int uid) {
+        Tile tile = mTiles.get(uid);
+        return tile != null && tile.live;
+    }
+
+    /**
+     * The still shown while the tile is not live, or until its first new
+     * frame once it is live again. Null shows the placeholder instead.
+     */
+    public void setSnapshot(int uid, Snapshot snapshot) {
+        Tile tile = mTiles.get(uid);
+        if (tile != null && tile.snapshot != snapshot) {
+            tile.snapshot = snapshot;
+            requestRender();
+        }
+    }
+
+    public Snapshot getSnapshot(int uid) {
+        Tile tile = mTiles.get(uid);
+        return tile != null ? tile.snapshot : null;
+    }
+
+    /**
+     * Swaps a remote user's tile with the local preview: the user is drawn
+     * in the inset, and the preview takes the first grid slot. Pin
+     * {@link #LOCAL_UID} to put the preview back in the inset.
+     */
+    public void setPinned(int uid) {
+        synchronized (mLock) {
+            if (uid != LOCAL_UID && !mTiles.containsKey(uid)) {
+                uid = LOCAL_UID;
+            }
+            if (mPinnedUid != uid) {
+                mPinnedUid = uid;
+                requestRender();
+            }
+        }
+    }
+
+    public int getPinnedUid() {
+        synchronized (mLock) {
+            return mPinnedUid;
+        }
+    }
+
+    /**
+     * Where the inset tile goes, in surface pixels. An empty rectangle
+     * hides it.
+     */
+    public void setInset(int left, int top, int right, int bottom) {
+        synchronized (mLock) {
+            mInset[0] = left;
+            mInset[1] = top;
+            mInset[2] = right;
+            mInset[3] = bottom;
+            requestRender();
+        }
+    }
+
+    /**
+     * Hides the grid tiles, leaving only the inset, while the views behind
+     * the surface show something else.
+     */
+    public void setGridVisible(boolean visible) {
+        synchronized (mLock) {
+            if (mGridVisible != visible) {
+                mGridVisible = visible;
+                requestRender();
+            }
+        }
+    }
+
+    public boolean isGridVisible() {
+        synchronized (mLock) {
+            return mGridVisible;
+        }
+    }
+
+    /**
+     * Hides the local preview, as when the camera is off between calls.
+     */
+    public void setLocalVisible(boolean visible) {
+        synchronized (mLock) {
+            if (mLocalVisible != visible) {
+                mLocalVisible = visible;
+                requestRender();
+            }
+        }
+    }
+
+    /**
+     * Draws only the user's tile, remote or {@link #LOCAL_UID}, over the
+     * whole surface, or with {@link #NO_SOLO} the usual layout again. The
+     * pinned user and the inset are kept for when it is.
+     */
+    public void setSolo(int uid) {
+        synchronized (mLock) {
+            if (mSoloUid != uid) {
+                mSoloUid = uid;
+                requestRender();
+            }
+        }
+    }
+
+    public int getSoloUid() {
+        synchronized (mLock) {
+            return mSoloUid;
+        }
+    }
+
+    /**
+     * Removes every remote tile.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mRemoved.addAll(mGrid);
+            mGrid.clear();
+            mTiles.clear();
+            mPinnedUid = LOCAL_UID;
+            requestRender();
+        }
+    }
+
+    public FramePacing getPacing() {
+        return mPacing;
+    }
+
+    void requestRender() {
+        if (mView != null) {
+            mView.requestRender();
+        }
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        // A new context: every texture of the old one is gone.
+        synchronized (mLock) {
+            mRemoved.clear();
+            resetTextures(mLocal);
+            for (int i = 0; i < mGrid.size(); i++) {
+                resetTextures(mGrid.get(i));
+            }
+        }
+        mProgram = createProgram(FRAGMENT_SHADER);
+        mPositionLoc = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mTexCoordLoc = GLES20.glGetAttribLocation(mProgram, "aTexCoord");
+        mTexMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uTexMatrix");
+        GLES20.glUseProgram(mProgram);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(mProgram, "uY"), 0);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(mProgram, "uU"), 1);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(mProgram, "uV"), 2);
+        mSnapshotProgram = createProgram(SNAPSHOT_FRAGMENT_SHADER);
+        mSnapshotPositionLoc = GLES20.glGetAttribLocation(mSnapshotProgram, "aPosition");
+        mSnapshotTexCoordLoc = GLES20.glGetAttribLocation(mSnapshotProgram, "aTexCoord");
+        mSnapshotTexMatrixLoc = GLES20.glGetUniformLocation(mSnapshotProgram, "uTexMatrix");
+        GLES20.glUseProgram(mSnapshotProgram);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(mSnapshotProgram, "uRgb"), 0);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    @Override
+    public void onDrawFrame(GL10 unused) {
+        Tile inset;
+        synchronized (mLock) {
+            mDrawGrid.clear();
+            Tile pinned = mTiles.get(mPinnedUid);
+            if (mSoloUid != NO_SOLO) {
+                // One slot, the whole surface.
+                Tile solo = mSoloUid == LOCAL_UID ? mLocal : mTiles.get(mSoloUid);
+                if (solo != null) {
+                    mDrawGrid.add(solo);
+                }
+                inset = null;
+            } else {
+                if (mGridVisible) {
+                    mDrawGrid.addAll(mGrid);
+                }
+                if (pinned != null) {
+                    // The preview takes the first slot, the pinned user the inset.
+                    mDrawGrid.remove(pinned);
+                    if (mGridVisible && mLocalVisible) {
+                        mDrawGrid.add(0, mLocal);
+                    }
+                    inset = pinned;
+                } else {
+                    inset = mLocalVisible ? mLocal : null;
+                }
+            }
+            System.arraycopy(mInset, 0, mDrawInset, 0, 4);
+            mDrawRemoved.addAll(mRemoved);
+            mRemoved.clear();
+        }
+        for (int i = 0; i < mDrawRemoved.size(); i++) {
+            deleteTextures(mDrawRemoved.get(i));
+            deleteSnapshotTexture(mDrawRemoved.get(i));
+        }
+        mDrawRemoved.clear();
+
+        long now = SystemClock.elapsedRealtime();
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glClearColor(0f, 0f, 0f, 0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        int count = mDrawGrid.size();
+        for (int i = 0; i < count; i++) {
+            TileLayout.gridRect(i, count, mWidth, mHeight, mRect);
+            drawTile(mDrawGrid.get(i), mRect, now);
+        }
+        if (inset != null && mDrawInset[2] > mDrawInset[0] && mDrawInset[3] > mDrawInset[1]) {
+            drawTile(inset, mDrawInset, now);
+        }
+        mDrawGrid.clear();
+    }
+
+    private void drawTile(Tile tile, int[] rect, long now) {
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        // GL counts rows from the bottom.
+        int x = rect[0];
+        int y = mHeight - rect[3];
+        GLES20.glViewport(x, y, width, height);
+
+        TileSink sink = tile.sink;
+        boolean live = tile.live;
+        // Frames of a tile that is not live are only taken for snapshots.
+        if (sink.latch() && live) {
+            upload(tile);
+            tile.showingLive = true;
+            long arrivedAt = sink.getArrivedAtMs();
+            mPacing.onFrameShown(tile.shownArrivedAtMs < 0 ? -1 : arrivedAt - tile.shownArrivedAtMs,
+                    tile.shownAtMs < 0 ? -1 : now - tile.shownAtMs, now - arrivedAt);
+            tile.shownAtMs = now;
+            tile.shownArrivedAtMs = arrivedAt;
+        }
+        if (!live && tile.showingLive) {
+            deleteTextures(tile);
+            tile.showingLive = false;
+            tile.shownAtMs = -1;
+            tile.shownArrivedAtMs = -1;
+        }
+        Snapshot snapshot = tile.snapshot;
+        if (snapshot != tile.uploadedSnapshot) {
+            uploadSnapshot(tile, snapshot);
+        }
+
+        if (tile.suspended) {
+            drawPlaceholder(x, y, width, height);
+        } else if (tile.showingLive && tile.textures[0] != 0) {
+            TileLayout.setCropMatrix(mTexMatrix, tile.textureWidth, tile.textureHeight,
+                    sink.getRotation(), width, height);
+            GLES20.glUseProgram(mProgram);
+            for (int i = 0; i < 3; i++) {
+                GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tile.textures[i]);
+            }
+            drawQuad(mPositionLoc, mTexCoordLoc, mTexMatrixLoc);
+        } else if (snapshot != null) {
+            // Snapshots are stored upright.
+            TileLayout.setCropMatrix(mTexMatrix, snapshot.getWidth(), snapshot.getHeight(), 0,
+                    width, height);
+            GLES20.glUseProgram(mSnapshotProgram);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tile.snapshotTexture[0]);
+            drawQuad(mSnapshotPositionLoc, mSnapshotTexCoordLoc, mSnapshotTexMatrixLoc);
+        } else {
+            drawPlaceholder(x, y, width, height);
+        }
+    }
+
+    private void drawPlaceholder(int x, int y, int width, int height) {
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glScissor(x, y, width, height);
+        GLES20.glClearColor(Color.red(mPlaceholderColor) / 255f, Color.green(mPlaceholderColor) / 255f,
+                Color.blue(mPlaceholderColor) / 255f, 1f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+    }
+
+    private void drawQuad(int positionLoc, int texCoordLoc, int texMatrixLoc) {
+        GLES20.glUniformMatrix4fv(texMatrixLoc, 1, false, mTexMatrix, 0);
+        GLES20.glEnableVertexAttribArray(positionLoc);
+        GLES20.glVertexAttribPointer(positionLoc, 2, GLES20.GL_FLOAT, false, 0, mQuad);
+        GLES20.glEnableVertexAttribArray(texCoordLoc);
+        GLES20.glVertexAttribPointer(texCoordLoc, 2, GLES20.GL_FLOAT, false, 0, mQuadCoords);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    // Snapshots are small and change every few seconds at most, so each is
+    // uploaded whole into a texture of its own size.
+    private void uploadSnapshot(Tile tile, Snapshot snapshot) {
+        tile.uploadedSnapshot = snapshot;
+        if (snapshot == null) {
+            deleteSnapshotTexture(tile);
+            return;
+        }
+        if (tile.snapshotTexture[0] == 0) {
+            GLES20.glGenTextures(1, tile.snapshotTexture, 0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tile.snapshotTexture[0]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tile.snapshotTexture[0]);
+        }
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, snapshot.getWidth(),
+                snapshot.getHeight(), 0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5,
+                ShortBuffer.wrap(snapshot.getPixels()));
+    }
+
+    // Uploads the sink's front frame into the tile's textures, allocating
+    // them only when the frame size changes.
+    private void upload(Tile tile) {
+        TileSink sink = tile.sink;
+        ByteBuffer frame = sink.getFrame();
+        int width = sink.getWidth();
+        int height = sink.getHeight();
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        boolean resized = tile.textures[0] == 0 || tile.textureWidth != width
+                || tile.textureHeight != height;
+        if (tile.textures[0] == 0) {
+            GLES20.glGenTextures(3, tile.textures, 0);
+            for (int i = 0; i < 3; i++) {
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tile.textures[i]);
+                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+                GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            }
+        }
+        uploadPlane(tile.textures[0], frame, 0, width, height, resized);
+        uploadPlane(tile.textures[1], frame, width * height, chromaWidth, chromaHeight, resized);
+        uploadPlane(tile.textures[2], frame, width * height + chromaWidth * chromaHeight,
+                chromaWidth, chromaHeight, resized);
+        tile.textureWidth = width;
+        tile.textureHeight = height;
+    }
+
+    private static void uploadPlane(int texture, ByteBuffer frame, int offset, int width, int height,
+                                    boolean resized) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        frame.position(offset);
+        if (resized) {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, width, height, 0,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame);
+        } else {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame);
+        }
+        frame.position(0);
+    }
+
+    private static void resetTextures(Tile tile) {
+        tile.textures[0] = 0;
+        tile.textures[1] = 0;
+        tile.textures[2] = 0;
+        tile.showingLive = false;
+        tile.snapshotTexture[0] = 0;
+        tile.uploadedSnapshot = null;
+    }
+
+    private static void deleteTextures(Tile tile) {
+        if (tile.textures[0] != 0) {
+            GLES20.glDeleteTextures(3, tile.textures, 0);
+            tile.textures[0] = 0;
+            tile.textures[1] = 0;
+            tile.textures[2] = 0;
+        }
+    }
+
+    private static void deleteSnapshotTexture(Tile tile) {
+        if (tile.snapshotTexture[0] != 0) {
+            GLES20.glDeleteTextures(1, tile.snapshotTexture, 0);
+            tile.snapshotTexture[0] = 0;
+        }
+    }
+
+    private static int createProgram(String fragmentShader) {
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER));
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentShader));
+        GLES20.glLinkProgram(program);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            Log.e(TAG, "Cannot link the tile program: " + GLES20.glGetProgramInfoLog(program));
+        }
+        return program;
+    }
+
+    private static int compileShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            Log.e(TAG, "Cannot compile a tile shader: " + GLES20.glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+
+    private static FloatBuffer floatBuffer(float[] values) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        buffer.put(values).position(0);
+        return buffer;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.zurivideosample.render;
+
+import com.example.zurivideosample.video.VideoGridLayout;
+
+/**
+ * Where each tile of a {@link TileCompositor} goes on its surface.
+ *
+ * Grid tiles fill the surface with the same near-square grid as
+ * {@link VideoGridLayout}; one more tile may sit in a fixed inset on top,
+ * where the local preview usually is. Rectangles are left, top, right,
+ * bottom in surface pixels, top-down like the views around the surface.
+ *
+ * Also works out the texture transform that fills a tile with a frame the
+ * way VideoCanvas.RENDER_MODE_HIDDEN does: scaled to cover the tile,
+ * centered, and cropped on one side.
+ */
+public final class TileLayout {
+    private TileLayout() {
+    }
+
+    /**
+     * Computes the rectangle of grid slot {@code index} of {@code count}.
+     *
+     * @param out receives left, top, right, bottom
+     */
+    public static void gridRect(int index, int count, int width, int height, int[] out) {
+        int columns = VideoGridLayout.columnsFor(count);
+        int rows = VideoGridLayout.rowsFor(count);
+        int tileWidth = width / columns;
+        int tileHeight = height / rows;
+        int left = (index % columns) * tileWidth;
+        int top = (index / columns) * tileHeight;
+        out[0] = left;
+        out[1] = top;
+        out[2] = left + tileWidth;
+        out[3] = top + tileHeight;
+    }
+
+    /**
+     * Sets a column-major 4x4 texture matrix that maps a tile's 0..1
+     * coordinates, bottom-up, to the part of a frame it shows.
+     *
+     * @param rotation the frame's clockwise rotation in degrees; it is
+     *                 shown turned upright
+     */
+    public static void setCropMatrix(float[] m, int frameWidth, int frameHeight, int rotation,
+                                     int tileWidth, int tileHeight) {
+        boolean sideways = rotation == 90 || rotation == 270;
+        float shownWidth = sideways ? frameHeight : frameWidth;
+        float shownHeight = sideways ? frameWidth : frameHeight;
+        // The fraction of the upright frame the tile shows in each
+        // direction; at least one of them is 1.
+        float sx = 1f;
+        float sy = 1f;
+        if (tileWidth > 0 && tileHeight > 0 && shownWidth > 0 && shownHeight > 0) {
+            float tileAspect = (float) tileWidth / tileHeight;
+            float frameAspect = shownWidth / shownHeight;
+            if (frameAspect > tileAspect) {
+                sx = tileAspect / frameAspect;
+            } else {
+                sy = frameAspect / tileAspect;
+            }
+        }
+        // Upright frame coordinates, u = a*x + b and v = c*y + d, scaled
+        // about the center. Frames are stored top row first, so v runs
+        // down while the tile's y runs up.
+        float a = sx;
+        float b = (1f - sx) / 2f;
+        float c = -sy;
+        float d = (1f + sy) / 2f;
+        // Then back to stored coordinates, undoing the rotation.
+        for (int i = 0; i < 16; i++) {
+            m[i] = 0f;
+        }
+        m[10] = 1f;
+        m[15] = 1f;
+        switch (rotation) {
+            case 90:
+                // Turning clockwise puts stored (s, t) at upright (1 - t, s).
+                m[1] = -a;
+                m[4] = c;
+                m[12] = d;
+                m[13] = 1f - b;
+                break;
+            case 180:
+                m[0] = -a;
+                m[5] = -c;
+                m[12] = 1f - b;
+                m[13] = 1f - d;
+                break;
+            case 270:
+                // And this puts it at upright (t, 1 - s).
+                m[1] = a;
+                m[4] = -c;
+                m[12] = 1f - d;
+                m[13] = b;
+                break;
+            default:
+                m[0] = a;
+                m[5] = c;
+                m[12] = b;
+                m[13] = d;
+                break;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.zurivideosample.render;
+
+import android.os.SystemClock;
+
+import com.example.zurivideosample.effects.I420Frame;
+
+import java.nio.ByteBuffer;
+
+import io.agora.rtc.mediaio.IVideoSink;
+import io.agora.rtc.mediaio.MediaIO;
+
+/**
+ * The renderer the SDK draws one user's video into, in place of a
+ * SurfaceView. It only keeps the latest I420 frame for its tile of a
+ * {@link TileCompositor}, which uploads it to textures on its GL thread.
+ *
+ * Frames go through two buffers: the SDK's thread fills the back one and
+ * the GL thread swaps it to the front when it draws. A frame that arrives
+ * before the previous one was drawn replaces it and counts as dropped.
+ * Buffers are only reallocated when the frame size changes.
+ *
+ * On request the next frame is also kept as a small {@link Snapshot}, for
+ * tiles that show stills rather than live video.
+ */
+public class TileSink implements IVideoSink {
+    private final int mUid;
+    private final TileCompositor mCompositor;
+    private final Object mLock = new Object();
+
+    // Guarded by mLock.
+    private ByteBuffer mBack;
+    private int mBackWidth;
+    private int mBackHeight;
+    private int mBackRotation;
+    private long mBackArrivedAtMs;
+    private boolean mHasBack;
+    private boolean mSnapshotRequested;
+    private Snapshot mSnapshot;
+
+    // GL thread only.
+    private ByteBuffer mFront;
+    private int mWidth;
+    private int mHeight;
+    private int mRotation;
+    private long mArrivedAtMs;
+
+    TileSink(int uid, TileCompositor compositor) {
+        mUid = uid;
+        mCompositor = compositor;
+    }
+
+    public int getUid() {
+        return mUid;
+    }
+
+    @Override
+    public boolean onInitialize() {
+        return true;
+    }
+
+    @Override
+    public boolean onStart() {
+        return true;
+    }
+
+    @Override
+    public void onStop() {
+    }
+
+    @Override
+    public void onDispose() {
+    }
+
+    @Override
+    public long getEGLContextHandle() {
+        // Frames are uploaded by the compositor, no context to share.
+        return 0;
+    }
+
+    @Override
+    public int getBufferType() {
+        return MediaIO.BufferType.BYTE_BUFFER.intValue();
+    }
+
+    @Override
+    public int getPixelFormat() {
+        return MediaIO.PixelFormat.I420.intValue();
+    }
+
+    @Override
+    public void consumeByteBufferFrame(ByteBuffer buffer, int format, int width, int height,
+                                       int rotation, long timestamp) {
+        if (format != MediaIO.PixelFormat.I420.intValue()) {
+            return;
+        }
+        int size = I420Frame.sizeOf(width, height);
+        if (buffer.remaining() < size) {
+            return;
+        }
+        synchronized (mLock) {
+            ByteBuffer back = prepareBack(width, height, rotation);
+            ByteBuffer src = buffer.duplicate();
+            src.limit(src.position() + size);
+            back.put(src);
+            back.flip();
+            takeSnapshotIfRequested(back);
+        }
+        mCompositor.requestRender();
+    }
+
+    @Override
+    public void consumeByteArrayFrame(byte[] data, int format, int width, int height,
+                                      int rotation, long timestamp) {
+        if (format != MediaIO.PixelFormat.I420.intValue()) {
+            return;
+        }
+        int size = I420Frame.sizeOf(width, height);
+        if (data.length < size) {
+            return;
+        }
+        synchronized (mLock) {
+            ByteBuffer back = prepareBack(width, height, rotation);
+            back.put(data, 0, size);
+            back.flip();
+            takeSnapshotIfRequested(back);
+        }
+        mCompositor.requestRender();
+    }
+
+    @Override
+    public void consumeTextureFrame(int textureId, int format, int width, int height,
+                                    int rotation, long timestamp, float[] matrix) {
+        // Only asked for buffers.
+    }
+
+    // Called under mLock.
+    private ByteBuffer prepareBack(int width, int height, int rotation) {
+        if (mHasBack) {
+            mCompositor.getPacing().onFrameDropped();
+        }
+        int size = I420Frame.sizeOf(width, height);
+        if (mBack == null || mBack.capacity() < size) {
+            mBack = ByteBuffer.allocateDirect(size);
+        }
+        mBack.clear();
+        mBackWidth = width;
+        mBackHeight = height;
+        mBackRotation = rotation;
+        mBackArrivedAtMs = SystemClock.elapsedRealtime();
+        mHasBack = true;
+        return mBack;
+    }
+
+    // Called under mLock, with the back buffer filled.
+    private void takeSnapshotIfRequested(ByteBuffer back) {
+        if (mSnapshotRequested) {
+            mSnapshot = Snapshot.fromI420(back, mBackWidth, mBackHeight, mBackRotation,
+                    Snapshot.LONG_EDGE, mBackArrivedAtMs);
+            mSnapshotRequested = false;
+        }
+    }
+
+    /**
+     * Keeps a snapshot of the next frame that arrives, for
+     * {@link #takeSnapshot()}. Any snapshot not taken yet is dropped.
+     */
+    public void requestSnapshot() {
+        synchronized (mLock) {
+            mSnapshotRequested = true;
+            mSnapshot = null;
+        }
+    }
+
+    /**
+     * @return the snapshot asked for, once, or null if no frame arrived
+     * since the request
+     */
+    public Snapshot takeSnapshot() {
+        synchronized (mLock) {
+            Snapshot snapshot = mSnapshot;
+            mSnapshot = null;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Makes the latest frame the front one, if a new one arrived. Called on
+     * the GL thread.
+     *
+     * @return whether the front frame changed
+     */
+    boolean latch() {
+        synchronized (mLock) {
+            if (!mHasBack) {
+                return false;
+            }
+            ByteBuffer front = mFront;
+            mFront = mBack;
+            mBack = front;
+            mWidth = mBackWidth;
+            mHeight = mBackHeight;
+            mRotation = mBackRotation;
+            mArrivedAtMs = mBackArrivedAtMs;
+            mHasBack = false;
+            return true;
+        }
+    }
+
+    /**
+     * The front frame, I420, packed. Null before the first frame.
+     */
+    ByteBuffer getFrame() {
+        return mFront;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getRotation() {
+        return mRotation;
+    }
+
+    long getArrivedAtMs() {
+        return mArrivedAtMs;
+    }
+}
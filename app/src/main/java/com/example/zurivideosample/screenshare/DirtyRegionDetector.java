@@ -0,0 +1,227 @@
+package com.example.zurivideosample.screenshare;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the parts of a screen frame that changed since the last one.
+ *
+ * The detector keeps its own packed copy of the last frame. Each new frame
+ * is compared with it in square tiles, row by row so both buffers are read
+ * front to back, and only the tiles that differ are copied over. A static
+ * screen therefore costs one read-only pass over the frame and no copy at
+ * all, and the copy, once a frame is known to be dirty, is the ready-made
+ * frame to hand to the encoder.
+ *
+ * Frames are RGBA, 4 bytes per pixel, with any row stride. Not thread-safe.
+ */
+public class DirtyRegionDetector {
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+    private final int mColumns;
+    private final int mRows;
+    private final ByteBuffer mFrame;
+    // Dirty flags of the tiles in the band being compared.
+    private final boolean[] mBandDirty;
+
+    private boolean mHasFrame;
+    private int mDirtyTiles;
+    private int mDirtyLeft;
+    private int mDirtyTop;
+    private int mDirtyRight;
+    private int mDirtyBottom;
+
+    public DirtyRegionDetector(int width, int height, int tileSize) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Bad size " + width + "x" + height + "/" + tileSize);
+        }
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mColumns = (width + tileSize - 1) / tileSize;
+        mRows = (height + tileSize - 1) / tileSize;
+        mFrame = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL);
+        mBandDirty = new boolean[mColumns];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Compares a frame with the previous one and brings {@link #getFrame()}
+     * up to date. The first frame is entirely dirty.
+     *
+     * @param src       RGBA pixels, starting at the buffer's position
+     * @param rowStride bytes from one row to the next in {@code src}
+     * @return the number of tiles that changed, 0 if the frame is identical
+     */
+    public int update(ByteBuffer src, int rowStride) {
+        if (rowStride < mWidth * BYTES_PER_PIXEL) {
+            throw new IllegalArgumentException("Row stride " + rowStride + " for width " + mWidth);
+        }
+        // Longs are compared, not bytes, so both must read the same way.
+        mFrame.order(src.order());
+        int base = src.position();
+        mDirtyTiles = 0;
+        mDirtyLeft = mColumns;
+        mDirtyTop = mRows;
+        mDirtyRight = -1;
+        mDirtyBottom = -1;
+        for (int row = 0; row < mRows; row++) {
+            int top = row * mTileSize;
+            int bottom = Math.min(top + mTileSize, mHeight);
+            int dirtyInBand = mHasFrame ? compareBand(src, base, rowStride, top, bottom) : markBand();
+            if (dirtyInBand == 0) {
+                continue;
+            }
+            copyBand(src, base, rowStride, top, bottom);
+            mDirtyTiles += dirtyInBand;
+            mDirtyTop = Math.min(mDirtyTop, row);
+            mDirtyBottom = row;
+        }
+        mHasFrame = true;
+        return mDirtyTiles;
+    }
+
+    /**
+     * Forgets the last frame, so the next one is entirely dirty.
+     */
+    public void reset() {
+        mHasFrame = false;
+    }
+
+    /**
+     * The last frame, packed: rows are exactly {@code width * 4} bytes.
+     * Positioned at 0 and valid until the next {@link #update}.
+     */
+    public ByteBuffer getFrame() {
+        mFrame.clear();
+        return mFrame;
+    }
+
+    public int getDirtyTileCount() {
+        return mDirtyTiles;
+    }
+
+    public int getTileCount() {
+        return mColumns * mRows;
+    }
+
+    /**
+     * Bounds of the last update's dirty tiles in pixels, or all 0 if none
+     * changed.
+     */
+    public int getDirtyLeft() {
+        return mDirtyTiles > 0 ? mDirtyLeft * mTileSize : 0;
+    }
+
+    public int getDirtyTop() {
+        return mDirtyTiles > 0 ? mDirtyTop * mTileSize : 0;
+    }
+
+    public int getDirtyRight() {
+        return mDirtyTiles > 0 ? Math.min((mDirtyRight + 1) * mTileSize, mWidth) : 0;
+    }
+
+    public int getDirtyBottom() {
+        return mDirtyTiles > 0 ? Math.min((mDirtyBottom + 1) * mTileSize, mHeight) : 0;
+    }
+
+    private int markBand() {
+        for (int column = 0; column < mColumns; column++) {
+            mBandDirty[column] = true;
+        }
+        mDirtyLeft = 0;
+        mDirtyRight = mColumns - 1;
+        return mColumns;
+    }
+
+    private int compareBand(ByteBuffer src, int base, int rowStride, int top, int bottom) {
+        boolean[] dirty = mBandDirty;
+        int tileBytes = mTileSize * BYTES_PER_PIXEL;
+        int rowBytes = mWidth * BYTES_PER_PIXEL;
+        int count = 0;
+        for (int column = 0; column < mColumns; column++) {
+            dirty[column] = false;
+        }
+        for (int y = top; y < bottom && count < mColumns; y++) {
+            int srcRow = base + y * rowStride;
+            int dstRow = y * rowBytes;
+            for (int column = 0; column < mColumns; column++) {
+                if (dirty[column]) {
+                    // Already known to differ, the rest of it is copied anyway.
+                    continue;
+                }
+                int start = column * tileBytes;
+                int end = Math.min(start + tileBytes, rowBytes);
+                if (!equal(src, srcRow + start, mFrame, dstRow + start, end - start)) {
+                    dirty[column] = true;
+                    count++;
+                    mDirtyLeft = Math.min(mDirtyLeft, column);
+                    mDirtyRight = Math.max(mDirtyRight, column);
+                }
+            }
+        }
+        return count;
+    }
+
+    private void copyBand(ByteBuffer src, int base, int rowStride, int top, int bottom) {
+        boolean[] dirty = mBandDirty;
+        int tileBytes = mTileSize * BYTES_PER_PIXEL;
+        int rowBytes = mWidth * BYTES_PER_PIXEL;
+        for (int y = top; y < bottom; y++) {
+            int srcRow = base + y * rowStride;
+            int dstRow = y * rowBytes;
+            int column = 0;
+            while (column < mColumns) {
+                if (!dirty[column]) {
+                    column++;
+                    continue;
+                }
+                // Neighbouring dirty tiles are copied as one run.
+                int first = column;
+                while (column < mColumns && dirty[column]) {
+                    column++;
+                }
+                int start = first * tileBytes;
+                int end = Math.min(column * tileBytes, rowBytes);
+                copy(src, srcRow + start, mFrame, dstRow + start, end - start);
+            }
+        }
+    }
+
+    private static boolean equal(ByteBuffer a, int aOffset, ByteBuffer b, int bOffset, int length) {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            if (a.getLong(aOffset + i) != b.getLong(bOffset + i)) {
+                return false;
+            }
+        }
+        // Widths are whole pixels, so at most one int is left.
+        for (; i < length; i += 4) {
+            if (a.getInt(aOffset + i) != b.getInt(bOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void copy(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int length) {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            dst.putLong(dstOffset + i, src.getLong(srcOffset + i));
+        }
+        for (; i < length; i += 4) {
+            dst.putInt(dstOffset + i, src.getInt(srcOffset + i));
+        }
+    }
+}
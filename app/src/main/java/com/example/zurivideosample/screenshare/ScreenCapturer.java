@@ -0,0 +1,164 @@
+package com.example.zurivideosample.screenshare;
+
+import android.graphics.PixelFormat;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.example.zurivideosample.video.EncoderProfile;
+
+/**
+ * Mirrors the screen into an ImageReader through a MediaProjection and
+ * feeds the frames to a {@link ScreenShareSource}, all on a capture thread
+ * of its own.
+ *
+ * The virtual display only produces frames when something on screen
+ * changes, but then as fast as the screen animates. Frames are taken at
+ * most at the screen encoder's frame rate; one that arrives early is left
+ * in the reader, and the latest is picked up when its slot comes, so the
+ * final state of an animation is never lost.
+ */
+public class ScreenCapturer {
+    private static final String DISPLAY_NAME = "ScreenShare";
+    private static final int MAX_IMAGES = 2;
+    private static final long FRAME_INTERVAL_MS = 1000 / EncoderProfile.SCREEN_FRAME_RATE.getValue();
+    private static final long IDLE_CHECK_MS = ScreenShareSource.MAX_STATIC_INTERVAL_MS / 2;
+
+    private final MediaProjection mProjection;
+    private final ScreenShareSource mSource;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mDensityDpi;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ImageReader mReader;
+    private VirtualDisplay mDisplay;
+    private long mNextFrameMs;
+    private boolean mFramePending;
+
+    private final ImageReader.OnImageAvailableListener mImageListener =
+            new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    if (mFramePending) {
+                        return;
+                    }
+                    long now = SystemClock.uptimeMillis();
+                    if (now < mNextFrameMs) {
+                        mFramePending = true;
+                        mHandler.postAtTime(mTakeFrame, mNextFrameMs);
+                    } else {
+                        mTakeFrame.run();
+                    }
+                }
+            };
+
+    private final Runnable mTakeFrame = new Runnable() {
+        @Override
+        public void run() {
+            mFramePending = false;
+            Image image = mReader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            try {
+                Image.Plane plane = image.getPlanes()[0];
+                mSource.onFrame(plane.getBuffer(), mWidth, mHeight, plane.getRowStride(),
+                        SystemClock.elapsedRealtime());
+            } finally {
+                image.close();
+            }
+            mNextFrameMs = SystemClock.uptimeMillis() + FRAME_INTERVAL_MS;
+        }
+    };
+
+    private final Runnable mIdleCheck = new Runnable() {
+        @Override
+        public void run() {
+            mSource.onIdle(SystemClock.elapsedRealtime());
+            mHandler.postDelayed(this, IDLE_CHECK_MS);
+        }
+    };
+
+    /**
+     * @param width  capture width, see {@link #fitCaptureSize}
+     * @param height capture height
+     */
+    public ScreenCapturer(MediaProjection projection, ScreenShareSource source,
+                          int width, int height, int densityDpi) {
+        mProjection = projection;
+        mSource = source;
+        mWidth = width;
+        mHeight = height;
+        mDensityDpi = densityDpi;
+    }
+
+    /**
+     * Scales a screen size down to fit the screen encoder's limits, in
+     * either orientation, keeping the aspect ratio and even dimensions.
+     *
+     * @return {width, height}
+     */
+    public static int[] fitCaptureSize(int screenWidth, int screenHeight) {
+        int longEdge = Math.max(screenWidth, screenHeight);
+        int shortEdge = Math.min(screenWidth, screenHeight);
+        float scale = Math.min(1f, Math.min(
+                (float) EncoderProfile.SCREEN_MAX_LONG_EDGE / longEdge,
+                (float) EncoderProfile.SCREEN_MAX_SHORT_EDGE / shortEdge));
+        return new int[] {
+                Math.round(screenWidth * scale) & ~1,
+                Math.round(screenHeight * scale) & ~1
+        };
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public void start() {
+        mThread = new HandlerThread(DISPLAY_NAME);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mReader = ImageReader.newInstance(mWidth, mHeight, PixelFormat.RGBA_8888, MAX_IMAGES);
+        mReader.setOnImageAvailableListener(mImageListener, mHandler);
+        mDisplay = mProjection.createVirtualDisplay(DISPLAY_NAME, mWidth, mHeight, mDensityDpi,
+                DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR, mReader.getSurface(), null, mHandler);
+        mHandler.postDelayed(mIdleCheck, IDLE_CHECK_MS);
+    }
+
+    /**
+     * Stops capturing and waits for the capture thread to finish. The
+     * projection itself stays with the caller.
+     */
+    public void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mDisplay.release();
+        mHandler.removeCallbacksAndMessages(null);
+        // The reader is closed on its own thread, after any frame in flight.
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mReader.close();
+            }
+        });
+        mThread.quitSafely();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+}
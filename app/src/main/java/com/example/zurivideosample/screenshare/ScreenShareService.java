@@ -0,0 +1,251 @@
+package com.example.zurivideosample.screenshare;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.media.projection.MediaProjection;
+import android.media.projection.MediaProjectionManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.example.zurivideosample.R;
+import com.example.zurivideosample.ZuriVideoApplication;
+import com.example.zurivideosample.call.TokenProvider;
+import com.example.zurivideosample.engine.AgoraCallEngine;
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.video.EncoderProfile;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Publishes the screen into a call as a second user, next to the camera.
+ *
+ * The SDK sends one video stream per engine and allows one engine per
+ * process, so the screen gets an engine of its own in the service's own
+ * process (see the manifest). That engine joins the call's channel under
+ * {@link #screenUidFor the caller's uid with the top bit flipped}, with audio
+ * disabled and nothing subscribed, and sends what a {@link ScreenCapturer}
+ * captures through a {@link ScreenShareSource} at the screen encoder
+ * profile. The call screen recognises the uid and ignores it.
+ *
+ * The token is the screen uid's own, from the app's {@link TokenProvider},
+ * and is renewed before it expires, as the call's is.
+ *
+ * Start it with {@link #start} once the user has agreed to the capture,
+ * and stop it with {@link #stop}.
+ */
+public class ScreenShareService extends Service {
+    private static final String TAG = ScreenShareService.class.getSimpleName();
+
+    private static final String EXTRA_RESULT_CODE = "com.example.zurivideosample.RESULT_CODE";
+    private static final String EXTRA_RESULT_DATA = "com.example.zurivideosample.RESULT_DATA";
+    private static final String EXTRA_CHANNEL = "com.example.zurivideosample.CHANNEL";
+    private static final String EXTRA_UID = "com.example.zurivideosample.UID";
+
+    private static final String NOTIFICATION_CHANNEL = "screen_share";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String OPTIONAL_INFO = "";
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private TokenProvider mTokens;
+    private String mChannel;
+    private int mUid;
+    private CallEngine mEngine;
+    private MediaProjection mProjection;
+    private ScreenCapturer mCapturer;
+    private final ScreenShareSource mSource = new ScreenShareSource();
+
+    private final MediaProjection.Callback mProjectionCallback = new MediaProjection.Callback() {
+        @Override
+        public void onStop() {
+            // Revoked by the system or the user, from outside the app.
+            stopSelf();
+        }
+    };
+
+    private final IRtcEngineEventHandler mEventHandler = new IRtcEngineEventHandler() {
+        @Override
+        public void onJoinChannelSuccess(String channel, int uid, int elapsed) {
+            Log.i(TAG, "Sharing the screen as " + (uid & 0xFFFFFFFFL));
+        }
+
+        @Override
+        public void onTokenPrivilegeWillExpire(String token) {
+            mHandler.post(mRenewToken);
+        }
+
+        @Override
+        public void onRequestToken() {
+            mHandler.post(mRenewToken);
+        }
+
+        @Override
+        public void onError(int err) {
+            Log.w(TAG, "Screen share error " + err);
+        }
+    };
+
+    // The engine's callbacks come on the SDK's thread, the provider
+    // answers on the main thread.
+    private final Runnable mRenewToken = new Runnable() {
+        @Override
+        public void run() {
+            if (mEngine == null) {
+                return;
+            }
+            mTokens.fetchToken(mChannel, mUid, new TokenProvider.Callback() {
+                @Override
+                public void onToken(String token) {
+                    if (mEngine != null) {
+                        mEngine.renewToken(token);
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.w(TAG, "Failed to renew the screen's token", e);
+                }
+            });
+        }
+    };
+
+    /**
+     * The uid the screen of a user with the given uid joins with.
+     */
+    public static int screenUidFor(int uid) {
+        return uid ^ 0x80000000;
+    }
+
+    /**
+     * @param resultCode the result of the screen capture intent
+     * @param data       its data
+     * @param uid        the uid of the caller in the channel
+     */
+    public static void start(Context context, int resultCode, Intent data,
+                             String channel, int uid) {
+        Intent intent = new Intent(context, ScreenShareService.class);
+        intent.putExtra(EXTRA_RESULT_CODE, resultCode);
+        intent.putExtra(EXTRA_RESULT_DATA, data);
+        intent.putExtra(EXTRA_CHANNEL, channel);
+        intent.putExtra(EXTRA_UID, uid);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, ScreenShareService.class));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null || mEngine != null) {
+            // Not restarted after being killed, and one share at a time.
+            return START_NOT_STICKY;
+        }
+        // The projection may only be created once the service is in the
+        // foreground.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, buildNotification(),
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PROJECTION);
+        } else {
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+        MediaProjectionManager manager =
+                (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        Intent data = intent.getParcelableExtra(EXTRA_RESULT_DATA);
+        mProjection = manager.getMediaProjection(intent.getIntExtra(EXTRA_RESULT_CODE, 0), data);
+        if (mProjection == null) {
+            Log.w(TAG, "Screen capture was not granted");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        mProjection.registerCallback(mProjectionCallback, null);
+
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int[] size = ScreenCapturer.fitCaptureSize(metrics.widthPixels, metrics.heightPixels);
+        try {
+            mEngine = AgoraCallEngine.create(getApplicationContext(),
+                    getString(R.string.agora_app_id), mEventHandler);
+        } catch (Exception e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        // Video only, and only outgoing: the call screen already plays
+        // everyone else.
+        mEngine.disableAudio();
+        mEngine.enableVideo();
+        mEngine.muteAllRemoteVideoStreams(true);
+        mEngine.setVideoSource(mSource);
+        mEngine.setVideoEncoderConfiguration(EncoderProfile.screenConfiguration(size[0], size[1]));
+        mTokens = ((ZuriVideoApplication) getApplication()).getTokenProvider();
+        mChannel = intent.getStringExtra(EXTRA_CHANNEL);
+        mUid = screenUidFor(intent.getIntExtra(EXTRA_UID, 0));
+        mTokens.fetchToken(mChannel, mUid, new TokenProvider.Callback() {
+            @Override
+            public void onToken(String token) {
+                if (mEngine != null) {
+                    mEngine.joinChannel(token, mChannel, OPTIONAL_INFO, mUid);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.w(TAG, "Failed to fetch a token for the screen", e);
+                stopSelf();
+            }
+        });
+
+        mCapturer = new ScreenCapturer(mProjection, mSource, size[0], size[1], metrics.densityDpi);
+        mCapturer.start();
+        return START_NOT_STICKY;
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager =
+                    (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(NOTIFICATION_CHANNEL,
+                    getString(R.string.screen_share_channel), NotificationManager.IMPORTANCE_LOW));
+        }
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.screen_share_notification))
+                .setOngoing(true)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mRenewToken);
+        if (mCapturer != null) {
+            mCapturer.stop();
+            Log.i(TAG, "Screen frames: " + mSource);
+        }
+        if (mProjection != null) {
+            mProjection.unregisterCallback(mProjectionCallback);
+            mProjection.stop();
+        }
+        if (mEngine != null) {
+            mEngine.leaveChannel();
+            mEngine.destroy();
+            mEngine = null;
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
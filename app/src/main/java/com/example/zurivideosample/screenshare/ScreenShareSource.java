@@ -0,0 +1,159 @@
+package com.example.zurivideosample.screenshare;
+
+import java.nio.ByteBuffer;
+
+import io.agora.rtc.mediaio.IVideoFrameConsumer;
+import io.agora.rtc.mediaio.IVideoSource;
+import io.agora.rtc.mediaio.MediaIO;
+
+/**
+ * A custom video source for screen content.
+ *
+ * Captured frames go through a {@link DirtyRegionDetector} first. Frames
+ * identical to the last one are dropped before the SDK sees them, so an
+ * unchanged screen is neither converted nor encoded nor sent. To keep
+ * receivers from treating the stream as frozen, and to give users who join
+ * late a picture, the last frame is repeated once every
+ * {@link #MAX_STATIC_INTERVAL_MS} while nothing changes.
+ *
+ * {@link #onFrame} and {@link #onIdle} must be called on one capture thread.
+ */
+public class ScreenShareSource implements IVideoSource {
+    public static final long MAX_STATIC_INTERVAL_MS = 1000;
+
+    private final int mTileSize;
+
+    private volatile IVideoFrameConsumer mConsumer;
+    private volatile boolean mStarted;
+
+    private DirtyRegionDetector mDetector;
+    private long mLastSentMs;
+    private boolean mHasFrame;
+    private long mSent;
+    private long mRepeated;
+    private long mSkipped;
+    private long mDropped;
+
+    public ScreenShareSource() {
+        this(DirtyRegionDetector.DEFAULT_TILE_SIZE);
+    }
+
+    public ScreenShareSource(int tileSize) {
+        mTileSize = tileSize;
+    }
+
+    /**
+     * Delivers a captured frame unless it is identical to the last one.
+     * Frames arriving while the SDK is not consuming are dropped.
+     *
+     * @param rgba      RGBA pixels, starting at the buffer's position
+     * @param rowStride bytes from one row to the next
+     * @return whether the frame was passed on
+     */
+    public boolean onFrame(ByteBuffer rgba, int width, int height, int rowStride, long timestampMs) {
+        IVideoFrameConsumer consumer = mConsumer;
+        if (!mStarted || consumer == null) {
+            mDropped++;
+            return false;
+        }
+        if (mDetector == null || mDetector.getWidth() != width || mDetector.getHeight() != height) {
+            mDetector = new DirtyRegionDetector(width, height, mTileSize);
+        }
+        if (mDetector.update(rgba, rowStride) == 0 && mHasFrame) {
+            mSkipped++;
+            return false;
+        }
+        deliver(consumer, timestampMs);
+        mSent++;
+        return true;
+    }
+
+    /**
+     * Repeats the last frame if nothing was delivered for
+     * {@link #MAX_STATIC_INTERVAL_MS}. The capture thread calls this
+     * periodically, because a static screen produces no frames at all.
+     *
+     * @return whether the frame was repeated
+     */
+    public boolean onIdle(long nowMs) {
+        IVideoFrameConsumer consumer = mConsumer;
+        if (!mStarted || consumer == null || !mHasFrame
+                || nowMs - mLastSentMs < MAX_STATIC_INTERVAL_MS) {
+            return false;
+        }
+        deliver(consumer, nowMs);
+        mRepeated++;
+        return true;
+    }
+
+    private void deliver(IVideoFrameConsumer consumer, long timestampMs) {
+        consumer.consumeByteBufferFrame(mDetector.getFrame(), MediaIO.PixelFormat.RGBA.intValue(),
+                mDetector.getWidth(), mDetector.getHeight(), 0, timestampMs);
+        mLastSentMs = timestampMs;
+        mHasFrame = true;
+    }
+
+    public DirtyRegionDetector getDetector() {
+        return mDetector;
+    }
+
+    public long getSentCount() {
+        return mSent;
+    }
+
+    public long getRepeatedCount() {
+        return mRepeated;
+    }
+
+    public long getSkippedCount() {
+        return mSkipped;
+    }
+
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    @Override
+    public boolean onInitialize(IVideoFrameConsumer consumer) {
+        mConsumer = consumer;
+        return true;
+    }
+
+    @Override
+    public boolean onStart() {
+        mStarted = true;
+        return true;
+    }
+
+    @Override
+    public void onStop() {
+        mStarted = false;
+    }
+
+    @Override
+    public void onDispose() {
+        mConsumer = null;
+    }
+
+    @Override
+    public int getBufferType() {
+        return MediaIO.BufferType.BYTE_BUFFER.intValue();
+    }
+
+    @Override
+    public int getCaptureType() {
+        return MediaIO.CaptureType.SCREEN.intValue();
+    }
+
+    @Override
+    public int getContentHint() {
+        // Favour sharp text over smooth motion.
+        return MediaIO.ContentHint.DETAIL.intValue();
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + mSent + ", repeated " + mRepeated + ", unchanged " + mSkipped
+                + ", dropped " + mDropped;
+    }
+}
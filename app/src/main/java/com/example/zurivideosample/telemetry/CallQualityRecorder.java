@@ -0,0 +1,229 @@
+package com.example.zurivideosample.telemetry;
+
+import com.example.zurivideosample.util.UidMap;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Records the SDK's periodic stats callbacks into per-uid histograms and
+ * rolls them up into a {@link CallSummary} when the call ends.
+ *
+ * Every histogram is allocated up front: remote users take their
+ * histograms from a fixed pool and give them back, folded into the
+ * received totals, when they leave. Recording a callback therefore never
+ * allocates. Not thread safe; call it from the thread the engine events
+ * are delivered on.
+ *
+ * Users who left are remembered for the rest of the call, so a stats
+ * callback arriving after their onUserOffline is ignored rather than
+ * counted as a new user, until they join again.
+ */
+public class CallQualityRecorder {
+    // Room for everyone in the largest calls the app handles, 60
+    // participants at once.
+    public static final int DEFAULT_MAX_REMOTE_USERS = 64;
+
+    private final StreamQuality mSent = new StreamQuality();
+    // Everything received from users that already left.
+    private final StreamQuality mReceived = new StreamQuality();
+    private final UidMap<RemoteStream> mRemote;
+    private final RemoteStream[] mFree;
+    private int mFreeCount;
+    // Every remote user recorded in this call, who left, and whose stats
+    // did not fit the pool. Only the keys matter.
+    private final UidMap<Boolean> mSeen;
+    private final UidMap<Boolean> mLeft;
+    private final UidMap<Boolean> mDropped;
+
+    private boolean mRecording;
+    private long mStartedAt;
+    private long mStartedAtMs;
+    private int mSamples;
+    private int mDroppedUsers;
+
+    private static final class RemoteStream {
+        final StreamQuality quality = new StreamQuality();
+        int lastFrozenMs;
+    }
+
+    public CallQualityRecorder() {
+        this(DEFAULT_MAX_REMOTE_USERS);
+    }
+
+    /**
+     * @param maxRemoteUsers how many remote users are tracked at once;
+     *                       stats from users beyond that are ignored
+     */
+    public CallQualityRecorder(int maxRemoteUsers) {
+        mRemote = new UidMap<>(maxRemoteUsers);
+        mFree = new RemoteStream[maxRemoteUsers];
+        for (int i = 0; i < maxRemoteUsers; i++) {
+            mFree[i] = new RemoteStream();
+        }
+        mFreeCount = maxRemoteUsers;
+        mSeen = new UidMap<>(maxRemoteUsers * 2);
+        mLeft = new UidMap<>(maxRemoteUsers * 2);
+        mDropped = new UidMap<>(maxRemoteUsers);
+    }
+
+    /**
+     * Starts a new call, discarding anything recorded before.
+     *
+     * @param wallClock the current time, stored with the summary
+     * @param now the current time on the monotonic clock
+     */
+    public void start(long wallClock, long now) {
+        reset();
+        mDroppedUsers = 0;
+        mRecording = true;
+        mStartedAt = wallClock;
+        mStartedAtMs = now;
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    public void onRtcStats(IRtcEngineEventHandler.RtcStats stats) {
+        if (!mRecording) {
+            return;
+        }
+        mSent.record(StreamQuality.RTT, stats.gatewayRtt);
+        mSent.record(StreamQuality.LOSS, stats.txPacketLossRate);
+        mSamples++;
+    }
+
+    public void onLocalVideoStats(IRtcEngineEventHandler.LocalVideoStats stats) {
+        if (!mRecording) {
+            return;
+        }
+        mSent.record(StreamQuality.BITRATE, stats.sentBitrate);
+        mSent.record(StreamQuality.FPS, stats.sentFrameRate);
+        mSamples++;
+    }
+
+    public void onRemoteVideoStats(IRtcEngineEventHandler.RemoteVideoStats stats) {
+        RemoteStream stream = streamFor(stats.uid);
+        if (stream == null) {
+            return;
+        }
+        StreamQuality quality = stream.quality;
+        quality.record(StreamQuality.BITRATE, stats.receivedBitrate);
+        quality.record(StreamQuality.FPS, stats.rendererOutputFrameRate);
+        quality.record(StreamQuality.RTT, stats.delay);
+        quality.record(StreamQuality.LOSS, stats.packetLossRate);
+        // totalFrozenTime adds up since the user joined; record how much of
+        // it happened in this stats period.
+        quality.record(StreamQuality.FREEZE, stats.totalFrozenTime - stream.lastFrozenMs);
+        stream.lastFrozenMs = stats.totalFrozenTime;
+        mSamples++;
+    }
+
+    /**
+     * For uid 0 records the local uplink quality, for remote users theirs,
+     * which is what limits the video we receive from them.
+     */
+    public void onNetworkQuality(int uid, int txQuality, int rxQuality) {
+        if (!mRecording) {
+            return;
+        }
+        if (uid == 0) {
+            mSent.record(StreamQuality.NETWORK_QUALITY, txQuality);
+        } else {
+            RemoteStream stream = streamFor(uid);
+            if (stream != null) {
+                stream.quality.record(StreamQuality.NETWORK_QUALITY, txQuality);
+            }
+        }
+        mSamples++;
+    }
+
+    /**
+     * A user who left earlier is recorded again from now on.
+     */
+    public void onUserJoined(int uid) {
+        mLeft.remove(uid);
+    }
+
+    public void onUserOffline(int uid) {
+        if (mRecording) {
+            mLeft.put(uid, Boolean.TRUE);
+        }
+        int i = mRemote.indexOfKey(uid);
+        if (i < 0) {
+            return;
+        }
+        RemoteStream stream = mRemote.valueAt(i);
+        mRemote.removeAt(i);
+        mReceived.addAll(stream.quality);
+        recycle(stream);
+    }
+
+    /**
+     * Ends the call and returns its summary, or null if no call was being
+     * recorded.
+     */
+    public CallSummary finish(long now) {
+        if (!mRecording) {
+            return null;
+        }
+        for (int i = 0; i < mRemote.size(); i++) {
+            mReceived.addAll(mRemote.valueAt(i).quality);
+        }
+        mDroppedUsers = mDropped.size();
+        CallSummary summary = CallSummary.of(mStartedAt, (int) (now - mStartedAtMs),
+                mSeen.size(), mDroppedUsers, mSamples, mSent, mReceived);
+        reset();
+        return summary;
+    }
+
+    /**
+     * Remote users some of whose stats were ignored in the last call
+     * because the pool was full.
+     */
+    public int getDroppedUserCount() {
+        return mDroppedUsers;
+    }
+
+    private RemoteStream streamFor(int uid) {
+        if (!mRecording) {
+            return null;
+        }
+        RemoteStream stream = mRemote.get(uid);
+        if (stream == null) {
+            if (mLeft.containsKey(uid)) {
+                // A late report from a user who already left.
+                return null;
+            }
+            if (mFreeCount == 0) {
+                mDropped.put(uid, Boolean.TRUE);
+                return null;
+            }
+            stream = mFree[--mFreeCount];
+            mFree[mFreeCount] = null;
+            mRemote.put(uid, stream);
+            mSeen.put(uid, Boolean.TRUE);
+        }
+        return stream;
+    }
+
+    private void recycle(RemoteStream stream) {
+        stream.quality.reset();
+        stream.lastFrozenMs = 0;
+        mFree[mFreeCount++] = stream;
+    }
+
+    private void reset() {
+        for (int i = 0; i < mRemote.size(); i++) {
+            recycle(mRemote.valueAt(i));
+        }
+        mRemote.clear();
+        mSeen.clear();
+        mLeft.clear();
+        mDropped.clear();
+        mSent.reset();
+        mReceived.reset();
+        mRecording = false;
+        mSamples = 0;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.zurivideosample.telemetry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Quality of one finished call: p50 and p99 of every {@link StreamQuality}
+ * metric for the stream we sent and for all the streams we received.
+ *
+ * Summaries have a fixed encoded size so they can be stored in the slots of
+ * a {@link TelemetryStore}.
+ */
+public final class CallSummary {
+    public static final int ENCODED_SIZE =
+            8 + 4 + 4 + 4 + 4 + 4 * StreamQuality.METRIC_COUNT * 4;
+
+    public final long startedAt;
+    public final int durationMs;
+    public final int remoteUsers;
+    public final int droppedUsers;
+    public final int samples;
+    public final int[] sentP50 = new int[StreamQuality.METRIC_COUNT];
+    public final int[] sentP99 = new int[StreamQuality.METRIC_COUNT];
+    public final int[] receivedP50 = new int[StreamQuality.METRIC_COUNT];
+    public final int[] receivedP99 = new int[StreamQuality.METRIC_COUNT];
+
+    /**
+     * @param startedAt wall clock time the call started, in milliseconds
+     * @param durationMs how long the call lasted
+     * @param remoteUsers how many different remote users sent video
+     * @param droppedUsers how many of them were not all recorded, because
+     *                     too many users were in the call at once
+     * @param samples how many stats callbacks were recorded
+     */
+    public CallSummary(long startedAt, int durationMs, int remoteUsers, int droppedUsers, int samples) {
+        this.startedAt = startedAt;
+        this.durationMs = durationMs;
+        this.remoteUsers = remoteUsers;
+        this.droppedUsers = droppedUsers;
+        this.samples = samples;
+    }
+
+    static CallSummary of(long startedAt, int durationMs, int remoteUsers, int droppedUsers, int samples,
+                          StreamQuality sent, StreamQuality received) {
+        CallSummary summary = new CallSummary(startedAt, durationMs, remoteUsers, droppedUsers, samples);
+        for (int i = 0; i < StreamQuality.METRIC_COUNT; i++) {
+            summary.sentP50[i] = sent.get(i).percentile(50);
+            summary.sentP99[i] = sent.get(i).percentile(99);
+            summary.receivedP50[i] = received.get(i).percentile(50);
+            summary.receivedP99[i] = received.get(i).percentile(99);
+        }
+        return summary;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.putLong(startedAt);
+        out.putInt(durationMs);
+        out.putInt(remoteUsers);
+        out.putInt(droppedUsers);
+        out.putInt(samples);
+        putAll(out, sentP50);
+        putAll(out, sentP99);
+        putAll(out, receivedP50);
+        putAll(out, receivedP99);
+    }
+
+    public static CallSummary readFrom(ByteBuffer in) {
+        CallSummary summary = new CallSummary(in.getLong(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+        getAll(in, summary.sentP50);
+        getAll(in, summary.sentP99);
+        getAll(in, summary.receivedP50);
+        getAll(in, summary.receivedP99);
+        return summary;
+    }
+
+    private static void putAll(ByteBuffer out, int[] values) {
+        for (int value : values) {
+            out.putInt(value);
+        }
+    }
+
+    private static void getAll(ByteBuffer in, int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.getInt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "call " + durationMs / 1000 + "s, " + remoteUsers + " remote users"
+                + (droppedUsers > 0 ? " (" + droppedUsers + " not fully recorded)" : "")
+                + ", sent " + format(sentP50, sentP99)
+                + ", received " + format(receivedP50, receivedP99);
+    }
+
+    private static String format(int[] p50, int[] p99) {
+        return "{kbps " + p50[StreamQuality.BITRATE] + "/" + p99[StreamQuality.BITRATE]
+                + ", fps " + p50[StreamQuality.FPS] + "/" + p99[StreamQuality.FPS]
+                + ", rtt " + p50[StreamQuality.RTT] + "/" + p99[StreamQuality.RTT]
+                + ", loss " + p50[StreamQuality.LOSS] + "/" + p99[StreamQuality.LOSS]
+                + ", freeze " + p50[StreamQuality.FREEZE] + "/" + p99[StreamQuality.FREEZE]
+                + ", quality " + p50[StreamQuality.NETWORK_QUALITY] + "/" + p99[StreamQuality.NETWORK_QUALITY]
+                + "}";
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.zurivideosample.telemetry;
+
+/**
+ * Latencies on the way to a working call.
+ *
+ * <ul>
+ *     <li>create: RtcEngine creation</li>
+ *     <li>preview: startPreview to the first local frame</li>
+ *     <li>join: joinChannel to onJoinChannelSuccess</li>
+ *     <li>first remote frame: joinChannel to the first decoded remote frame</li>
+ * </ul>
+ *
+ * All times are milliseconds from the same monotonic clock, passed in by the
+ * caller. Latencies that have not been measured yet are -1.
+ */
+public class CallTimings {
+    private long mEngineCreateMs = -1;
+
+    private long mPreviewStartedAt = -1;
+    private long mPreviewMs = -1;
+
+    private long mJoinRequestedAt = -1;
+    private long mJoinMs = -1;
+    private long mFirstRemoteFrameMs = -1;
+
+    public void onEngineCreated(long startedAt, long finishedAt) {
+        mEngineCreateMs = finishedAt - startedAt;
+    }
+
+    public void onPreviewStarted(long now) {
+        mPreviewStartedAt = now;
+        mPreviewMs = -1;
+    }
+
+    public void onFirstLocalFrame(long now) {
+        if (mPreviewStartedAt >= 0 && mPreviewMs < 0) {
+            mPreviewMs = now - mPreviewStartedAt;
+        }
+    }
+
+    /**
+     * Starts timing a new join; the previous call's join and first remote
+     * frame latencies are reset.
+     */
+    public void onJoinRequested(long now) {
+        mJoinRequestedAt = now;
+        mJoinMs = -1;
+        mFirstRemoteFrameMs = -1;
+    }
+
+    public void onJoined(long now) {
+        if (mJoinRequestedAt >= 0 && mJoinMs < 0) {
+            mJoinMs = now - mJoinRequestedAt;
+        }
+    }
+
+    /**
+     * @return true if this was the first remote frame since the join
+     */
+    public boolean onFirstRemoteFrame(long now) {
+        if (mJoinRequestedAt < 0 || mFirstRemoteFrameMs >= 0) {
+            return false;
+        }
+        mFirstRemoteFrameMs = now - mJoinRequestedAt;
+        return true;
+    }
+
+    public long getEngineCreateMs() {
+        return mEngineCreateMs;
+    }
+
+    public long getPreviewMs() {
+        return mPreviewMs;
+    }
+
+    public long getJoinMs() {
+        return mJoinMs;
+    }
+
+    public long getFirstRemoteFrameMs() {
+        return mFirstRemoteFrameMs;
+    }
+
+    @Override
+    public String toString() {
+        return "create " + mEngineCreateMs + "ms, preview " + mPreviewMs
+                + "ms, join " + mJoinMs + "ms, first remote frame " + mFirstRemoteFrameMs + "ms";
+    }
+}
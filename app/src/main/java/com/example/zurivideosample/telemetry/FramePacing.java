@@ -0,0 +1,108 @@
+package com.example.zurivideosample.telemetry;
+
+/**
+ * How evenly video frames reach the screen, compared with how evenly they
+ * arrived from the decoder.
+ *
+ * For every frame shown, the renderer reports the time since the previous
+ * frame of the same stream arrived and since it was shown. A stream at 15
+ * fps should be shown every ~66ms; showing its frames 50ms and then 83ms
+ * apart looks like stutter even though nothing was dropped. Such a frame
+ * counts as uneven when the two intervals differ by more than a display
+ * refresh. Frames replaced by a newer one before they were shown count as
+ * dropped.
+ *
+ * Also keeps the time frames waited between arriving and being shown.
+ *
+ * Recorded on the render thread and read anywhere, so every method locks.
+ */
+public final class FramePacing {
+    // One refresh at 60Hz, rounded up.
+    public static final int REFRESH_MS = 17;
+
+    private static final int[] INTERVAL_BOUNDS = Histogram.linearBounds(5, 250);
+    private static final int[] LATENCY_BOUNDS = Histogram.linearBounds(2, 100);
+
+    private final Histogram mIntervals = new Histogram(INTERVAL_BOUNDS);
+    private final Histogram mDeviation = new Histogram(INTERVAL_BOUNDS);
+    private final Histogram mLatency = new Histogram(LATENCY_BOUNDS);
+    private long mUneven;
+    private long mDropped;
+
+    /**
+     * A frame was shown.
+     *
+     * @param arrivalIntervalMs time since the stream's previous frame
+     *                          arrived, or -1 for its first frame
+     * @param shownIntervalMs   time since the stream's previous frame was
+     *                          shown, or -1 for its first frame
+     * @param latencyMs         time from this frame's arrival to being shown
+     */
+    public synchronized void onFrameShown(long arrivalIntervalMs, long shownIntervalMs, long latencyMs) {
+        mLatency.record(clamp(latencyMs));
+        if (arrivalIntervalMs < 0 || shownIntervalMs < 0) {
+            return;
+        }
+        mIntervals.record(clamp(shownIntervalMs));
+        long deviation = Math.abs(shownIntervalMs - arrivalIntervalMs);
+        mDeviation.record(clamp(deviation));
+        if (deviation > REFRESH_MS) {
+            mUneven++;
+        }
+    }
+
+    /**
+     * A frame arrived before the previous one of its stream was shown.
+     */
+    public synchronized void onFrameDropped() {
+        mDropped++;
+    }
+
+    public synchronized long getShownCount() {
+        return mLatency.getCount();
+    }
+
+    public synchronized long getUnevenCount() {
+        return mUneven;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Milliseconds a frame was shown later or earlier than its arrival
+     * cadence called for, at the given percentile.
+     */
+    public synchronized int getDeviationPercentile(double percentile) {
+        return mDeviation.percentile(percentile);
+    }
+
+    public synchronized int getIntervalPercentile(double percentile) {
+        return mIntervals.percentile(percentile);
+    }
+
+    public synchronized int getLatencyPercentile(double percentile) {
+        return mLatency.percentile(percentile);
+    }
+
+    public synchronized void reset() {
+        mIntervals.reset();
+        mDeviation.reset();
+        mLatency.reset();
+        mUneven = 0;
+        mDropped = 0;
+    }
+
+    private static int clamp(long ms) {
+        return (int) Math.max(0, Math.min(ms, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "shown " + mLatency.getCount() + ", uneven " + mUneven + ", dropped " + mDropped
+                + ", deviation p50 " + mDeviation.percentile(50) + "ms p95 " + mDeviation.percentile(95)
+                + "ms, interval p50 " + mIntervals.percentile(50) + "ms p95 " + mIntervals.percentile(95)
+                + "ms, latency p50 " + mLatency.percentile(50) + "ms p95 " + mLatency.percentile(95) + "ms";
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.zurivideosample.telemetry;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-bucket histogram of non-negative int samples.
+ *
+ * Buckets are defined by their upper bounds; a last overflow bucket catches
+ * everything above the highest bound. Recording never allocates, so it is
+ * safe to call for every stats callback.
+ */
+public final class Histogram {
+    private final int[] mBounds;
+    private final int[] mCounts;
+    private long mCount;
+    private long mSum;
+    private int mMax;
+
+    /**
+     * @param bounds inclusive upper bounds of each bucket, ascending
+     */
+    public Histogram(int[] bounds) {
+        mBounds = bounds;
+        mCounts = new int[bounds.length + 1];
+    }
+
+    /**
+     * Buckets of {@code step} from {@code step} up to {@code max}.
+     */
+    public static int[] linearBounds(int step, int max) {
+        int[] bounds = new int[max / step];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = step * (i + 1);
+        }
+        return bounds;
+    }
+
+    public void record(int value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int i = Arrays.binarySearch(mBounds, value);
+        mCounts[i >= 0 ? i : ~i]++;
+        mCount++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    /**
+     * Adds every sample of {@code other}, which must use the same bounds.
+     */
+    public void addAll(Histogram other) {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, or the
+     * largest sample seen if that falls in the overflow bucket. 0 when
+     * empty.
+     */
+    public int percentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * mCount);
+        long seen = 0;
+        for (int i = 0; i < mBounds.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(mBounds[i], mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public int getMax() {
+        return mMax;
+    }
+
+    public int getMean() {
+        return mCount == 0 ? 0 : (int) (mSum / mCount);
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+}
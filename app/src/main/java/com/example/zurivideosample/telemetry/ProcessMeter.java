@@ -0,0 +1,32 @@
+package com.example.zurivideosample.telemetry;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.Process;
+
+import com.example.zurivideosample.call.BackgroundGovernor;
+
+/**
+ * Reads the process CPU time and the battery current from the framework.
+ */
+public class ProcessMeter implements BackgroundGovernor.Meter {
+    private final BatteryManager mBatteryManager;
+
+    public ProcessMeter(Context context) {
+        mBatteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+    }
+
+    @Override
+    public long getCpuTimeMs() {
+        return Process.getElapsedCpuTime();
+    }
+
+    @Override
+    public int getCurrentMicroAmps() {
+        if (mBatteryManager == null) {
+            return BackgroundGovernor.UNKNOWN_CURRENT;
+        }
+        // Devices without a fuel gauge report Integer.MIN_VALUE or 0.
+        return mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.zurivideosample.telemetry;
+
+/**
+ * Milestones of a cold launch, from the start of the process.
+ *
+ * <ul>
+ *     <li>application: Application.onCreate done</li>
+ *     <li>first draw: the call screen's first frame</li>
+ *     <li>engine ready: native SDK loaded and the engine created</li>
+ *     <li>call ready: the call screen set up with the engine</li>
+ * </ul>
+ *
+ * Only the first call screen of a process is measured; one recreated
+ * later starts warm and says nothing about launching. All times are
+ * milliseconds from the same monotonic clock, passed in by the caller.
+ * Milestones that have not been reached yet are -1.
+ */
+public class StartupTimings {
+    private final long mProcessStartAt;
+    private long mApplicationMs = -1;
+    private long mFirstDrawMs = -1;
+    private long mEngineReadyMs = -1;
+    private long mCallReadyMs = -1;
+    private boolean mReported;
+
+    public StartupTimings(long processStartAt) {
+        mProcessStartAt = processStartAt;
+    }
+
+    public void onApplicationCreated(long now) {
+        if (mApplicationMs < 0) {
+            mApplicationMs = now - mProcessStartAt;
+        }
+    }
+
+    public void onFirstDraw(long now) {
+        if (mFirstDrawMs < 0) {
+            mFirstDrawMs = now - mProcessStartAt;
+        }
+    }
+
+    public void onEngineReady(long now) {
+        if (mEngineReadyMs < 0) {
+            mEngineReadyMs = now - mProcessStartAt;
+        }
+    }
+
+    public void onCallReady(long now) {
+        if (mCallReadyMs < 0) {
+            mCallReadyMs = now - mProcessStartAt;
+        }
+    }
+
+    /**
+     * Whether the screen is both drawn and ready for a call.
+     */
+    public boolean isComplete() {
+        return mFirstDrawMs >= 0 && mCallReadyMs >= 0;
+    }
+
+    /**
+     * @return true the first time, when the launch should be reported
+     */
+    public boolean onReported() {
+        if (mReported) {
+            return false;
+        }
+        mReported = true;
+        return true;
+    }
+
+    public long getApplicationMs() {
+        return mApplicationMs;
+    }
+
+    public long getFirstDrawMs() {
+        return mFirstDrawMs;
+    }
+
+    public long getEngineReadyMs() {
+        return mEngineReadyMs;
+    }
+
+    public long getCallReadyMs() {
+        return mCallReadyMs;
+    }
+
+    @Override
+    public String toString() {
+        return "application " + mApplicationMs + "ms, first draw " + mFirstDrawMs
+                + "ms, engine ready " + mEngineReadyMs + "ms, call ready " + mCallReadyMs + "ms";
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.zurivideosample.telemetry;
+
+/**
+ * Histograms of the quality metrics for one video stream.
+ */
+public final class StreamQuality {
+    public static final int BITRATE = 0;
+    public static final int FPS = 1;
+    public static final int RTT = 2;
+    public static final int LOSS = 3;
+    public static final int FREEZE = 4;
+    public static final int NETWORK_QUALITY = 5;
+    public static final int METRIC_COUNT = 6;
+
+    // Kbps, roughly logarithmic up to 1080p rates.
+    private static final int[] BITRATE_BOUNDS = {
+            25, 50, 75, 100, 150, 200, 250, 300, 400, 500, 600, 800,
+            1000, 1250, 1500, 2000, 2500, 3000, 4000, 5000
+    };
+    // Frames per second.
+    private static final int[] FPS_BOUNDS = Histogram.linearBounds(1, 60);
+    // Milliseconds.
+    private static final int[] RTT_BOUNDS = {
+            10, 20, 30, 40, 50, 60, 80, 100, 120, 150, 200, 250, 300, 400,
+            500, 600, 800, 1000, 1500, 2000, 3000
+    };
+    // Percent.
+    private static final int[] LOSS_BOUNDS = {
+            0, 1, 2, 3, 4, 5, 6, 8, 10, 12, 15, 20, 25, 30, 40, 50, 75, 100
+    };
+    // Milliseconds frozen per two second stats period.
+    private static final int[] FREEZE_BOUNDS = Histogram.linearBounds(100, 2000);
+    // Constants.QUALITY_* levels, 0 (unknown) to 6 (down).
+    private static final int[] NETWORK_QUALITY_BOUNDS = {0, 1, 2, 3, 4, 5, 6};
+
+    private final Histogram[] mMetrics = new Histogram[METRIC_COUNT];
+
+    public StreamQuality() {
+        mMetrics[BITRATE] = new Histogram(BITRATE_BOUNDS);
+        mMetrics[FPS] = new Histogram(FPS_BOUNDS);
+        mMetrics[RTT] = new Histogram(RTT_BOUNDS);
+        mMetrics[LOSS] = new Histogram(LOSS_BOUNDS);
+        mMetrics[FREEZE] = new Histogram(FREEZE_BOUNDS);
+        mMetrics[NETWORK_QUALITY] = new Histogram(NETWORK_QUALITY_BOUNDS);
+    }
+
+    public void record(int metric, int value) {
+        mMetrics[metric].record(value);
+    }
+
+    public Histogram get(int metric) {
+        return mMetrics[metric];
+    }
+
+    public void addAll(StreamQuality other) {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mMetrics[i].addAll(other.mMetrics[i]);
+        }
+    }
+
+    public void reset() {
+        for (Histogram histogram : mMetrics) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.zurivideosample.telemetry;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the summaries of the most recent calls in a single file of fixed
+ * size: a small header followed by a ring of {@link CallSummary} slots.
+ * Once the ring is full every new call overwrites the oldest one.
+ *
+ * Header: magic, capacity, index of the next slot to write, number of
+ * slots in use.
+ */
+public class TelemetryStore {
+    private static final String TAG = TelemetryStore.class.getSimpleName();
+
+    public static final String FILE_NAME = "call_quality.bin";
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Summaries grew a field in version 2; older files start over.
+    private static final int MAGIC = 0x5a435132; // "ZCQ2"
+    private static final int HEADER_SIZE = 16;
+
+    private final File mFile;
+    private final int mCapacity;
+    private final Executor mExecutor;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer mSlot = ByteBuffer.allocate(CallSummary.ENCODED_SIZE);
+
+    /**
+     * @param file where the ring is stored, normally in the app's files dir
+     * @param capacity how many calls are kept
+     * @param executor runs the writes started by {@link #save(CallSummary)}
+     */
+    public TelemetryStore(File file, int capacity, Executor executor) {
+        mFile = file;
+        mCapacity = capacity;
+        mExecutor = executor;
+    }
+
+    /**
+     * Appends the summary on the store's executor, off the calling thread.
+     */
+    public void save(final CallSummary summary) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    append(summary);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to store call summary", e);
+                }
+            }
+        });
+    }
+
+    public synchronized void append(CallSummary summary) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            int next = 0;
+            int count = 0;
+            if (readHeader(file)) {
+                next = mHeader.getInt(8);
+                count = mHeader.getInt(12);
+            } else {
+                // Missing, truncated or written with another capacity.
+                file.setLength(0);
+            }
+
+            mSlot.clear();
+            summary.writeTo(mSlot);
+            file.seek(slotOffset(next));
+            file.write(mSlot.array(), 0, mSlot.position());
+
+            next = (next + 1) % mCapacity;
+            count = Math.min(count + 1, mCapacity);
+            mHeader.clear();
+            mHeader.putInt(MAGIC).putInt(mCapacity).putInt(next).putInt(count);
+            file.seek(0);
+            file.write(mHeader.array(), 0, HEADER_SIZE);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the stored summaries, oldest first.
+     */
+    public synchronized List<CallSummary> readAll() throws IOException {
+        List<CallSummary> summaries = new ArrayList<>();
+        if (!mFile.exists()) {
+            return summaries;
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            if (!readHeader(file)) {
+                return summaries;
+            }
+            int next = mHeader.getInt(8);
+            int count = mHeader.getInt(12);
+            int first = (next - count + mCapacity) % mCapacity;
+            for (int i = 0; i < count; i++) {
+                file.seek(slotOffset((first + i) % mCapacity));
+                mSlot.clear();
+                file.readFully(mSlot.array(), 0, CallSummary.ENCODED_SIZE);
+                summaries.add(CallSummary.readFrom(mSlot));
+            }
+        } finally {
+            file.close();
+        }
+        return summaries;
+    }
+
+    public synchronized void clear() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "Failed to delete " + mFile);
+        }
+    }
+
+    private boolean readHeader(RandomAccessFile file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        file.seek(0);
+        file.readFully(mHeader.array(), 0, HEADER_SIZE);
+        int next = mHeader.getInt(8);
+        int count = mHeader.getInt(12);
+        return mHeader.getInt(0) == MAGIC
+                && mHeader.getInt(4) == mCapacity
+                && next >= 0 && next < mCapacity
+                && count >= 0 && count <= mCapacity
+                && file.length() >= slotOffset(Math.max(count, next));
+    }
+
+    private static long slotOffset(int slot) {
+        return HEADER_SIZE + (long) slot * CallSummary.ENCODED_SIZE;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.zurivideosample.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps int uids to objects without boxing the keys.
+ *
+ * Works like {@code android.util.SparseArray} (sorted keys, binary search),
+ * but is plain Java so the call state built on top of it can be exercised
+ * from JVM unit tests.
+ */
+public final class UidMap<V> {
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    public UidMap() {
+        this(8);
+    }
+
+    public UidMap(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        mKeys = new int[capacity];
+        mValues = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int uid) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, uid);
+        return i >= 0 ? (V) mValues[i] : null;
+    }
+
+    public boolean containsKey(int uid) {
+        return indexOfKey(uid) >= 0;
+    }
+
+    public int indexOfKey(int uid) {
+        return Arrays.binarySearch(mKeys, 0, mSize, uid);
+    }
+
+    /**
+     * Stores the value for the uid and returns the previous one, if any.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int uid, V value) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, uid);
+        if (i >= 0) {
+            V old = (V) mValues[i];
+            mValues[i] = value;
+            return old;
+        }
+
+        i = ~i;
+        if (mSize == mKeys.length) {
+            int capacity = mSize * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+        }
+        System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+        mKeys[i] = uid;
+        mValues[i] = value;
+        mSize++;
+        return null;
+    }
+
+    /**
+     * Removes the uid and returns the value it mapped to, if any.
+     */
+    public V remove(int uid) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, uid);
+        return i >= 0 ? removeAt(i) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V removeAt(int index) {
+        V old = (V) mValues[index];
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        System.arraycopy(mValues, index + 1, mValues, index, mSize - index - 1);
+        mSize--;
+        mValues[mSize] = null;
+        return old;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        return (V) mValues[index];
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        mSize = 0;
+    }
+}
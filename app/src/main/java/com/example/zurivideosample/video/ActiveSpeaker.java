@@ -0,0 +1,134 @@
+package com.example.zurivideosample.video;
+
+import com.example.zurivideosample.util.UidMap;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Follows which remote user is the active speaker, for layouts that show
+ * only one user, such as picture-in-picture.
+ *
+ * Speaker levels are smoothed like {@link SubscriptionScheduler}'s, and a
+ * challenger has to be clearly louder than the current speaker, and the
+ * current speaker has to have been shown for a while, before the speaker
+ * changes, so a cough or a short reply does not flip the window. Until
+ * anyone speaks, the user who joined first is the speaker.
+ *
+ * Not thread safe, all calls are expected on the UI thread.
+ */
+public class ActiveSpeaker {
+
+    public interface Listener {
+        /**
+         * @param uid the new active speaker, 0 if no one is left
+         */
+        void onActiveSpeakerChanged(int uid);
+    }
+
+    // Volumes reported by the SDK range from 0 to 255.
+    static final float SWAP_MARGIN = 24f;
+    static final long MIN_DWELL_MS = 2000;
+    private static final float LEVEL_SMOOTHING = 0.3f;
+
+    private static final class Speaker {
+        int uid;
+        float level;
+        // Join order, for the speaker before anyone spoke.
+        long order;
+    }
+
+    private final Listener mListener;
+    private final UidMap<Speaker> mSpeakers = new UidMap<>(16);
+    private Speaker mActive;
+    private long mChangedAtMs;
+    private long mNextOrder;
+
+    public ActiveSpeaker(Listener listener) {
+        mListener = listener;
+    }
+
+    public void addUser(int uid, long nowMs) {
+        if (mSpeakers.containsKey(uid)) {
+            return;
+        }
+        Speaker speaker = new Speaker();
+        speaker.uid = uid;
+        speaker.order = mNextOrder++;
+        mSpeakers.put(uid, speaker);
+        if (mActive == null) {
+            change(speaker, nowMs);
+        }
+    }
+
+    /**
+     * The loudest of the others takes over straight away if the user was
+     * the active speaker.
+     */
+    public void removeUser(int uid, long nowMs) {
+        Speaker speaker = mSpeakers.remove(uid);
+        if (speaker != null && speaker == mActive) {
+            change(loudest(), nowMs);
+        }
+    }
+
+    /**
+     * Feeds one round of onAudioVolumeIndication. Users missing from the
+     * report are treated as silent for this round, so the SDK's separate
+     * report for the local user must not be passed in.
+     */
+    public void onAudioVolumeIndication(IRtcEngineEventHandler.AudioVolumeInfo[] speakers, long nowMs) {
+        for (int i = 0; i < mSpeakers.size(); i++) {
+            Speaker speaker = mSpeakers.valueAt(i);
+            speaker.level += LEVEL_SMOOTHING * (volumeOf(speakers, speaker.uid) - speaker.level);
+        }
+        Speaker loudest = loudest();
+        if (loudest != null && loudest != mActive
+                && loudest.level >= mActive.level + SWAP_MARGIN
+                && nowMs - mChangedAtMs >= MIN_DWELL_MS) {
+            change(loudest, nowMs);
+        }
+    }
+
+    /**
+     * @return the active speaker, 0 if there are no remote users
+     */
+    public int getUid() {
+        return mActive != null ? mActive.uid : 0;
+    }
+
+    public void clear() {
+        mSpeakers.clear();
+        mActive = null;
+        mNextOrder = 0;
+    }
+
+    private void change(Speaker speaker, long nowMs) {
+        mActive = speaker;
+        mChangedAtMs = nowMs;
+        mListener.onActiveSpeakerChanged(speaker != null ? speaker.uid : 0);
+    }
+
+    // Ties go to who joined first.
+    private Speaker loudest() {
+        Speaker loudest = null;
+        for (int i = 0; i < mSpeakers.size(); i++) {
+            Speaker speaker = mSpeakers.valueAt(i);
+            if (loudest == null || speaker.level > loudest.level
+                    || (speaker.level == loudest.level && speaker.order < loudest.order)) {
+                loudest = speaker;
+            }
+        }
+        return loudest;
+    }
+
+    private static int volumeOf(IRtcEngineEventHandler.AudioVolumeInfo[] speakers, int uid) {
+        if (speakers != null) {
+            for (IRtcEngineEventHandler.AudioVolumeInfo speaker : speakers) {
+                if (speaker != null && speaker.uid == uid) {
+                    return speaker.volume;
+                }
+            }
+        }
+        return 0;
+    }
+}
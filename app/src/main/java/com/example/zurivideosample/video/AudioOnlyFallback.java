@@ -0,0 +1,141 @@
+package com.example.zurivideosample.video;
+
+import io.agora.rtc.Constants;
+
+/**
+ * Decides when a call drops to audio only, separately for the video we send
+ * and the video we receive.
+ *
+ * Each direction is suspended after a few consecutive stats rounds with
+ * heavy packet loss or a bad quality rating, and resumed only after a
+ * longer run of good rounds and a minimum time without video. A direction
+ * that goes bad again soon after resuming waits twice as long before the
+ * next attempt, so a flaky link does not make video blink on and off.
+ *
+ * The SDK's own fallback, set up with STREAM_FALLBACK_OPTION_AUDIO_ONLY,
+ * acts faster on sudden drops; {@link #onLocalPublishFallback(boolean, long)}
+ * keeps this policy in step with it.
+ *
+ * Not thread safe, all calls are expected on the UI thread.
+ */
+public class AudioOnlyFallback {
+    // onNetworkQuality and onRtcStats both arrive every two seconds.
+    private static final int ENTER_LOSS_PERCENT = 15;
+    private static final int ENTER_QUALITY = Constants.QUALITY_BAD;
+    private static final int ENTER_ROUNDS = 3;
+
+    private static final int EXIT_LOSS_PERCENT = 5;
+    private static final int EXIT_QUALITY = Constants.QUALITY_POOR;
+    private static final int EXIT_ROUNDS = 5;
+
+    static final long MIN_SUSPEND_MS = 10000;
+    static final long MAX_SUSPEND_MS = 120000;
+    // Going bad again within this time after resuming counts as a relapse.
+    private static final long RELAPSE_WINDOW_MS = 30000;
+
+    public interface Listener {
+        void onLocalVideoSuspended(boolean suspended);
+
+        void onRemoteVideoSuspended(boolean suspended);
+    }
+
+    private static final class Direction {
+        boolean suspended;
+        int badRounds;
+        int goodRounds;
+        long changedAtMs = Long.MIN_VALUE / 2;
+        long holdMs = MIN_SUSPEND_MS;
+        int lossPercent;
+        int suspensions;
+
+        /**
+         * @return true if the direction changed
+         */
+        boolean onRound(int quality, long nowMs) {
+            boolean bad = lossPercent >= ENTER_LOSS_PERCENT || quality >= ENTER_QUALITY;
+            boolean good = lossPercent <= EXIT_LOSS_PERCENT
+                    && quality != Constants.QUALITY_UNKNOWN && quality <= EXIT_QUALITY;
+            badRounds = bad ? badRounds + 1 : 0;
+            goodRounds = good ? goodRounds + 1 : 0;
+
+            if (!suspended) {
+                return badRounds >= ENTER_ROUNDS && suspend(nowMs);
+            }
+            if (goodRounds >= EXIT_ROUNDS && nowMs - changedAtMs >= holdMs) {
+                suspended = false;
+                changedAtMs = nowMs;
+                badRounds = 0;
+                return true;
+            }
+            return false;
+        }
+
+        boolean suspend(long nowMs) {
+            if (suspended) {
+                return false;
+            }
+            // Back off when the last attempt to resume did not last.
+            holdMs = nowMs - changedAtMs < RELAPSE_WINDOW_MS
+                    ? Math.min(holdMs * 2, MAX_SUSPEND_MS) : MIN_SUSPEND_MS;
+            suspended = true;
+            changedAtMs = nowMs;
+            goodRounds = 0;
+            suspensions++;
+            return true;
+        }
+    }
+
+    private final Listener mListener;
+    private final Direction mUplink = new Direction();
+    private final Direction mDownlink = new Direction();
+
+    public AudioOnlyFallback(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Records the packet loss of the latest onRtcStats, used by the next
+     * quality round.
+     */
+    public void onPacketLoss(int txLossPercent, int rxLossPercent) {
+        mUplink.lossPercent = txLossPercent;
+        mDownlink.lossPercent = rxLossPercent;
+    }
+
+    /**
+     * Feeds onNetworkQuality for the local user (uid 0).
+     */
+    public void onNetworkQuality(int txQuality, int rxQuality, long nowMs) {
+        if (mUplink.onRound(txQuality, nowMs)) {
+            mListener.onLocalVideoSuspended(mUplink.suspended);
+        }
+        if (mDownlink.onRound(rxQuality, nowMs)) {
+            mListener.onRemoteVideoSuspended(mDownlink.suspended);
+        }
+    }
+
+    /**
+     * The SDK stopped publishing our video because of a poor uplink. When it
+     * recovers, this policy still decides when to resume.
+     */
+    public void onLocalPublishFallback(boolean fallback, long nowMs) {
+        if (fallback && mUplink.suspend(nowMs)) {
+            mListener.onLocalVideoSuspended(true);
+        }
+    }
+
+    public boolean isLocalVideoSuspended() {
+        return mUplink.suspended;
+    }
+
+    public boolean isRemoteVideoSuspended() {
+        return mDownlink.suspended;
+    }
+
+    /**
+     * How many times video was suspended, in either direction.
+     */
+    public int getSuspensionCount() {
+        return mUplink.suspensions + mDownlink.suspensions;
+    }
+}
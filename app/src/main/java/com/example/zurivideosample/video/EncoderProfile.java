@@ -0,0 +1,53 @@
+package com.example.zurivideosample.video;
+
+import io.agora.rtc.video.VideoEncoderConfiguration;
+
+/**
+ * One rung of the encoder ladder: a resolution and frame rate, with the
+ * bitrate left to the SDK's standard table for that combination.
+ */
+public final class EncoderProfile {
+    // Screen content changes rarely and is read, not watched: it gets few
+    // frames, and keeps its resolution when bandwidth drops.
+    public static final VideoEncoderConfiguration.FRAME_RATE SCREEN_FRAME_RATE =
+            VideoEncoderConfiguration.FRAME_RATE.FRAME_RATE_FPS_7;
+    public static final int SCREEN_MAX_LONG_EDGE = 1920;
+    public static final int SCREEN_MAX_SHORT_EDGE = 1080;
+
+    public final int width;
+    public final int height;
+    public final VideoEncoderConfiguration.FRAME_RATE frameRate;
+
+    public EncoderProfile(int width, int height, VideoEncoderConfiguration.FRAME_RATE frameRate) {
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+    }
+
+    public VideoEncoderConfiguration toConfiguration() {
+        return new VideoEncoderConfiguration(
+                new VideoEncoderConfiguration.VideoDimensions(width, height),
+                frameRate,
+                VideoEncoderConfiguration.STANDARD_BITRATE,
+                VideoEncoderConfiguration.ORIENTATION_MODE.ORIENTATION_MODE_FIXED_PORTRAIT);
+    }
+
+    /**
+     * The encoder settings for a shared screen of the given size, which
+     * should fit {@link #SCREEN_MAX_LONG_EDGE} by {@link #SCREEN_MAX_SHORT_EDGE}.
+     */
+    public static VideoEncoderConfiguration screenConfiguration(int width, int height) {
+        VideoEncoderConfiguration config = new VideoEncoderConfiguration(
+                new VideoEncoderConfiguration.VideoDimensions(width, height),
+                SCREEN_FRAME_RATE,
+                VideoEncoderConfiguration.STANDARD_BITRATE,
+                VideoEncoderConfiguration.ORIENTATION_MODE.ORIENTATION_MODE_ADAPTIVE);
+        config.degradationPrefer = VideoEncoderConfiguration.DEGRADATION_PREFERENCE.MAINTAIN_QUALITY;
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "@" + frameRate.getValue();
+    }
+}
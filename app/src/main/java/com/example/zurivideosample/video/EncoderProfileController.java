@@ -0,0 +1,279 @@
+package com.example.zurivideosample.video;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.video.VideoEncoderConfiguration.FRAME_RATE;
+
+/**
+ * Walks the local encoder up and down a ladder of profiles.
+ *
+ * Each onLocalVideoStats round is classified as under pressure (poor uplink,
+ * packet loss, or the encoder missing its bitrate or frame rate target),
+ * with headroom, or neither. A few rounds of pressure in a row step the
+ * profile down; a longer run of headroom steps it up. Steps are rate
+ * limited, and an upward step that is quickly undone makes the next attempt
+ * wait twice as long, so a link sitting on the edge of a profile does not
+ * oscillate.
+ *
+ * Device heat and the number of participants cap the ladder: hot phones and
+ * crowded rooms (where every tile is small) never send more than they need.
+ *
+ * A probe of the link before joining may start the call on another level
+ * than the default, one the measured uplink can carry.
+ *
+ * While the app is in the background the encoder is parked on a tiny
+ * keep-alive profile and the ladder is frozen; it resumes where it was.
+ *
+ * Pure Java; time is passed in so recorded stat traces can be replayed.
+ */
+public class EncoderProfileController {
+
+    public interface Listener {
+        void onProfileChanged(EncoderProfile profile);
+    }
+
+    public static final EncoderProfile[] LADDER = {
+            new EncoderProfile(320, 180, FRAME_RATE.FRAME_RATE_FPS_7),
+            new EncoderProfile(320, 180, FRAME_RATE.FRAME_RATE_FPS_15),
+            new EncoderProfile(640, 360, FRAME_RATE.FRAME_RATE_FPS_15),
+            new EncoderProfile(960, 540, FRAME_RATE.FRAME_RATE_FPS_15),
+            new EncoderProfile(1280, 720, FRAME_RATE.FRAME_RATE_FPS_15),
+            new EncoderProfile(1280, 720, FRAME_RATE.FRAME_RATE_FPS_30),
+    };
+    // 640x360@15, what the app always used before.
+    public static final int DEFAULT_LEVEL = 2;
+    // Roughly the SDK's standard bitrate of each rung, in Kbps.
+    static final int[] LADDER_KBPS = {100, 140, 400, 700, 1130, 1710};
+    // Just enough to keep the stream alive for the others in the call.
+    public static final EncoderProfile KEEP_ALIVE =
+            new EncoderProfile(160, 120, FRAME_RATE.FRAME_RATE_FPS_1);
+
+    // Quality values reported by onNetworkQuality.
+    private static final int QUALITY_UNKNOWN = 0;
+    private static final int QUALITY_GOOD = 2;
+    private static final int QUALITY_POOR = 4;
+
+    private static final int PRESSURE_ROUNDS_TO_STEP_DOWN = 2;
+    private static final int HEADROOM_ROUNDS_TO_STEP_UP = 5;
+    private static final long MIN_STEP_DOWN_INTERVAL_MS = 4000;
+    private static final long MIN_STEP_UP_INTERVAL_MS = 15000;
+    private static final long MAX_STEP_UP_INTERVAL_MS = 120000;
+    // A step down this soon after a step up means the step up failed.
+    private static final long FAILED_STEP_UP_WINDOW_MS = 10000;
+
+    // Of a measured uplink, the share video may plan on, after audio and
+    // the low stream.
+    private static final int UPLINK_SHARE_PERCENT = 70;
+    private static final int UPLINK_RESERVED_KBPS = 100;
+    private static final int HIGH_JITTER_MS = 100;
+
+    private static final int HIGH_LOSS_PERCENT = 8;
+    private static final int LOW_LOSS_PERCENT = 2;
+
+    // Battery temperature is reported in tenths of a degree Celsius.
+    private static final int WARM_TENTHS_C = 420;
+    private static final int HOT_TENTHS_C = 450;
+    private static final int TEMPERATURE_HYSTERESIS_TENTHS_C = 10;
+
+    private static final int CROWDED_PARTICIPANTS = 5;
+    private static final int VERY_CROWDED_PARTICIPANTS = 9;
+
+    // Highest levels allowed when warm or crowded, and when hot or very
+    // crowded.
+    private static final int WARM_LEVEL = 2;
+    private static final int HOT_LEVEL = 1;
+
+    private final Listener mListener;
+
+    private int mLevel = DEFAULT_LEVEL;
+    private int mTxQuality = QUALITY_UNKNOWN;
+    private int mThermalCap = LADDER.length - 1;
+    private int mParticipants = 1;
+    private int mPressureRounds;
+    private int mHeadroomRounds;
+    private long mLastStepMs = Long.MIN_VALUE / 2;
+    private long mLastStepUpMs = Long.MIN_VALUE / 2;
+    private long mStepUpIntervalMs = MIN_STEP_UP_INTERVAL_MS;
+    private int mSteps;
+    private boolean mKeepAlive;
+
+    public EncoderProfileController(Listener listener) {
+        mListener = listener;
+    }
+
+    public EncoderProfile getProfile() {
+        return mKeepAlive ? KEEP_ALIVE : LADDER[mLevel];
+    }
+
+    /**
+     * Parks the encoder on {@link #KEEP_ALIVE}, or goes back to the level
+     * it was on.
+     */
+    public void setKeepAlive(boolean keepAlive, long nowMs) {
+        if (mKeepAlive == keepAlive) {
+            return;
+        }
+        mKeepAlive = keepAlive;
+        mPressureRounds = 0;
+        mHeadroomRounds = 0;
+        // Stats from the keep-alive period say nothing about the ladder.
+        mLastStepMs = nowMs;
+        mListener.onProfileChanged(getProfile());
+    }
+
+    /**
+     * The highest level a measured uplink can carry, one lower on a lossy
+     * or jittery link.
+     */
+    public static int levelForUplink(int kbps, int lossPercent, int jitterMs) {
+        int budget = kbps * UPLINK_SHARE_PERCENT / 100 - UPLINK_RESERVED_KBPS;
+        int level = 0;
+        while (level + 1 < LADDER.length && LADDER_KBPS[level + 1] <= budget) {
+            level++;
+        }
+        if (level > 0 && (lossPercent >= HIGH_LOSS_PERCENT || jitterMs >= HIGH_JITTER_MS)) {
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * Starts the call on the given level, within the current caps, instead
+     * of where the last one ended. Call before joining; it does not count
+     * as a step.
+     */
+    public void setStartLevel(int level) {
+        level = Math.max(0, Math.min(level, cap()));
+        mPressureRounds = 0;
+        mHeadroomRounds = 0;
+        if (level == mLevel) {
+            return;
+        }
+        mLevel = level;
+        if (!mKeepAlive) {
+            mListener.onProfileChanged(LADDER[level]);
+        }
+    }
+
+    public boolean isKeepAlive() {
+        return mKeepAlive;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Total number of profile changes so far.
+     */
+    public int getStepCount() {
+        return mSteps;
+    }
+
+    /**
+     * Uplink quality for the local user, from onNetworkQuality with uid 0.
+     */
+    public void onNetworkQuality(int txQuality) {
+        mTxQuality = txQuality;
+    }
+
+    public void onBatteryTemperature(int tenthsCelsius, long nowMs) {
+        int cap;
+        if (tenthsCelsius >= HOT_TENTHS_C) {
+            cap = HOT_LEVEL;
+        } else if (mThermalCap == HOT_LEVEL
+                && tenthsCelsius >= HOT_TENTHS_C - TEMPERATURE_HYSTERESIS_TENTHS_C) {
+            // Only lift a cap once the device has clearly cooled down.
+            cap = HOT_LEVEL;
+        } else if (tenthsCelsius >= WARM_TENTHS_C) {
+            cap = WARM_LEVEL;
+        } else if (mThermalCap <= WARM_LEVEL
+                && tenthsCelsius >= WARM_TENTHS_C - TEMPERATURE_HYSTERESIS_TENTHS_C) {
+            cap = WARM_LEVEL;
+        } else {
+            cap = LADDER.length - 1;
+        }
+        mThermalCap = cap;
+        enforceCap(nowMs);
+    }
+
+    /**
+     * Number of people in the call, including the local user.
+     */
+    public void onParticipantCount(int participants, long nowMs) {
+        mParticipants = participants;
+        enforceCap(nowMs);
+    }
+
+    public void onLocalVideoStats(IRtcEngineEventHandler.LocalVideoStats stats, long nowMs) {
+        if (mKeepAlive) {
+            return;
+        }
+        if (isUnderPressure(stats)) {
+            mPressureRounds++;
+            mHeadroomRounds = 0;
+        } else if (hasHeadroom(stats)) {
+            mHeadroomRounds++;
+            mPressureRounds = 0;
+        } else {
+            mPressureRounds = 0;
+            mHeadroomRounds = 0;
+        }
+
+        if (mPressureRounds >= PRESSURE_ROUNDS_TO_STEP_DOWN && mLevel > 0
+                && nowMs - mLastStepMs >= MIN_STEP_DOWN_INTERVAL_MS) {
+            if (nowMs - mLastStepUpMs < FAILED_STEP_UP_WINDOW_MS) {
+                mStepUpIntervalMs = Math.min(mStepUpIntervalMs * 2, MAX_STEP_UP_INTERVAL_MS);
+            }
+            step(mLevel - 1, nowMs);
+        } else if (mHeadroomRounds >= HEADROOM_ROUNDS_TO_STEP_UP && mLevel < cap()
+                && nowMs - mLastStepMs >= mStepUpIntervalMs) {
+            mLastStepUpMs = nowMs;
+            step(mLevel + 1, nowMs);
+        } else if (nowMs - mLastStepUpMs >= MAX_STEP_UP_INTERVAL_MS) {
+            // The link has held up for a long time, trust it again.
+            mStepUpIntervalMs = MIN_STEP_UP_INTERVAL_MS;
+        }
+    }
+
+    private boolean isUnderPressure(IRtcEngineEventHandler.LocalVideoStats stats) {
+        return mTxQuality >= QUALITY_POOR
+                || stats.txPacketLossRate >= HIGH_LOSS_PERCENT
+                || (stats.targetBitrate > 0 && stats.sentBitrate * 10 < stats.targetBitrate * 7)
+                || (stats.targetFrameRate > 0 && stats.sentFrameRate * 10 < stats.targetFrameRate * 7);
+    }
+
+    private boolean hasHeadroom(IRtcEngineEventHandler.LocalVideoStats stats) {
+        return mTxQuality != QUALITY_UNKNOWN && mTxQuality <= QUALITY_GOOD
+                && stats.txPacketLossRate <= LOW_LOSS_PERCENT
+                && stats.sentBitrate * 10 >= stats.targetBitrate * 9
+                && stats.sentFrameRate * 10 >= stats.targetFrameRate * 9;
+    }
+
+    private int cap() {
+        int cap = mThermalCap;
+        if (mParticipants >= VERY_CROWDED_PARTICIPANTS) {
+            cap = Math.min(cap, HOT_LEVEL);
+        } else if (mParticipants >= CROWDED_PARTICIPANTS) {
+            cap = Math.min(cap, WARM_LEVEL);
+        }
+        return cap;
+    }
+
+    private void enforceCap(long nowMs) {
+        int cap = cap();
+        if (mLevel > cap) {
+            step(cap, nowMs);
+        }
+    }
+
+    private void step(int level, long nowMs) {
+        mLevel = level;
+        mLastStepMs = nowMs;
+        mPressureRounds = 0;
+        mHeadroomRounds = 0;
+        mSteps++;
+        if (!mKeepAlive) {
+            mListener.onProfileChanged(LADDER[level]);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.example.zurivideosample.video;
+
+import android.view.SurfaceView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import com.example.zurivideosample.engine.CallEngine;
+import com.example.zurivideosample.render.Snapshot;
+import com.example.zurivideosample.render.TileCompositor;
+import com.example.zurivideosample.render.TileSink;
+import com.example.zurivideosample.util.UidMap;
+
+import java.util.ArrayList;
+
+import io.agora.rtc.video.VideoCanvas;
+
+/**
+ * Keeps one render tile per remote user in a {@link VideoGridLayout}.
+ *
+ * Tiles are keyed by uid and their SurfaceViews come from a shared
+ * {@link RendererPool}, so users joining and leaving do not create or
+ * inflate new views once the pool is warm.
+ *
+ * A tile whose video is suspended shows a plain placeholder view instead
+ * of its SurfaceView. The SurfaceView is taken out of the layout, so its
+ * surface is released and no longer composited.
+ *
+ * A grid can also be detached from its layout as a whole, for a channel
+ * that is not in focus. Its tiles stay bound, so attaching it again only
+ * puts the views back.
+ *
+ * With a {@link TileCompositor}, tiles of the engine's own channel are
+ * drawn into its shared surface instead: the engine renders each user into
+ * a sink of the compositor, and suspending or detaching tiles only changes
+ * what the compositor draws. No view is used at all.
+ *
+ * A tile that is not live, see {@link SnapshotTier}, shows its user's
+ * {@link Snapshot} with a compositor, and the placeholder without one.
+ */
+public class RemoteVideoGrid {
+    public interface PlaceholderFactory {
+        View create();
+    }
+
+    private final VideoGridLayout mGrid;
+    private final RendererPool mPool;
+    private final UidMap<VideoCanvas> mCanvases;
+
+    // Placeholders currently standing in for a tile, and idle ones.
+    private final UidMap<View> mPlaceholders = new UidMap<>();
+    private final ArrayList<View> mIdlePlaceholders = new ArrayList<>();
+    private PlaceholderFactory mPlaceholderFactory;
+    private TileCompositor mCompositor;
+    // Users the SDK fell back to audio only for.
+    private final UidMap<Boolean> mFallbacks = new UidMap<>();
+    // Users who turned their camera off.
+    private final UidMap<Boolean> mMuted = new UidMap<>();
+    // Users whose tile shows a still rather than live video.
+    private final UidMap<Boolean> mStills = new UidMap<>();
+    private boolean mAllSuspended;
+    private boolean mAttached = true;
+
+    private CallEngine mEngine;
+    // Null for the engine's own channel.
+    private String mChannelId;
+
+    public RemoteVideoGrid(VideoGridLayout grid, RendererPool pool, int expectedUsers) {
+        mGrid = grid;
+        mPool = pool;
+        mCanvases = new UidMap<>(expectedUsers);
+    }
+
+    public void setEngine(CallEngine engine) {
+        mEngine = engine;
+    }
+
+    public void setPlaceholderFactory(PlaceholderFactory factory) {
+        mPlaceholderFactory = factory;
+    }
+
+    /**
+     * Draws the tiles with the compositor rather than in views of the
+     * layout. Only for the engine's own channel; set before adding tiles.
+     */
+    public void setCompositor(TileCompositor compositor) {
+        mCompositor = compositor;
+    }
+
+    /**
+     * Binds the tiles to users of a {@link com.example.zurivideosample.engine.CallChannel}
+     * rather than of the engine's own channel. Set before adding tiles.
+     */
+    public void setChannelId(String channelId) {
+        mChannelId = channelId;
+    }
+
+    /**
+     * Creates a tile for the uid and binds the remote stream to it.
+     *
+     * @return false if the uid already has a tile
+     */
+    public boolean add(int uid) {
+        if (mCanvases.containsKey(uid)) {
+            return false;
+        }
+        if (mCompositor != null) {
+            // The canvas only records the binding.
+            mCanvases.put(uid, newCanvas(null, uid));
+            mEngine.setRemoteVideoRenderer(uid, mCompositor.addTile(uid));
+            updatePlaceholder(uid);
+            return true;
+        }
+
+        SurfaceView view = mPool.acquire();
+        view.setZOrderMediaOverlay(false);
+        if (mAttached) {
+            mGrid.addView(view);
+        }
+        VideoCanvas canvas = newCanvas(view, uid);
+        mCanvases.put(uid, canvas);
+        mEngine.setupRemoteVideo(canvas);
+        updatePlaceholder(uid);
+        return true;
+    }
+
+    /**
+     * Unbinds the uid's stream and hands its view back to the pool.
+     *
+     * @return false if the uid had no tile
+     */
+    public boolean remove(int uid) {
+        mFallbacks.remove(uid);
+        mMuted.remove(uid);
+        mStills.remove(uid);
+        VideoCanvas canvas = mCanvases.remove(uid);
+        if (canvas == null) {
+            return false;
+        }
+        recycle(canvas);
+        return true;
+    }
+
+    /**
+     * Binds every tile to its uid again, after the engine lost the
+     * bindings by leaving the channel.
+     */
+    public void rebindAll() {
+        for (int i = 0; i < mCanvases.size(); i++) {
+            if (mCompositor != null) {
+                int uid = mCanvases.keyAt(i);
+                mEngine.setRemoteVideoRenderer(uid, mCompositor.addTile(uid));
+            } else {
+                mEngine.setupRemoteVideo(mCanvases.valueAt(i));
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < mCanvases.size(); i++) {
+            recycle(mCanvases.valueAt(i));
+        }
+        mCanvases.clear();
+        mFallbacks.clear();
+        mMuted.clear();
+        mStills.clear();
+        mAllSuspended = false;
+    }
+
+    /**
+     * Shows placeholders in every tile, or video again where the SDK has
+     * not fallen back to audio only for the user.
+     */
+    public void setAllSuspended(boolean suspended) {
+        mAllSuspended = suspended;
+        for (int i = 0; i < mCanvases.size(); i++) {
+            updatePlaceholder(mCanvases.keyAt(i));
+        }
+    }
+
+    /**
+     * Reported by onRemoteSubscribeFallbackToAudioOnly.
+     */
+    public void setAudioOnlyFallback(int uid, boolean fallback) {
+        if (fallback) {
+            mFallbacks.put(uid, Boolean.TRUE);
+        } else {
+            mFallbacks.remove(uid);
+        }
+        updatePlaceholder(uid);
+    }
+
+    /**
+     * Reported by onRemoteVideoStateChanged when the user stops or starts
+     * sending video. A tile may be added after its user muted.
+     */
+    public void setRemoteVideoMuted(int uid, boolean muted) {
+        if (muted) {
+            mMuted.put(uid, Boolean.TRUE);
+        } else {
+            mMuted.remove(uid);
+        }
+        updatePlaceholder(uid);
+    }
+
+    /**
+     * Shows the user's video, or a still instead: the snapshot given to
+     * {@link #setSnapshot}, or the placeholder without a compositor.
+     */
+    public void setLive(int uid, boolean live) {
+        if (live) {
+            mStills.remove(uid);
+        } else {
+            mStills.put(uid, Boolean.TRUE);
+        }
+        if (mCompositor != null) {
+            mCompositor.setLive(uid, live);
+        } else {
+            updatePlaceholder(uid);
+        }
+    }
+
+    public void setSnapshot(int uid, Snapshot snapshot) {
+        if (mCompositor != null) {
+            mCompositor.setSnapshot(uid, snapshot);
+        }
+    }
+
+    /**
+     * Asks the user's sink for a snapshot of its next frame.
+     *
+     * @return false if there is no sink to take one, as without a
+     * compositor
+     */
+    public boolean requestSnapshot(int uid) {
+        TileSink sink = mCompositor != null ? mCompositor.getSink(uid) : null;
+        if (sink == null) {
+            return false;
+        }
+        sink.requestSnapshot();
+        return true;
+    }
+
+    public Snapshot takeSnapshot(int uid) {
+        TileSink sink = mCompositor != null ? mCompositor.getSink(uid) : null;
+        return sink != null ? sink.takeSnapshot() : null;
+    }
+
+    /**
+     * Takes every tile out of the layout, or puts them back, without
+     * touching their bindings.
+     */
+    public void setAttached(boolean attached) {
+        if (mAttached == attached) {
+            return;
+        }
+        mAttached = attached;
+        if (mCompositor != null) {
+            mCompositor.setGridVisible(attached);
+            return;
+        }
+        for (int i = 0; i < mCanvases.size(); i++) {
+            View view = mPlaceholders.get(mCanvases.keyAt(i));
+            if (view == null) {
+                view = mCanvases.valueAt(i).view;
+            }
+            if (attached) {
+                mGrid.addView(view);
+            } else {
+                ViewParent parent = view.getParent();
+                if (parent != null) {
+                    ((ViewGroup) parent).removeView(view);
+                }
+            }
+        }
+    }
+
+    public boolean isAttached() {
+        return mAttached;
+    }
+
+    public boolean isShowingPlaceholder(int uid) {
+        if (mCompositor != null) {
+            return mCompositor.isSuspended(uid);
+        }
+        return mPlaceholders.containsKey(uid);
+    }
+
+    /**
+     * Where the uid's tile is in the layout, numbered row by row, or -1 if
+     * it is not in the layout, for example when pinned elsewhere.
+     */
+    public int getSlot(int uid) {
+        if (mCompositor != null) {
+            return mCompositor.getGridSlot(uid);
+        }
+        VideoCanvas canvas = mCanvases.get(uid);
+        if (canvas == null) {
+            return -1;
+        }
+        View view = mPlaceholders.get(uid);
+        if (view == null) {
+            view = canvas.view;
+        }
+        return view.getParent() == mGrid ? mGrid.indexOfChild(view) : -1;
+    }
+
+    /**
+     * The number of slots in the layout, whichever tiles fill them.
+     */
+    public int getSlotCount() {
+        return mCompositor != null ? mCompositor.getGridSlotCount() : mGrid.getChildCount();
+    }
+
+    public VideoCanvas get(int uid) {
+        return mCanvases.get(uid);
+    }
+
+    public int size() {
+        return mCanvases.size();
+    }
+
+    public VideoCanvas valueAt(int index) {
+        return mCanvases.valueAt(index);
+    }
+
+    public VideoGridLayout getLayout() {
+        return mGrid;
+    }
+
+    private void updatePlaceholder(int uid) {
+        VideoCanvas canvas = mCanvases.get(uid);
+        if (canvas == null) {
+            return;
+        }
+        boolean suspended = mAllSuspended || mFallbacks.containsKey(uid) || mMuted.containsKey(uid);
+        if (mCompositor != null) {
+            mCompositor.setSuspended(uid, suspended);
+            return;
+        }
+        suspended |= mStills.containsKey(uid);
+        if (mPlaceholderFactory == null) {
+            return;
+        }
+        View placeholder = mPlaceholders.get(uid);
+        if (suspended && placeholder == null) {
+            placeholder = mIdlePlaceholders.isEmpty()
+                    ? mPlaceholderFactory.create()
+                    : mIdlePlaceholders.remove(mIdlePlaceholders.size() - 1);
+            replace(canvas.view, placeholder);
+            mPlaceholders.put(uid, placeholder);
+        } else if (!suspended && placeholder != null) {
+            mPlaceholders.remove(uid);
+            replace(placeholder, canvas.view);
+            mIdlePlaceholders.add(placeholder);
+        }
+    }
+
+    // Puts the view where the old one was, in the grid or the container
+    // the tile was pinned to.
+    private void replace(View old, View view) {
+        ViewParent parent = old.getParent();
+        ViewGroup group = parent != null ? (ViewGroup) parent : mGrid;
+        int index = parent != null ? group.indexOfChild(old) : -1;
+        if (parent != null) {
+            group.removeView(old);
+        } else if (!mAttached) {
+            return;
+        }
+        group.addView(view, index);
+    }
+
+    private VideoCanvas newCanvas(View view, int uid) {
+        return mChannelId != null
+                ? new VideoCanvas(view, VideoCanvas.RENDER_MODE_HIDDEN, mChannelId, uid)
+                : new VideoCanvas(view, VideoCanvas.RENDER_MODE_HIDDEN, uid);
+    }
+
+    private void recycle(VideoCanvas canvas) {
+        if (mCompositor != null) {
+            mEngine.setRemoteVideoRenderer(canvas.uid, null);
+            mCompositor.removeTile(canvas.uid);
+            return;
+        }
+        View placeholder = mPlaceholders.remove(canvas.uid);
+        if (placeholder != null) {
+            ViewParent parent = placeholder.getParent();
+            if (parent != null) {
+                ((ViewGroup) parent).removeView(placeholder);
+            }
+            mIdlePlaceholders.add(placeholder);
+        }
+        // Passing a null view detaches the uid from the renderer it was
+        // bound to, so the view can be safely reused by another uid.
+        mEngine.setupRemoteVideo(newCanvas(null, canvas.uid));
+        View view = canvas.view;
+        ViewParent parent = view.getParent();
+        if (parent != null) {
+            ((ViewGroup) parent).removeView(view);
+        }
+        mPool.release((SurfaceView) view);
+    }
+}
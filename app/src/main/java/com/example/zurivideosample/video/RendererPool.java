@@ -0,0 +1,91 @@
+package com.example.zurivideosample.video;
+
+import android.view.SurfaceView;
+
+/**
+ * A bounded pool of renderer views.
+ *
+ * Creating a SurfaceView through RtcEngine.CreateRendererView is one of the
+ * more expensive things the call screen does on the UI thread, so views are
+ * handed back here when a remote user leaves and reused by the next one to
+ * join. At most {@code capacity} idle views are kept; anything released past
+ * that is simply dropped.
+ */
+public class RendererPool {
+
+    public interface Factory {
+        SurfaceView create();
+    }
+
+    private final Factory mFactory;
+    private final SurfaceView[] mIdle;
+    private int mIdleCount;
+    private int mCreatedCount;
+    private int mDroppedCount;
+
+    public RendererPool(Factory factory, int capacity) {
+        mFactory = factory;
+        mIdle = new SurfaceView[capacity];
+    }
+
+    /**
+     * Fills the pool up to {@code count} idle views. Call this while the UI
+     * thread is otherwise idle so the first joins do not pay for creation.
+     */
+    public void prewarm(int count) {
+        int target = Math.min(count, mIdle.length);
+        while (mIdleCount < target) {
+            mIdle[mIdleCount++] = create();
+        }
+    }
+
+    public SurfaceView acquire() {
+        if (mIdleCount > 0) {
+            SurfaceView view = mIdle[--mIdleCount];
+            mIdle[mIdleCount] = null;
+            return view;
+        }
+        return create();
+    }
+
+    public void release(SurfaceView view) {
+        if (view == null) {
+            return;
+        }
+        if (mIdleCount < mIdle.length) {
+            mIdle[mIdleCount++] = view;
+        } else {
+            mDroppedCount++;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < mIdleCount; i++) {
+            mIdle[i] = null;
+        }
+        mDroppedCount += mIdleCount;
+        mIdleCount = 0;
+    }
+
+    public int getIdleCount() {
+        return mIdleCount;
+    }
+
+    public int getCreatedCount() {
+        return mCreatedCount;
+    }
+
+    /**
+     * Views released past the capacity, or cleared, and left to the
+     * garbage collector. Every view created is either in use, idle or
+     * dropped.
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private SurfaceView create() {
+        mCreatedCount++;
+        return mFactory.create();
+    }
+}
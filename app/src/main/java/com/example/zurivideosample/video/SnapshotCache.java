@@ -0,0 +1,147 @@
+package com.example.zurivideosample.video;
+
+import android.content.ComponentCallbacks2;
+
+import com.example.zurivideosample.render.Snapshot;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The latest {@link Snapshot} of each remote user, for tiles that show a
+ * still instead of live video.
+ *
+ * Bounded by the bytes the snapshots' pixels take rather than by count, as
+ * their size depends on each user's aspect. When full, the least recently
+ * used snapshots go first. Memory pressure reported to
+ * {@link #onTrimMemory(int)} drops some or all of them; tiles then show
+ * the placeholder until a new snapshot is taken.
+ *
+ * Not thread safe, all calls are expected on the UI thread.
+ */
+public class SnapshotCache {
+    // About forty 160x90 snapshots, more than a grid shows at once.
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    public interface Listener {
+        /**
+         * A snapshot was dropped to make room or give memory back. Not
+         * called for {@link #remove} and {@link #clear}.
+         */
+        void onEvicted(int uid);
+    }
+
+    private final int mMaxBytes;
+    private final LinkedHashMap<Integer, Snapshot> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private Listener mListener;
+    private int mBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    public SnapshotCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public SnapshotCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the user's snapshot, or null if there is none
+     */
+    public Snapshot get(int uid) {
+        Snapshot snapshot = mEntries.get(uid);
+        if (snapshot == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Replaces the user's snapshot, evicting others if that exceeds the
+     * limit.
+     */
+    public void put(int uid, Snapshot snapshot) {
+        Snapshot old = mEntries.put(uid, snapshot);
+        if (old != null) {
+            mBytes -= old.getByteCount();
+        }
+        mBytes += snapshot.getByteCount();
+        trimTo(mMaxBytes);
+    }
+
+    public void remove(int uid) {
+        Snapshot old = mEntries.remove(uid);
+        if (old != null) {
+            mBytes -= old.getByteCount();
+        }
+    }
+
+    public void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Forwarded from ComponentCallbacks2.onTrimMemory. Snapshots are cheap
+     * to take again, so they go early: all of them once the UI is hidden
+     * or memory runs low, half of them at the first warning.
+     */
+    public void onTrimMemory(int level) {
+        // Every level from RUNNING_LOW up, UI_HIDDEN and the background
+        // ones included.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimTo(mBytes / 2);
+        }
+    }
+
+    private void trimTo(int maxBytes) {
+        Iterator<Map.Entry<Integer, Snapshot>> it = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Integer, Snapshot> eldest = it.next();
+            it.remove();
+            mBytes -= eldest.getValue().getByteCount();
+            mEvictions++;
+            if (mListener != null) {
+                mListener.onEvicted(eldest.getKey());
+            }
+        }
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public int getByteCount() {
+        return mBytes;
+    }
+
+    public int getHits() {
+        return mHits;
+    }
+
+    public int getMisses() {
+        return mMisses;
+    }
+
+    public int getEvictions() {
+        return mEvictions;
+    }
+
+    @Override
+    public String toString() {
+        return mEntries.size() + " snapshots, " + mBytes / 1024 + "KB, " + mHits + " hits, "
+                + mMisses + " misses, " + mEvictions + " evicted";
+    }
+}
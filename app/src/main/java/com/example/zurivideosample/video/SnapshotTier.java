@@ -0,0 +1,410 @@
+package com.example.zurivideosample.video;
+
+import com.example.zurivideosample.call.ConnectionSupervisor;
+import com.example.zurivideosample.render.Snapshot;
+import com.example.zurivideosample.util.UidMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Decides which remote tiles show live video and which show a snapshot.
+ *
+ * In a crowded call every tile is a thumbnail, and decoding every stream
+ * costs more CPU, battery and downlink than the thumbnails are worth. Only
+ * the pinned user and the most recent speakers, up to a budget, stay live.
+ * Every other tile is unsubscribed and shows a {@link Snapshot} from the
+ * {@link SnapshotCache}. Snapshots are refreshed round-robin, oldest
+ * first, by subscribing to a user or two at a time just long enough for a
+ * frame.
+ *
+ * A tile only goes still after it has been live for a while, so tiles do
+ * not flap while people take turns. It first takes a snapshot of its live
+ * video, so there is no placeholder in between. A tile that goes live
+ * keeps its snapshot until video arrives, see
+ * {@link com.example.zurivideosample.render.TileCompositor#setLive}.
+ *
+ * While remote video is suspended nothing is refreshed.
+ *
+ * Not thread safe, all calls are expected on the UI thread.
+ */
+public class SnapshotTier {
+    // A 3x3 grid's worth.
+    public static final int DEFAULT_MAX_LIVE = 9;
+    public static final long REFRESH_INTERVAL_MS = 15000;
+    static final long TICK_MS = 500;
+    static final long MIN_LIVE_MS = 5000;
+    // A frame normally comes within a second of subscribing.
+    static final long SNAPSHOT_TIMEOUT_MS = 3000;
+    static final int MAX_CAPTURES = 2;
+    // Volumes reported by the SDK range from 0 to 255.
+    private static final int SPEAKING_VOLUME = 40;
+
+    private static final int LIVE = 0;
+    // Still live, waiting for a snapshot of its video.
+    private static final int LEAVING = 1;
+    private static final int STILL = 2;
+    // Subscribed for a moment to take a new snapshot.
+    private static final int CAPTURING = 3;
+
+    public interface Host {
+        /**
+         * Subscribes to the user's video and shows it, or unsubscribes and
+         * shows the user's snapshot.
+         */
+        void setLive(int uid, boolean live);
+
+        /**
+         * Subscribes to a still user's video without showing it, or
+         * unsubscribes again.
+         */
+        void setCapturing(int uid, boolean capturing);
+
+        /**
+         * Asks for a snapshot of the user's next frame.
+         *
+         * @return false if no snapshots can be taken
+         */
+        boolean requestSnapshot(int uid);
+
+        /**
+         * @return the snapshot asked for, or null if no frame came yet
+         */
+        Snapshot takeSnapshot(int uid);
+
+        /**
+         * Shows the snapshot in the user's tile, or the placeholder for
+         * null.
+         */
+        void showSnapshot(int uid, Snapshot snapshot);
+    }
+
+    private static final class User {
+        int uid;
+        int state;
+        // Join order, to rank users who have not spoken.
+        long order;
+        long spokeAtMs = -1;
+        long changedAtMs;
+        // When a snapshot was last taken or attempted.
+        long capturedAtMs = -1;
+    }
+
+    private final Host mHost;
+    private final ConnectionSupervisor.Timer mTimer;
+    private final SnapshotCache mCache;
+    private final int mMaxLive;
+    private final UidMap<User> mUsers = new UidMap<>(16);
+    private final ArrayList<User> mRanked = new ArrayList<>();
+
+    private int mPinnedUid;
+    private long mNextOrder;
+    private boolean mSuspended;
+    private boolean mTicking;
+    private int mCaptureCount;
+    private int mSnapshotCount;
+
+    // The pinned user first, then the latest speakers, then who joined
+    // first.
+    private final Comparator<User> mRanking = new Comparator<User>() {
+        @Override
+        public int compare(User a, User b) {
+            if ((a.uid == mPinnedUid) != (b.uid == mPinnedUid)) {
+                return a.uid == mPinnedUid ? -1 : 1;
+            }
+            if (a.spokeAtMs != b.spokeAtMs) {
+                return a.spokeAtMs > b.spokeAtMs ? -1 : 1;
+            }
+            return a.order < b.order ? -1 : a.order > b.order ? 1 : 0;
+        }
+    };
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            if (mUsers.size() == 0) {
+                mTicking = false;
+                return;
+            }
+            update();
+            mTimer.postDelayed(this, TICK_MS);
+        }
+    };
+
+    public SnapshotTier(Host host, ConnectionSupervisor.Timer timer, SnapshotCache cache) {
+        this(host, timer, cache, DEFAULT_MAX_LIVE);
+    }
+
+    public SnapshotTier(Host host, ConnectionSupervisor.Timer timer, SnapshotCache cache,
+                        int maxLive) {
+        mHost = host;
+        mTimer = timer;
+        mCache = cache;
+        mMaxLive = maxLive;
+        mCache.setListener(new SnapshotCache.Listener() {
+            @Override
+            public void onEvicted(int uid) {
+                if (mUsers.containsKey(uid)) {
+                    mHost.showSnapshot(uid, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts with the user live, as a new tile is.
+     */
+    public void addUser(int uid) {
+        if (mUsers.containsKey(uid)) {
+            return;
+        }
+        User user = new User();
+        user.uid = uid;
+        user.state = LIVE;
+        user.order = mNextOrder++;
+        user.changedAtMs = mTimer.now();
+        mUsers.put(uid, user);
+        if (!mTicking) {
+            mTicking = true;
+            mTimer.postDelayed(mTick, TICK_MS);
+        }
+        update();
+    }
+
+    /**
+     * Forgets the user, whose tile is gone, and its snapshot.
+     */
+    public void removeUser(int uid) {
+        User user = mUsers.remove(uid);
+        if (user == null) {
+            return;
+        }
+        if (user.state == CAPTURING) {
+            mCaptureCount--;
+        }
+        mCache.remove(uid);
+        if (mPinnedUid == uid) {
+            mPinnedUid = 0;
+        }
+        update();
+    }
+
+    /**
+     * The user in the inset is always live; 0 for none.
+     */
+    public void setPinned(int uid) {
+        if (mPinnedUid != uid) {
+            mPinnedUid = uid;
+            update();
+        }
+    }
+
+    /**
+     * Feeds one round of onAudioVolumeIndication. A still user who starts
+     * speaking goes live straight away.
+     */
+    public void onAudioVolumeIndication(IRtcEngineEventHandler.AudioVolumeInfo[] speakers) {
+        if (speakers == null) {
+            return;
+        }
+        long now = mTimer.now();
+        boolean promote = false;
+        for (IRtcEngineEventHandler.AudioVolumeInfo speaker : speakers) {
+            User user = speaker != null && speaker.volume >= SPEAKING_VOLUME
+                    ? mUsers.get(speaker.uid) : null;
+            if (user != null) {
+                user.spokeAtMs = now;
+                promote |= user.state == STILL || user.state == CAPTURING;
+            }
+        }
+        if (promote) {
+            update();
+        }
+    }
+
+    /**
+     * Stops refreshing snapshots while remote video is suspended.
+     */
+    public void setSuspended(boolean suspended) {
+        if (mSuspended == suspended) {
+            return;
+        }
+        mSuspended = suspended;
+        if (suspended) {
+            for (int i = 0; i < mUsers.size(); i++) {
+                User user = mUsers.valueAt(i);
+                if (user.state == CAPTURING) {
+                    endCapture(user, null, mTimer.now());
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        mUsers.clear();
+        mRanked.clear();
+        mCache.clear();
+        mTimer.removeCallbacks(mTick);
+        mTicking = false;
+        mPinnedUid = 0;
+        mCaptureCount = 0;
+        mSuspended = false;
+    }
+
+    private void update() {
+        long now = mTimer.now();
+        mRanked.clear();
+        for (int i = 0; i < mUsers.size(); i++) {
+            mRanked.add(mUsers.valueAt(i));
+        }
+        Collections.sort(mRanked, mRanking);
+        for (int i = 0; i < mRanked.size(); i++) {
+            User user = mRanked.get(i);
+            boolean wanted = i < mMaxLive || user.uid == mPinnedUid;
+            switch (user.state) {
+                case LIVE:
+                    if (!wanted && now - user.changedAtMs >= MIN_LIVE_MS) {
+                        if (mHost.requestSnapshot(user.uid)) {
+                            user.state = LEAVING;
+                            user.changedAtMs = now;
+                        } else {
+                            goStill(user, null, now);
+                        }
+                    }
+                    break;
+                case LEAVING:
+                    if (wanted) {
+                        user.state = LIVE;
+                    } else {
+                        Snapshot snapshot = mHost.takeSnapshot(user.uid);
+                        if (snapshot != null || now - user.changedAtMs >= SNAPSHOT_TIMEOUT_MS) {
+                            goStill(user, snapshot, now);
+                        }
+                    }
+                    break;
+                case CAPTURING:
+                    if (wanted) {
+                        // Already subscribed.
+                        mCaptureCount--;
+                        goLive(user, now);
+                    } else {
+                        Snapshot snapshot = mHost.takeSnapshot(user.uid);
+                        if (snapshot != null || now - user.changedAtMs >= SNAPSHOT_TIMEOUT_MS) {
+                            endCapture(user, snapshot, now);
+                        }
+                    }
+                    break;
+                default:
+                    if (wanted) {
+                        goLive(user, now);
+                    }
+                    break;
+            }
+        }
+        mRanked.clear();
+        if (!mSuspended) {
+            startCaptures(now);
+        }
+    }
+
+    // Refreshes the oldest snapshots, a few at a time.
+    private void startCaptures(long now) {
+        while (mCaptureCount < MAX_CAPTURES) {
+            User oldest = null;
+            for (int i = 0; i < mUsers.size(); i++) {
+                User user = mUsers.valueAt(i);
+                if (user.state == STILL
+                        && (user.capturedAtMs < 0 || now - user.capturedAtMs >= REFRESH_INTERVAL_MS)
+                        && (oldest == null || user.capturedAtMs < oldest.capturedAtMs)) {
+                    oldest = user;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            oldest.capturedAtMs = now;
+            if (!mHost.requestSnapshot(oldest.uid)) {
+                continue;
+            }
+            oldest.state = CAPTURING;
+            oldest.changedAtMs = now;
+            mCaptureCount++;
+            mHost.setCapturing(oldest.uid, true);
+        }
+    }
+
+    private void endCapture(User user, Snapshot snapshot, long now) {
+        mCaptureCount--;
+        user.state = STILL;
+        user.changedAtMs = now;
+        mHost.setCapturing(user.uid, false);
+        if (snapshot != null) {
+            store(user, snapshot, now);
+        }
+    }
+
+    private void goStill(User user, Snapshot snapshot, long now) {
+        user.state = STILL;
+        user.changedAtMs = now;
+        // Switch straight from the video to its snapshot.
+        if (snapshot != null) {
+            store(user, snapshot, now);
+        } else {
+            mHost.showSnapshot(user.uid, mCache.get(user.uid));
+        }
+        mHost.setLive(user.uid, false);
+    }
+
+    private void goLive(User user, long now) {
+        user.state = LIVE;
+        user.changedAtMs = now;
+        mHost.setLive(user.uid, true);
+    }
+
+    private void store(User user, Snapshot snapshot, long now) {
+        user.capturedAtMs = now;
+        mSnapshotCount++;
+        mCache.put(user.uid, snapshot);
+        mHost.showSnapshot(user.uid, snapshot);
+    }
+
+    /**
+     * Whether the user's tile shows, or is about to show, live video.
+     */
+    public boolean isLive(int uid) {
+        User user = mUsers.get(uid);
+        return user != null && (user.state == LIVE || user.state == LEAVING);
+    }
+
+    public int getLiveCount() {
+        int count = 0;
+        for (int i = 0; i < mUsers.size(); i++) {
+            int state = mUsers.valueAt(i).state;
+            if (state == LIVE || state == LEAVING) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Users subscribed for a moment to refresh their snapshot.
+     */
+    public int getCaptureCount() {
+        return mCaptureCount;
+    }
+
+    /**
+     * Snapshots taken since the tier was created.
+     */
+    public int getSnapshotCount() {
+        return mSnapshotCount;
+    }
+
+    public SnapshotCache getCache() {
+        return mCache;
+    }
+}
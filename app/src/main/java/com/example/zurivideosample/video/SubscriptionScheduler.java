@@ -0,0 +1,310 @@
+package com.example.zurivideosample.video;
+
+import com.example.zurivideosample.engine.RemoteVideoControl;
+import com.example.zurivideosample.util.UidMap;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Decides which remote video streams are worth decoding at full quality.
+ *
+ * Only the loudest few visible speakers are subscribed to the high quality
+ * stream. Every other visible user gets the low stream, and users whose tile
+ * is not on screen are not subscribed to at all. Speaker levels are smoothed
+ * and a challenger has to be clearly louder than the quietest high quality
+ * speaker, for a minimum dwell time, before the two swap, so tiles do not flap
+ * between layers when people talk over each other.
+ *
+ * While remote video is suspended, for example in audio only mode, every
+ * user is unsubscribed; on resume the visible ones start again on the low
+ * stream.
+ *
+ * While one user is focused, as in picture-in-picture where only the
+ * active speaker is shown, that user alone is subscribed, and only to the
+ * low stream: the window is too small for the high one to show.
+ *
+ * Not thread safe, all calls are expected on the UI thread.
+ */
+public class SubscriptionScheduler {
+
+    public static final int STREAM_OFF = -1;
+
+    private static final int DEFAULT_MAX_HIGH_STREAMS = 2;
+    // Volumes reported by the SDK range from 0 to 255.
+    private static final float DEFAULT_SWAP_MARGIN = 24f;
+    private static final long DEFAULT_MIN_DWELL_MS = 3000;
+    private static final float LEVEL_SMOOTHING = 0.15f;
+
+    private static final class Slot {
+        int uid;
+        float level;
+        int streamType;
+        boolean visible;
+        long changedAtMs;
+    }
+
+    private final RemoteVideoControl mEngine;
+    private final int mMaxHighStreams;
+    private final float mSwapMargin;
+    private final long mMinDwellMs;
+    private final UidMap<Slot> mSlots = new UidMap<>(16);
+
+    private int mHighCount;
+    private boolean mSuspended;
+    // The only user subscribed, 0 for none.
+    private int mFocusUid;
+
+    public SubscriptionScheduler(RemoteVideoControl engine) {
+        this(engine, DEFAULT_MAX_HIGH_STREAMS, DEFAULT_SWAP_MARGIN, DEFAULT_MIN_DWELL_MS);
+    }
+
+    public SubscriptionScheduler(RemoteVideoControl engine, int maxHighStreams,
+                                 float swapMargin, long minDwellMs) {
+        mEngine = engine;
+        mMaxHighStreams = maxHighStreams;
+        mSwapMargin = swapMargin;
+        mMinDwellMs = minDwellMs;
+    }
+
+    /**
+     * Starts scheduling a user whose tile has just been put on screen.
+     */
+    public void addUser(int uid, long nowMs) {
+        if (mSlots.containsKey(uid)) {
+            return;
+        }
+        Slot slot = new Slot();
+        slot.uid = uid;
+        slot.visible = true;
+        slot.changedAtMs = nowMs;
+        mSlots.put(uid, slot);
+        if (mSuspended || !isFocusAllowed(uid)) {
+            slot.streamType = STREAM_OFF;
+            mEngine.muteRemoteVideoStream(uid, true);
+            return;
+        }
+        slot.streamType = Constants.VIDEO_STREAM_LOW;
+        mEngine.setRemoteVideoStreamType(uid, Constants.VIDEO_STREAM_LOW);
+        schedule(nowMs);
+    }
+
+    public void removeUser(int uid, long nowMs) {
+        Slot slot = mSlots.remove(uid);
+        if (slot == null) {
+            return;
+        }
+        if (slot.streamType == Constants.VIDEO_STREAM_HIGH) {
+            mHighCount--;
+        }
+        schedule(nowMs);
+    }
+
+    /**
+     * Tiles that are scrolled away or covered are unsubscribed entirely and
+     * resubscribed on the low stream when they come back.
+     */
+    public void setVisible(int uid, boolean visible, long nowMs) {
+        Slot slot = mSlots.get(uid);
+        if (slot == null || slot.visible == visible) {
+            return;
+        }
+        slot.visible = visible;
+        if (mSuspended || !isFocusAllowed(uid)) {
+            return;
+        }
+        if (visible) {
+            mEngine.muteRemoteVideoStream(uid, false);
+            moveTo(slot, Constants.VIDEO_STREAM_LOW, nowMs);
+        } else {
+            moveTo(slot, STREAM_OFF, nowMs);
+            mEngine.muteRemoteVideoStream(uid, true);
+        }
+        schedule(nowMs);
+    }
+
+    /**
+     * Unsubscribes every user's video, or resubscribes the visible ones.
+     */
+    public void setVideoSuspended(boolean suspended, long nowMs) {
+        if (mSuspended == suspended) {
+            return;
+        }
+        mSuspended = suspended;
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.valueAt(i);
+            if (!slot.visible || !isFocusAllowed(slot.uid)) {
+                continue;
+            }
+            if (suspended) {
+                moveTo(slot, STREAM_OFF, nowMs);
+                mEngine.muteRemoteVideoStream(slot.uid, true);
+            } else {
+                mEngine.muteRemoteVideoStream(slot.uid, false);
+                moveTo(slot, Constants.VIDEO_STREAM_LOW, nowMs);
+            }
+        }
+        if (!suspended) {
+            schedule(nowMs);
+        }
+    }
+
+    public boolean isVideoSuspended() {
+        return mSuspended;
+    }
+
+    /**
+     * Subscribes only the user to the low stream and unsubscribes every
+     * other one, or with 0 goes back to scheduling every visible user.
+     */
+    public void setFocus(int uid, long nowMs) {
+        if (mFocusUid == uid) {
+            return;
+        }
+        mFocusUid = uid;
+        if (mSuspended) {
+            return;
+        }
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.valueAt(i);
+            if (!slot.visible) {
+                continue;
+            }
+            if (!isFocusAllowed(slot.uid)) {
+                if (slot.streamType != STREAM_OFF) {
+                    moveTo(slot, STREAM_OFF, nowMs);
+                    mEngine.muteRemoteVideoStream(slot.uid, true);
+                }
+            } else if (slot.streamType == STREAM_OFF) {
+                mEngine.muteRemoteVideoStream(slot.uid, false);
+                moveTo(slot, Constants.VIDEO_STREAM_LOW, nowMs);
+            } else if (uid != 0) {
+                moveTo(slot, Constants.VIDEO_STREAM_LOW, nowMs);
+            }
+        }
+        schedule(nowMs);
+    }
+
+    public int getFocus() {
+        return mFocusUid;
+    }
+
+    /**
+     * Feeds one round of onAudioVolumeIndication. Users missing from the
+     * report are treated as silent for this round, so the SDK's separate
+     * report for the local user must not be passed in.
+     */
+    public void onAudioVolumeIndication(IRtcEngineEventHandler.AudioVolumeInfo[] speakers,
+                                        long nowMs) {
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.valueAt(i);
+            slot.level = smooth(slot.level, volumeOf(speakers, slot.uid));
+        }
+        schedule(nowMs);
+    }
+
+    public void clear() {
+        mSlots.clear();
+        mHighCount = 0;
+        mSuspended = false;
+        mFocusUid = 0;
+    }
+
+    /**
+     * @return the stream type the uid is subscribed to, or {@link #STREAM_OFF}
+     */
+    public int getStreamType(int uid) {
+        Slot slot = mSlots.get(uid);
+        return slot == null ? STREAM_OFF : slot.streamType;
+    }
+
+    public int getHighStreamCount() {
+        return mHighCount;
+    }
+
+    private void schedule(long nowMs) {
+        if (mFocusUid != 0) {
+            return;
+        }
+        // Fill free high quality slots straight away, then consider swaps.
+        while (true) {
+            Slot challenger = loudestLow();
+            if (challenger == null) {
+                return;
+            }
+            if (mHighCount < mMaxHighStreams) {
+                moveTo(challenger, Constants.VIDEO_STREAM_HIGH, nowMs);
+                continue;
+            }
+
+            Slot incumbent = quietestHigh();
+            if (incumbent == null
+                    || challenger.level < incumbent.level + mSwapMargin
+                    || nowMs - incumbent.changedAtMs < mMinDwellMs
+                    || nowMs - challenger.changedAtMs < mMinDwellMs) {
+                return;
+            }
+            moveTo(incumbent, Constants.VIDEO_STREAM_LOW, nowMs);
+            moveTo(challenger, Constants.VIDEO_STREAM_HIGH, nowMs);
+        }
+    }
+
+    private void moveTo(Slot slot, int streamType, long nowMs) {
+        if (slot.streamType == streamType) {
+            return;
+        }
+        if (slot.streamType == Constants.VIDEO_STREAM_HIGH) {
+            mHighCount--;
+        } else if (streamType == Constants.VIDEO_STREAM_HIGH) {
+            mHighCount++;
+        }
+        slot.streamType = streamType;
+        slot.changedAtMs = nowMs;
+        if (streamType != STREAM_OFF) {
+            mEngine.setRemoteVideoStreamType(slot.uid, streamType);
+        }
+    }
+
+    private boolean isFocusAllowed(int uid) {
+        return mFocusUid == 0 || mFocusUid == uid;
+    }
+
+    private Slot loudestLow() {
+        Slot loudest = null;
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.valueAt(i);
+            if (slot.visible && slot.streamType == Constants.VIDEO_STREAM_LOW
+                    && (loudest == null || slot.level > loudest.level)) {
+                loudest = slot;
+            }
+        }
+        return loudest;
+    }
+
+    private Slot quietestHigh() {
+        Slot quietest = null;
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.valueAt(i);
+            if (slot.streamType == Constants.VIDEO_STREAM_HIGH
+                    && (quietest == null || slot.level < quietest.level)) {
+                quietest = slot;
+            }
+        }
+        return quietest;
+    }
+
+    private static int volumeOf(IRtcEngineEventHandler.AudioVolumeInfo[] speakers, int uid) {
+        if (speakers != null) {
+            for (IRtcEngineEventHandler.AudioVolumeInfo speaker : speakers) {
+                if (speaker != null && speaker.uid == uid) {
+                    return speaker.volume;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static float smooth(float level, int volume) {
+        return level + LEVEL_SMOOTHING * (volume - level);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.zurivideosample.video;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Lays its children out as a near-square grid of equally sized tiles,
+ * filling rows left to right.
+ */
+public class VideoGridLayout extends ViewGroup {
+
+    public VideoGridLayout(Context context) {
+        super(context);
+    }
+
+    public VideoGridLayout(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public VideoGridLayout(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * Number of columns used for {@code count} tiles: 1 is 1x1, 2 is 2x1,
+     * 3-4 is 2x2, 5-6 is 3x2, 7-9 is 3x3 and so on.
+     */
+    public static int columnsFor(int count) {
+        if (count <= 1) {
+            return 1;
+        }
+        return (int) Math.ceil(Math.sqrt(count));
+    }
+
+    public static int rowsFor(int count) {
+        if (count <= 0) {
+            return 1;
+        }
+        int columns = columnsFor(count);
+        return (count + columns - 1) / columns;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getDefaultSize(0, widthMeasureSpec);
+        int height = getDefaultSize(0, heightMeasureSpec);
+        setMeasuredDimension(width, height);
+
+        int count = getChildCount();
+        int columns = columnsFor(count);
+        int rows = rowsFor(count);
+        int tileWidth = (width - getPaddingLeft() - getPaddingRight()) / columns;
+        int tileHeight = (height - getPaddingTop() - getPaddingBottom()) / rows;
+        int childWidthSpec = MeasureSpec.makeMeasureSpec(tileWidth, MeasureSpec.EXACTLY);
+        int childHeightSpec = MeasureSpec.makeMeasureSpec(tileHeight, MeasureSpec.EXACTLY);
+        for (int i = 0; i < count; i++) {
+            getChildAt(i).measure(childWidthSpec, childHeightSpec);
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int count = getChildCount();
+        int columns = columnsFor(count);
+        for (int i = 0; i < count; i++) {
+            View child = getChildAt(i);
+            int tileWidth = child.getMeasuredWidth();
+            int tileHeight = child.getMeasuredHeight();
+            int left = getPaddingLeft() + (i % columns) * tileWidth;
+            int top = getPaddingTop() + (i / columns) * tileHeight;
+            child.layout(left, top, left + tileWidth, top + tileHeight);
+        }
+    }
+}
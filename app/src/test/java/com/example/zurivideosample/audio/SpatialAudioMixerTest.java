@@ -0,0 +1,149 @@
+package com.example.zurivideosample.audio;
+
+import com.example.zurivideosample.engine.FakeCallEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.IRtcEngineEventHandler.AudioVolumeInfo;
+
+import static org.junit.Assert.*;
+
+public class SpatialAudioMixerTest {
+    private static final long REPORT_MS = 200;
+
+    private FakeCallEngine mEngine;
+    private SpatialAudioMixer mMixer;
+
+    @Before
+    public void setUp() {
+        mEngine = new FakeCallEngine(new IRtcEngineEventHandler() {
+        });
+        mMixer = new SpatialAudioMixer(mEngine, mEngine.getTimer());
+    }
+
+    @Test
+    public void voicesArePannedByColumn() {
+        // Four tiles make a 2x2 grid.
+        for (int slot = 0; slot < 4; slot++) {
+            mMixer.setPosition(10 + slot, slot, 4);
+        }
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS);
+
+        assertTrue(mEngine.getVoicePosition(10)[0] < 0);
+        assertTrue(mEngine.getVoicePosition(11)[0] > 0);
+        assertEquals(mEngine.getVoicePosition(10)[0], mEngine.getVoicePosition(12)[0], 0);
+        assertEquals(-mEngine.getVoicePosition(10)[0], mEngine.getVoicePosition(11)[0], 1e-9);
+        assertEquals(SpatialAudioMixer.NOMINAL_GAIN, mEngine.getVoicePosition(10)[1], 0);
+
+        // Alone, or out of the grid, a voice is centered.
+        assertEquals(0, SpatialAudioMixer.panFor(0, 1), 0);
+        assertEquals(0, SpatialAudioMixer.panFor(-1, 4), 0);
+        assertTrue(Math.abs(SpatialAudioMixer.panFor(0, 9)) <= SpatialAudioMixer.MAX_PAN);
+    }
+
+    @Test
+    public void loudAndQuietVoicesAreEvenedOut() {
+        for (int uid = 1; uid <= 3; uid++) {
+            mMixer.setPosition(uid, uid - 1, 4);
+        }
+        for (int i = 0; i < 50; i++) {
+            report(speaker(1, 220), speaker(2, 40), speaker(3, (int) SpatialAudioMixer.TARGET_LEVEL));
+        }
+        assertTrue(mMixer.getGain(1) < SpatialAudioMixer.NOMINAL_GAIN);
+        assertTrue(mMixer.getGain(2) > SpatialAudioMixer.NOMINAL_GAIN);
+        assertEquals(SpatialAudioMixer.NOMINAL_GAIN, mMixer.getGain(3), 1);
+        assertTrue(mMixer.getGain(2) <= SpatialAudioMixer.MAX_GAIN);
+        assertEquals(mMixer.getGain(1), mEngine.getVoicePosition(1)[1], 0);
+
+        // Silence says nothing about how loud someone is.
+        int gain = mMixer.getGain(1);
+        for (int i = 0; i < 20; i++) {
+            report(speaker(1, 0));
+        }
+        assertEquals(gain, mMixer.getGain(1));
+
+        mMixer.setNormalizing(false);
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS);
+        assertEquals(SpatialAudioMixer.NOMINAL_GAIN, mEngine.getVoicePosition(1)[1], 0);
+        assertEquals(0, mMixer.getErrorCount());
+    }
+
+    @Test
+    public void updatesAreBatchedPerAudioFrame() {
+        // A burst of layout changes within one frame period.
+        for (int count = 1; count <= 9; count++) {
+            for (int slot = 0; slot < count; slot++) {
+                mMixer.setPosition(100 + slot, slot, count);
+            }
+        }
+        assertEquals(0, mEngine.getVoicePositionCalls());
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS);
+        // One call per user, with where they ended up.
+        assertEquals(9, mEngine.getVoicePositionCalls());
+        assertEquals(SpatialAudioMixer.panFor(4, 9), mEngine.getVoicePosition(104)[0], 0);
+
+        // A frame period later a change goes out right away, and the next
+        // one waits for the period after.
+        mMixer.setPosition(100, 2, 9);
+        mEngine.advanceBy(1);
+        assertEquals(10, mEngine.getVoicePositionCalls());
+        mMixer.setPosition(100, 3, 9);
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS - 2);
+        assertEquals(10, mEngine.getVoicePositionCalls());
+        mEngine.advanceBy(1);
+        assertEquals(11, mEngine.getVoicePositionCalls());
+
+        // Moving back and forth within a frame sends nothing.
+        mEngine.advanceBy(100);
+        mMixer.setPosition(100, 0, 9);
+        mMixer.setPosition(100, 3, 9);
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS);
+        assertEquals(11, mEngine.getVoicePositionCalls());
+    }
+
+    @Test
+    public void reapplyAfterRejoinSendsEveryVoiceAgain() {
+        mMixer.setPosition(1, 0, 2);
+        mMixer.setPosition(2, 1, 2);
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS);
+        assertEquals(2, mEngine.getVoicePositionCalls());
+
+        mMixer.reapplyAll();
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS);
+        assertEquals(4, mEngine.getVoicePositionCalls());
+
+        mMixer.clear();
+        mMixer.setPosition(1, 0, 2);
+        mEngine.advanceBy(SpatialAudioMixer.AUDIO_FRAME_MS);
+        assertEquals(5, mEngine.getVoicePositionCalls());
+    }
+
+    @Test
+    public void speakersWithoutAVoiceAreIgnored() {
+        mMixer.setPosition(1, 0, 2);
+        mMixer.setPosition(2, 1, 2);
+        mMixer.removeUser(2);
+        for (int i = 0; i < 20; i++) {
+            report(speaker(1, 220), speaker(2, 220), speaker(3, 220));
+        }
+        assertTrue(mMixer.getGain(1) < SpatialAudioMixer.NOMINAL_GAIN);
+        assertEquals(-1, mMixer.getGain(2));
+        assertEquals(-1, mMixer.getGain(3));
+        assertNull(mEngine.getVoicePosition(2));
+        assertNull(mEngine.getVoicePosition(3));
+    }
+
+    private void report(AudioVolumeInfo... speakers) {
+        mMixer.onAudioVolumeIndication(speakers);
+        mEngine.advanceBy(REPORT_MS);
+    }
+
+    private static AudioVolumeInfo speaker(int uid, int volume) {
+        AudioVolumeInfo info = new AudioVolumeInfo();
+        info.uid = uid;
+        info.volume = volume;
+        return info;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.zurivideosample.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * A small timing loop for the JVM benchmarks in this package.
+ *
+ * Each benchmark is warmed up, then run in batches until the measurement
+ * time is used up. Throughput is reported as operations per second and
+ * allocation, taken from the HotSpot thread allocation counter, as bytes
+ * per operation and MB per second.
+ *
+ * Durations can be changed with the {@code benchmark.warmupMs} and
+ * {@code benchmark.measureMs} system properties. If
+ * {@code benchmark.report} names a file, a CSV line is appended to it for
+ * every benchmark.
+ */
+public final class Benchmark {
+    private static final long WARMUP_MS = Long.getLong("benchmark.warmupMs", 500);
+    private static final long MEASURE_MS = Long.getLong("benchmark.measureMs", 2000);
+    private static final String REPORT = System.getProperty("benchmark.report");
+
+    /**
+     * One benchmarked operation. {@code index} counts the calls, so the
+     * operation can vary uids and the like without keeping its own counter.
+     */
+    public interface Operation {
+        void run(long index);
+    }
+
+    public static final class Result {
+        public final String name;
+        public final long operations;
+        public final double opsPerSecond;
+        // -1 if the JVM cannot count allocations.
+        public final double bytesPerOp;
+        public final double allocatedMbPerSecond;
+
+        Result(String name, long operations, long nanos, long bytes) {
+            this.name = name;
+            this.operations = operations;
+            this.opsPerSecond = operations * 1e9 / nanos;
+            this.bytesPerOp = bytes < 0 ? -1 : (double) bytes / operations;
+            this.allocatedMbPerSecond = bytes < 0 ? -1 : bytes * 1e9 / nanos / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-32s %,14.0f ops/s %10.1f B/op %9.1f MB/s",
+                    name, opsPerSecond, bytesPerOp, allocatedMbPerSecond);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    public static Result run(String name, Operation operation) {
+        long index = loop(operation, 0, WARMUP_MS);
+
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long end = loop(operation, index, MEASURE_MS);
+        long nanos = System.nanoTime() - start;
+        long bytesAfter = allocatedBytes();
+
+        Result result = new Result(name, end - index, nanos,
+                bytesBefore < 0 ? -1 : bytesAfter - bytesBefore);
+        System.out.println(result);
+        report(result);
+        return result;
+    }
+
+    private static long loop(Operation operation, long index, long durationMs) {
+        long deadline = System.nanoTime() + durationMs * 1000000;
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; i++) {
+                operation.run(index++);
+            }
+            // Check the clock less often as the operation turns out to be
+            // cheap, so the timing itself stays out of the measurement.
+            if (batch < 1 << 16) {
+                batch <<= 1;
+            }
+        } while (System.nanoTime() < deadline);
+        return index;
+    }
+
+    // Bytes allocated by the calling thread so far, or -1 if unknown.
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static void report(Result result) {
+        if (REPORT == null) {
+            return;
+        }
+        File file = new File(REPORT);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Cannot create " + dir);
+            return;
+        }
+        try {
+            Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(String.format(Locale.US, "%s,%.0f,%.1f,%.1f%n", result.name,
+                        result.opsPerSecond, result.bytesPerOp, result.allocatedMbPerSecond));
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write " + file + ": " + e);
+        }
+    }
+}
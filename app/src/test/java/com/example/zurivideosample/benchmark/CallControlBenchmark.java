@@ -0,0 +1,142 @@
+package com.example.zurivideosample.benchmark;
+
+import com.example.zurivideosample.call.CallController;
+import com.example.zurivideosample.call.TestCalls;
+import com.example.zurivideosample.engine.CallEventDispatcher;
+import com.example.zurivideosample.engine.FakeCallEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput and allocation of the call-control hot paths, driven through
+ * {@link CallController} against {@link FakeCallEngine}.
+ *
+ * Framework views are stubs on the JVM, so these numbers cover the call
+ * logic itself (tile bookkeeping, subscriptions, telemetry, dispatch), not
+ * measuring or drawing. Run with {@code ./gradlew benchmark}.
+ */
+public class CallControlBenchmark {
+    private static final String CHANNEL = "benchmark";
+    // A typical room: enough users to fill most of the renderer pool.
+    private static final int ROOM_SIZE = 8;
+    private static final int FIRST_UID = 100;
+
+    private CallController mCall;
+    private FakeCallEngine mEngine;
+    private IRtcEngineEventHandler mHandler;
+
+    @Before
+    public void setUp() {
+        mCall = TestCalls.newController();
+        mHandler = mCall.getEventHandler();
+        mEngine = new FakeCallEngine(mHandler, 42);
+        TestCalls.setUp(mCall, mEngine);
+        mCall.joinChannel(CHANNEL);
+        mEngine.advanceBy(1000);
+        for (int i = 0; i < ROOM_SIZE; i++) {
+            mHandler.onFirstRemoteVideoDecoded(FIRST_UID + i, 640, 360, 0);
+        }
+    }
+
+    @Test
+    public void remoteVideoSetupAndTeardown() {
+        // One user of the room leaves and a new one takes their place.
+        Benchmark.run("remote video setup/teardown", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                int leaving = FIRST_UID + (int) (index % ROOM_SIZE);
+                mHandler.onUserOffline(leaving, 0);
+                mHandler.onFirstRemoteVideoDecoded(leaving, 640, 360, 0);
+            }
+        });
+        assertEquals(ROOM_SIZE, mCall.getRemoteVideos().size());
+        assertEquals(ROOM_SIZE, mEngine.getBoundRemoteCount());
+    }
+
+    @Test
+    public void switchView() {
+        Benchmark.run("switchView swap", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                mCall.swapLocalVideo();
+            }
+        });
+        assertEquals(ROOM_SIZE, mCall.getRemoteVideos().size());
+    }
+
+    @Test
+    public void callbackDispatch() {
+        // One stats round as the SDK reports it every two seconds, plus a
+        // volume indication, recorded and then drained in a single frame.
+        final CallEventDispatcher dispatcher = new CallEventDispatcher(mHandler, 256);
+        final IRtcEngineEventHandler.RtcStats rtcStats = new IRtcEngineEventHandler.RtcStats();
+        final IRtcEngineEventHandler.LocalVideoStats localStats =
+                new IRtcEngineEventHandler.LocalVideoStats();
+        // One per user, as the SDK hands over a new object per callback:
+        // the dispatcher keeps the reference until it drains.
+        final IRtcEngineEventHandler.RemoteVideoStats[] remoteStats =
+                new IRtcEngineEventHandler.RemoteVideoStats[ROOM_SIZE];
+        for (int i = 0; i < ROOM_SIZE; i++) {
+            remoteStats[i] = new IRtcEngineEventHandler.RemoteVideoStats();
+            remoteStats[i].uid = FIRST_UID + i;
+        }
+        final IRtcEngineEventHandler.AudioVolumeInfo[] speakers =
+                new IRtcEngineEventHandler.AudioVolumeInfo[1];
+        speakers[0] = new IRtcEngineEventHandler.AudioVolumeInfo();
+        final int eventsPerRound = ROOM_SIZE + 4;
+
+        Benchmark.Result result = Benchmark.run("callback dispatch (rounds)", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                dispatcher.onRtcStats(rtcStats);
+                dispatcher.onLocalVideoStats(localStats);
+                dispatcher.onNetworkQuality(0, 1, 1);
+                for (int i = 0; i < ROOM_SIZE; i++) {
+                    remoteStats[i].receivedBitrate = 100 + (int) (index % 50);
+                    dispatcher.onRemoteVideoStats(remoteStats[i]);
+                }
+                speakers[0].uid = FIRST_UID + (int) (index % ROOM_SIZE);
+                speakers[0].volume = (int) (index % 256);
+                dispatcher.onAudioVolumeIndication(speakers, speakers[0].volume);
+                dispatcher.drain();
+            }
+        });
+        System.out.println(String.format(Locale.US, "%-32s %,14.0f events/s", "callback dispatch (events)",
+                result.opsPerSecond * eventsPerRound));
+        // Every event of a round is distinct, so nothing may be coalesced.
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(0, dispatcher.getCoalescedCount());
+        assertEquals(0, dispatcher.getDeliveredCount() % eventsPerRound);
+    }
+
+    @Test
+    public void joinLeaveCycle() {
+        // Leave the room and join it again, with the room's users coming
+        // back and their first frames decoded.
+        Benchmark.run("join/leave cycle", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                mCall.endCall();
+                mEngine.advanceBy(1);
+                mCall.startCall(CHANNEL);
+                mEngine.advanceBy(100);
+                for (int i = 0; i < ROOM_SIZE; i++) {
+                    mEngine.userJoins(FIRST_UID + i, mEngine.now());
+                }
+                mEngine.advanceBy(1000);
+            }
+        });
+        assertTrue(mCall.isInCall());
+        assertEquals(ROOM_SIZE, mCall.getRemoteVideos().size());
+        // Only the snapshot tier's tick, which runs while there are tiles;
+        // nothing piles up across cycles.
+        assertEquals(1, mEngine.pendingEvents());
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.zurivideosample.benchmark;
+
+import com.example.zurivideosample.call.CallController;
+import com.example.zurivideosample.call.TestCalls;
+import com.example.zurivideosample.engine.CallEventDispatcher;
+import com.example.zurivideosample.effects.I420Frame;
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.render.TileCompositor;
+import com.example.zurivideosample.telemetry.Histogram;
+import com.example.zurivideosample.video.RemoteVideoGrid;
+import com.example.zurivideosample.video.RendererPool;
+import com.example.zurivideosample.video.SubscriptionScheduler;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Random;
+
+import io.agora.rtc.mediaio.IVideoSink;
+import io.agora.rtc.mediaio.MediaIO;
+import io.agora.rtc.video.VideoCanvas;
+
+import static org.junit.Assert.*;
+
+/**
+ * A seeded load script against the call screen's logic: dozens of
+ * virtual participants joining, leaving, speaking and turning their
+ * cameras on and off at high rates, while the local user mutes, switches
+ * camera, pins tiles and goes to the background.
+ *
+ * Callbacks go from {@link FakeCallEngine} through a
+ * {@link CallEventDispatcher} drained once per frame, as on the device.
+ * After every frame the views and bindings must match the users present:
+ * one tile and one engine binding per user, no view shared or lost. The
+ * UI thread time per event and the allocation of the worst frame are
+ * printed; they are not asserted, as they depend on the machine.
+ *
+ * The script runs twice: on a {@link TileCompositor}, as the app draws
+ * calls, with every live user's sink fed a frame and the compositor
+ * drawing once per frame; and on a SurfaceView per user, as breakout
+ * rooms still do.
+ *
+ * Runs with the unit tests. Framework views are stubs on the JVM, so the
+ * times cover the call logic, not measuring or drawing.
+ */
+public class CallLoadTest {
+    private static final String CHANNEL = "load";
+    private static final int PARTICIPANTS = 60;
+    private static final int FIRST_UID = 100;
+    private static final int FRAME_MS = 16;
+    private static final long DURATION_MS = 120000;
+    // SubscriptionScheduler's default.
+    private static final int MAX_HIGH_STREAMS = 2;
+
+    private static final int[] FRAME_BOUNDS_US = {
+            10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 16000, 33000, 100000
+    };
+
+    // What the SDK would hand each remote sink, as small as a frame gets.
+    private static final int VIDEO_WIDTH = 32;
+    private static final int VIDEO_HEIGHT = 18;
+    private static final int I420 = MediaIO.PixelFormat.I420.intValue();
+
+    private CallController mCall;
+    private FakeCallEngine mEngine;
+    private CallEventDispatcher mDispatcher;
+    // Null for the SurfaceView run.
+    private TileCompositor mCompositor;
+    private final ByteBuffer mVideoFrame =
+            ByteBuffer.allocateDirect(I420Frame.sizeOf(VIDEO_WIDTH, VIDEO_HEIGHT));
+
+    private final Histogram mFrameTimes = new Histogram(FRAME_BOUNDS_US);
+    private long mEvents;
+    private long mNanos;
+    private long mBytes = -1;
+    private long mPeakFrameBytes;
+    private int mPeakUsers;
+
+    private void setUp(TileCompositor compositor) {
+        mCall = TestCalls.newController();
+        mCompositor = compositor;
+        mCall.setCompositor(compositor);
+        // The engine reports to the dispatcher, which the frames below drain
+        // into the controller.
+        mDispatcher = new CallEventDispatcher(mCall.getEventHandler(), 256);
+        mEngine = new FakeCallEngine(mDispatcher, 42);
+        TestCalls.setUp(mCall, mEngine);
+    }
+
+    @Test
+    public void manyParticipantsKeepSinksAndTilesConsistent() {
+        setUp(new TileCompositor(0));
+        runScript();
+        assertEquals(0, mCompositor.getTileCount());
+        assertEquals(0, mEngine.getRemoteRendererCount());
+    }
+
+    @Test
+    public void manyParticipantsKeepViewsAndBindingsConsistent() {
+        setUp(null);
+        runScript();
+    }
+
+    private void runScript() {
+        mCall.joinChannel(CHANNEL);
+        long start = mEngine.now();
+        // About 90 joins a minute, each staying 30 seconds on average, so
+        // the room hovers around the full 60 with constant turnover.
+        mEngine.churn(FIRST_UID, PARTICIPANTS, start + 200, DURATION_MS, 1.5, 30000)
+                .randomSpeakersEvery(start + 300, 100)
+                .randomVideoStateEvery(start + 400, 40)
+                .statsEvery(start + 1000, 1000);
+
+        Random random = new Random(7);
+        boolean muted = false;
+        boolean background = false;
+        long end = start + DURATION_MS;
+        while (mEngine.now() < end) {
+            mEngine.advanceBy(FRAME_MS);
+            // What the user taps between frames.
+            int action = random.nextInt(100);
+            if (action < 3) {
+                muted = !muted;
+                mCall.setLocalAudioMuted(muted);
+            } else if (action < 4) {
+                mCall.switchCamera();
+            } else if (action < 7) {
+                mCall.swapLocalVideo();
+            } else if (action < 8 && random.nextInt(4) == 0) {
+                background = !background;
+                mCall.setInBackground(background);
+            }
+            frame();
+            checkInvariants();
+        }
+        mCall.setInBackground(false);
+
+        // Everyone leaves; nothing may be left behind.
+        for (int uid = FIRST_UID; uid < FIRST_UID + PARTICIPANTS; uid++) {
+            mEngine.userLeaves(uid, mEngine.now());
+        }
+        mEngine.advanceBy(FRAME_MS);
+        frame();
+        checkInvariants();
+        assertEquals(0, mCall.getRemoteVideos().size());
+        assertEquals(0, mEngine.getBoundRemoteCount());
+        assertEquals(0, mEngine.getRemoteRendererCount());
+        assertNull(mCall.getPinnedVideo());
+        if (mCompositor != null) {
+            // Read before the end of the call resets it.
+            assertTrue(mCompositor.getPacing().getShownCount() > 0);
+        }
+
+        mCall.endCall();
+        mEngine.advanceBy(FRAME_MS);
+        frame();
+        checkInvariants();
+        assertFalse(mEngine.isJoined());
+
+        report();
+        assertTrue(mPeakUsers >= PARTICIPANTS * 3 / 4);
+        assertEquals(0, mDispatcher.getQueueDepth());
+    }
+
+    // Delivers the frame's callbacks, as the Choreographer would.
+    private void frame() {
+        long delivered = mDispatcher.getDeliveredCount();
+        long bytesBefore = Benchmark.allocatedBytes();
+        long startNanos = System.nanoTime();
+        mDispatcher.drain();
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = Benchmark.allocatedBytes() - bytesBefore;
+
+        long events = mDispatcher.getDeliveredCount() - delivered;
+        if (events == 0) {
+            return;
+        }
+        mEvents += events;
+        mNanos += nanos;
+        mFrameTimes.record((int) Math.min(nanos / 1000, Integer.MAX_VALUE));
+        if (bytesBefore >= 0) {
+            mBytes = Math.max(mBytes, 0) + bytes;
+            mPeakFrameBytes = Math.max(mPeakFrameBytes, bytes);
+        }
+        mPeakUsers = Math.max(mPeakUsers, mEngine.getRemoteUserCount());
+        if (mCompositor != null) {
+            decodeAndDraw();
+        }
+    }
+
+    // The SDK's frames for every live user with the camera on, then the
+    // compositor's draw, as the GL thread would.
+    private void decodeAndDraw() {
+        RemoteVideoGrid tiles = mCall.getRemoteVideos();
+        for (int i = 0; i < tiles.size(); i++) {
+            int uid = tiles.valueAt(i).uid;
+            IVideoSink sink = mEngine.getRemoteRenderer(uid);
+            if (sink != null && !mEngine.isRemoteCameraOff(uid) && mCall.getSnapshotTier().isLive(uid)) {
+                mVideoFrame.clear();
+                sink.consumeByteBufferFrame(mVideoFrame, I420, VIDEO_WIDTH, VIDEO_HEIGHT, 0, mEngine.now());
+            }
+        }
+        mCompositor.onDrawFrame(null);
+    }
+
+    private void checkInvariants() {
+        RemoteVideoGrid tiles = mCall.getRemoteVideos();
+        RendererPool pool = mCall.getRendererPool();
+        SubscriptionScheduler subscriptions = mCall.getSubscriptions();
+
+        // One binding per tile, and only for users still there: a view,
+        // or the compositor's sink for the user.
+        if (mCompositor != null) {
+            assertEquals("sinks", tiles.size(), mEngine.getRemoteRendererCount());
+            assertEquals("compositor tiles", tiles.size(), mCompositor.getTileCount());
+            assertEquals("views", 0, mEngine.getBoundRemoteCount());
+        } else {
+            assertEquals("bindings", tiles.size(), mEngine.getBoundRemoteCount());
+        }
+        IdentityHashMap<Object, Boolean> views = new IdentityHashMap<>();
+        for (int i = 0; i < tiles.size(); i++) {
+            VideoCanvas canvas = tiles.valueAt(i);
+            int uid = canvas.uid;
+            assertTrue("tile of a user who left: " + uid, mEngine.isRemoteUser(uid));
+            if (mCompositor != null) {
+                assertNotNull("tile without a sink: " + uid, mCompositor.getSink(uid));
+                assertSame("bound to another sink: " + uid, mCompositor.getSink(uid),
+                        mEngine.getRemoteRenderer(uid));
+            } else {
+                VideoCanvas bound = mEngine.getRemoteCanvas(uid);
+                assertNotNull("tile without a binding: " + uid, bound);
+                assertSame("bound to another view: " + uid, canvas.view, bound.view);
+                assertNull("view shared by two tiles: " + uid, views.put(canvas.view, Boolean.TRUE));
+            }
+            // Tiles beyond the live budget show snapshots and are not
+            // subscribed.
+            if (!subscriptions.isVideoSuspended() && mCall.getSnapshotTier().isLive(uid)) {
+                assertNotEquals("not subscribed: " + uid, SubscriptionScheduler.STREAM_OFF,
+                        subscriptions.getStreamType(uid));
+            }
+            if (mEngine.isRemoteCameraOff(uid)) {
+                assertTrue("camera off but no placeholder: " + uid, tiles.isShowingPlaceholder(uid));
+            }
+        }
+        // Users whose first frame is still on its way have no tile yet.
+        assertTrue(tiles.size() <= mEngine.getRemoteUserCount());
+        assertTrue(subscriptions.getHighStreamCount() <= MAX_HIGH_STREAMS);
+
+        VideoCanvas pinned = mCall.getPinnedVideo();
+        if (pinned != null) {
+            assertSame("pinned tile gone: " + pinned.uid, pinned, tiles.get(pinned.uid));
+        }
+        if (mCompositor != null) {
+            // Neither the remote tiles nor the local one take a view.
+            assertEquals("views created", 0, mEngine.getRendererViewsCreated());
+            assertSame(mCompositor.getLocalSink(), mEngine.getLocalRenderer());
+            return;
+        }
+        // Every view the pool created is on screen, idle or dropped.
+        assertEquals("leaked views", pool.getCreatedCount(),
+                tiles.size() + pool.getIdleCount() + pool.getDroppedCount());
+        // The local view was created outside the pool.
+        assertEquals(pool.getCreatedCount() + 1, mEngine.getRendererViewsCreated());
+    }
+
+    private void report() {
+        System.out.println(String.format(Locale.US,
+                "%s: %d participants, peak %d: %,d events in %,d frames, %.1f us/event,"
+                        + " frame p50 %d us p99 %d us max %d us",
+                mCompositor != null ? "compositor" : "views", PARTICIPANTS, mPeakUsers, mEvents, mFrameTimes.getCount(),
+                mNanos / 1000.0 / mEvents, mFrameTimes.percentile(50),
+                mFrameTimes.percentile(99), mFrameTimes.getMax()));
+        if (mBytes >= 0) {
+            System.out.println(String.format(Locale.US,
+                    "allocated %.1f B/event, peak frame %.1f KB",
+                    (double) mBytes / mEvents, mPeakFrameBytes / 1024.0));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.zurivideosample.benchmark;
+
+import com.example.zurivideosample.effects.BackgroundBlurStage;
+import com.example.zurivideosample.effects.FramePipeline;
+import com.example.zurivideosample.effects.FramePool;
+import com.example.zurivideosample.effects.FrameStage;
+import com.example.zurivideosample.effects.I420Frame;
+import com.example.zurivideosample.effects.LowLightStage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cost of the outgoing video effects on synthetic I420 frames at the
+ * encoder's common sizes. At 15 fps a frame has 66ms in total; the stage
+ * budgets below are what the app would give each effect.
+ *
+ * Stages work in place, so every operation first restores the original
+ * frame; the "frame copy" results are that restore on its own.
+ */
+public class FramePipelineBenchmark {
+    private static final long STAGE_BUDGET_MICROS = 8000;
+
+    private final FramePool mPool = new FramePool(4);
+
+    @Test
+    public void frameCopy360p() {
+        runStage(null, 640, 360);
+    }
+
+    @Test
+    public void frameCopy720p() {
+        runStage(null, 1280, 720);
+    }
+
+    @Test
+    public void lowLight360p() {
+        runStage(new LowLightStage(), 640, 360);
+    }
+
+    @Test
+    public void lowLight720p() {
+        runStage(new LowLightStage(), 1280, 720);
+    }
+
+    @Test
+    public void backgroundBlur360p() {
+        runStage(new BackgroundBlurStage(), 640, 360);
+    }
+
+    @Test
+    public void backgroundBlur720p() {
+        runStage(new BackgroundBlurStage(), 1280, 720);
+    }
+
+    @Test
+    public void fullPipeline360p() {
+        final FramePipeline pipeline = new FramePipeline();
+        pipeline.addStage(new LowLightStage(), STAGE_BUDGET_MICROS);
+        pipeline.addStage(new BackgroundBlurStage(), STAGE_BUDGET_MICROS);
+        final I420Frame frame = mPool.acquire(640, 360);
+        final ByteBuffer original = syntheticFrame(640, 360);
+        Benchmark.run("pipeline 640x360 (frames)", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                restore(frame, original);
+                pipeline.process(frame);
+            }
+        });
+        for (int i = 0; i < pipeline.getStageCount(); i++) {
+            System.out.println("  " + pipeline.getStage(i));
+        }
+        assertEquals(1, mPool.getAllocatedCount());
+    }
+
+    /**
+     * @param stage the stage to run, or null to measure the restore alone
+     */
+    private void runStage(final FrameStage stage, int width, int height) {
+        final I420Frame frame = mPool.acquire(width, height);
+        final ByteBuffer original = syntheticFrame(width, height);
+        String name = stage != null ? stage.getName() : "frame copy";
+        Benchmark.Result result = Benchmark.run(name + " " + width + "x" + height + " (frames)",
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(long index) {
+                        restore(frame, original);
+                        if (stage != null) {
+                            stage.process(frame);
+                        }
+                    }
+                });
+        assertTrue(result.operations > 0);
+    }
+
+    // A dark, noisy frame, so low-light has work to do every time.
+    private static ByteBuffer syntheticFrame(int width, int height) {
+        int size = I420Frame.sizeOf(width, height);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        Random random = new Random(7);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) (i < width * height ? 20 + random.nextInt(40) : 128));
+        }
+        return buffer;
+    }
+
+    private static void restore(I420Frame frame, ByteBuffer original) {
+        ByteBuffer buffer = frame.getBuffer();
+        original.rewind();
+        buffer.clear();
+        buffer.put(original);
+        buffer.clear();
+    }
+}
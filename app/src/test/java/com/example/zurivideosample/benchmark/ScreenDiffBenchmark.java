@@ -0,0 +1,88 @@
+package com.example.zurivideosample.benchmark;
+
+import com.example.zurivideosample.screenshare.DirtyRegionDetector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cost of finding what changed in a shared screen, on synthetic RGBA
+ * frames at the screen encoder's largest size. The screen is captured at
+ * up to 7 fps, so a frame has over 140ms; the diff should take a small
+ * part of that even when everything changed.
+ *
+ * "static" is a slide on screen, "cursor" a caret blinking in one tile and
+ * "scroll" a frame that differs everywhere, which also pays the full copy.
+ */
+public class ScreenDiffBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    // ImageReader rows are padded to the GPU's alignment.
+    private static final int STRIDE = WIDTH * 4 + 64;
+
+    @Test
+    public void staticScreen() {
+        final ByteBuffer frame = syntheticFrame(1);
+        final DirtyRegionDetector detector = primed(frame);
+        Benchmark.Result result = Benchmark.run("diff static 1080p (frames)", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                detector.update(frame, STRIDE);
+            }
+        });
+        assertEquals(0, detector.getDirtyTileCount());
+        assertTrue(result.operations > 0);
+    }
+
+    @Test
+    public void blinkingCursor() {
+        final ByteBuffer frame = syntheticFrame(1);
+        final DirtyRegionDetector detector = primed(frame);
+        final int offset = 500 * STRIDE + 900 * 4;
+        final int original = frame.getInt(offset);
+        Benchmark.Result result = Benchmark.run("diff cursor 1080p (frames)", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                frame.putInt(offset, (index & 1) == 0 ? ~original : original);
+                detector.update(frame, STRIDE);
+            }
+        });
+        assertEquals(1, detector.getDirtyTileCount());
+        assertTrue(result.operations > 0);
+    }
+
+    @Test
+    public void scroll() {
+        final ByteBuffer[] frames = { syntheticFrame(1), syntheticFrame(2) };
+        final DirtyRegionDetector detector = primed(frames[1]);
+        Benchmark.Result result = Benchmark.run("diff scroll 1080p (frames)", new Benchmark.Operation() {
+            @Override
+            public void run(long index) {
+                detector.update(frames[(int) (index & 1)], STRIDE);
+            }
+        });
+        assertEquals(detector.getTileCount(), detector.getDirtyTileCount());
+        assertTrue(result.operations > 0);
+    }
+
+    private static DirtyRegionDetector primed(ByteBuffer frame) {
+        DirtyRegionDetector detector =
+                new DirtyRegionDetector(WIDTH, HEIGHT, DirtyRegionDetector.DEFAULT_TILE_SIZE);
+        detector.update(frame, STRIDE);
+        return detector;
+    }
+
+    // Noise, so no two seeds share a pixel run and nothing compresses.
+    private static ByteBuffer syntheticFrame(int seed) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(STRIDE * HEIGHT);
+        Random random = new Random(seed);
+        for (int i = 0; i + 4 <= buffer.capacity(); i += 4) {
+            buffer.putInt(i, random.nextInt() | 0xff);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.zurivideosample.call;
+
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.video.EncoderProfileController;
+import com.example.zurivideosample.video.SubscriptionScheduler;
+
+import org.junit.Test;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+public class BackgroundGovernorTest {
+
+    // Burns CPU and current at a fixed rate per state.
+    private static class FakeMeter implements BackgroundGovernor.Meter {
+        long cpuMs;
+        int currentMicroAmps;
+
+        void run(long ms, int cpuPercent) {
+            cpuMs += ms * cpuPercent / 100;
+        }
+
+        @Override
+        public long getCpuTimeMs() {
+            return cpuMs;
+        }
+
+        @Override
+        public int getCurrentMicroAmps() {
+            return currentMicroAmps;
+        }
+    }
+
+    @Test
+    public void savingsAreBackgroundTimeAtForegroundRate() {
+        FakeMeter meter = new FakeMeter();
+        BackgroundGovernor governor = new BackgroundGovernor();
+        governor.setMeter(meter);
+        long now = 0;
+        governor.start(now);
+
+        // 60s in the foreground at 40% CPU and 600mA.
+        meter.currentMicroAmps = -600000;
+        meter.run(60000, 40);
+        now += 60000;
+        governor.setBackground(true, now);
+
+        // 360s in the background at 5% CPU and 150mA.
+        meter.currentMicroAmps = -150000;
+        meter.run(360000, 5);
+        now += 360000;
+        governor.stop(now);
+
+        assertEquals(360000, governor.getBackgroundTimeMs());
+        assertEquals(1, governor.getTransitionCount());
+        // 144s at the foreground rate, 18s used.
+        assertEquals(126000, governor.getCpuSavedMs());
+        // 450mA less for a tenth of an hour.
+        assertEquals(45000, governor.getChargeSavedMicroAmpHours());
+    }
+
+    @Test
+    public void unknownCurrentReportsNoChargeSaved() {
+        FakeMeter meter = new FakeMeter();
+        meter.currentMicroAmps = BackgroundGovernor.UNKNOWN_CURRENT;
+        BackgroundGovernor governor = new BackgroundGovernor();
+        governor.setMeter(meter);
+        governor.start(0);
+        governor.setBackground(true, 1000);
+        governor.stop(5000);
+        assertEquals(4000, governor.getBackgroundTimeMs());
+        assertEquals(0, governor.getChargeSavedMicroAmpHours());
+    }
+
+    @Test
+    public void backgroundCallReleasesVideoAndRestoresWithoutRejoin() {
+        CallController call = TestCalls.newController();
+        IRtcEngineEventHandler handler = call.getEventHandler();
+        FakeCallEngine engine = new FakeCallEngine(handler, 42);
+        TestCalls.setUp(call, engine);
+        call.joinChannel("test");
+        engine.advanceBy(1000);
+        for (int uid = 1; uid <= 3; uid++) {
+            handler.onFirstRemoteVideoDecoded(uid, 640, 360, 0);
+        }
+
+        call.setInBackground(true);
+        assertFalse(engine.isPreviewing());
+        assertEquals(EncoderProfileController.KEEP_ALIVE.width, engine.getEncoderConfig().dimensions.width);
+        for (int uid = 1; uid <= 3; uid++) {
+            assertTrue(engine.isRemoteVideoMuted(uid));
+            assertEquals(SubscriptionScheduler.STREAM_OFF, call.getSubscriptions().getStreamType(uid));
+        }
+
+        call.setInBackground(false);
+        assertTrue(engine.isPreviewing());
+        assertEquals(640, engine.getEncoderConfig().dimensions.width);
+        for (int uid = 1; uid <= 3; uid++) {
+            assertFalse(engine.isRemoteVideoMuted(uid));
+        }
+        assertEquals(2, call.getSubscriptions().getHighStreamCount());
+        assertEquals(1, engine.getJoinCount());
+        assertTrue(engine.isJoined());
+    }
+}
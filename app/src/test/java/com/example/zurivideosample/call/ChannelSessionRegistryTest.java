@@ -0,0 +1,143 @@
+package com.example.zurivideosample.call;
+
+import com.example.zurivideosample.engine.FakeCallChannel;
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.video.RemoteVideoGrid;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChannelSessionRegistryTest {
+    private static final String MAIN = "main";
+    private static final String ROOM_A = "room-a";
+    private static final String ROOM_B = "room-b";
+
+    private CallController mCall;
+    private FakeCallEngine mEngine;
+    private ChannelSessionRegistry mChannels;
+
+    @Before
+    public void setUp() {
+        mCall = TestCalls.newController();
+        mEngine = new FakeCallEngine(mCall.getEventHandler(), 42);
+        TestCalls.setUp(mCall, mEngine, TestCalls.newSupervisor(mEngine, "token"));
+        mCall.joinChannel(MAIN);
+        mEngine.userJoins(1, 100).userJoins(2, 100);
+        mEngine.advanceBy(1000);
+
+        mChannels = mCall.getChannels();
+        mChannels.open(ROOM_A);
+        mChannels.open(ROOM_B);
+        mEngine.getCreatedChannel(ROOM_A).userJoins(11, 1100).userJoins(12, 1100);
+        mEngine.getCreatedChannel(ROOM_B).userJoins(21, 1100);
+        mEngine.advanceBy(1000);
+    }
+
+    @Test
+    public void secondaryChannelsJoinAudioOnly() {
+        FakeCallChannel roomA = mEngine.getCreatedChannel(ROOM_A);
+        assertTrue(roomA.isJoined());
+        assertEquals("token", roomA.getToken());
+        assertFalse(roomA.isAutoSubscribeVideo());
+        // Tiles are bound up front but not subscribed.
+        assertEquals(2, roomA.getBoundRemoteCount());
+        assertTrue(roomA.isRemoteVideoMuted(11));
+        assertFalse(mChannels.get(ROOM_A).getRemoteVideos().isAttached());
+
+        assertNull(mChannels.getFocused());
+        assertFalse(mEngine.isRemoteVideoMuted(1));
+        assertTrue(mCall.getRemoteVideos().isAttached());
+    }
+
+    @Test
+    public void focusMovesVideoWithoutRejoining() {
+        mChannels.focus(ROOM_A);
+        assertSame(mChannels.get(ROOM_A), mChannels.getFocused());
+        assertTrue(mEngine.isRemoteVideoMuted(1));
+        assertTrue(mEngine.isRemoteVideoMuted(2));
+        assertFalse(mCall.getRemoteVideos().isAttached());
+        FakeCallChannel roomA = mEngine.getCreatedChannel(ROOM_A);
+        assertFalse(roomA.isRemoteVideoMuted(11));
+        assertFalse(roomA.isRemoteVideoMuted(12));
+        assertTrue(mChannels.get(ROOM_A).getRemoteVideos().isAttached());
+        assertTrue(mEngine.getCreatedChannel(ROOM_B).isRemoteVideoMuted(21));
+
+        mChannels.focus(ROOM_B);
+        assertTrue(roomA.isRemoteVideoMuted(11));
+        assertFalse(mEngine.getCreatedChannel(ROOM_B).isRemoteVideoMuted(21));
+
+        mChannels.focus(MAIN);
+        assertNull(mChannels.getFocused());
+        assertFalse(mEngine.isRemoteVideoMuted(1));
+        assertTrue(mEngine.getCreatedChannel(ROOM_B).isRemoteVideoMuted(21));
+
+        // Nobody left or joined again, and the bindings were kept.
+        assertEquals(1, mEngine.getJoinCount());
+        assertEquals(1, roomA.getJoinCount());
+        assertEquals(2, roomA.getBoundRemoteCount());
+        assertEquals(2, mEngine.getBoundRemoteCount());
+        assertEquals(3, mChannels.getSwitchTime().getCount());
+    }
+
+    @Test
+    public void usersJoiningAnUnfocusedChannelStayAudioOnly() {
+        mChannels.focus(ROOM_A);
+        mEngine.userJoins(3, 2500);
+        mEngine.advanceBy(1000);
+        assertNotNull(mCall.getRemoteVideos().get(3));
+        assertTrue(mEngine.isRemoteVideoMuted(3));
+
+        mChannels.focus(null);
+        assertFalse(mEngine.isRemoteVideoMuted(3));
+    }
+
+    @Test
+    public void cameraOffInARoomShowsAPlaceholder() {
+        mChannels.focus(ROOM_A);
+        RemoteVideoGrid videos = mChannels.get(ROOM_A).getRemoteVideos();
+        mEngine.getCreatedChannel(ROOM_A).remoteVideoMuted(12, 2100, true);
+        mEngine.advanceBy(200);
+        assertTrue(videos.isShowingPlaceholder(12));
+        assertFalse(videos.isShowingPlaceholder(11));
+
+        mEngine.getCreatedChannel(ROOM_A).remoteVideoMuted(12, 2300, false);
+        mEngine.advanceBy(200);
+        assertFalse(videos.isShowingPlaceholder(12));
+    }
+
+    @Test
+    public void closingFocusedChannelReturnsToPrimary() {
+        mChannels.focus(ROOM_A);
+        FakeCallChannel roomA = mEngine.getCreatedChannel(ROOM_A);
+        mChannels.close(ROOM_A);
+        assertTrue(roomA.isDestroyed());
+        assertNull(mChannels.getFocused());
+        assertNull(mChannels.get(ROOM_A));
+        assertFalse(mEngine.isRemoteVideoMuted(1));
+        assertEquals(1, mChannels.size());
+    }
+
+    @Test
+    public void channelsThatCannotBeJoinedAreSkipped() {
+        assertNull(mChannels.open(MAIN));
+        StringBuilder tooLong = new StringBuilder();
+        for (int i = 0; i < 65; i++) {
+            tooLong.append('x');
+        }
+        assertNull(mChannels.open(tooLong.toString()));
+        assertEquals(2, mChannels.size());
+        assertEquals(2, mEngine.getChannelCount());
+        assertTrue(mEngine.getCreatedChannel(ROOM_A).isJoined());
+    }
+
+    @Test
+    public void endingCallLeavesEveryChannel() {
+        mChannels.focus(ROOM_B);
+        mCall.endCall();
+        assertEquals(0, mChannels.size());
+        assertEquals(0, mEngine.getChannelCount());
+        assertTrue(mCall.getRemoteVideos().isAttached());
+    }
+}
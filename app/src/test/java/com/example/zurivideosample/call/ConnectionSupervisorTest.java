@@ -0,0 +1,182 @@
+package com.example.zurivideosample.call;
+
+import com.example.zurivideosample.engine.FakeCallEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import io.agora.rtc.Constants;
+
+import static org.junit.Assert.*;
+
+public class ConnectionSupervisorTest {
+    private static final String CHANNEL = "test";
+
+    private FakeCallEngine mEngine;
+    private CallController mCall;
+    private ConnectionSupervisor mSupervisor;
+    private int mTokensIssued;
+    private int mFailedReason = -1;
+
+    @Before
+    public void setUp() {
+        mCall = TestCalls.newController();
+        mEngine = new FakeCallEngine(mCall.getEventHandler(), 3);
+        mSupervisor = new ConnectionSupervisor(mEngine.getTimer(), new TokenProvider() {
+            @Override
+            public void fetchToken(String channelName, int uid, Callback callback) {
+                callback.onToken("token-" + ++mTokensIssued);
+            }
+        }, new Random(3));
+        mCall.setListener(new CallController.Listener() {
+            @Override
+            public void onJoining() {
+            }
+
+            @Override
+            public void onCallFailed(int reason) {
+                mFailedReason = reason;
+            }
+
+            @Override
+            public void onCameraFailed() {
+            }
+        });
+        TestCalls.setUp(mCall, mEngine, mSupervisor);
+
+        mCall.joinChannel(CHANNEL);
+        for (int uid = 1; uid <= 4; uid++) {
+            mEngine.userJoins(uid, 0);
+        }
+        mEngine.advanceBy(1000);
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(4, mCall.getRemoteVideos().size());
+    }
+
+    @Test
+    public void shortInterruptionIsLeftToTheSdk() {
+        mEngine.networkDown(2000).networkUp(5000);
+        mEngine.advanceTo(10000);
+
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(0, mSupervisor.getRejoinCount());
+        assertEquals(1, mEngine.getJoinCount());
+        assertEquals(1, mSupervisor.getReconnectLatency().getCount());
+        // Back up after 3s plus the 50ms join latency.
+        assertEquals(3050, mSupervisor.getReconnectLatency().getMax());
+        assertEquals(4, mEngine.getBoundRemoteCount());
+    }
+
+    @Test
+    public void failedConnectionRejoinsInPlace() {
+        mEngine.connectionFails(2000, Constants.CONNECTION_CHANGED_KEEP_ALIVE_TIMEOUT);
+        // User 4 leaves while we are away.
+        mEngine.userLeaves(4, 2010);
+        mEngine.advanceTo(2000 + CallController.STALE_TILE_TIMEOUT_MS + 1000);
+
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(1, mSupervisor.getRejoinCount());
+        assertEquals(2, mEngine.getJoinCount());
+        // Same uid and no new token needed.
+        assertEquals(FakeCallEngine.LOCAL_UID, mEngine.getLastJoinUid());
+        assertEquals(1, mTokensIssued);
+        assertEquals(50, mSupervisor.getReconnectLatency().getMax());
+
+        assertEquals(3, mCall.getRemoteVideos().size());
+        assertEquals(3, mEngine.getBoundRemoteCount());
+        for (int uid = 1; uid <= 3; uid++) {
+            assertSame(mCall.getRemoteVideos().get(uid), mEngine.getRemoteCanvas(uid));
+        }
+        assertTrue(mCall.isInCall());
+    }
+
+    @Test
+    public void longOutageBacksOffUntilTheNetworkReturns() {
+        mEngine.networkDown(2000).networkUp(60000);
+        mEngine.advanceTo(59999);
+
+        assertFalse(mSupervisor.isConnected());
+        // Lost at 12s, first rejoin at 17s, then every 10s timeout plus a
+        // growing backoff.
+        int attempts = mSupervisor.getRejoinCount();
+        assertTrue("attempts " + attempts, attempts >= 3 && attempts <= 5);
+        assertEquals(4, mCall.getRemoteVideos().size());
+
+        mEngine.advanceTo(60000 + CallController.STALE_TILE_TIMEOUT_MS + 1000);
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(4, mCall.getRemoteVideos().size());
+        assertEquals(4, mEngine.getBoundRemoteCount());
+        long latency = mSupervisor.getReconnectLatency().getMax();
+        assertTrue("latency " + latency, latency >= 58000 && latency <= 60000);
+    }
+
+    @Test
+    public void tokensAreRenewedBeforeTheyExpire() {
+        // The first token was issued without an expiry; from now on every
+        // token lasts two minutes.
+        mEngine.setTokenLifetime(120000);
+        mEngine.renewToken(mEngine.getToken());
+        mEngine.advanceBy(600000);
+
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(0, mSupervisor.getRejoinCount());
+        assertEquals(1, mEngine.getJoinCount());
+        assertTrue(mSupervisor.getTokenRenewalCount() >= 5);
+        assertEquals("token-" + mTokensIssued, mEngine.getToken());
+    }
+
+    @Test
+    public void expiredTokenIsFetchedAgainForTheRejoin() {
+        mEngine.connectionFails(2000, Constants.CONNECTION_CHANGED_TOKEN_EXPIRED);
+        mEngine.advanceBy(5000);
+
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(2, mTokensIssued);
+        assertEquals("token-2", mEngine.getToken());
+    }
+
+    @Test
+    public void joinRefusedStraightAwayIsRetriedOnTheBackoff() {
+        // ERR_INVALID_TOKEN, twice: nothing is ever reported for those.
+        mEngine.connectionFails(2000, Constants.CONNECTION_CHANGED_KEEP_ALIVE_TIMEOUT)
+                .rejectCalls(2, 0, -110);
+        mEngine.advanceTo(2000 + ConnectionSupervisor.JOIN_TIMEOUT_MS);
+
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(3, mSupervisor.getRejoinCount());
+        assertEquals(2, mEngine.getJoinCount());
+        // A new token for every attempt after a refusal.
+        assertEquals(3, mTokensIssued);
+        // Immediate, then about 1s and 2s of backoff, plus the join.
+        long latency = mSupervisor.getReconnectLatency().getMax();
+        assertTrue("latency " + latency, latency >= 2450 && latency <= 3650);
+    }
+
+    @Test
+    public void renewalRefusedStraightAwayIsRetried() {
+        mEngine.setTokenLifetime(120000);
+        mEngine.renewToken(mEngine.getToken());
+        mEngine.rejectCalls(0, 2, -2);
+        // The SDK warns 30s before expiry; two refusals cost about 3s.
+        mEngine.advanceBy(100000);
+
+        assertTrue(mSupervisor.isConnected());
+        assertEquals(0, mSupervisor.getRejoinCount());
+        assertEquals(1, mSupervisor.getTokenRenewalCount());
+        assertEquals("token-" + mTokensIssued, mEngine.getToken());
+    }
+
+    @Test
+    public void refusedCallEnds() {
+        mEngine.connectionFails(2000, Constants.CONNECTION_CHANGED_BANNED_BY_SERVER);
+        mEngine.advanceBy(60000);
+
+        assertEquals(Constants.CONNECTION_CHANGED_BANNED_BY_SERVER, mFailedReason);
+        assertFalse(mCall.isInCall());
+        assertEquals(0, mCall.getRemoteVideos().size());
+        assertEquals(1, mEngine.getJoinCount());
+        assertEquals(0, mSupervisor.getRejoinCount());
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.zurivideosample.call;
+
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.video.EncoderProfileController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LastmileProbeTest {
+    private static final String CHANNEL = "test";
+    private static final String WIFI = "wifi:\"home\"";
+
+    private FakeCallEngine mEngine;
+    private CallController mCall;
+    private LinkEstimateCache mCache;
+
+    @Before
+    public void setUp() {
+        mCall = TestCalls.newController();
+        mEngine = new FakeCallEngine(mCall.getEventHandler(), 5);
+        mCache = new LinkEstimateCache(60000, 4);
+        mCall.setLinkEstimateCache(mCache);
+        TestCalls.setUp(mCall, mEngine);
+    }
+
+    @Test
+    public void weakUplinkStartsLowAndJoinsAfterTheProbe() {
+        mEngine.setLink(300, 2000, 1, 20);
+        mCall.joinChannel(CHANNEL, WIFI);
+        assertTrue(mEngine.isProbing());
+        assertEquals(0, mEngine.getJoinCount());
+
+        mEngine.advanceBy(LastmileProbe.PROBE_TIMEOUT_MS);
+        assertFalse(mEngine.isProbing());
+        assertTrue(mEngine.isJoined());
+        assertEquals(0, mEngine.getJoinsWhileProbing());
+        assertTrue(mCall.getEncoderProfiles().getLevel() < EncoderProfileController.DEFAULT_LEVEL);
+        assertEquals(mCall.getEncoderProfiles().getProfile().width,
+                mEngine.getEncoderConfig().dimensions.width);
+        // Picking the start is not an adaptation.
+        assertEquals(0, mCall.getEncoderProfiles().getStepCount());
+    }
+
+    @Test
+    public void sameNetworkSkipsTheProbeUntilItExpires() {
+        mEngine.setLink(3000, 5000, 0, 10);
+        mCall.joinChannel(CHANNEL, WIFI);
+        mEngine.advanceBy(LastmileProbe.PROBE_TIMEOUT_MS);
+        int level = mCall.getEncoderProfiles().getLevel();
+        assertTrue(level > EncoderProfileController.DEFAULT_LEVEL);
+        assertEquals(1, mEngine.getProbeCount());
+
+        mCall.endCall();
+        mCall.startCall(CHANNEL, WIFI);
+        // Straight to the join, on the cached estimate.
+        assertEquals(1, mEngine.getProbeCount());
+        assertEquals(2, mEngine.getJoinCount());
+        assertEquals(level, mCall.getEncoderProfiles().getLevel());
+
+        // Another network is probed.
+        mCall.endCall();
+        mCall.startCall(CHANNEL, "cellular:LTE");
+        assertEquals(2, mEngine.getProbeCount());
+        mEngine.advanceBy(LastmileProbe.PROBE_TIMEOUT_MS);
+
+        mCall.endCall();
+        mEngine.advanceBy(60000);
+        mCall.startCall(CHANNEL, WIFI);
+        assertEquals(3, mEngine.getProbeCount());
+    }
+
+    @Test
+    public void slowProbeFallsBackToTheRating() {
+        mEngine.setLink(200, 200, 0, 10).setProbeResultDelay(-1);
+        mCall.joinChannel(CHANNEL, null);
+        mEngine.advanceBy(LastmileProbe.PROBE_TIMEOUT_MS - 1);
+        assertEquals(0, mEngine.getJoinCount());
+        mEngine.advanceBy(1);
+        assertEquals(1, mEngine.getJoinCount());
+        assertEquals(0, mCall.getEncoderProfiles().getLevel());
+        // Without a network name nothing is cached.
+        assertEquals(0, mCache.size());
+
+        // The SDK is left probing until its result is due.
+        assertTrue(mEngine.isProbing());
+        mEngine.advanceBy(LastmileProbe.LATE_RESULT_MS - LastmileProbe.PROBE_TIMEOUT_MS);
+        assertFalse(mEngine.isProbing());
+        assertTrue(mEngine.isJoined());
+    }
+
+    @Test
+    public void lateResultReplacesTheRatingForTheNextCall() {
+        mEngine.setLink(600, 5000, 0, 10).setProbeResultDelay(20000);
+        mCall.joinChannel(CHANNEL, WIFI);
+        mEngine.advanceBy(LastmileProbe.PROBE_TIMEOUT_MS);
+        assertEquals(1, mEngine.getJoinCount());
+        LinkEstimate guess = mCache.get(WIFI, mEngine.getTimer().now());
+        assertFalse(guess.measured);
+
+        mEngine.advanceBy(20000);
+        assertFalse(mEngine.isProbing());
+        assertEquals(1, mCall.getProbe().getLateResultCount());
+        LinkEstimate estimate = mCache.get(WIFI, mEngine.getTimer().now());
+        assertTrue(estimate.measured);
+        assertEquals(600, estimate.uplinkKbps);
+
+        // The next call starts on the measurement, without probing.
+        mCall.endCall();
+        mCall.startCall(CHANNEL, WIFI);
+        assertEquals(1, mEngine.getProbeCount());
+        assertEquals(EncoderProfileController.levelForUplink(600, 0, 10),
+                mCall.getEncoderProfiles().getLevel());
+    }
+
+    @Test
+    public void ratingIsOnlyCachedBriefly() {
+        mEngine.setProbeResultDelay(-1);
+        mCall.joinChannel(CHANNEL, WIFI);
+        mEngine.advanceBy(LastmileProbe.LATE_RESULT_MS);
+        mCall.endCall();
+
+        mCall.startCall(CHANNEL, WIFI);
+        assertEquals(1, mEngine.getProbeCount());
+        mCall.endCall();
+        mEngine.advanceBy(LinkEstimateCache.RATED_TTL_MS);
+        mCall.startCall(CHANNEL, WIFI);
+        assertEquals(2, mEngine.getProbeCount());
+    }
+
+    @Test
+    public void endingTheCallStopsALateProbe() {
+        mEngine.setProbeResultDelay(20000);
+        mCall.joinChannel(CHANNEL, WIFI);
+        mEngine.advanceBy(LastmileProbe.PROBE_TIMEOUT_MS);
+        assertTrue(mEngine.isProbing());
+        mCall.endCall();
+        assertFalse(mEngine.isProbing());
+        mEngine.advanceBy(20000);
+        assertEquals(0, mCall.getProbe().getLateResultCount());
+    }
+
+    @Test
+    public void endingTheCallWhileProbingCancelsIt() {
+        mCall.joinChannel(CHANNEL, WIFI);
+        mCall.endCall();
+        assertFalse(mEngine.isProbing());
+        mEngine.advanceBy(LastmileProbe.PROBE_TIMEOUT_MS);
+        assertEquals(0, mEngine.getJoinCount());
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void levelsFollowTheUplink() {
+        assertEquals(0, EncoderProfileController.levelForUplink(100, 0, 0));
+        assertEquals(EncoderProfileController.DEFAULT_LEVEL,
+                EncoderProfileController.levelForUplink(800, 0, 0));
+        assertEquals(EncoderProfileController.LADDER.length - 1,
+                EncoderProfileController.levelForUplink(5000, 0, 0));
+        // A lossy or jittery link starts a rung lower.
+        assertEquals(EncoderProfileController.DEFAULT_LEVEL - 1,
+                EncoderProfileController.levelForUplink(800, 10, 0));
+        assertEquals(EncoderProfileController.DEFAULT_LEVEL - 1,
+                EncoderProfileController.levelForUplink(800, 0, 150));
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.zurivideosample.call;
+
+import android.widget.FrameLayout;
+
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.telemetry.CallTimings;
+import com.example.zurivideosample.telemetry.TelemetryStore;
+import com.example.zurivideosample.video.VideoGridLayout;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * The call the controller-level tests, benchmarks and the journal replayer
+ * start from: a {@link CallController} on stub views, set up on a
+ * {@link FakeCallEngine} the way MainActivity sets it up on the real one.
+ *
+ * The engine is made by the caller, as it reports to the controller's
+ * handler or to a dispatcher in front of it.
+ */
+public final class TestCalls {
+    /**
+     * Runs nothing, for the telemetry store: nothing is written.
+     */
+    public static final Executor DISCARD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+        }
+    };
+
+    private TestCalls() {
+    }
+
+    public static CallController newController() {
+        return newController(new CallTimings());
+    }
+
+    public static CallController newController(CallTimings timings) {
+        return new CallController(null, new FrameLayout(null), new VideoGridLayout(null),
+                timings, new TelemetryStore(new File("unused"), 1, DISCARD));
+    }
+
+    /**
+     * A supervisor on the engine's clock, which is then the call's clock.
+     */
+    public static ConnectionSupervisor newSupervisor(FakeCallEngine engine, String token) {
+        return new ConnectionSupervisor(engine.getTimer(), new StaticTokenProvider(token));
+    }
+
+    /**
+     * Sets the call up on the engine, with a supervisor that has no token,
+     * and prewarms the renderers. Whatever must come before
+     * {@link CallController#setup} has to be set on the call first.
+     */
+    public static void setUp(CallController call, FakeCallEngine engine) {
+        setUp(call, engine, newSupervisor(engine, null));
+    }
+
+    public static void setUp(CallController call, FakeCallEngine engine,
+                             ConnectionSupervisor supervisor) {
+        call.setConnectionSupervisor(supervisor);
+        call.setup(engine);
+        call.prewarmRenderers();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.zurivideosample.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import io.agora.rtc.mediaio.IVideoFrameConsumer;
+import io.agora.rtc.mediaio.MediaIO;
+
+import static org.junit.Assert.*;
+
+public class CameraVideoSourceTest {
+    private static final class Consumer implements IVideoFrameConsumer {
+        int frames;
+        int format;
+        long timestamp;
+
+        @Override
+        public void consumeByteBufferFrame(ByteBuffer buffer, int format, int width, int height, int rotation,
+                                           long timestamp) {
+            fail("Frames are textures");
+        }
+
+        @Override
+        public void consumeByteArrayFrame(byte[] data, int format, int width, int height, int rotation,
+                                          long timestamp) {
+            fail("Frames are textures");
+        }
+
+        @Override
+        public void consumeTextureFrame(int textureId, int format, int width, int height, int rotation,
+                                        long timestamp, float[] matrix) {
+            frames++;
+            this.format = format;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // The sizes a typical phone camera lists for a SurfaceTexture.
+    private static final int[] WIDTHS = {1920, 1440, 1280, 960, 800, 720, 640, 352, 320, 176};
+    private static final int[] HEIGHTS = {1080, 1080, 720, 720, 600, 480, 480, 288, 240, 144};
+
+    private static int chooseSize(int width, int height) {
+        return CaptureFormat.chooseSize(WIDTHS, HEIGHTS, width, height);
+    }
+
+    @Test
+    public void capturesAtTheEncodersSizeOrTheSmallestThatCoversIt() {
+        assertEquals(2, chooseSize(1280, 720));
+        assertEquals(6, chooseSize(640, 480));
+        // Not listed: 960x540 is cropped out of 1280x720 rather than
+        // 960x720, which has the wrong shape.
+        assertEquals(2, chooseSize(960, 540));
+        assertEquals(2, chooseSize(640, 360));
+        assertEquals(8, chooseSize(320, 240));
+        // Bigger than anything: the largest.
+        assertEquals(0, chooseSize(3840, 2160));
+        assertEquals(-1, CaptureFormat.chooseSize(new int[0], new int[0], 640, 360));
+    }
+
+    @Test
+    public void frameRateRangeReachesTheEncodersRateWithTheLowestFloor() {
+        int[] lowers = {15, 24, 7, 30, 15};
+        int[] uppers = {15, 24, 30, 30, 30};
+        assertEquals(0, CaptureFormat.chooseFrameRateRange(lowers, uppers, 15));
+        assertEquals(1, CaptureFormat.chooseFrameRateRange(lowers, uppers, 24));
+        assertEquals(2, CaptureFormat.chooseFrameRateRange(lowers, uppers, 30));
+        assertEquals(0, CaptureFormat.chooseFrameRateRange(lowers, uppers, 7));
+        // Nothing reaches it: as close as there is.
+        assertEquals(2, CaptureFormat.chooseFrameRateRange(lowers, uppers, 60));
+    }
+
+    @Test
+    public void framesAreRotatedUpright() {
+        // A typical back camera is mounted at 90 degrees, the front at 270.
+        assertEquals(90, CaptureFormat.frameRotation(90, 0, false));
+        assertEquals(270, CaptureFormat.frameRotation(270, 0, true));
+        assertEquals(0, CaptureFormat.frameRotation(90, 90, false));
+        assertEquals(0, CaptureFormat.frameRotation(270, 90, true));
+        assertEquals(180, CaptureFormat.frameRotation(90, 270, false));
+    }
+
+    @Test
+    public void pushesTexturesOnlyWhileStartedAndMeasuresLatency() {
+        CameraVideoSource source = new CameraVideoSource();
+        Consumer consumer = new Consumer();
+        assertEquals(MediaIO.BufferType.TEXTURE.intValue(), source.getBufferType());
+        float[] matrix = new float[16];
+
+        // Not before the SDK starts the source.
+        assertFalse(source.onTextureFrame(1, 640, 360, 90, matrix, 0, 0));
+        source.onInitialize(consumer);
+        assertFalse(source.onTextureFrame(1, 640, 360, 90, matrix, 0, 0));
+        source.onStart();
+        for (int i = 0; i < 10; i++) {
+            long captured = 1000000000L + i * 66000000L;
+            assertTrue(source.onTextureFrame(1, 640, 360, 90, matrix, captured, captured + 8000000L));
+        }
+        assertEquals(10, consumer.frames);
+        assertEquals(MediaIO.PixelFormat.TEXTURE_OES.intValue(), consumer.format);
+        // Timestamped with when it was captured, in milliseconds.
+        assertEquals(1594, consumer.timestamp);
+        assertEquals(10, source.getLatency().getCount());
+        assertEquals(8, source.getLatency().percentile(50));
+
+        source.onStop();
+        assertFalse(source.onTextureFrame(1, 640, 360, 90, matrix, 0, 0));
+        assertEquals(10, source.getSentCount());
+        assertEquals(3, source.getDroppedCount());
+
+        source.onSwitched(140);
+        assertEquals(1, source.getSwitchTimes().getCount());
+        assertTrue(source.getSwitchTimes().getMax() < 200);
+    }
+}
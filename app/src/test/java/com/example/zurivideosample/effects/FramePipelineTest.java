@@ -0,0 +1,239 @@
+package com.example.zurivideosample.effects;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import io.agora.rtc.mediaio.IVideoFrameConsumer;
+import io.agora.rtc.mediaio.MediaIO;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private long mNanos;
+    private FramePipeline mPipeline;
+    private final FramePool mPool = new FramePool(2);
+
+    // Takes however long it is told to on the pipeline's clock.
+    private static final class TimedStage implements FrameStage {
+        final FramePipelineTest test;
+        long costMicros;
+        int runs;
+
+        TimedStage(FramePipelineTest test, long costMicros) {
+            this.test = test;
+            this.costMicros = costMicros;
+        }
+
+        @Override
+        public String getName() {
+            return "timed";
+        }
+
+        @Override
+        public void process(I420Frame frame) {
+            runs++;
+            test.mNanos += costMicros * 1000;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mPipeline = new FramePipeline(new FramePipeline.Clock() {
+            @Override
+            public long nanoTime() {
+                return mNanos;
+            }
+        });
+    }
+
+    @Test
+    public void overrunningStageSitsOutWithBackoff() {
+        TimedStage slow = new TimedStage(this, 5000);
+        TimedStage fast = new TimedStage(this, 100);
+        FramePipeline.Stage slowStats = mPipeline.addStage(slow, 2000);
+        mPipeline.addStage(fast, 2000);
+
+        I420Frame frame = mPool.acquire(WIDTH, HEIGHT);
+        for (int i = 0; i < 20; i++) {
+            mPipeline.process(frame);
+        }
+        // Runs on frames 0, 5 and 14; sits out 4 then 8 frames.
+        assertEquals(3, slow.runs);
+        assertEquals(3, slowStats.getOverrunCount());
+        assertEquals(17, slowStats.getSkippedCount());
+        assertEquals(20, fast.runs);
+
+        // Once it fits the budget again it runs on every frame.
+        slow.costMicros = 1000;
+        for (int i = 0; i < 60; i++) {
+            mPipeline.process(frame);
+        }
+        assertTrue(slow.runs > 40);
+        assertEquals(3, slowStats.getOverrunCount());
+    }
+
+    @Test
+    public void failingStageIsDisabled() {
+        FramePipeline.Stage stage = mPipeline.addStage(new FrameStage() {
+            @Override
+            public String getName() {
+                return "broken";
+            }
+
+            @Override
+            public void process(I420Frame frame) {
+                throw new IllegalStateException();
+            }
+        }, 1000);
+        I420Frame frame = mPool.acquire(WIDTH, HEIGHT);
+        mPipeline.process(frame);
+        mPipeline.process(frame);
+        assertTrue(stage.hasFailed());
+        assertEquals(0, stage.getProcessedCount());
+    }
+
+    @Test
+    public void lowLightBrightensLumaOnly() {
+        I420Frame frame = mPool.acquire(WIDTH, HEIGHT);
+        fill(frame, 30, 90);
+        LowLightStage stage = new LowLightStage();
+        stage.process(frame);
+
+        ByteBuffer buffer = frame.getBuffer();
+        assertTrue(stage.getGamma() > 1);
+        assertTrue((buffer.get(0) & 0xff) > 80);
+        assertEquals(90, buffer.get(frame.getUOffset()) & 0xff);
+        assertEquals(90, buffer.get(frame.getSize() - 1) & 0xff);
+    }
+
+    @Test
+    public void backgroundBlurKeepsTheSubjectSharp() {
+        I420Frame frame = mPool.acquire(WIDTH, HEIGHT);
+        fill(frame, 0, 128);
+        ByteBuffer buffer = frame.getBuffer();
+        // Vertical stripes everywhere.
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x += 2) {
+                buffer.put(y * WIDTH + x, (byte) 200);
+            }
+        }
+        new BackgroundBlurStage(2, 0.5f, 0.5f).process(frame);
+
+        // Center untouched, corner smoothed to the average.
+        assertEquals(200, buffer.get(HEIGHT / 2 * WIDTH + WIDTH / 2) & 0xff);
+        assertEquals(0, buffer.get(HEIGHT / 2 * WIDTH + WIDTH / 2 + 1) & 0xff);
+        int corner = buffer.get(2 * WIDTH + 2) & 0xff;
+        assertTrue(corner > 60 && corner < 140);
+    }
+
+    @Test
+    public void poolReusesFramesOfTheSameSize() {
+        I420Frame frame = mPool.acquire(WIDTH, HEIGHT);
+        mPool.release(frame);
+        assertSame(frame, mPool.acquire(WIDTH, HEIGHT));
+        mPool.release(frame);
+        assertNotSame(frame, mPool.acquire(WIDTH * 2, HEIGHT * 2));
+        assertEquals(2, mPool.getAllocatedCount());
+    }
+
+    @Test
+    public void sourceProcessesAndRecyclesCapturedFrames() {
+        final int[] delivered = new int[2];
+        IVideoFrameConsumer consumer = new IVideoFrameConsumer() {
+            @Override
+            public void consumeByteBufferFrame(ByteBuffer buffer, int format, int width, int height,
+                                               int rotation, long timestamp) {
+                delivered[0]++;
+                delivered[1] = buffer.get(0) & 0xff;
+                assertEquals(MediaIO.PixelFormat.I420.intValue(), format);
+            }
+
+            @Override
+            public void consumeByteArrayFrame(byte[] data, int format, int width, int height, int rotation,
+                                              long timestamp) {
+                fail("Frames are direct buffers");
+            }
+
+            @Override
+            public void consumeTextureFrame(int textureId, int format, int width, int height, int rotation,
+                                            long timestamp, float[] matrix) {
+                fail("Frames are direct buffers");
+            }
+        };
+        mPipeline.addStage(new LowLightStage(), 1000000);
+        assertTrue(mPipeline.hasEnabledStages());
+        ProcessedVideoSource source = new ProcessedVideoSource(mPipeline, mPool);
+        assertEquals(MediaIO.BufferType.BYTE_BUFFER.intValue(), source.getBufferType());
+
+        I420Frame frame = mPool.acquire(WIDTH, HEIGHT);
+        fill(frame, 20, 128);
+        source.onFrame(frame);
+        assertEquals(1, source.getDroppedCount());
+
+        source.onInitialize(consumer);
+        source.onStart();
+        for (int i = 0; i < 3; i++) {
+            frame = mPool.acquire(WIDTH, HEIGHT);
+            fill(frame, 20, 128);
+            source.onFrame(frame);
+        }
+        assertEquals(3, delivered[0]);
+        // Brightened on the way.
+        assertTrue(delivered[1] > 20);
+        assertEquals(1, mPool.getAllocatedCount());
+
+        mPipeline.getStage(0).setEnabled(false);
+        assertFalse(mPipeline.hasEnabledStages());
+    }
+
+    @Test
+    public void framesAreFilledFromPaddedSemiPlanarImages() {
+        // What a camera's YUV_420_888 image often is: padded rows, and U
+        // and V interleaved in one buffer.
+        int width = 18;
+        int height = 4;
+        int rowStride = 24;
+        ByteBuffer luma = ByteBuffer.allocateDirect(rowStride * height);
+        ByteBuffer chroma = ByteBuffer.allocateDirect(rowStride * height / 2);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                luma.put(y * rowStride + x, (byte) (y * width + x));
+            }
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                chroma.put(y * rowStride + 2 * x, (byte) (100 + y * 10 + x));
+                chroma.put(y * rowStride + 2 * x + 1, (byte) (200 + y * 10 + x));
+            }
+        }
+        chroma.position(1);
+        ByteBuffer v = chroma.slice();
+        chroma.position(0);
+
+        I420Frame frame = mPool.acquire(width, height);
+        frame.copyPlaneFrom(0, luma, rowStride, 1);
+        frame.copyPlaneFrom(1, chroma, rowStride, 2);
+        frame.copyPlaneFrom(2, v, rowStride, 2);
+
+        ByteBuffer buffer = frame.getBuffer();
+        for (int i = 0; i < width * height; i++) {
+            assertEquals(i, buffer.get(i) & 0xff);
+        }
+        assertEquals(100, buffer.get(frame.getUOffset()) & 0xff);
+        assertEquals(118, buffer.get(frame.getUOffset() + 9 + 8) & 0xff);
+        assertEquals(200, buffer.get(frame.getVOffset()) & 0xff);
+        assertEquals(218, buffer.get(frame.getVOffset() + 9 + 8) & 0xff);
+    }
+
+    private static void fill(I420Frame frame, int luma, int chroma) {
+        ByteBuffer buffer = frame.getBuffer();
+        for (int i = 0; i < frame.getSize(); i++) {
+            buffer.put(i, (byte) (i < frame.getUOffset() ? luma : chroma));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.zurivideosample.engine;
+
+import com.example.zurivideosample.telemetry.CallTimings;
+import com.example.zurivideosample.telemetry.StartupTimings;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+public class CallEngineHolderTest {
+
+    // Runs tasks only when told to, like a thread that has not got to them.
+    private static final class QueueExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+
+    private static final class RecordingCallback implements CallEngineHolder.Callback {
+        CallEngine engine;
+        Exception failure;
+
+        @Override
+        public void onEngineReady(CallEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public void onEngineFailed(Exception e) {
+            failure = e;
+        }
+    }
+
+    private final QueueExecutor mWorker = new QueueExecutor();
+    private final QueueExecutor mMainThread = new QueueExecutor();
+    private final StartupTimings mStartup = new StartupTimings(0);
+    private CallEngineHolder mHolder;
+    private int mCreated;
+    private boolean mFailNext;
+
+    @Before
+    public void setUp() {
+        mHolder = new CallEngineHolder(new CallEngineHolder.Factory() {
+            @Override
+            public CallEngine create(IRtcEngineEventHandler handler) throws Exception {
+                if (mFailNext) {
+                    mFailNext = false;
+                    throw new Exception("no native libraries");
+                }
+                mCreated++;
+                return new FakeCallEngine(handler);
+            }
+        }, new CallTimings(), mStartup, mWorker, mMainThread);
+    }
+
+    @Test
+    public void engineIsCreatedOffTheCallersThread() {
+        RecordingCallback callback = new RecordingCallback();
+        mHolder.prewarm();
+        mHolder.acquire(new IRtcEngineEventHandler() {
+        }, callback);
+        assertEquals(0, mCreated);
+        assertFalse(mHolder.isWarm());
+
+        mWorker.runAll();
+        // Created, but only handed over on the main thread.
+        assertEquals(1, mCreated);
+        assertNull(callback.engine);
+
+        mMainThread.runAll();
+        assertNotNull(callback.engine);
+        assertTrue(mHolder.isWarm());
+        assertTrue(mStartup.getEngineReadyMs() >= 0);
+        assertTrue(mWorker.tasks.isEmpty());
+    }
+
+    @Test
+    public void warmEngineIsHandedOverRightAway() {
+        mHolder.prewarm();
+        mWorker.runAll();
+        mMainThread.runAll();
+
+        RecordingCallback callback = new RecordingCallback();
+        mHolder.acquire(new IRtcEngineEventHandler() {
+        }, callback);
+        assertNotNull(callback.engine);
+        assertEquals(1, mCreated);
+    }
+
+    @Test
+    public void releasedScreenIsNotCalledBack() {
+        RecordingCallback callback = new RecordingCallback();
+        mHolder.acquire(new IRtcEngineEventHandler() {
+        }, callback);
+        mHolder.release();
+        mWorker.runAll();
+        mMainThread.runAll();
+
+        assertNull(callback.engine);
+        // The engine stays warm for the next screen.
+        assertTrue(mHolder.isWarm());
+        mHolder.destroyIfIdle();
+        assertFalse(mHolder.isWarm());
+    }
+
+    @Test
+    public void failureIsReportedAndRetried() {
+        mFailNext = true;
+        RecordingCallback callback = new RecordingCallback();
+        mHolder.acquire(new IRtcEngineEventHandler() {
+        }, callback);
+        mWorker.runAll();
+        mMainThread.runAll();
+        assertNotNull(callback.failure);
+        assertFalse(mHolder.isWarm());
+
+        RecordingCallback retry = new RecordingCallback();
+        mHolder.acquire(new IRtcEngineEventHandler() {
+        }, retry);
+        mWorker.runAll();
+        mMainThread.runAll();
+        assertNotNull(retry.engine);
+    }
+
+    @Test
+    public void everyFailedRetryIsReported() {
+        mFailNext = true;
+        mHolder.prewarm();
+        mWorker.runAll();
+        mMainThread.runAll();
+        assertFalse(mHolder.isWarm());
+
+        // The screen shows its error, and the user retries until it works.
+        mFailNext = true;
+        RecordingCallback first = new RecordingCallback();
+        mHolder.acquire(new IRtcEngineEventHandler() {
+        }, first);
+        mWorker.runAll();
+        mMainThread.runAll();
+        assertNotNull(first.failure);
+        assertNull(first.engine);
+
+        RecordingCallback second = new RecordingCallback();
+        mHolder.acquire(new IRtcEngineEventHandler() {
+        }, second);
+        mWorker.runAll();
+        mMainThread.runAll();
+        assertNull(second.failure);
+        assertNotNull(second.engine);
+        assertEquals(1, mCreated);
+        assertTrue(mHolder.isWarm());
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.zurivideosample.engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+public class CallEventDispatcherTest {
+    private final List<String> mDelivered = new ArrayList<>();
+    private CallEventDispatcher mDispatcher;
+    private int mDrainRequests;
+
+    @Before
+    public void setUp() {
+        mDispatcher = new CallEventDispatcher(new IRtcEngineEventHandler() {
+            @Override
+            public void onUserJoined(int uid, int elapsed) {
+                mDelivered.add("joined " + uid);
+            }
+
+            @Override
+            public void onUserOffline(int uid, int reason) {
+                mDelivered.add("offline " + uid);
+            }
+
+            @Override
+            public void onRemoteVideoStats(RemoteVideoStats stats) {
+                mDelivered.add("stats " + stats.uid + " " + stats.receivedBitrate);
+            }
+
+            @Override
+            public void onRtcStats(RtcStats stats) {
+                mDelivered.add("rtc " + stats.users);
+            }
+
+            @Override
+            public void onStreamMessageError(int uid, int streamId, int error, int missed, int cached) {
+                mDelivered.add("stream error " + uid + " " + streamId + " " + error + " " + missed + " " + cached);
+            }
+        }, 4);
+        mDispatcher.setScheduler(new CallEventDispatcher.Scheduler() {
+            @Override
+            public void requestDrain() {
+                mDrainRequests++;
+            }
+        });
+    }
+
+    @Test
+    public void onlyLatestStatsPerUidAreDelivered() {
+        mDispatcher.onRemoteVideoStats(remoteStats(1, 100));
+        mDispatcher.onRemoteVideoStats(remoteStats(2, 200));
+        mDispatcher.onRemoteVideoStats(remoteStats(1, 150));
+        mDispatcher.onRtcStats(rtcStats(3));
+        mDispatcher.onRtcStats(rtcStats(4));
+        mDispatcher.drain();
+
+        assertEquals(Arrays.asList("stats 1 150", "stats 2 200", "rtc 4"), mDelivered);
+        assertEquals(2, mDispatcher.getCoalescedCount());
+        assertEquals(1, mDrainRequests);
+    }
+
+    @Test
+    public void statsNeverJumpAheadOfStateChanges() {
+        mDispatcher.onRemoteVideoStats(remoteStats(1, 100));
+        mDispatcher.onUserOffline(1, 0);
+        mDispatcher.onUserJoined(1, 0);
+        mDispatcher.onRemoteVideoStats(remoteStats(1, 300));
+        mDispatcher.drain();
+
+        assertEquals(Arrays.asList("stats 1 100", "offline 1", "joined 1", "stats 1 300"), mDelivered);
+        assertEquals(0, mDispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void stateChangesAreNeverDroppedWhenFull() {
+        for (int uid = 1; uid <= 10; uid++) {
+            mDispatcher.onUserJoined(uid, 0);
+        }
+        assertEquals(10, mDispatcher.getQueueDepth());
+        mDispatcher.drain();
+
+        assertEquals(10, mDelivered.size());
+        assertEquals("joined 10", mDelivered.get(9));
+        assertTrue(mDispatcher.getGrowthCount() > 0);
+        assertEquals(0, mDispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void oneDrainRequestPerBatch() {
+        mDispatcher.onUserJoined(1, 0);
+        mDispatcher.onUserJoined(2, 0);
+        mDispatcher.drain();
+        mDispatcher.onUserJoined(3, 0);
+        mDispatcher.drain();
+
+        assertEquals(2, mDrainRequests);
+        assertEquals(2, mDispatcher.getBatchCount());
+    }
+
+    @Test
+    public void everyArgumentOfAStreamErrorArrives() {
+        mDispatcher.onStreamMessageError(7, 2, 9, 3, 5);
+        mDispatcher.drain();
+
+        assertEquals(Arrays.asList("stream error 7 2 9 3 5"), mDelivered);
+    }
+
+    @Test
+    public void shutdownDropsPendingEvents() {
+        mDispatcher.onUserJoined(1, 0);
+        mDispatcher.shutdown();
+        mDispatcher.onUserJoined(2, 0);
+        mDispatcher.drain();
+
+        assertTrue(mDelivered.isEmpty());
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        Thread sdkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    mDispatcher.onRemoteVideoStats(remoteStats(i % 8, i));
+                    if (i % 100 == 0) {
+                        mDispatcher.onUserJoined(i, 0);
+                    }
+                }
+            }
+        });
+        sdkThread.start();
+        while (sdkThread.isAlive()) {
+            mDispatcher.drain();
+        }
+        sdkThread.join();
+        mDispatcher.drain();
+
+        assertEquals(mDispatcher.getRecordedCount(),
+                mDispatcher.getDeliveredCount() + mDispatcher.getCoalescedCount());
+        int joins = 0;
+        for (String event : mDelivered) {
+            if (event.startsWith("joined")) {
+                joins++;
+            }
+        }
+        assertEquals(200, joins);
+    }
+
+    private static IRtcEngineEventHandler.RemoteVideoStats remoteStats(int uid, int bitrate) {
+        IRtcEngineEventHandler.RemoteVideoStats stats = new IRtcEngineEventHandler.RemoteVideoStats();
+        stats.uid = uid;
+        stats.receivedBitrate = bitrate;
+        return stats;
+    }
+
+    private static IRtcEngineEventHandler.RtcStats rtcStats(int users) {
+        IRtcEngineEventHandler.RtcStats stats = new IRtcEngineEventHandler.RtcStats();
+        stats.users = users;
+        return stats;
+    }
+}
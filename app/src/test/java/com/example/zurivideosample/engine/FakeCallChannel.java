@@ -0,0 +1,216 @@
+package com.example.zurivideosample.engine;
+
+import com.example.zurivideosample.util.UidMap;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.video.VideoCanvas;
+
+/**
+ * In-process {@link CallChannel} created by {@link FakeCallEngine}. Its
+ * events run on the engine's virtual clock and go straight to the handler.
+ */
+public class FakeCallChannel implements CallChannel {
+    private static final int USER_OFFLINE_QUIT = 0;
+
+    private final FakeCallEngine mEngine;
+    private final String mChannelId;
+    private final IRtcEngineEventHandler mHandler;
+
+    private boolean mJoining;
+    private boolean mJoined;
+    private boolean mDestroyed;
+    private boolean mAutoSubscribeVideo;
+    private int mJoinCount;
+    private String mToken;
+    private final UidMap<Boolean> mRoom = new UidMap<>(16);
+    private final UidMap<VideoCanvas> mRemoteCanvases = new UidMap<>(16);
+    private final UidMap<Integer> mStreamTypes = new UidMap<>(16);
+    private final UidMap<Boolean> mRemoteVideoMuted = new UidMap<>(16);
+
+    FakeCallChannel(FakeCallEngine engine, String channelId, IRtcEngineEventHandler handler) {
+        mEngine = engine;
+        mChannelId = channelId;
+        mHandler = handler;
+    }
+
+    // ---- Script ----
+
+    public FakeCallChannel userJoins(final int uid, long atMs) {
+        mEngine.getTimer().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mRoom.put(uid, Boolean.TRUE);
+                if (mJoined) {
+                    mHandler.onUserJoined(uid, 0);
+                }
+            }
+        }, atMs - mEngine.now());
+        return this;
+    }
+
+    public FakeCallChannel userLeaves(final int uid, long atMs) {
+        mEngine.getTimer().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (mRoom.remove(uid) != null && mJoined) {
+                    mHandler.onUserOffline(uid, USER_OFFLINE_QUIT);
+                }
+            }
+        }, atMs - mEngine.now());
+        return this;
+    }
+
+    /**
+     * The user turns their camera off or on again.
+     */
+    public FakeCallChannel remoteVideoMuted(final int uid, long atMs, final boolean muted) {
+        mEngine.getTimer().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (mRoom.containsKey(uid) && mJoined) {
+                    mHandler.onRemoteVideoStateChanged(uid,
+                            muted ? Constants.REMOTE_VIDEO_STATE_STOPPED
+                                    : Constants.REMOTE_VIDEO_STATE_DECODING,
+                            muted ? Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_MUTED
+                                    : Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_UNMUTED,
+                            0);
+                }
+            }
+        }, atMs - mEngine.now());
+        return this;
+    }
+
+    // ---- Recorded state ----
+
+    public boolean isJoined() {
+        return mJoined;
+    }
+
+    public boolean isDestroyed() {
+        return mDestroyed;
+    }
+
+    public int getJoinCount() {
+        return mJoinCount;
+    }
+
+    public String getToken() {
+        return mToken;
+    }
+
+    public boolean isAutoSubscribeVideo() {
+        return mAutoSubscribeVideo;
+    }
+
+    public int getBoundRemoteCount() {
+        return mRemoteCanvases.size();
+    }
+
+    public VideoCanvas getRemoteCanvas(int uid) {
+        return mRemoteCanvases.get(uid);
+    }
+
+    public int getRemoteStreamType(int uid) {
+        Integer type = mStreamTypes.get(uid);
+        return type != null ? type : Constants.VIDEO_STREAM_HIGH;
+    }
+
+    /**
+     * Whether the uid's video is not received, explicitly or because video
+     * is not subscribed automatically.
+     */
+    public boolean isRemoteVideoMuted(int uid) {
+        Boolean muted = mRemoteVideoMuted.get(uid);
+        return muted != null ? muted : !mAutoSubscribeVideo;
+    }
+
+    void setupRemoteVideo(VideoCanvas canvas) {
+        if (canvas.view == null) {
+            mRemoteCanvases.remove(canvas.uid);
+        } else {
+            mRemoteCanvases.put(canvas.uid, canvas);
+        }
+    }
+
+    // ---- CallChannel ----
+
+    @Override
+    public String getChannelId() {
+        return mChannelId;
+    }
+
+    @Override
+    public int joinChannel(String token, String optionalInfo, int uid, boolean autoSubscribeVideo) {
+        checkAlive();
+        if (mJoining) {
+            // ERR_JOIN_CHANNEL_REJECTED
+            return -17;
+        }
+        mJoining = true;
+        mToken = token;
+        mAutoSubscribeVideo = autoSubscribeVideo;
+        mJoinCount++;
+        final int localUid = uid == 0 ? FakeCallEngine.LOCAL_UID : uid;
+        mEngine.getTimer().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (!mJoining || mDestroyed) {
+                    return;
+                }
+                mJoined = true;
+                mHandler.onJoinChannelSuccess(mChannelId, localUid, 0);
+                for (int i = 0; i < mRoom.size(); i++) {
+                    mHandler.onUserJoined(mRoom.keyAt(i), 0);
+                }
+            }
+        }, mEngine.getJoinLatency());
+        return 0;
+    }
+
+    @Override
+    public int leaveChannel() {
+        checkAlive();
+        mJoining = false;
+        mJoined = false;
+        mRemoteCanvases.clear();
+        mStreamTypes.clear();
+        mRemoteVideoMuted.clear();
+        return 0;
+    }
+
+    @Override
+    public int renewToken(String token) {
+        checkAlive();
+        mToken = token;
+        return 0;
+    }
+
+    @Override
+    public int setRemoteVideoStreamType(int uid, int streamType) {
+        checkAlive();
+        mStreamTypes.put(uid, streamType);
+        return 0;
+    }
+
+    @Override
+    public int muteRemoteVideoStream(int uid, boolean muted) {
+        checkAlive();
+        mRemoteVideoMuted.put(uid, muted);
+        return 0;
+    }
+
+    @Override
+    public void destroy() {
+        mDestroyed = true;
+        mJoining = false;
+        mJoined = false;
+        mEngine.onChannelDestroyed(this);
+    }
+
+    private void checkAlive() {
+        if (mDestroyed) {
+            throw new IllegalStateException("Channel " + mChannelId + " was destroyed");
+        }
+    }
+}
@@ -0,0 +1,1306 @@
+package com.example.zurivideosample.engine;
+
+import android.content.Context;
+import android.view.SurfaceView;
+
+import com.example.zurivideosample.call.ConnectionSupervisor;
+import com.example.zurivideosample.util.UidMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IAudioFrameObserver;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.internal.LastmileProbeConfig;
+import io.agora.rtc.mediaio.IVideoSink;
+import io.agora.rtc.mediaio.IVideoSource;
+import io.agora.rtc.video.VideoCanvas;
+import io.agora.rtc.video.VideoEncoderConfiguration;
+
+/**
+ * In-process {@link CallEngine} driven by a virtual clock.
+ *
+ * Events are scripted up front (users joining, leaving, speaking, periodic
+ * stats) and delivered to the handler synchronously, on the calling thread,
+ * as the clock is advanced with {@link #advanceBy(long)}. Remote events are
+ * only delivered while joined to a channel, just like the real SDK.
+ *
+ * The engine also records what the call logic asked of it, so tests can
+ * assert on renderer bindings, stream types and mute state.
+ *
+ * Connection trouble can be scripted too: the network going down and up
+ * again, connections failing and tokens expiring. Like the SDK, the fake
+ * reconnects by itself when the network comes back, unless the connection
+ * failed. {@link #getTimer()} runs delayed tasks on the same virtual clock.
+ */
+public class FakeCallEngine implements CallEngine {
+    public static final int LOCAL_UID = 1000;
+
+    private static final int EVENT_JOIN_SUCCESS = 1;
+    private static final int EVENT_LEAVE = 2;
+    private static final int EVENT_USER_JOINED = 3;
+    private static final int EVENT_USER_OFFLINE = 4;
+    private static final int EVENT_FIRST_DECODED = 5;
+    private static final int EVENT_VOLUME = 6;
+    private static final int EVENT_STATS = 7;
+    private static final int EVENT_RANDOM_VOLUME = 8;
+    private static final int EVENT_FIRST_LOCAL_FRAME = 9;
+    private static final int EVENT_TASK = 10;
+    private static final int EVENT_NETWORK_DOWN = 11;
+    private static final int EVENT_NETWORK_UP = 12;
+    private static final int EVENT_CONNECTION_LOST = 13;
+    private static final int EVENT_CONNECTION_FAILED = 14;
+    private static final int EVENT_RECONNECTED = 15;
+    private static final int EVENT_TOKEN_WILL_EXPIRE = 16;
+    private static final int EVENT_TOKEN_EXPIRED = 17;
+    private static final int EVENT_REMOTE_VIDEO_MUTED = 18;
+    private static final int EVENT_REMOTE_VIDEO_UNMUTED = 19;
+    private static final int EVENT_RANDOM_VIDEO_STATE = 20;
+    private static final int EVENT_LASTMILE_QUALITY = 21;
+    private static final int EVENT_LASTMILE_RESULT = 22;
+
+    // The SDK reports a lost connection after 10s, and warns 30s before
+    // the token expires.
+    private static final long CONNECTION_LOST_AFTER_MS = 10000;
+    private static final long TOKEN_WARNING_MS = 30000;
+    // The probe's rating comes after about 2s.
+    private static final long LASTMILE_QUALITY_AFTER_MS = 2000;
+
+    private static final int USER_OFFLINE_QUIT = 0;
+    private static final int MAX_REPORTED_SPEAKERS = 3;
+    // What the local user's report says while the microphone is on.
+    private static final int LOCAL_VOLUME = 100;
+
+    private static final class Event implements Comparable<Event> {
+        long timeMs;
+        long seq;
+        int type;
+        int uid;
+        long periodMs;
+        IRtcEngineEventHandler.AudioVolumeInfo[] speakers;
+        Runnable task;
+        int generation;
+
+        @Override
+        public int compareTo(Event other) {
+            if (timeMs != other.timeMs) {
+                return timeMs < other.timeMs ? -1 : 1;
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    private final IRtcEngineEventHandler mHandler;
+    private final Random mRandom;
+    private final PriorityQueue<Event> mQueue = new PriorityQueue<>();
+    private long mNowMs;
+    private long mSeq;
+
+    private long mJoinLatencyMs = 50;
+    private long mDecodeLatencyMs = 120;
+    // The link the last-mile probe measures, and when its result comes;
+    // -1 for never.
+    private int mLinkUplinkKbps = 1500;
+    private int mLinkDownlinkKbps = 3000;
+    private int mLinkLossPercent;
+    private int mLinkJitterMs = 10;
+    private long mProbeResultAfterMs = 5000;
+    private boolean mProbing;
+    private int mProbeGeneration;
+    private int mProbeCount;
+    private int mJoinsWhileProbing;
+
+    // What the call logic asked for.
+    private String mChannel;
+    // Connected to the channel; remote events are only delivered then.
+    private boolean mJoined;
+    private boolean mNetworkUp = true;
+    // The SDK is reconnecting after an interruption.
+    private boolean mInterrupted;
+    // The connection failed, the SDK stopped trying.
+    private boolean mFailed;
+    // Bumped by every join and leave, so events of an earlier connection
+    // are ignored.
+    private int mGeneration;
+    private int mJoinCount;
+    private int mLastJoinUid;
+    private String mToken;
+    private long mTokenLifetimeMs;
+    private int mTokenGeneration;
+    private int mTokenRenewals;
+    // Calls that fail synchronously, as with an invalid token.
+    private int mJoinsToReject;
+    private int mRenewalsToReject;
+    private int mRejectError;
+    private boolean mDestroyed;
+    private boolean mVideoEnabled;
+    private boolean mDualStream;
+    private boolean mLocalAudioMuted;
+    private boolean mLocalVideoMuted;
+    private boolean mAudioDisabled;
+    private boolean mAllRemoteVideoMuted;
+    private IVideoSource mVideoSource;
+    private IAudioFrameObserver mAudioObserver;
+    private int mMixedSampleRate;
+    private int mLocalPublishFallback = Constants.STREAM_FALLBACK_OPTION_DISABLED;
+    private int mRemoteSubscribeFallback = Constants.STREAM_FALLBACK_OPTION_VIDEO_STREAM_LOW;
+    private boolean mPreviewing;
+    private int mCameraSwitches;
+    private int mMirrorMode = Constants.VIDEO_MIRROR_MODE_AUTO;
+    private int mRendererViewsCreated;
+    private int mStreamTypeChanges;
+    private int mDefaultStreamType = Constants.VIDEO_STREAM_HIGH;
+    private VideoEncoderConfiguration mEncoderConfig;
+    private VideoCanvas mLocalCanvas;
+    private final UidMap<VideoCanvas> mRemoteCanvases = new UidMap<>(64);
+    private final UidMap<IVideoSink> mRemoteRenderers = new UidMap<>(64);
+    private IVideoSink mLocalRenderer;
+    // Data stream ids by reliable | ordered << 1, and what was sent on them.
+    private final int[] mDataStreams = new int[4];
+    private int mDataStreamCount;
+    private final ArrayList<byte[]> mStreamMessages = new ArrayList<>();
+    private final ArrayList<Integer> mStreamMessageIds = new ArrayList<>();
+    private final UidMap<Integer> mStreamTypes = new UidMap<>(64);
+    private final UidMap<Boolean> mRemoteVideoMuted = new UidMap<>(64);
+    private boolean mSoundPositions;
+    // Pan and gain by uid.
+    private final UidMap<double[]> mVoicePositions = new UidMap<>(64);
+    private int mVoicePositionCalls;
+
+    // Who is in the channel, from the engine's point of view.
+    private final UidMap<Boolean> mRemoteUsers = new UidMap<>(64);
+    // Who is in the channel, whether we are connected or not.
+    private final UidMap<Boolean> mRoom = new UidMap<>(64);
+    // Who has their camera off.
+    private final UidMap<Boolean> mCamerasOff = new UidMap<>(64);
+    private final HashMap<String, FakeCallChannel> mChannels = new HashMap<>();
+
+    private final ConnectionSupervisor.Timer mTimer = new ConnectionSupervisor.Timer() {
+        @Override
+        public long now() {
+            return mNowMs;
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            schedule(mNowMs + delayMs, EVENT_TASK, 0).task = task;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            Iterator<Event> events = mQueue.iterator();
+            while (events.hasNext()) {
+                if (events.next().task == task) {
+                    events.remove();
+                }
+            }
+        }
+    };
+
+    // Reused for every stats round so the fake itself adds little garbage.
+    private final IRtcEngineEventHandler.RtcStats mRtcStats = new IRtcEngineEventHandler.RtcStats();
+    private final IRtcEngineEventHandler.LocalVideoStats mLocalStats =
+            new IRtcEngineEventHandler.LocalVideoStats();
+    private final IRtcEngineEventHandler.RemoteVideoStats mRemoteStats =
+            new IRtcEngineEventHandler.RemoteVideoStats();
+
+    public FakeCallEngine(IRtcEngineEventHandler handler) {
+        this(handler, 0);
+    }
+
+    public FakeCallEngine(IRtcEngineEventHandler handler, long seed) {
+        mHandler = handler;
+        mRandom = new Random(seed);
+    }
+
+    // ---- Script ----
+
+    public FakeCallEngine setJoinLatency(long ms) {
+        mJoinLatencyMs = ms;
+        return this;
+    }
+
+    public FakeCallEngine setDecodeLatency(long ms) {
+        mDecodeLatencyMs = ms;
+        return this;
+    }
+
+    /**
+     * What the last-mile probe reports; the quality rating follows from the
+     * uplink.
+     */
+    public FakeCallEngine setLink(int uplinkKbps, int downlinkKbps, int lossPercent, int jitterMs) {
+        mLinkUplinkKbps = uplinkKbps;
+        mLinkDownlinkKbps = downlinkKbps;
+        mLinkLossPercent = lossPercent;
+        mLinkJitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * How long after starting the probe its full result arrives, -1 for
+     * never.
+     */
+    public FakeCallEngine setProbeResultDelay(long ms) {
+        mProbeResultAfterMs = ms;
+        return this;
+    }
+
+    /**
+     * Tokens expire this long after a join or renewal; 0, the default,
+     * means never.
+     */
+    public FakeCallEngine setTokenLifetime(long ms) {
+        mTokenLifetimeMs = ms;
+        return this;
+    }
+
+    /**
+     * The next {@code joins} joinChannel and {@code renewals} renewToken
+     * calls fail straight away with {@code error}, reporting nothing.
+     */
+    public FakeCallEngine rejectCalls(int joins, int renewals, int error) {
+        mJoinsToReject = joins;
+        mRenewalsToReject = renewals;
+        mRejectError = error;
+        return this;
+    }
+
+    /**
+     * The network drops at {@code atMs}. A connected call starts
+     * reconnecting and reports the connection lost 10s later.
+     */
+    public FakeCallEngine networkDown(long atMs) {
+        schedule(atMs, EVENT_NETWORK_DOWN, 0);
+        return this;
+    }
+
+    /**
+     * The network is back at {@code atMs}. An interrupted call reconnects
+     * after the join latency, a pending join completes.
+     */
+    public FakeCallEngine networkUp(long atMs) {
+        schedule(atMs, EVENT_NETWORK_UP, 0);
+        return this;
+    }
+
+    /**
+     * The connection fails for the given CONNECTION_CHANGED_* reason and
+     * the engine stops trying until the channel is left and joined again.
+     */
+    public FakeCallEngine connectionFails(long atMs, int reason) {
+        schedule(atMs, EVENT_CONNECTION_FAILED, reason);
+        return this;
+    }
+
+    /**
+     * The user joins at {@code atMs}, and its first frame is decoded after
+     * the configured decode latency.
+     */
+    public FakeCallEngine userJoins(int uid, long atMs) {
+        schedule(atMs, EVENT_USER_JOINED, uid);
+        schedule(atMs + mDecodeLatencyMs, EVENT_FIRST_DECODED, uid);
+        return this;
+    }
+
+    public FakeCallEngine userLeaves(int uid, long atMs) {
+        schedule(atMs, EVENT_USER_OFFLINE, uid);
+        return this;
+    }
+
+    /**
+     * Reports the given uid/volume pairs in one onAudioVolumeIndication.
+     * uid 0 alone is the local user's report, which the SDK sends
+     * separately from the remote one every interval.
+     */
+    public FakeCallEngine speakers(long atMs, int... uidVolumePairs) {
+        IRtcEngineEventHandler.AudioVolumeInfo[] speakers =
+                new IRtcEngineEventHandler.AudioVolumeInfo[uidVolumePairs.length / 2];
+        for (int i = 0; i < speakers.length; i++) {
+            speakers[i] = new IRtcEngineEventHandler.AudioVolumeInfo();
+            speakers[i].uid = uidVolumePairs[2 * i];
+            speakers[i].volume = uidVolumePairs[2 * i + 1];
+        }
+        Event event = schedule(atMs, EVENT_VOLUME, 0);
+        event.speakers = speakers;
+        return this;
+    }
+
+    /**
+     * The user turns their camera off or on again.
+     */
+    public FakeCallEngine remoteVideoMuted(int uid, long atMs, boolean muted) {
+        schedule(atMs, muted ? EVENT_REMOTE_VIDEO_MUTED : EVENT_REMOTE_VIDEO_UNMUTED, uid);
+        return this;
+    }
+
+    /**
+     * A random user among those present turns their camera off or on, every
+     * {@code periodMs} starting at {@code atMs}.
+     */
+    public FakeCallEngine randomVideoStateEvery(long atMs, long periodMs) {
+        schedule(atMs, EVENT_RANDOM_VIDEO_STATE, 0).periodMs = periodMs;
+        return this;
+    }
+
+    /**
+     * Reports up to three random speakers among the users present, then the
+     * local user alone as the SDK does, every {@code periodMs} starting at
+     * {@code atMs}.
+     */
+    public FakeCallEngine randomSpeakersEvery(long atMs, long periodMs) {
+        schedule(atMs, EVENT_RANDOM_VOLUME, 0).periodMs = periodMs;
+        return this;
+    }
+
+    /**
+     * Delivers onRtcStats, onLocalVideoStats, onNetworkQuality and one
+     * onRemoteVideoStats per remote user every {@code periodMs}.
+     */
+    public FakeCallEngine statsEvery(long atMs, long periodMs) {
+        schedule(atMs, EVENT_STATS, 0).periodMs = periodMs;
+        return this;
+    }
+
+    /**
+     * Scripts users from {@code firstUid} up to {@code firstUid + users - 1}
+     * joining at {@code joinsPerSecond} on average between {@code startMs}
+     * and {@code startMs + durationMs}, each staying {@code meanStayMs} on
+     * average. A uid only rejoins after it has left.
+     */
+    public FakeCallEngine churn(int firstUid, int users, long startMs, long durationMs,
+                                double joinsPerSecond, long meanStayMs) {
+        long[] leavesAt = new long[users];
+        long endMs = startMs + durationMs;
+        double t = startMs;
+        while (true) {
+            t += exponential(1000.0 / joinsPerSecond);
+            long joinMs = (long) t;
+            if (joinMs >= endMs) {
+                return this;
+            }
+            int offset = mRandom.nextInt(users);
+            for (int i = 0; i < users && leavesAt[offset] > joinMs; i++) {
+                offset = (offset + 1) % users;
+            }
+            if (leavesAt[offset] > joinMs) {
+                continue;
+            }
+            long leaveMs = Math.min(endMs, joinMs + 1 + (long) exponential(meanStayMs));
+            leavesAt[offset] = leaveMs + 1;
+            userJoins(firstUid + offset, joinMs);
+            userLeaves(firstUid + offset, leaveMs);
+        }
+    }
+
+    // ---- Clock ----
+
+    public long now() {
+        return mNowMs;
+    }
+
+    /**
+     * Moves the clock forward, delivering every event due on the way.
+     */
+    public void advanceBy(long ms) {
+        advanceTo(mNowMs + ms);
+    }
+
+    public void advanceTo(long timeMs) {
+        while (!mQueue.isEmpty() && mQueue.peek().timeMs <= timeMs) {
+            Event event = mQueue.poll();
+            mNowMs = event.timeMs;
+            dispatch(event);
+        }
+        mNowMs = timeMs;
+    }
+
+    public int pendingEvents() {
+        return mQueue.size();
+    }
+
+    // ---- Recorded state ----
+
+    public boolean isJoined() {
+        return mJoined;
+    }
+
+    public boolean isRemoteUser(int uid) {
+        return mRemoteUsers.containsKey(uid);
+    }
+
+    public boolean isRemoteCameraOff(int uid) {
+        return mCamerasOff.containsKey(uid);
+    }
+
+    public String getChannel() {
+        return mChannel;
+    }
+
+    public boolean isDestroyed() {
+        return mDestroyed;
+    }
+
+    public boolean isVideoEnabled() {
+        return mVideoEnabled;
+    }
+
+    public boolean isDualStreamEnabled() {
+        return mDualStream;
+    }
+
+    public boolean isPreviewing() {
+        return mPreviewing;
+    }
+
+    public boolean isLocalAudioMuted() {
+        return mLocalAudioMuted;
+    }
+
+    public boolean isLocalVideoMuted() {
+        return mLocalVideoMuted;
+    }
+
+    public boolean isAudioDisabled() {
+        return mAudioDisabled;
+    }
+
+    public boolean isAllRemoteVideoMuted() {
+        return mAllRemoteVideoMuted;
+    }
+
+    public IVideoSource getVideoSource() {
+        return mVideoSource;
+    }
+
+    public IAudioFrameObserver getAudioFrameObserver() {
+        return mAudioObserver;
+    }
+
+    public int getMixedSampleRate() {
+        return mMixedSampleRate;
+    }
+
+    public int getLocalPublishFallbackOption() {
+        return mLocalPublishFallback;
+    }
+
+    public int getRemoteSubscribeFallbackOption() {
+        return mRemoteSubscribeFallback;
+    }
+
+    public int getCameraSwitches() {
+        return mCameraSwitches;
+    }
+
+    public int getMirrorMode() {
+        return mMirrorMode;
+    }
+
+    public int getRendererViewsCreated() {
+        return mRendererViewsCreated;
+    }
+
+    /**
+     * Number of setRemoteVideoStreamType calls that changed a uid's type.
+     */
+    public int getStreamTypeChanges() {
+        return mStreamTypeChanges;
+    }
+
+    public VideoEncoderConfiguration getEncoderConfig() {
+        return mEncoderConfig;
+    }
+
+    public VideoCanvas getLocalCanvas() {
+        return mLocalCanvas;
+    }
+
+    public IVideoSink getLocalRenderer() {
+        return mLocalRenderer;
+    }
+
+    public int getRemoteRendererCount() {
+        return mRemoteRenderers.size();
+    }
+
+    public IVideoSink getRemoteRenderer(int uid) {
+        return mRemoteRenderers.get(uid);
+    }
+
+    public int getDataStreamCount() {
+        return mDataStreamCount;
+    }
+
+    public int getStreamMessageCount() {
+        return mStreamMessages.size();
+    }
+
+    public byte[] getStreamMessage(int index) {
+        return mStreamMessages.get(index);
+    }
+
+    public int getStreamMessageStreamId(int index) {
+        return mStreamMessageIds.get(index);
+    }
+
+    public boolean isProbing() {
+        return mProbing;
+    }
+
+    public int getProbeCount() {
+        return mProbeCount;
+    }
+
+    /**
+     * Joins made while the last-mile probe was still running, which the SDK
+     * does not allow.
+     */
+    public int getJoinsWhileProbing() {
+        return mJoinsWhileProbing;
+    }
+
+    public boolean isSoundPositionEnabled() {
+        return mSoundPositions;
+    }
+
+    /**
+     * The last pan and gain set for the uid, or null.
+     */
+    public double[] getVoicePosition(int uid) {
+        return mVoicePositions.get(uid);
+    }
+
+    public int getVoicePositionCalls() {
+        return mVoicePositionCalls;
+    }
+
+    public int getBoundRemoteCount() {
+        return mRemoteCanvases.size();
+    }
+
+    public VideoCanvas getRemoteCanvas(int uid) {
+        return mRemoteCanvases.get(uid);
+    }
+
+    public int getRemoteStreamType(int uid) {
+        Integer type = mStreamTypes.get(uid);
+        return type != null ? type : mDefaultStreamType;
+    }
+
+    public boolean isRemoteVideoMuted(int uid) {
+        Boolean muted = mRemoteVideoMuted.get(uid);
+        return muted != null && muted;
+    }
+
+    public ConnectionSupervisor.Timer getTimer() {
+        return mTimer;
+    }
+
+    public boolean isNetworkUp() {
+        return mNetworkUp;
+    }
+
+    public int getJoinCount() {
+        return mJoinCount;
+    }
+
+    /**
+     * The uid asked for by the latest join, LOCAL_UID for 0.
+     */
+    public int getLastJoinUid() {
+        return mLastJoinUid;
+    }
+
+    public String getToken() {
+        return mToken;
+    }
+
+    public int getTokenRenewals() {
+        return mTokenRenewals;
+    }
+
+    public int getRemoteUserCount() {
+        return mRemoteUsers.size();
+    }
+
+    public long getJoinLatency() {
+        return mJoinLatencyMs;
+    }
+
+    /**
+     * The live channel created for the id, or null.
+     */
+    public FakeCallChannel getCreatedChannel(String channelId) {
+        return mChannels.get(channelId);
+    }
+
+    public int getChannelCount() {
+        return mChannels.size();
+    }
+
+    void onChannelDestroyed(FakeCallChannel channel) {
+        mChannels.remove(channel.getChannelId());
+    }
+
+    // ---- CallEngine ----
+
+    @Override
+    public SurfaceView createRendererView(Context context) {
+        checkAlive();
+        mRendererViewsCreated++;
+        return new SurfaceView(context);
+    }
+
+    @Override
+    public int enableVideo() {
+        checkAlive();
+        mVideoEnabled = true;
+        return 0;
+    }
+
+    @Override
+    public int setVideoEncoderConfiguration(VideoEncoderConfiguration config) {
+        checkAlive();
+        mEncoderConfig = config;
+        return 0;
+    }
+
+    @Override
+    public int enableDualStreamMode(boolean enabled) {
+        checkAlive();
+        mDualStream = enabled;
+        return 0;
+    }
+
+    @Override
+    public int setRemoteDefaultVideoStreamType(int streamType) {
+        checkAlive();
+        mDefaultStreamType = streamType;
+        return 0;
+    }
+
+    @Override
+    public int disableAudio() {
+        checkAlive();
+        mAudioDisabled = true;
+        return 0;
+    }
+
+    @Override
+    public int setVideoSource(IVideoSource source) {
+        checkAlive();
+        mVideoSource = source;
+        return 0;
+    }
+
+    @Override
+    public int registerAudioFrameObserver(IAudioFrameObserver observer) {
+        checkAlive();
+        mAudioObserver = observer;
+        return 0;
+    }
+
+    @Override
+    public int setMixedAudioFrameParameters(int sampleRate, int samplesPerCall) {
+        checkAlive();
+        mMixedSampleRate = sampleRate;
+        return 0;
+    }
+
+    @Override
+    public int enableAudioVolumeIndication(int intervalMs, int smooth, boolean reportVad) {
+        checkAlive();
+        return 0;
+    }
+
+    @Override
+    public int enableSoundPositionIndication(boolean enabled) {
+        checkAlive();
+        mSoundPositions = enabled;
+        return 0;
+    }
+
+    @Override
+    public int setRemoteVoicePosition(int uid, double pan, double gain) {
+        checkAlive();
+        if (pan < -1 || pan > 1 || gain < 0 || gain > 100) {
+            // ERR_INVALID_ARGUMENT
+            return -2;
+        }
+        mVoicePositionCalls++;
+        mVoicePositions.put(uid, new double[]{pan, gain});
+        return 0;
+    }
+
+    @Override
+    public int setupLocalVideo(VideoCanvas canvas) {
+        checkAlive();
+        mLocalCanvas = canvas;
+        return 0;
+    }
+
+    @Override
+    public int startPreview() {
+        checkAlive();
+        if (!mPreviewing) {
+            mPreviewing = true;
+            schedule(mNowMs + mDecodeLatencyMs, EVENT_FIRST_LOCAL_FRAME, 0);
+        }
+        return 0;
+    }
+
+    @Override
+    public int stopPreview() {
+        checkAlive();
+        mPreviewing = false;
+        return 0;
+    }
+
+    @Override
+    public int setupRemoteVideo(VideoCanvas canvas) {
+        checkAlive();
+        if (canvas.channelId != null) {
+            FakeCallChannel channel = mChannels.get(canvas.channelId);
+            if (channel == null) {
+                // ERR_INVALID_ARGUMENT
+                return -2;
+            }
+            channel.setupRemoteVideo(canvas);
+            return 0;
+        }
+        if (canvas.view == null) {
+            mRemoteCanvases.remove(canvas.uid);
+        } else {
+            mRemoteCanvases.put(canvas.uid, canvas);
+        }
+        return 0;
+    }
+
+    @Override
+    public int setLocalVideoRenderer(IVideoSink sink) {
+        checkAlive();
+        mLocalRenderer = sink;
+        return 0;
+    }
+
+    @Override
+    public int setRemoteVideoRenderer(int uid, IVideoSink sink) {
+        checkAlive();
+        if (sink == null) {
+            mRemoteRenderers.remove(uid);
+        } else {
+            mRemoteRenderers.put(uid, sink);
+        }
+        return 0;
+    }
+
+    @Override
+    public int startLastmileProbeTest(LastmileProbeConfig config) {
+        checkAlive();
+        if (mChannel != null) {
+            // ERR_REFUSED
+            return -5;
+        }
+        mProbing = true;
+        mProbeCount++;
+        mProbeGeneration++;
+        schedule(mNowMs + LASTMILE_QUALITY_AFTER_MS, EVENT_LASTMILE_QUALITY, 0).generation = mProbeGeneration;
+        if (mProbeResultAfterMs >= 0) {
+            schedule(mNowMs + mProbeResultAfterMs, EVENT_LASTMILE_RESULT, 0).generation = mProbeGeneration;
+        }
+        return 0;
+    }
+
+    @Override
+    public int stopLastmileProbeTest() {
+        checkAlive();
+        mProbing = false;
+        return 0;
+    }
+
+    @Override
+    public int joinChannel(String token, String channelName, String optionalInfo, int uid) {
+        checkAlive();
+        if (mChannel != null) {
+            // ERR_JOIN_CHANNEL_REJECTED
+            return -17;
+        }
+        if (mJoinsToReject > 0) {
+            mJoinsToReject--;
+            return mRejectError;
+        }
+        if (mProbing) {
+            mJoinsWhileProbing++;
+        }
+        mChannel = channelName;
+        mToken = token;
+        mJoinCount++;
+        mLastJoinUid = uid == 0 ? LOCAL_UID : uid;
+        mGeneration++;
+        if (mNetworkUp) {
+            schedule(mNowMs + mJoinLatencyMs, EVENT_JOIN_SUCCESS, mLastJoinUid).generation = mGeneration;
+        }
+        return 0;
+    }
+
+    @Override
+    public int leaveChannel() {
+        checkAlive();
+        mChannel = null;
+        mJoined = false;
+        mInterrupted = false;
+        mFailed = false;
+        mGeneration++;
+        mTokenGeneration++;
+        mRemoteUsers.clear();
+        // Remote render bindings do not survive leaving the channel.
+        mRemoteCanvases.clear();
+        mRemoteRenderers.clear();
+        mStreamTypes.clear();
+        mRemoteVideoMuted.clear();
+        mVoicePositions.clear();
+        schedule(mNowMs, EVENT_LEAVE, 0);
+        return 0;
+    }
+
+    @Override
+    public int renewToken(String token) {
+        checkAlive();
+        if (mRenewalsToReject > 0) {
+            mRenewalsToReject--;
+            return mRejectError;
+        }
+        mToken = token;
+        mTokenRenewals++;
+        if (mJoined) {
+            startTokenClock();
+        }
+        return 0;
+    }
+
+    @Override
+    public int muteLocalAudioStream(boolean muted) {
+        checkAlive();
+        mLocalAudioMuted = muted;
+        return 0;
+    }
+
+    @Override
+    public int muteLocalVideoStream(boolean muted) {
+        checkAlive();
+        mLocalVideoMuted = muted;
+        return 0;
+    }
+
+    @Override
+    public int muteAllRemoteVideoStreams(boolean muted) {
+        checkAlive();
+        mAllRemoteVideoMuted = muted;
+        return 0;
+    }
+
+    @Override
+    public int setLocalPublishFallbackOption(int option) {
+        checkAlive();
+        mLocalPublishFallback = option;
+        return 0;
+    }
+
+    @Override
+    public int setRemoteSubscribeFallbackOption(int option) {
+        checkAlive();
+        mRemoteSubscribeFallback = option;
+        return 0;
+    }
+
+    @Override
+    public int createDataStream(boolean reliable, boolean ordered) {
+        checkAlive();
+        int kind = (reliable ? 1 : 0) | (ordered ? 2 : 0);
+        if (mDataStreams[kind] == 0) {
+            mDataStreams[kind] = ++mDataStreamCount;
+        }
+        return mDataStreams[kind];
+    }
+
+    @Override
+    public int sendStreamMessage(int streamId, byte[] message) {
+        checkAlive();
+        if (mChannel == null) {
+            // ERR_NOT_READY
+            return -3;
+        }
+        if (streamId <= 0 || streamId > mDataStreamCount || message.length > 1024) {
+            // ERR_INVALID_ARGUMENT
+            return -2;
+        }
+        mStreamMessages.add(message);
+        mStreamMessageIds.add(streamId);
+        return 0;
+    }
+
+    @Override
+    public int switchCamera() {
+        checkAlive();
+        mCameraSwitches++;
+        return 0;
+    }
+
+    @Override
+    public int setLocalVideoMirrorMode(int mode) {
+        checkAlive();
+        mMirrorMode = mode;
+        return 0;
+    }
+
+    @Override
+    public int setRemoteVideoStreamType(int uid, int streamType) {
+        checkAlive();
+        if (getRemoteStreamType(uid) != streamType) {
+            mStreamTypeChanges++;
+        }
+        mStreamTypes.put(uid, streamType);
+        return 0;
+    }
+
+    @Override
+    public int muteRemoteVideoStream(int uid, boolean muted) {
+        checkAlive();
+        mRemoteVideoMuted.put(uid, muted);
+        return 0;
+    }
+
+    @Override
+    public CallChannel createChannel(String channelId, IRtcEngineEventHandler handler) {
+        checkAlive();
+        // The SDK takes names of up to 64 bytes.
+        if (channelId == null || channelId.isEmpty() || channelId.length() > 64
+                || channelId.equals(mChannel) || mChannels.containsKey(channelId)) {
+            return null;
+        }
+        FakeCallChannel channel = new FakeCallChannel(this, channelId, handler);
+        mChannels.put(channelId, channel);
+        return channel;
+    }
+
+    @Override
+    public void destroy() {
+        mDestroyed = true;
+        mQueue.clear();
+    }
+
+    // ---- Internals ----
+
+    private Event schedule(long atMs, int type, int uid) {
+        Event event = new Event();
+        event.timeMs = Math.max(atMs, mNowMs);
+        event.seq = mSeq++;
+        event.type = type;
+        event.uid = uid;
+        mQueue.add(event);
+        return event;
+    }
+
+    private void dispatch(Event event) {
+        switch (event.type) {
+            case EVENT_JOIN_SUCCESS:
+                if (event.generation == mGeneration && mChannel != null && mNetworkUp && !mFailed) {
+                    mJoined = true;
+                    mHandler.onConnectionStateChanged(Constants.CONNECTION_STATE_CONNECTED,
+                            Constants.CONNECTION_CHANGED_JOIN_SUCCESS);
+                    mHandler.onJoinChannelSuccess(mChannel, event.uid, (int) mJoinLatencyMs);
+                    startTokenClock();
+                    announceRoom();
+                }
+                break;
+            case EVENT_TASK:
+                event.task.run();
+                break;
+            case EVENT_NETWORK_DOWN:
+                mNetworkUp = false;
+                if (mJoined) {
+                    mJoined = false;
+                    mInterrupted = true;
+                    mHandler.onConnectionStateChanged(Constants.CONNECTION_STATE_RECONNECTING,
+                            Constants.CONNECTION_CHANGED_INTERRUPTED);
+                    schedule(mNowMs + CONNECTION_LOST_AFTER_MS, EVENT_CONNECTION_LOST, 0)
+                            .generation = mGeneration;
+                }
+                break;
+            case EVENT_CONNECTION_LOST:
+                if (event.generation == mGeneration && mInterrupted) {
+                    mHandler.onConnectionLost();
+                }
+                break;
+            case EVENT_NETWORK_UP:
+                mNetworkUp = true;
+                if (mChannel != null && !mJoined && !mFailed) {
+                    schedule(mNowMs + mJoinLatencyMs, mInterrupted ? EVENT_RECONNECTED : EVENT_JOIN_SUCCESS,
+                            mLastJoinUid).generation = mGeneration;
+                }
+                break;
+            case EVENT_RECONNECTED:
+                if (event.generation == mGeneration && mInterrupted && mNetworkUp && !mFailed) {
+                    mInterrupted = false;
+                    mJoined = true;
+                    mHandler.onConnectionStateChanged(Constants.CONNECTION_STATE_CONNECTED,
+                            Constants.CONNECTION_CHANGED_JOIN_SUCCESS);
+                    mHandler.onRejoinChannelSuccess(mChannel, event.uid, (int) mJoinLatencyMs);
+                    // Users who left during the outage are reported as dropped.
+                    for (int i = mRemoteUsers.size() - 1; i >= 0; i--) {
+                        int uid = mRemoteUsers.keyAt(i);
+                        if (!mRoom.containsKey(uid)) {
+                            mRemoteUsers.removeAt(i);
+                            mHandler.onUserOffline(uid, Constants.USER_OFFLINE_DROPPED);
+                        }
+                    }
+                    announceRoom();
+                }
+                break;
+            case EVENT_CONNECTION_FAILED:
+                if (mChannel != null && !mFailed) {
+                    failConnection(event.uid);
+                }
+                break;
+            case EVENT_TOKEN_WILL_EXPIRE:
+                if (event.generation == mTokenGeneration && mJoined) {
+                    mHandler.onTokenPrivilegeWillExpire(mToken);
+                }
+                break;
+            case EVENT_TOKEN_EXPIRED:
+                if (event.generation == mTokenGeneration && mChannel != null && !mFailed) {
+                    mHandler.onRequestToken();
+                    failConnection(Constants.CONNECTION_CHANGED_TOKEN_EXPIRED);
+                }
+                break;
+            case EVENT_FIRST_LOCAL_FRAME:
+                if (mPreviewing) {
+                    mHandler.onFirstLocalVideoFrame(640, 360, (int) mDecodeLatencyMs);
+                }
+                break;
+            case EVENT_LEAVE:
+                mHandler.onLeaveChannel(mRtcStats);
+                break;
+            case EVENT_USER_JOINED:
+                mRoom.put(event.uid, Boolean.TRUE);
+                if (mJoined && !mRemoteUsers.containsKey(event.uid)) {
+                    mRemoteUsers.put(event.uid, Boolean.TRUE);
+                    mHandler.onUserJoined(event.uid, 0);
+                    reportCameraOff(event.uid);
+                }
+                break;
+            case EVENT_FIRST_DECODED:
+                if (mJoined && mRemoteUsers.containsKey(event.uid)) {
+                    mHandler.onFirstRemoteVideoDecoded(event.uid, 640, 360, (int) mDecodeLatencyMs);
+                }
+                break;
+            case EVENT_REMOTE_VIDEO_MUTED:
+            case EVENT_REMOTE_VIDEO_UNMUTED:
+                setCameraOff(event.uid, event.type == EVENT_REMOTE_VIDEO_MUTED);
+                break;
+            case EVENT_RANDOM_VIDEO_STATE:
+                if (mJoined && mRemoteUsers.size() > 0) {
+                    int uid = mRemoteUsers.keyAt(mRandom.nextInt(mRemoteUsers.size()));
+                    setCameraOff(uid, !mCamerasOff.containsKey(uid));
+                }
+                reschedule(event);
+                break;
+            case EVENT_USER_OFFLINE:
+                mRoom.remove(event.uid);
+                mCamerasOff.remove(event.uid);
+                if (mJoined && mRemoteUsers.remove(event.uid) != null) {
+                    mHandler.onUserOffline(event.uid, USER_OFFLINE_QUIT);
+                }
+                break;
+            case EVENT_VOLUME:
+                if (mJoined) {
+                    mHandler.onAudioVolumeIndication(event.speakers, maxVolume(event.speakers));
+                }
+                break;
+            case EVENT_RANDOM_VOLUME:
+                if (mJoined) {
+                    IRtcEngineEventHandler.AudioVolumeInfo[] speakers = randomSpeakers();
+                    mHandler.onAudioVolumeIndication(speakers, maxVolume(speakers));
+                    IRtcEngineEventHandler.AudioVolumeInfo[] local = localSpeaker();
+                    mHandler.onAudioVolumeIndication(local, local[0].volume);
+                }
+                reschedule(event);
+                break;
+            case EVENT_STATS:
+                if (mJoined) {
+                    deliverStats();
+                }
+                reschedule(event);
+                break;
+            case EVENT_LASTMILE_QUALITY:
+                if (mProbing && event.generation == mProbeGeneration) {
+                    mHandler.onLastmileQuality(mLinkUplinkKbps >= 1000 ? Constants.QUALITY_GOOD
+                            : mLinkUplinkKbps >= 300 ? Constants.QUALITY_POOR : Constants.QUALITY_BAD);
+                }
+                break;
+            case EVENT_LASTMILE_RESULT:
+                if (mProbing && event.generation == mProbeGeneration) {
+                    IRtcEngineEventHandler.LastmileProbeResult result =
+                            new IRtcEngineEventHandler.LastmileProbeResult();
+                    // LASTMILE_PROBE_RESULT_COMPLETE, bandwidths in bps.
+                    result.state = 1;
+                    result.uplinkReport.availableBandwidth = mLinkUplinkKbps * 1000;
+                    result.uplinkReport.packetLossRate = mLinkLossPercent;
+                    result.uplinkReport.jitter = mLinkJitterMs;
+                    result.downlinkReport.availableBandwidth = mLinkDownlinkKbps * 1000;
+                    result.downlinkReport.packetLossRate = mLinkLossPercent;
+                    result.downlinkReport.jitter = mLinkJitterMs;
+                    result.rtt = 40;
+                    mHandler.onLastmileProbeResult(result);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown event " + event.type);
+        }
+    }
+
+    private void setCameraOff(int uid, boolean off) {
+        if (!mRoom.containsKey(uid) || mCamerasOff.containsKey(uid) == off) {
+            return;
+        }
+        if (off) {
+            mCamerasOff.put(uid, Boolean.TRUE);
+        } else {
+            mCamerasOff.remove(uid);
+        }
+        if (mJoined && mRemoteUsers.containsKey(uid)) {
+            mHandler.onRemoteVideoStateChanged(uid,
+                    off ? Constants.REMOTE_VIDEO_STATE_STOPPED : Constants.REMOTE_VIDEO_STATE_DECODING,
+                    off ? Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_MUTED
+                            : Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_UNMUTED,
+                    0);
+        }
+    }
+
+    // Like the SDK, tells about a camera that was already off on joining.
+    private void reportCameraOff(int uid) {
+        if (mCamerasOff.containsKey(uid)) {
+            mHandler.onRemoteVideoStateChanged(uid, Constants.REMOTE_VIDEO_STATE_STOPPED,
+                    Constants.REMOTE_VIDEO_STATE_REASON_REMOTE_MUTED, 0);
+        }
+    }
+
+    private void failConnection(int reason) {
+        mJoined = false;
+        mInterrupted = false;
+        mFailed = true;
+        mHandler.onConnectionStateChanged(Constants.CONNECTION_STATE_FAILED, reason);
+    }
+
+    /**
+     * Tells the handler about everyone already in the channel, as the SDK
+     * does after joining.
+     */
+    private void announceRoom() {
+        for (int i = 0; i < mRoom.size(); i++) {
+            int uid = mRoom.keyAt(i);
+            if (!mRemoteUsers.containsKey(uid)) {
+                mRemoteUsers.put(uid, Boolean.TRUE);
+                mHandler.onUserJoined(uid, 0);
+                reportCameraOff(uid);
+                schedule(mNowMs + mDecodeLatencyMs, EVENT_FIRST_DECODED, uid);
+            }
+        }
+    }
+
+    private void startTokenClock() {
+        int generation = ++mTokenGeneration;
+        if (mTokenLifetimeMs > 0) {
+            long expiresAt = mNowMs + mTokenLifetimeMs;
+            schedule(expiresAt - TOKEN_WARNING_MS, EVENT_TOKEN_WILL_EXPIRE, 0).generation = generation;
+            schedule(expiresAt, EVENT_TOKEN_EXPIRED, 0).generation = generation;
+        }
+    }
+
+    private void reschedule(Event event) {
+        if (!mDestroyed) {
+            event.timeMs += event.periodMs;
+            event.seq = mSeq++;
+            mQueue.add(event);
+        }
+    }
+
+    private void deliverStats() {
+        mRtcStats.users = mRemoteUsers.size() + 1;
+        mRtcStats.lastmileDelay = 20 + mRandom.nextInt(40);
+        mRtcStats.txPacketLossRate = mRandom.nextInt(3);
+        mRtcStats.rxPacketLossRate = mRandom.nextInt(3);
+        mRtcStats.txKBitRate = 400 + mRandom.nextInt(400);
+        mRtcStats.rxKBitRate = 300 * mRemoteUsers.size();
+        mHandler.onRtcStats(mRtcStats);
+
+        mLocalStats.sentBitrate = mRtcStats.txKBitRate;
+        mLocalStats.sentFrameRate = 15;
+        mLocalStats.encoderOutputFrameRate = 15;
+        mLocalStats.targetBitrate = 800;
+        mLocalStats.targetFrameRate = 15;
+        mLocalStats.encodedFrameWidth = 640;
+        mLocalStats.encodedFrameHeight = 360;
+        mLocalStats.txPacketLossRate = mRtcStats.txPacketLossRate;
+        mHandler.onLocalVideoStats(mLocalStats);
+        mHandler.onNetworkQuality(0, 1 + mRandom.nextInt(2), 1 + mRandom.nextInt(2));
+
+        for (int i = 0; i < mRemoteUsers.size(); i++) {
+            int uid = mRemoteUsers.keyAt(i);
+            mRemoteStats.uid = uid;
+            mRemoteStats.width = 640;
+            mRemoteStats.height = 360;
+            mRemoteStats.rxStreamType = getRemoteStreamType(uid);
+            mRemoteStats.receivedBitrate = mRemoteStats.rxStreamType == Constants.VIDEO_STREAM_HIGH
+                    ? 500 + mRandom.nextInt(200) : 80 + mRandom.nextInt(40);
+            mRemoteStats.decoderOutputFrameRate = 15;
+            mRemoteStats.rendererOutputFrameRate = 15;
+            mRemoteStats.packetLossRate = mRandom.nextInt(3);
+            mRemoteStats.delay = 40 + mRandom.nextInt(60);
+            mHandler.onRemoteVideoStats(mRemoteStats);
+        }
+    }
+
+    private IRtcEngineEventHandler.AudioVolumeInfo[] randomSpeakers() {
+        int count = Math.min(MAX_REPORTED_SPEAKERS, mRemoteUsers.size());
+        IRtcEngineEventHandler.AudioVolumeInfo[] speakers =
+                new IRtcEngineEventHandler.AudioVolumeInfo[count];
+        for (int i = 0; i < count; i++) {
+            speakers[i] = new IRtcEngineEventHandler.AudioVolumeInfo();
+            speakers[i].uid = mRemoteUsers.keyAt(mRandom.nextInt(mRemoteUsers.size()));
+            speakers[i].volume = mRandom.nextInt(256);
+        }
+        return speakers;
+    }
+
+    private IRtcEngineEventHandler.AudioVolumeInfo[] localSpeaker() {
+        IRtcEngineEventHandler.AudioVolumeInfo[] speakers =
+                new IRtcEngineEventHandler.AudioVolumeInfo[]{
+                        new IRtcEngineEventHandler.AudioVolumeInfo()};
+        speakers[0].volume = mLocalAudioMuted ? 0 : LOCAL_VOLUME;
+        return speakers;
+    }
+
+    private static int maxVolume(IRtcEngineEventHandler.AudioVolumeInfo[] speakers) {
+        int max = 0;
+        for (IRtcEngineEventHandler.AudioVolumeInfo speaker : speakers) {
+            max = Math.max(max, speaker.volume);
+        }
+        return max;
+    }
+
+    private double exponential(double mean) {
+        return -mean * Math.log(1 - mRandom.nextDouble());
+    }
+
+    private void checkAlive() {
+        if (mDestroyed) {
+            throw new IllegalStateException("Engine destroyed");
+        }
+    }
+}
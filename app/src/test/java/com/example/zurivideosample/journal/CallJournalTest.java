@@ -0,0 +1,339 @@
+package com.example.zurivideosample.journal;
+
+import com.example.zurivideosample.call.CallController;
+import com.example.zurivideosample.call.TestCalls;
+import com.example.zurivideosample.engine.CallEventDispatcher;
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.telemetry.CallTimings;
+import com.example.zurivideosample.video.RemoteVideoGrid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.video.VideoCanvas;
+
+import static org.junit.Assert.*;
+
+public class CallJournalTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final int FIRST_UID = 100;
+    private static final int FRAME_MS = 16;
+    // A whole number of frames.
+    private static final int CHECKPOINT_MS = 64 * FRAME_MS;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replayingAJournalGoesThroughTheSameStates() throws IOException {
+        CallTimings timings = new CallTimings();
+        CallController call = TestCalls.newController(timings);
+        CallEventDispatcher dispatcher = new CallEventDispatcher(null, 64);
+        FakeCallEngine engine = new FakeCallEngine(dispatcher, 42);
+        File file = new File(mFolder.getRoot(), CallJournal.FILE_NAME);
+        CallJournal journal = new CallJournal(file, CallJournal.DEFAULT_MAX_BYTES, engine.getTimer(), DIRECT);
+        // As MainActivity wires it: the journal between the dispatcher and
+        // the call.
+        dispatcher.setTarget(new JournalingEventHandler(journal, call.getEventHandler()));
+        TestCalls.setUp(call, engine);
+
+        journal.recordAction(CallJournal.ACTION_JOIN, 0);
+        call.joinChannel(JournalReplayer.CHANNEL);
+        engine.churn(FIRST_UID, 12, 200, 30000, 1.5, 10000)
+                .randomSpeakersEvery(300, 100)
+                .randomVideoStateEvery(400, 200)
+                .statsEvery(1000, 1000);
+
+        // The state at every checkpoint, not just at the end, so a replay
+        // cannot drift and happen to land in the same place.
+        List<String> recorded = new ArrayList<>();
+        Random random = new Random(7);
+        boolean muted = false;
+        boolean background = false;
+        boolean pictureInPicture = false;
+        while (engine.now() < 30000) {
+            engine.advanceBy(FRAME_MS);
+            int action = random.nextInt(200);
+            if (action < 3) {
+                muted = !muted;
+                journal.recordAction(CallJournal.ACTION_MUTE, muted ? 1 : 0);
+                call.setLocalAudioMuted(muted);
+            } else if (action < 4) {
+                journal.recordAction(CallJournal.ACTION_SWITCH_CAMERA, 0);
+                call.switchCamera();
+            } else if (action < 7) {
+                journal.recordAction(CallJournal.ACTION_SWAP_LOCAL_VIDEO, 0);
+                call.swapLocalVideo();
+            } else if (action < 8) {
+                background = !background;
+                journal.recordAction(CallJournal.ACTION_BACKGROUND, background ? 1 : 0);
+                call.setInBackground(background);
+            } else if (action < 9) {
+                pictureInPicture = !pictureInPicture;
+                journal.recordAction(CallJournal.ACTION_PICTURE_IN_PICTURE, pictureInPicture ? 1 : 0);
+                call.setPictureInPicture(pictureInPicture);
+            }
+            dispatcher.drain();
+            if (engine.now() % CHECKPOINT_MS == 0) {
+                recorded.add(describe(call, engine));
+            }
+        }
+        journal.close();
+        assertFalse(journal.isWrapped());
+        assertEquals(0, journal.getDroppedCount());
+
+        final JournalReplayer replayer = new JournalReplayer();
+        final List<String> replayed = new ArrayList<>();
+        JournalReader reader = new JournalReader(file);
+        assertEquals(journal.getRecordCount(), reader.getRecordCount());
+        reader.replay(replayer.getCall().getEventHandler(), new JournalReader.Player() {
+            @Override
+            public void advanceTo(long timeMs) {
+                // Everything up to a checkpoint has been delivered once a
+                // record comes after it.
+                long checkpoint = (replayed.size() + 1) * CHECKPOINT_MS;
+                for (; checkpoint < timeMs; checkpoint += CHECKPOINT_MS) {
+                    replayer.advanceTo(checkpoint);
+                    replayed.add(describe(replayer.getCall(), replayer.getEngine()));
+                }
+                replayer.advanceTo(timeMs);
+            }
+
+            @Override
+            public void onAction(int action, int value) {
+                replayer.onAction(action, value);
+            }
+        });
+        for (long checkpoint = (replayed.size() + 1) * CHECKPOINT_MS; checkpoint <= engine.now();
+             checkpoint += CHECKPOINT_MS) {
+            replayer.advanceTo(checkpoint);
+            replayed.add(describe(replayer.getCall(), replayer.getEngine()));
+        }
+
+        assertTrue(call.getRemoteVideos().size() > 0);
+        // The call's clock is the replayer's, so times measured by the call
+        // come out the same.
+        assertTrue(timings.getFirstRemoteFrameMs() > 0);
+        assertEquals(timings.getJoinMs(), replayer.getTimings().getJoinMs());
+        assertEquals(timings.getFirstRemoteFrameMs(), replayer.getTimings().getFirstRemoteFrameMs());
+        assertEquals(recorded.size(), replayed.size());
+        for (int i = 0; i < recorded.size(); i++) {
+            assertEquals("at " + (i + 1) * CHECKPOINT_MS + "ms", recorded.get(i), replayed.get(i));
+        }
+    }
+
+    @Test
+    public void recordsBeforeTheFileIsMappedAreKept() throws IOException {
+        final List<Runnable> pending = new ArrayList<>();
+        Executor deferred = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.add(command);
+            }
+        };
+        FakeCallEngine clock = new FakeCallEngine(null);
+        File file = new File(mFolder.getRoot(), CallJournal.FILE_NAME);
+        CallJournal journal = new CallJournal(file, CallJournal.DEFAULT_MAX_BYTES, clock.getTimer(), deferred);
+        RecordingHandler events = new RecordingHandler();
+        JournalingEventHandler handler = new JournalingEventHandler(journal, events);
+
+        // As with an engine that is already up: the join comes right away.
+        journal.recordAction(CallJournal.ACTION_JOIN, 0);
+        clock.advanceBy(50);
+        handler.onUserJoined(1, 0);
+        assertEquals(2, journal.getRecordCount());
+        runAll(pending);
+        clock.advanceBy(50);
+        handler.onUserJoined(2, 0);
+        assertEquals(3, journal.getRecordCount());
+        assertEquals(0, journal.getDroppedCount());
+        journal.close();
+        runAll(pending);
+
+        assertEquals("[at 0, action " + CallJournal.ACTION_JOIN + " 0, at 50, joined 1, at 100, joined 2]",
+                replay(new JournalReader(file)));
+
+        // Closed before the file was even mapped.
+        CallJournal quick = new CallJournal(file, CallJournal.DEFAULT_MAX_BYTES, clock.getTimer(), deferred);
+        quick.recordAction(CallJournal.ACTION_JOIN, 0);
+        quick.close();
+        runAll(pending);
+        assertEquals("[at 0, action " + CallJournal.ACTION_JOIN + " 0]", replay(new JournalReader(file)));
+    }
+
+    @Test
+    public void fullJournalKeepsTheEndOfTheCall() throws IOException {
+        FakeCallEngine clock = new FakeCallEngine(null);
+        File file = new File(mFolder.getRoot(), CallJournal.FILE_NAME);
+        // Room for a header and six records.
+        CallJournal journal = new CallJournal(file, 7 * CallJournal.RECORD_SIZE, clock.getTimer(), DIRECT);
+        RecordingHandler events = new RecordingHandler();
+        JournalingEventHandler handler = new JournalingEventHandler(journal, events);
+
+        handler.onUserJoined(1, 0);
+        clock.advanceBy(100);
+        handler.onUserJoined(2, 0);
+        clock.advanceBy(100);
+        journal.recordAction(CallJournal.ACTION_MUTE, 1);
+        clock.advanceBy(100);
+        handler.onLastmileProbeResult(probeResult());
+        assertFalse(journal.isWrapped());
+        handler.onAudioVolumeIndication(new IRtcEngineEventHandler.AudioVolumeInfo[]{
+                speaker(2, 200), speaker(3, 50), speaker(4, 10)}, 180);
+        clock.advanceBy(100);
+        handler.onUserOffline(2, 0);
+        assertEquals(9, journal.getRecordCount());
+        assertEquals(0, journal.getDroppedCount());
+        assertTrue(journal.isWrapped());
+        assertEquals(5, events.calls.size());
+        journal.close();
+
+        // The six newest are in the file; the oldest of them is skipped, as
+        // it would be the one being overwritten.
+        JournalReader reader = new JournalReader(file);
+        assertEquals(5, reader.getRecordCount());
+        assertTrue(reader.isWrapped());
+        assertEquals(300, reader.getStartMs());
+        assertEquals(400, reader.getDurationMs());
+        assertEquals("[at 300, volume 180 [2:200 3:50 4:10], at 400, offline 2]", replay(reader));
+
+        // One more and the report is overwritten; its speakers are skipped.
+        journal = new CallJournal(file, 7 * CallJournal.RECORD_SIZE, clock.getTimer(), DIRECT);
+        handler = new JournalingEventHandler(journal, events);
+        handler.onAudioVolumeIndication(new IRtcEngineEventHandler.AudioVolumeInfo[]{
+                speaker(2, 200), speaker(3, 50), speaker(4, 10)}, 180);
+        handler.onUserOffline(2, 0);
+        handler.onUserOffline(3, 0);
+        handler.onUserOffline(4, 0);
+        journal.close();
+        assertEquals("[at 0, at 0, at 0, offline 2, at 0, offline 3, at 0, offline 4]",
+                replay(new JournalReader(file)));
+    }
+
+    @Test(expected = IOException.class)
+    public void readerRejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[CallJournal.HEADER_SIZE * 2]);
+        out.close();
+        new JournalReader(file);
+    }
+
+    private static final class RecordingHandler extends IRtcEngineEventHandler {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void onUserJoined(int uid, int elapsed) {
+            calls.add("joined " + uid);
+        }
+
+        @Override
+        public void onUserOffline(int uid, int reason) {
+            calls.add("offline " + uid);
+        }
+
+        @Override
+        public void onLastmileProbeResult(LastmileProbeResult result) {
+            calls.add("probe " + result.state + " rtt " + result.rtt
+                    + " up " + result.uplinkReport.packetLossRate + "/" + result.uplinkReport.jitter
+                    + "/" + result.uplinkReport.availableBandwidth
+                    + " down " + result.downlinkReport.packetLossRate + "/" + result.downlinkReport.jitter
+                    + "/" + result.downlinkReport.availableBandwidth);
+        }
+
+        @Override
+        public void onAudioVolumeIndication(AudioVolumeInfo[] speakers, int totalVolume) {
+            StringBuilder call = new StringBuilder("volume " + totalVolume + " [");
+            for (int i = 0; i < speakers.length; i++) {
+                call.append(i > 0 ? " " : "").append(speakers[i].uid).append(':').append(speakers[i].volume);
+            }
+            calls.add(call.append(']').toString());
+        }
+    }
+
+    private static String replay(JournalReader reader) {
+        final RecordingHandler replayed = new RecordingHandler();
+        reader.replay(replayed, new JournalReader.Player() {
+            @Override
+            public void advanceTo(long timeMs) {
+                replayed.calls.add("at " + timeMs);
+            }
+
+            @Override
+            public void onAction(int action, int value) {
+                replayed.calls.add("action " + action + " " + value);
+            }
+        });
+        return replayed.calls.toString();
+    }
+
+    private static void runAll(List<Runnable> pending) {
+        for (Runnable command : pending) {
+            command.run();
+        }
+        pending.clear();
+    }
+
+    private static IRtcEngineEventHandler.LastmileProbeResult probeResult() {
+        IRtcEngineEventHandler.LastmileProbeResult result = new IRtcEngineEventHandler.LastmileProbeResult();
+        result.state = 1;
+        result.rtt = 40;
+        result.uplinkReport.packetLossRate = 5;
+        result.uplinkReport.jitter = 12;
+        result.uplinkReport.availableBandwidth = 800;
+        result.downlinkReport.packetLossRate = 2;
+        result.downlinkReport.jitter = 8;
+        result.downlinkReport.availableBandwidth = 2400;
+        return result;
+    }
+
+    private static IRtcEngineEventHandler.AudioVolumeInfo speaker(int uid, int volume) {
+        IRtcEngineEventHandler.AudioVolumeInfo info = new IRtcEngineEventHandler.AudioVolumeInfo();
+        info.uid = uid;
+        info.volume = volume;
+        return info;
+    }
+
+    // What the user sees and what the call asked of the engine.
+    private static String describe(CallController call, FakeCallEngine engine) {
+        StringBuilder state = new StringBuilder();
+        RemoteVideoGrid tiles = call.getRemoteVideos();
+        for (int i = 0; i < tiles.size(); i++) {
+            int uid = tiles.valueAt(i).uid;
+            state.append(uid)
+                    .append(tiles.isShowingPlaceholder(uid) ? " placeholder" : "")
+                    .append(call.getSnapshotTier().isLive(uid) ? " live" : " snapshot")
+                    .append(" stream ").append(call.getSubscriptions().getStreamType(uid))
+                    .append(engine.isRemoteVideoMuted(uid) ? " muted" : "")
+                    .append(", ");
+        }
+        VideoCanvas pinned = call.getPinnedVideo();
+        state.append("pinned ").append(pinned != null ? pinned.uid : 0)
+                .append(", speaker ").append(call.getActiveSpeaker().getUid())
+                .append(", pip ").append(call.isPictureInPicture())
+                .append(", in call ").append(call.isInCall())
+                .append(", connected ").append(call.getConnectionSupervisor().isConnected())
+                .append(", profile ").append(call.getEncoderProfiles().getProfile())
+                .append(", audio muted ").append(engine.isLocalAudioMuted())
+                .append(", camera switches ").append(engine.getCameraSwitches())
+                .append(", bound ").append(engine.getBoundRemoteCount())
+                .append(", stream type changes ").append(engine.getStreamTypeChanges());
+        return state.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.zurivideosample.journal;
+
+import com.example.zurivideosample.call.CallController;
+import com.example.zurivideosample.call.TestCalls;
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.telemetry.CallTimings;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+/**
+ * Runs a journal, from a test or pulled off a device, through a fresh
+ * {@link CallController} on a {@link FakeCallEngine}.
+ *
+ * The fake's own callbacks are discarded: everything the controller hears
+ * comes from the journal, and the fake only keeps the clock, runs the
+ * controller's timers and records what the controller asked of the engine.
+ * Its clock is the controller's too, so the call logic sees the journal's
+ * times. User actions are applied the way MainActivity applies the clicks.
+ *
+ * A journal pulled off a device is replayed with
+ * <pre>
+ *   adb exec-out run-as com.example.zurivideosample cat files/call_journal.bin > call.bin
+ *   ./gradlew replayJournal -Pjournal=call.bin
+ * </pre>
+ * or by running {@link #main} on the unit test classpath. Every user action
+ * is printed with the state of the call after it, then the state at the
+ * end.
+ */
+public class JournalReplayer implements JournalReader.Player {
+    public static final String CHANNEL = "replay";
+    // Set by the replayJournal task.
+    static final String JOURNAL_PROPERTY = "journal";
+
+    private static final String[] ACTION_NAMES = {
+            null, "join", "call", "mute", "switch camera", "swap local video", "background",
+            "picture in picture"};
+
+    private final CallController mCall;
+    private final FakeCallEngine mEngine;
+    private final CallTimings mTimings = new CallTimings();
+    private PrintStream mLog;
+
+    public JournalReplayer() {
+        mCall = TestCalls.newController(mTimings);
+        mEngine = new FakeCallEngine(new IRtcEngineEventHandler() {
+        });
+        TestCalls.setUp(mCall, mEngine);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: JournalReplayer <journal file>");
+            System.exit(2);
+        }
+        report(new File(args[0]), System.out);
+    }
+
+    /**
+     * What {@code ./gradlew replayJournal} runs; skipped in every other test
+     * run.
+     */
+    @Test
+    public void replayJournalFile() throws IOException {
+        String path = System.getProperty(JOURNAL_PROPERTY);
+        Assume.assumeTrue(path != null && !path.isEmpty());
+        report(new File(path), System.out);
+    }
+
+    /**
+     * Replays a journal into a fresh replayer and prints how it went.
+     */
+    static void report(File file, PrintStream out) throws IOException {
+        JournalReplayer replayer = new JournalReplayer();
+        replayer.setLog(out);
+        JournalReader reader = replayer.replay(file);
+        out.println(String.format(Locale.US, "%d records from %.1fs to %.1fs%s",
+                reader.getRecordCount(), reader.getStartMs() / 1000.0, reader.getDurationMs() / 1000.0,
+                reader.isWrapped() ? ", the start of the call was overwritten" : ""));
+        out.println("At the end: " + replayer.describe());
+    }
+
+    /**
+     * Prints every action as it is replayed, with the state after it.
+     */
+    public void setLog(PrintStream log) {
+        mLog = log;
+    }
+
+    /**
+     * Replays the whole journal. One that wrapped starts mid-call, so the
+     * call is joined at its first record: what came before is lost.
+     *
+     * @return the journal, for its length and whether it wrapped
+     */
+    public JournalReader replay(File file) throws IOException {
+        JournalReader reader = new JournalReader(file);
+        if (reader.isWrapped()) {
+            advanceTo(reader.getStartMs());
+            mCall.joinChannel(CHANNEL);
+        }
+        reader.replay(mCall.getEventHandler(), this);
+        return reader;
+    }
+
+    /**
+     * What the user would see, and what the call last asked of the engine.
+     */
+    public String describe() {
+        return (mCall.isInCall() ? "in call" : "not in call")
+                + (mCall.getConnectionSupervisor().isConnected() ? ", connected" : ", not connected")
+                + ", " + mCall.getRemoteVideos().size() + " tiles"
+                + ", " + mEngine.getBoundRemoteCount() + " bound"
+                + ", rejoins " + mCall.getConnectionSupervisor().getRejoinCount()
+                + ", profile " + mCall.getEncoderProfiles().getProfile()
+                + (mEngine.isLocalAudioMuted() ? ", muted" : "");
+    }
+
+    public CallController getCall() {
+        return mCall;
+    }
+
+    public FakeCallEngine getEngine() {
+        return mEngine;
+    }
+
+    public CallTimings getTimings() {
+        return mTimings;
+    }
+
+    @Override
+    public void advanceTo(long timeMs) {
+        mEngine.advanceTo(timeMs);
+    }
+
+    @Override
+    public void onAction(int action, int value) {
+        switch (action) {
+            case CallJournal.ACTION_JOIN:
+                mCall.joinChannel(CHANNEL);
+                break;
+            case CallJournal.ACTION_CALL:
+                if (value != 0) {
+                    mCall.startCall(CHANNEL);
+                } else {
+                    mCall.endCall();
+                }
+                break;
+            case CallJournal.ACTION_MUTE:
+                mCall.setLocalAudioMuted(value != 0);
+                break;
+            case CallJournal.ACTION_SWITCH_CAMERA:
+                mCall.switchCamera();
+                break;
+            case CallJournal.ACTION_SWAP_LOCAL_VIDEO:
+                mCall.swapLocalVideo();
+                break;
+            case CallJournal.ACTION_BACKGROUND:
+                mCall.setInBackground(value != 0);
+                break;
+            case CallJournal.ACTION_PICTURE_IN_PICTURE:
+                mCall.setPictureInPicture(value != 0);
+                break;
+            default:
+                throw new IllegalStateException("Unknown action " + action);
+        }
+        if (mLog != null) {
+            mLog.println(String.format(Locale.US, "%8.1fs %s %d: %s", mEngine.now() / 1000.0,
+                    ACTION_NAMES[action], value, describe()));
+        }
+    }
+}
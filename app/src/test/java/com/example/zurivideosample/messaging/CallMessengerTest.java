@@ -0,0 +1,111 @@
+package com.example.zurivideosample.messaging;
+
+import com.example.zurivideosample.engine.FakeCallEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+public class CallMessengerTest {
+    private static final int REMOTE = 7;
+
+    private FakeCallEngine mEngine;
+    private CallMessenger mMessenger;
+    private int mReceived;
+    private int mLastType;
+
+    @Before
+    public void setUp() {
+        mEngine = new FakeCallEngine(new IRtcEngineEventHandler() {
+        });
+        mEngine.joinChannel(null, "main", null, 1);
+        mEngine.advanceBy(1000);
+        mMessenger = new CallMessenger(mEngine, mEngine.getTimer());
+        mMessenger.setListener(new CallMessenger.Listener() {
+            @Override
+            public void onMessage(int uid, int type, byte[] payload, int offset, int length) {
+                assertEquals(REMOTE, uid);
+                mReceived++;
+                mLastType = type;
+            }
+        });
+    }
+
+    @Test
+    public void burstGoesOutAsOnePacket() {
+        for (int i = 0; i < 20; i++) {
+            assertTrue(mMessenger.send(1, new byte[]{(byte) i}, 0));
+        }
+        assertEquals(0, mEngine.getStreamMessageCount());
+        mEngine.advanceBy(CallMessenger.BATCH_WINDOW_MS);
+        assertEquals(1, mEngine.getStreamMessageCount());
+        assertEquals(20, mMessenger.getSentMessages());
+        assertEquals(1, mEngine.getDataStreamCount());
+    }
+
+    @Test
+    public void eachDeliveryHasItsOwnStream() {
+        mMessenger.send(1, new byte[1], 0);
+        mMessenger.send(1, new byte[1], CallMessenger.FLAG_RELIABLE);
+        mMessenger.send(1, new byte[1], CallMessenger.FLAG_RELIABLE | CallMessenger.FLAG_ORDERED);
+        mEngine.advanceBy(CallMessenger.BATCH_WINDOW_MS);
+        assertEquals(3, mEngine.getStreamMessageCount());
+        assertEquals(3, mEngine.getDataStreamCount());
+
+        // Streams are reused.
+        mMessenger.send(1, new byte[1], CallMessenger.FLAG_RELIABLE);
+        mEngine.advanceBy(CallMessenger.BATCH_WINDOW_MS);
+        assertEquals(3, mEngine.getDataStreamCount());
+        assertEquals(mEngine.getStreamMessageStreamId(1), mEngine.getStreamMessageStreamId(3));
+    }
+
+    @Test
+    public void packetsStayWithinTheRateLimit() {
+        // A message every 5ms for two seconds, all reliable.
+        for (int i = 0; i < 400; i++) {
+            mMessenger.send(1, new byte[16], CallMessenger.FLAG_RELIABLE);
+            mEngine.advanceBy(5);
+        }
+        mEngine.advanceBy(2000);
+        int packets = mEngine.getStreamMessageCount();
+        assertTrue(packets <= CallMessenger.PACKET_BURST + 4 * CallMessenger.PACKETS_PER_SECOND);
+        // Nothing was lost on the way: every message went out, batched.
+        assertEquals(400, mMessenger.getSentMessages());
+        assertEquals(0, mMessenger.getDroppedMessages());
+    }
+
+    @Test
+    public void receivesAndMeasuresLatency() {
+        mMessenger.send(3, new byte[]{1, 2}, 0);
+        mMessenger.send(4, new byte[]{3}, 0);
+        mEngine.advanceBy(CallMessenger.BATCH_WINDOW_MS);
+        byte[] packet = mEngine.getStreamMessage(0);
+
+        // Delivered 25ms after it went out, as if from someone else.
+        mEngine.advanceBy(25);
+        mMessenger.onStreamMessage(REMOTE, 1, packet);
+        assertEquals(2, mReceived);
+        assertEquals(4, mLastType);
+        assertEquals(2, mMessenger.getLatency().getCount());
+        int latency = mMessenger.getLatency().getMax();
+        assertTrue(latency >= 25 && latency <= 25 + CallMessenger.BATCH_WINDOW_MS);
+    }
+
+    @Test
+    public void countsLostPackets() {
+        byte[] packet = new byte[MessageCodec.HEADER_BYTES];
+        int[] sequences = {65534, 65535, 2, 1, 3};
+        for (int sequence : sequences) {
+            MessageCodec.writeHeader(packet, sequence, 0);
+            mMessenger.onStreamMessage(REMOTE, 1, packet.clone());
+        }
+        // 0 and 1 were skipped on the wrap; 1 then came late.
+        assertEquals(2, mMessenger.getLostPackets());
+
+        mMessenger.onStreamMessage(REMOTE, 1, new byte[]{9, 9});
+        assertEquals(1, mMessenger.getMalformedPackets());
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.zurivideosample.messaging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageBatcherTest {
+    private static final int WINDOW_MS = 15;
+
+    private static final class Recorder implements MessageBatcher.Output {
+        final List<byte[]> packets = new ArrayList<>();
+        boolean accepting = true;
+
+        @Override
+        public boolean send(byte[] packet) {
+            if (!accepting) {
+                return false;
+            }
+            packets.add(packet);
+            return true;
+        }
+
+        int messages(int index) {
+            byte[] packet = packets.get(index);
+            return MessageCodec.read(packet, packet.length, new MessageCodec.Handler() {
+                @Override
+                public void onMessage(int type, byte[] p, int offset, int length, long queuedAtMs) {
+                }
+            });
+        }
+    }
+
+    @Test
+    public void batchesWithinTheWindow() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 4, true);
+        Recorder output = new Recorder();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(batcher.add(1, new byte[8], 0, 8, 100 + i, 5000 + i));
+        }
+        assertEquals(100 + WINDOW_MS, batcher.getDueAtMs());
+        assertEquals(0, batcher.flush(110, output));
+
+        assertEquals(1, batcher.flush(100 + WINDOW_MS, output));
+        assertEquals(10, output.messages(0));
+        assertEquals(5000, MessageCodec.readQueuedAt(output.packets.get(0)));
+        assertEquals(-1, batcher.getDueAtMs());
+        assertFalse(batcher.hasPending());
+        assertEquals(10, batcher.getSentMessages());
+        assertEquals(1, batcher.getSentPackets());
+    }
+
+    @Test
+    public void lateMessageStartsANewPacket() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 4, true);
+        Recorder output = new Recorder();
+        batcher.add(1, new byte[1], 0, 1, 0, 0);
+        // Nobody flushed in time; the next message must not join it.
+        batcher.add(1, new byte[1], 0, 1, 40, 40);
+        assertEquals(0, batcher.getDueAtMs());
+
+        assertEquals(1, batcher.flush(41, output));
+        assertEquals(1, batcher.flush(40 + WINDOW_MS, output));
+        assertEquals(1, output.messages(0));
+        assertEquals(1, output.messages(1));
+        assertEquals(40, MessageCodec.readQueuedAt(output.packets.get(1)));
+    }
+
+    @Test
+    public void fullPacketIsSplit() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 4, true);
+        Recorder output = new Recorder();
+        byte[] payload = new byte[300];
+        for (int i = 0; i < 4; i++) {
+            batcher.add(1, payload, 0, payload.length, 0, 0);
+        }
+        assertEquals(2, batcher.flush(WINDOW_MS, output));
+        assertEquals(3, output.messages(0));
+        assertEquals(1, output.messages(1));
+        for (byte[] packet : output.packets) {
+            assertTrue(packet.length <= MessageCodec.MAX_PACKET_BYTES);
+        }
+        // Sequence numbers count packets.
+        assertEquals(0, MessageCodec.readSequence(output.packets.get(0), output.packets.get(0).length));
+        assertEquals(1, MessageCodec.readSequence(output.packets.get(1), output.packets.get(1).length));
+    }
+
+    @Test
+    public void largestPayloadFits() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 4, true);
+        Recorder output = new Recorder();
+        int max = MessageBatcher.maxPayload(1000);
+        assertFalse(batcher.add(1000, new byte[max + 1], 0, max + 1, 0, 0));
+        assertEquals(1, batcher.getDroppedMessages());
+
+        assertTrue(batcher.add(1000, new byte[max], 0, max, 0, 0));
+        // Even with the largest offset the window allows.
+        assertTrue(batcher.add(1000, new byte[max], 0, max, WINDOW_MS - 1, 1000));
+        assertEquals(2, batcher.flush(WINDOW_MS * 2, output));
+        assertEquals(MessageCodec.MAX_PACKET_BYTES - 1, output.packets.get(0).length);
+    }
+
+    @Test
+    public void lossyStreamDropsOldestPackets() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 2, true);
+        Recorder output = new Recorder();
+        output.accepting = false;
+        byte[] payload = new byte[300];
+        // Three fit a packet: three packets close, and the oldest goes.
+        for (int i = 0; i < 12; i++) {
+            assertTrue(batcher.add(1, payload, 0, payload.length, 0, 0));
+            batcher.flush(0, output);
+        }
+        assertEquals(2, batcher.getBacklogSize());
+        assertEquals(3, batcher.getDroppedMessages());
+
+        output.accepting = true;
+        assertEquals(3, batcher.flush(WINDOW_MS, output));
+        for (int i = 0; i < 3; i++) {
+            byte[] packet = output.packets.get(i);
+            assertEquals(i + 1, MessageCodec.readSequence(packet, packet.length));
+        }
+    }
+
+    @Test
+    public void heldBackPacketKeepsFilling() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 4, false);
+        Recorder output = new Recorder();
+        output.accepting = false;
+        batcher.add(1, new byte[1], 0, 1, 0, 0);
+        batcher.flush(WINDOW_MS, output);
+        assertEquals(1, batcher.getBacklogSize());
+
+        // Long past the window, but the stream cannot send anyway.
+        for (int i = 1; i <= 5; i++) {
+            batcher.add(1, new byte[1], 0, 1, i * WINDOW_MS, i * WINDOW_MS);
+            batcher.flush(i * WINDOW_MS + WINDOW_MS, output);
+        }
+        assertEquals(1, batcher.getBacklogSize());
+
+        output.accepting = true;
+        assertEquals(2, batcher.flush(10 * WINDOW_MS, output));
+        assertEquals(5, output.messages(1));
+    }
+
+    @Test
+    public void reliableStreamRefusesWhenFull() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 2, false);
+        Recorder output = new Recorder();
+        output.accepting = false;
+        byte[] payload = new byte[600];
+        for (int i = 0; i < 3; i++) {
+            assertTrue(batcher.add(1, payload, 0, payload.length, 0, 0));
+        }
+        // Two packets wait and a third is open; a fourth cannot close it.
+        assertFalse(batcher.add(1, payload, 0, payload.length, 0, 0));
+        assertEquals(1, batcher.getDroppedMessages());
+
+        output.accepting = true;
+        assertEquals(3, batcher.flush(WINDOW_MS, output));
+        for (int i = 0; i < 3; i++) {
+            byte[] packet = output.packets.get(i);
+            assertEquals(i, MessageCodec.readSequence(packet, packet.length));
+        }
+        assertEquals(3, batcher.getSentMessages());
+    }
+
+    @Test
+    public void clearCountsPendingAsDropped() {
+        MessageBatcher batcher = new MessageBatcher(WINDOW_MS, 4, true);
+        batcher.add(1, new byte[1], 0, 1, 0, 0);
+        batcher.add(1, new byte[1], 0, 1, WINDOW_MS, 0);
+        batcher.clear();
+        assertFalse(batcher.hasPending());
+        assertEquals(2, batcher.getDroppedMessages());
+    }
+}
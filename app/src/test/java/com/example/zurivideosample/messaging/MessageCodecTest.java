@@ -0,0 +1,101 @@
+package com.example.zurivideosample.messaging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageCodecTest {
+
+    private static final class Collector implements MessageCodec.Handler {
+        final List<Integer> types = new ArrayList<>();
+        final List<byte[]> payloads = new ArrayList<>();
+        final List<Long> queuedAt = new ArrayList<>();
+
+        @Override
+        public void onMessage(int type, byte[] packet, int offset, int length, long queuedAtMs) {
+            types.add(type);
+            payloads.add(Arrays.copyOfRange(packet, offset, offset + length));
+            queuedAt.add(queuedAtMs);
+        }
+    }
+
+    @Test
+    public void roundTripsMessages() {
+        byte[] packet = new byte[MessageCodec.MAX_PACKET_BYTES];
+        int position = MessageCodec.HEADER_BYTES;
+        position = MessageCodec.writeMessage(packet, position, 0, 1, new byte[]{7}, 0, 1);
+        position = MessageCodec.writeMessage(packet, position, 5, 300, new byte[]{1, 2, 3, 4}, 1, 2);
+        position = MessageCodec.writeMessage(packet, position, 200, 2, new byte[0], 0, 0);
+        MessageCodec.writeHeader(packet, 65535, 1000);
+
+        // Small types and offsets take a byte each.
+        assertEquals(MessageCodec.HEADER_BYTES + 4 + 6 + 4, position);
+        assertEquals(65535, MessageCodec.readSequence(packet, position));
+
+        Collector collector = new Collector();
+        assertEquals(3, MessageCodec.read(packet, position, collector));
+        assertEquals(Arrays.asList(1, 300, 2), collector.types);
+        assertArrayEquals(new byte[]{7}, collector.payloads.get(0));
+        assertArrayEquals(new byte[]{2, 3}, collector.payloads.get(1));
+        assertEquals(0, collector.payloads.get(2).length);
+        assertEquals(Arrays.asList(1000L, 1005L, 1200L), collector.queuedAt);
+    }
+
+    @Test
+    public void varintsRoundTrip() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, 1 << 21, Integer.MAX_VALUE};
+        byte[] buffer = new byte[5];
+        for (int value : values) {
+            int end = MessageCodec.writeVarint(buffer, 0, value);
+            assertEquals(MessageCodec.varintSize(value), end);
+            long field = MessageCodec.readVarint(buffer, 0, end);
+            assertEquals(end, (int) (field >>> 32));
+            assertEquals(value, (int) field);
+            // Cut short, it is rejected.
+            assertEquals(-1, MessageCodec.readVarint(buffer, 0, end - 1));
+        }
+    }
+
+    @Test
+    public void rejectsMalformedPackets() {
+        Collector collector = new Collector();
+        byte[] packet = new byte[32];
+        MessageCodec.writeHeader(packet, 1, 0);
+
+        assertEquals(-1, MessageCodec.read(packet, MessageCodec.HEADER_BYTES - 1, collector));
+
+        byte[] other = packet.clone();
+        other[0] = 2;
+        assertEquals(-1, MessageCodec.read(other, packet.length, collector));
+
+        // A length past the end of the packet.
+        int end = MessageCodec.writeMessage(packet, MessageCodec.HEADER_BYTES, 0, 1, new byte[4], 0, 4);
+        assertEquals(-1, MessageCodec.read(packet, end - 1, collector));
+
+        // A varint too large for an int.
+        byte[] large = new byte[MessageCodec.HEADER_BYTES + 5];
+        MessageCodec.writeHeader(large, 1, 0);
+        Arrays.fill(large, MessageCodec.HEADER_BYTES, large.length, (byte) 0xFF);
+        assertEquals(-1, MessageCodec.read(large, large.length, collector));
+
+        assertTrue(collector.types.isEmpty());
+        // A packet with just the header is empty, not malformed.
+        assertEquals(0, MessageCodec.read(packet, MessageCodec.HEADER_BYTES, collector));
+    }
+
+    @Test
+    public void timesWrapAround() {
+        long top = (1L << 48) - 1;
+        byte[] packet = new byte[MessageCodec.HEADER_BYTES];
+        MessageCodec.writeHeader(packet, 0, top + 11);
+        assertEquals(10, MessageCodec.readQueuedAt(packet));
+
+        assertEquals(20, MessageCodec.elapsed(top - 9, 10));
+        assertEquals(-20, MessageCodec.elapsed(10, top - 9));
+        assertEquals(5, MessageCodec.elapsed(100, 105));
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.zurivideosample.recording;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.example.zurivideosample.effects.FramePool;
+import com.example.zurivideosample.effects.I420Frame;
+import com.example.zurivideosample.telemetry.Histogram;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CallRecorderTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int SAMPLES = 480;
+
+    // Records the calls a recording makes on its muxer.
+    private static final class FakeMuxer implements Muxer {
+        final List<MediaFormat> tracks = new ArrayList<>();
+        final List<Integer> writtenTracks = new ArrayList<>();
+        int orientation = -1;
+        boolean started;
+        boolean stopped;
+        boolean released;
+
+        @Override
+        public int addTrack(MediaFormat format) {
+            assertFalse(started);
+            tracks.add(format);
+            return tracks.size() - 1;
+        }
+
+        @Override
+        public void setOrientationHint(int degrees) {
+            assertFalse(started);
+            orientation = degrees;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public synchronized void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+            assertTrue(started);
+            writtenTracks.add(track);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    // Stands in for a codec: its output format is known on the first frame,
+    // and every frame comes out as a sync sample straight away.
+    private static class FakeEncoder implements Encoder {
+        final MediaFormat format = new MediaFormat();
+        final SampleWriter writer;
+        final TrackEncoder.Listener listener;
+        int track = -1;
+        int frames;
+        boolean stopped;
+
+        FakeEncoder(SampleWriter writer, TrackEncoder.Listener listener) {
+            this.writer = writer;
+            this.listener = listener;
+        }
+
+        void onFrame() {
+            if (track < 0) {
+                track = listener.onOutputFormat(this, format);
+            }
+            writer.offer(track, ByteBuffer.allocate(16), frames++ * 1000L, SampleWriter.FLAG_SYNC);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public long getDroppedCount() {
+            return 0;
+        }
+
+        @Override
+        public long getMismatchedCount() {
+            return 0;
+        }
+
+        @Override
+        public Histogram getLag() {
+            return new Histogram(Histogram.linearBounds(20, 100));
+        }
+    }
+
+    private static final class FakeVideo extends FakeEncoder implements Encoder.Video {
+        FakeVideo(SampleWriter writer, TrackEncoder.Listener listener) {
+            super(writer, listener);
+        }
+
+        @Override
+        public void encode(I420Frame frame) {
+            onFrame();
+        }
+    }
+
+    private static final class FakeAudio extends FakeEncoder implements Encoder.Audio {
+        FakeAudio(SampleWriter writer, TrackEncoder.Listener listener) {
+            super(writer, listener);
+        }
+
+        @Override
+        public void encode(byte[] pcm, int samplesPerChannel, int channels, int sampleRate) {
+            onFrame();
+        }
+    }
+
+    private final FakeMuxer mMuxer = new FakeMuxer();
+    private FakeVideo mVideo;
+    private FakeAudio mAudio;
+
+    private final Encoder.Factory mFactory = new Encoder.Factory() {
+        @Override
+        public Muxer createMuxer(File file) {
+            return mMuxer;
+        }
+
+        @Override
+        public Encoder.Video createVideo(int width, int height, SampleWriter writer,
+                                         TrackEncoder.Listener listener, long startMs) {
+            mVideo = new FakeVideo(writer, listener);
+            return mVideo;
+        }
+
+        @Override
+        public Encoder.Audio createAudio(int sampleRate, int channels, int maxFrameBytes,
+                                         SampleWriter writer, TrackEncoder.Listener listener,
+                                         long startMs) {
+            mAudio = new FakeAudio(writer, listener);
+            return mAudio;
+        }
+    };
+
+    private final FramePool mPool = new FramePool(2);
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(System.getProperty("java.io.tmpdir"), "call-recorder-test.mp4");
+    }
+
+    private void audioFrame(CallRecorder recorder) {
+        recorder.onAudioFrame(new byte[SAMPLES * 2], SAMPLES, 2, 1, SAMPLE_RATE);
+    }
+
+    private void videoFrame(CallRecorder recorder) {
+        I420Frame frame = mPool.acquire(64, 48);
+        frame.rotation = 270;
+        recorder.onVideoFrame(frame);
+        mPool.release(frame);
+    }
+
+    @Test
+    public void fileWaitsForTheVideoTrack() throws Exception {
+        CallRecorder recorder = new CallRecorder(mFile, true, mFactory);
+        recorder.start();
+
+        audioFrame(recorder);
+        assertEquals(1, mMuxer.tracks.size());
+        assertFalse(mMuxer.started);
+
+        videoFrame(recorder);
+        assertEquals(2, mMuxer.tracks.size());
+        assertSame(mVideo.format, mMuxer.tracks.get(mVideo.track));
+        assertEquals(270, mMuxer.orientation);
+        assertTrue(mMuxer.started);
+
+        videoFrame(recorder);
+        audioFrame(recorder);
+        assertTrue(recorder.stop());
+        assertTrue(mVideo.stopped);
+        assertTrue(mAudio.stopped);
+        assertTrue(mMuxer.stopped);
+        assertTrue(mMuxer.released);
+        // Every sample reached the file, the video ones on the video track.
+        assertEquals(4, mMuxer.writtenTracks.size());
+        int video = 0;
+        for (int track : mMuxer.writtenTracks) {
+            if (track == mVideo.track) {
+                video++;
+            }
+        }
+        assertEquals(2, video);
+    }
+
+    @Test
+    public void audioOnlyFileIgnoresVideo() throws Exception {
+        CallRecorder recorder = new CallRecorder(mFile, false, mFactory);
+        recorder.start();
+
+        videoFrame(recorder);
+        assertNull(mVideo);
+        audioFrame(recorder);
+        assertEquals(1, mMuxer.tracks.size());
+        assertTrue(mMuxer.started);
+        assertTrue(recorder.stop());
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.zurivideosample.recording;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SampleWriterTest {
+    private static final int VIDEO = 0;
+    private static final int AUDIO = 1;
+
+    // Records what reaches it; blocks on the first sample until released,
+    // like a disk that stalls.
+    private static final class BlockingSink implements SampleWriter.Sink {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> written = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+
+        @Override
+        public void writeSample(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                written.add(presentationTimeUs);
+                sizes.add(data.remaining());
+            }
+        }
+    }
+
+    private static ByteBuffer sample(int size) {
+        ByteBuffer data = ByteBuffer.allocate(size + 4);
+        data.position(4);
+        return data;
+    }
+
+    @Test
+    public void stalledSinkDropsInsteadOfGrowing() {
+        BlockingSink sink = new BlockingSink();
+        SampleWriter writer = new SampleWriter(sink, 4, 64);
+        writer.start();
+        writer.setReady();
+
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (writer.offer(AUDIO, sample(32), i, 0)) {
+                accepted++;
+            }
+        }
+        // At most every buffer is queued, and the stalled one taken.
+        assertTrue(accepted <= 5);
+        assertEquals(100 - accepted, writer.getDroppedCount());
+        assertTrue(writer.getMaxQueuedCount() <= 4);
+
+        sink.release.countDown();
+        writer.stop();
+        assertEquals(accepted, writer.getWrittenCount());
+        assertEquals(accepted, sink.written.size());
+        assertEquals(4, writer.getFreeCount());
+        for (int size : sink.sizes) {
+            assertEquals(32, size);
+        }
+    }
+
+    @Test
+    public void dependentTrackWaitsForSyncAfterDrop() {
+        BlockingSink sink = new BlockingSink();
+        SampleWriter writer = new SampleWriter(sink, 2, 64);
+        writer.setNeedsSync(VIDEO, true);
+
+        assertTrue(writer.offer(VIDEO, sample(8), 0, SampleWriter.FLAG_SYNC));
+        assertTrue(writer.offer(VIDEO, sample(8), 1, 0));
+        // Pool exhausted: dropped, and the track now waits for a sync sample.
+        assertFalse(writer.offer(VIDEO, sample(8), 2, 0));
+        assertEquals(1, writer.getDroppedCount());
+
+        writer.start();
+        sink.release.countDown();
+        writer.setReady();
+        while (writer.getFreeCount() < 2) {
+            Thread.yield();
+        }
+        assertFalse(writer.offer(VIDEO, sample(8), 3, 0));
+        assertEquals(1, writer.getDroppedForSyncCount());
+        // Independent tracks are unaffected.
+        assertTrue(writer.offer(AUDIO, sample(8), 3, 0));
+        assertTrue(writer.offer(VIDEO, sample(8), 4, SampleWriter.FLAG_SYNC));
+        writer.stop();
+
+        assertEquals(4, writer.getWrittenCount());
+        assertEquals(0L, (long) sink.written.get(0));
+        assertEquals(1L, (long) sink.written.get(1));
+        assertEquals(4L, (long) sink.written.get(3));
+    }
+
+    @Test
+    public void oversizeSamplesAreDropped() {
+        SampleWriter writer = new SampleWriter(new BlockingSink(), 2, 16);
+        assertFalse(writer.offer(AUDIO, sample(17), 0, 0));
+        assertTrue(writer.offer(AUDIO, sample(16), 1, 0));
+        assertEquals(1, writer.getDroppedCount());
+    }
+
+    @Test
+    public void nothingIsWrittenUnlessReady() {
+        BlockingSink sink = new BlockingSink();
+        sink.release.countDown();
+        SampleWriter writer = new SampleWriter(sink, 4, 16);
+        writer.start();
+        assertTrue(writer.offer(AUDIO, sample(8), 0, 0));
+        assertTrue(writer.offer(AUDIO, sample(8), 1, 0));
+        writer.stop();
+
+        assertTrue(sink.written.isEmpty());
+        assertEquals(0, writer.getWrittenCount());
+        assertEquals(4, writer.getFreeCount());
+    }
+
+    @Test
+    public void failedSinkStopsWriting() {
+        SampleWriter writer = new SampleWriter(new SampleWriter.Sink() {
+            @Override
+            public void writeSample(int track, ByteBuffer data, long presentationTimeUs, int flags)
+                    throws IOException {
+                throw new IOException("No space left");
+            }
+        }, 2, 16);
+        writer.start();
+        writer.setReady();
+        assertTrue(writer.offer(AUDIO, sample(8), 0, 0));
+        writer.stop();
+
+        assertTrue(writer.hasFailed());
+        assertEquals(0, writer.getWrittenCount());
+        assertFalse(writer.offer(AUDIO, sample(8), 1, 0));
+    }
+}
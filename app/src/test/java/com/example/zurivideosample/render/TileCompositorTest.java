@@ -0,0 +1,98 @@
+package com.example.zurivideosample.render;
+
+import com.example.zurivideosample.effects.I420Frame;
+
+import org.junit.Test;
+
+import io.agora.rtc.mediaio.MediaIO;
+
+import static org.junit.Assert.*;
+
+public class TileCompositorTest {
+    private static final int I420 = MediaIO.PixelFormat.I420.intValue();
+
+    private final TileCompositor mCompositor = new TileCompositor(0xFF018786);
+
+    @Test
+    public void onlyTheLatestFrameIsShown() {
+        TileSink sink = mCompositor.addTile(7);
+        byte[] frame = new byte[I420Frame.sizeOf(16, 8)];
+        frame[0] = 1;
+        sink.consumeByteArrayFrame(frame, I420, 16, 8, 0, 0);
+        frame[0] = 2;
+        sink.consumeByteArrayFrame(frame, I420, 16, 8, 90, 0);
+        assertEquals(1, mCompositor.getPacing().getDroppedCount());
+
+        mCompositor.onDrawFrame(null);
+        assertEquals(2, sink.getFrame().get(0));
+        assertEquals(90, sink.getRotation());
+        assertEquals(1, mCompositor.getPacing().getShownCount());
+        // Nothing new, nothing shown.
+        mCompositor.onDrawFrame(null);
+        assertEquals(1, mCompositor.getPacing().getShownCount());
+
+        // Short or foreign frames are ignored.
+        sink.consumeByteArrayFrame(new byte[10], I420, 16, 8, 0, 0);
+        sink.consumeByteArrayFrame(frame, MediaIO.PixelFormat.NV21.intValue(), 16, 8, 0, 0);
+        assertFalse(sink.latch());
+    }
+
+    @Test
+    public void pinningSwapsWithTheLocalTile() {
+        mCompositor.addTile(1);
+        mCompositor.addTile(2);
+        mCompositor.setPinned(2);
+        assertEquals(2, mCompositor.getPinnedUid());
+        // Unknown users cannot be pinned.
+        mCompositor.setPinned(3);
+        assertEquals(TileCompositor.LOCAL_UID, mCompositor.getPinnedUid());
+
+        mCompositor.setPinned(1);
+        mCompositor.removeTile(1);
+        assertEquals(TileCompositor.LOCAL_UID, mCompositor.getPinnedUid());
+        assertEquals(1, mCompositor.getTileCount());
+        assertFalse(mCompositor.hasTile(1));
+
+        mCompositor.setSuspended(2, true);
+        assertTrue(mCompositor.isSuspended(2));
+        mCompositor.clear();
+        assertEquals(0, mCompositor.getTileCount());
+        assertFalse(mCompositor.isSuspended(2));
+    }
+
+    @Test
+    public void snapshotsAreSmallAndUpright() {
+        TileSink sink = mCompositor.addTile(5);
+        assertNull(sink.takeSnapshot());
+        // A 4x2 frame, black but for its top left pixel.
+        byte[] frame = new byte[I420Frame.sizeOf(4, 2)];
+        java.util.Arrays.fill(frame, 0, 8, (byte) 16);
+        java.util.Arrays.fill(frame, 8, frame.length, (byte) 128);
+        frame[0] = (byte) 235;
+        sink.requestSnapshot();
+        sink.consumeByteArrayFrame(frame, I420, 4, 2, 90, 0);
+        Snapshot snapshot = sink.takeSnapshot();
+        assertNull(sink.takeSnapshot());
+        // Turned clockwise, the top left pixel ends up top right.
+        assertEquals(2, snapshot.getWidth());
+        assertEquals(4, snapshot.getHeight());
+        assertEquals((short) 0xFFFF, snapshot.getPixels()[1]);
+        assertEquals(0, snapshot.getPixels()[0]);
+        assertEquals(0, snapshot.getPixels()[7]);
+
+        // Larger frames are scaled down.
+        sink.requestSnapshot();
+        sink.consumeByteArrayFrame(new byte[I420Frame.sizeOf(640, 360)], I420, 640, 360, 0, 0);
+        snapshot = sink.takeSnapshot();
+        assertEquals(Snapshot.LONG_EDGE, snapshot.getWidth());
+        assertEquals(90, snapshot.getHeight());
+
+        mCompositor.setLive(5, false);
+        mCompositor.setSnapshot(5, snapshot);
+        assertFalse(mCompositor.isLive(5));
+        assertSame(snapshot, mCompositor.getSnapshot(5));
+        assertSame(sink, mCompositor.getSink(5));
+        mCompositor.removeTile(5);
+        assertNull(mCompositor.getSink(5));
+    }
+}
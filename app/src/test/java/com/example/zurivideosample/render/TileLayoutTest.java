@@ -0,0 +1,63 @@
+package com.example.zurivideosample.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileLayoutTest {
+    private static final float EPSILON = 1e-5f;
+
+    private final float[] mMatrix = new float[16];
+
+    @Test
+    public void gridMatchesTheViewLayout() {
+        int[] rect = new int[4];
+        // Five tiles: 3x2.
+        TileLayout.gridRect(0, 5, 900, 600, rect);
+        assertArrayEquals(new int[]{0, 0, 300, 300}, rect);
+        TileLayout.gridRect(4, 5, 900, 600, rect);
+        assertArrayEquals(new int[]{300, 300, 600, 600}, rect);
+
+        TileLayout.gridRect(0, 1, 900, 600, rect);
+        assertArrayEquals(new int[]{0, 0, 900, 600}, rect);
+    }
+
+    @Test
+    public void wideFrameIsCroppedAtTheSides() {
+        TileLayout.setCropMatrix(mMatrix, 640, 360, 0, 100, 100);
+        // The tile's top left shows the frame's top row, the first row
+        // stored.
+        assertPoint(0.21875f, 0f, 0f, 1f);
+        assertPoint(0.78125f, 1f, 1f, 0f);
+        assertPoint(0.5f, 0.5f, 0.5f, 0.5f);
+    }
+
+    @Test
+    public void tallTileCropsTopAndBottomOfPortraitFrame() {
+        TileLayout.setCropMatrix(mMatrix, 360, 640, 0, 360, 320);
+        assertPoint(0f, 0.25f, 0f, 1f);
+        assertPoint(1f, 0.75f, 1f, 0f);
+    }
+
+    @Test
+    public void rotatedFrameIsShownUpright() {
+        // Stored landscape, shown portrait after turning it clockwise.
+        TileLayout.setCropMatrix(mMatrix, 640, 360, 90, 360, 640);
+        // The stored bottom left ends up top left.
+        assertPoint(0f, 1f, 0f, 1f);
+        assertPoint(0f, 0f, 1f, 1f);
+        assertPoint(1f, 1f, 0f, 0f);
+
+        TileLayout.setCropMatrix(mMatrix, 640, 360, 270, 360, 640);
+        assertPoint(1f, 0f, 0f, 1f);
+
+        TileLayout.setCropMatrix(mMatrix, 640, 360, 180, 640, 360);
+        assertPoint(1f, 1f, 0f, 1f);
+    }
+
+    // The stored frame coordinates the tile point x, y (bottom-up) shows.
+    private void assertPoint(float s, float t, float x, float y) {
+        assertEquals(s, mMatrix[0] * x + mMatrix[4] * y + mMatrix[12], EPSILON);
+        assertEquals(t, mMatrix[1] * x + mMatrix[5] * y + mMatrix[13], EPSILON);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.zurivideosample.screenshare;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import io.agora.rtc.mediaio.IVideoFrameConsumer;
+
+import static org.junit.Assert.*;
+
+public class DirtyRegionDetectorTest {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 70;
+    private static final int TILE = 16;
+    // Padded rows, as ImageReader delivers them.
+    private static final int STRIDE = WIDTH * 4 + 24;
+
+    private static final class CountingConsumer implements IVideoFrameConsumer {
+        int frames;
+        long lastTimestamp;
+
+        @Override
+        public void consumeByteBufferFrame(ByteBuffer buffer, int format, int width, int height,
+                                           int rotation, long timestamp) {
+            frames++;
+            lastTimestamp = timestamp;
+        }
+
+        @Override
+        public void consumeByteArrayFrame(byte[] data, int format, int width, int height,
+                                          int rotation, long timestamp) {
+        }
+
+        @Override
+        public void consumeTextureFrame(int textureId, int format, int width, int height,
+                                        int rotation, long timestamp, float[] matrix) {
+        }
+    }
+
+    @Test
+    public void firstFrameIsDirtyAndCopiedPacked() {
+        DirtyRegionDetector detector = new DirtyRegionDetector(WIDTH, HEIGHT, TILE);
+        ByteBuffer frame = frame(3);
+        assertEquals(detector.getTileCount(), detector.update(frame, STRIDE));
+        assertEquals(7 * 5, detector.getTileCount());
+        assertEquals(0, detector.getDirtyLeft());
+        assertEquals(WIDTH, detector.getDirtyRight());
+        assertEquals(HEIGHT, detector.getDirtyBottom());
+        assertPacked(frame, detector.getFrame());
+
+        assertEquals(0, detector.update(frame(3), STRIDE));
+        assertEquals(0, detector.getDirtyRight());
+    }
+
+    @Test
+    public void onlyChangedTilesAreReported() {
+        DirtyRegionDetector detector = new DirtyRegionDetector(WIDTH, HEIGHT, TILE);
+        detector.update(frame(3), STRIDE);
+
+        // One pixel in the last, partial, tile column and row.
+        ByteBuffer frame = frame(3);
+        setPixel(frame, 99, 69, 0x01020304);
+        assertEquals(1, detector.update(frame, STRIDE));
+        assertEquals(96, detector.getDirtyLeft());
+        assertEquals(64, detector.getDirtyTop());
+        assertEquals(WIDTH, detector.getDirtyRight());
+        assertEquals(HEIGHT, detector.getDirtyBottom());
+        assertPacked(frame, detector.getFrame());
+
+        // Two pixels far apart: their bounding box, two tiles.
+        setPixel(frame, 17, 1, 0x05060708);
+        setPixel(frame, 40, 40, 0x05060708);
+        assertEquals(2, detector.update(frame, STRIDE));
+        assertEquals(16, detector.getDirtyLeft());
+        assertEquals(0, detector.getDirtyTop());
+        assertEquals(48, detector.getDirtyRight());
+        assertEquals(48, detector.getDirtyBottom());
+        assertPacked(frame, detector.getFrame());
+    }
+
+    @Test
+    public void paddingBeyondTheWidthIsIgnored() {
+        DirtyRegionDetector detector = new DirtyRegionDetector(WIDTH, HEIGHT, TILE);
+        ByteBuffer frame = frame(3);
+        detector.update(frame, STRIDE);
+        frame.put(WIDTH * 4 + 3, (byte) 0x7f);
+        assertEquals(0, detector.update(frame, STRIDE));
+    }
+
+    @Test
+    public void sourceSkipsUnchangedFramesAndRepeatsWhenIdle() {
+        ScreenShareSource source = new ScreenShareSource(TILE);
+        CountingConsumer consumer = new CountingConsumer();
+        ByteBuffer frame = frame(9);
+        assertFalse(source.onFrame(frame, WIDTH, HEIGHT, STRIDE, 0));
+        assertEquals(1, source.getDroppedCount());
+
+        source.onInitialize(consumer);
+        source.onStart();
+        assertFalse(source.onIdle(5000));
+        assertTrue(source.onFrame(frame, WIDTH, HEIGHT, STRIDE, 100));
+        assertFalse(source.onFrame(frame, WIDTH, HEIGHT, STRIDE, 200));
+        assertFalse(source.onIdle(900));
+        assertTrue(source.onIdle(1100));
+        setPixel(frame, 50, 50, 0x0a0b0c0d);
+        assertTrue(source.onFrame(frame, WIDTH, HEIGHT, STRIDE, 1200));
+        assertFalse(source.onIdle(2100));
+
+        assertEquals(3, consumer.frames);
+        assertEquals(1200, consumer.lastTimestamp);
+        assertEquals(2, source.getSentCount());
+        assertEquals(1, source.getRepeatedCount());
+        assertEquals(1, source.getSkippedCount());
+    }
+
+    private static ByteBuffer frame(int seed) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                setPixel(buffer, x, y, seed * 31 + x * 7 + y * 13);
+            }
+        }
+        return buffer;
+    }
+
+    private static void setPixel(ByteBuffer buffer, int x, int y, int rgba) {
+        buffer.putInt(y * STRIDE + x * 4, rgba);
+    }
+
+    private static void assertPacked(ByteBuffer expected, ByteBuffer packed) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("pixel " + x + "," + y, expected.getInt(y * STRIDE + x * 4),
+                        packed.getInt((y * WIDTH + x) * 4));
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.zurivideosample.telemetry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+public class CallQualityRecorderTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void histogramPercentilesUseBucketBounds() {
+        Histogram histogram = new Histogram(Histogram.linearBounds(10, 100));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(50, histogram.percentile(50));
+        assertEquals(100, histogram.percentile(99));
+        histogram.record(5000);
+        assertEquals(5000, histogram.percentile(100));
+        assertEquals(101, histogram.getCount());
+    }
+
+    @Test
+    public void summarizesSentAndReceivedStreams() {
+        CallQualityRecorder recorder = new CallQualityRecorder(2);
+        recorder.start(1234L, 0);
+        for (int i = 0; i < 10; i++) {
+            recorder.onLocalVideoStats(localStats(400, 15));
+            recorder.onRemoteVideoStats(remoteStats(7, 800, 30, i * 100));
+            recorder.onRemoteVideoStats(remoteStats(8, 200, 10, 0));
+        }
+        recorder.onUserOffline(8);
+        // A third user does not fit the pool of two until user 8 is gone.
+        recorder.onRemoteVideoStats(remoteStats(9, 200, 10, 0));
+        CallSummary summary = recorder.finish(60000);
+
+        assertEquals(1234L, summary.startedAt);
+        assertEquals(60000, summary.durationMs);
+        assertEquals(3, summary.remoteUsers);
+        assertEquals(400, summary.sentP50[StreamQuality.BITRATE]);
+        assertEquals(15, summary.sentP99[StreamQuality.FPS]);
+        assertEquals(200, summary.receivedP50[StreamQuality.BITRATE]);
+        assertEquals(800, summary.receivedP99[StreamQuality.BITRATE]);
+        // User 7 freezes 100ms in every period but the first.
+        assertEquals(100, summary.receivedP99[StreamQuality.FREEZE]);
+        assertEquals(0, recorder.getDroppedUserCount());
+        assertNull(recorder.finish(70000));
+    }
+
+    @Test
+    public void lateStatsOfUsersWhoLeftAreIgnored() {
+        CallQualityRecorder recorder = new CallQualityRecorder(2);
+        recorder.start(0, 0);
+        recorder.onRemoteVideoStats(remoteStats(7, 800, 30, 0));
+        recorder.onUserOffline(7);
+        // Its whole frozen time would otherwise count as one period's.
+        recorder.onRemoteVideoStats(remoteStats(7, 800, 30, 5000));
+        recorder.onRemoteVideoStats(remoteStats(8, 200, 10, 0));
+        recorder.onRemoteVideoStats(remoteStats(9, 200, 10, 0));
+        // The pool has room for 9 as 7 has left, but 10 no longer fits,
+        // however often it reports.
+        recorder.onRemoteVideoStats(remoteStats(10, 200, 10, 0));
+        recorder.onRemoteVideoStats(remoteStats(10, 200, 10, 0));
+        // Back again: recorded from scratch.
+        recorder.onUserJoined(7);
+        recorder.onUserOffline(9);
+        recorder.onRemoteVideoStats(remoteStats(7, 800, 30, 100));
+        CallSummary summary = recorder.finish(1000);
+
+        assertEquals(100, summary.receivedP99[StreamQuality.FREEZE]);
+        assertEquals(3, summary.remoteUsers);
+        assertEquals(1, summary.droppedUsers);
+        assertEquals(1, recorder.getDroppedUserCount());
+    }
+
+    @Test
+    public void storeKeepsTheMostRecentCalls() throws IOException {
+        TelemetryStore store = new TelemetryStore(mFolder.newFile(), 4, DIRECT);
+        assertTrue(store.readAll().isEmpty());
+        for (int i = 0; i < 10; i++) {
+            store.save(new CallSummary(i, i * 1000, i, i % 2, 0));
+        }
+        List<CallSummary> summaries = store.readAll();
+        assertEquals(4, summaries.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6 + i, summaries.get(i).startedAt);
+            assertEquals((6 + i) * 1000, summaries.get(i).durationMs);
+            assertEquals(i % 2, summaries.get(i).droppedUsers);
+        }
+    }
+
+    @Test
+    public void storeStartsOverOnAnUnknownFile() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+        out.close();
+
+        TelemetryStore store = new TelemetryStore(file, 4, DIRECT);
+        assertTrue(store.readAll().isEmpty());
+        store.append(new CallSummary(42, 0, 0, 0, 0));
+        assertEquals(1, store.readAll().size());
+        assertEquals(42, store.readAll().get(0).startedAt);
+    }
+
+    private static IRtcEngineEventHandler.LocalVideoStats localStats(int kbps, int fps) {
+        IRtcEngineEventHandler.LocalVideoStats stats = new IRtcEngineEventHandler.LocalVideoStats();
+        stats.sentBitrate = kbps;
+        stats.sentFrameRate = fps;
+        return stats;
+    }
+
+    private static IRtcEngineEventHandler.RemoteVideoStats remoteStats(int uid, int kbps, int fps,
+                                                                       int totalFrozenMs) {
+        IRtcEngineEventHandler.RemoteVideoStats stats = new IRtcEngineEventHandler.RemoteVideoStats();
+        stats.uid = uid;
+        stats.receivedBitrate = kbps;
+        stats.rendererOutputFrameRate = fps;
+        stats.totalFrozenTime = totalFrozenMs;
+        return stats;
+    }
+}
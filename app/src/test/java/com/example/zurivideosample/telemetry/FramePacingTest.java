@@ -0,0 +1,31 @@
+package com.example.zurivideosample.telemetry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FramePacingTest {
+    @Test
+    public void framesShownOffTheirCadenceAreUneven() {
+        FramePacing pacing = new FramePacing();
+        // A 15 fps stream: the first frame has no interval yet.
+        pacing.onFrameShown(-1, -1, 4);
+        for (int i = 0; i < 10; i++) {
+            pacing.onFrameShown(66, 66 + (i % 2 == 0 ? 10 : -10), 5);
+        }
+        assertEquals(0, pacing.getUnevenCount());
+
+        // One frame shown two refreshes late, the next one early.
+        pacing.onFrameShown(66, 100, 38);
+        pacing.onFrameShown(66, 32, 4);
+        assertEquals(2, pacing.getUnevenCount());
+        assertEquals(13, pacing.getShownCount());
+        assertEquals(34, pacing.getDeviationPercentile(100));
+
+        pacing.onFrameDropped();
+        assertEquals(1, pacing.getDroppedCount());
+        pacing.reset();
+        assertEquals(0, pacing.getShownCount());
+        assertEquals(0, pacing.getUnevenCount());
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.zurivideosample.video;
+
+import com.example.zurivideosample.call.CallController;
+import com.example.zurivideosample.call.TestCalls;
+import com.example.zurivideosample.engine.FakeCallEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.agora.rtc.IRtcEngineEventHandler.AudioVolumeInfo;
+
+import static org.junit.Assert.*;
+
+public class ActiveSpeakerTest {
+    private static final long TICK_MS = 200;
+
+    private final List<Integer> mChanges = new ArrayList<>();
+    private ActiveSpeaker mSpeaker;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mSpeaker = new ActiveSpeaker(new ActiveSpeaker.Listener() {
+            @Override
+            public void onActiveSpeakerChanged(int uid) {
+                mChanges.add(uid);
+            }
+        });
+        for (int uid = 1; uid <= 3; uid++) {
+            mSpeaker.addUser(uid, mNow);
+        }
+    }
+
+    @Test
+    public void firstUserIsTheSpeakerUntilSomeoneSpeaks() {
+        assertEquals(1, mSpeaker.getUid());
+        play(1000);
+        assertEquals(1, mSpeaker.getUid());
+        assertEquals(1, mChanges.size());
+    }
+
+    @Test
+    public void clearlyLouderSpeakerTakesOverAfterDwell() {
+        play(ActiveSpeaker.MIN_DWELL_MS / 2, speaker(2, 200));
+        assertEquals(1, mSpeaker.getUid());
+        play(ActiveSpeaker.MIN_DWELL_MS, speaker(2, 200));
+        assertEquals(2, mSpeaker.getUid());
+
+        // A short reply does not take the window.
+        play(2 * TICK_MS, speaker(3, 255));
+        assertEquals(2, mSpeaker.getUid());
+        // Nor does someone about as loud.
+        play(10000, speaker(2, 120), speaker(3, 130));
+        assertEquals(2, mSpeaker.getUid());
+        assertEquals(Integer.valueOf(2), mChanges.get(mChanges.size() - 1));
+    }
+
+    @Test
+    public void speakerLeavingHandsOverToTheLoudest() {
+        play(3000, speaker(3, 150));
+        assertEquals(3, mSpeaker.getUid());
+        play(TICK_MS, speaker(2, 100));
+        mSpeaker.removeUser(3, mNow);
+        assertEquals(2, mSpeaker.getUid());
+        mSpeaker.removeUser(1, mNow);
+        mSpeaker.removeUser(2, mNow);
+        assertEquals(0, mSpeaker.getUid());
+        assertEquals(Integer.valueOf(0), mChanges.get(mChanges.size() - 1));
+    }
+
+    @Test
+    public void localReportsDoNotSilenceRemoteSpeakers() {
+        CallController call = TestCalls.newController();
+        FakeCallEngine engine = new FakeCallEngine(call.getEventHandler(), 3);
+        TestCalls.setUp(call, engine);
+        call.joinChannel("test");
+        engine.userJoins(1, 100);
+        engine.userJoins(2, 100);
+        engine.advanceTo(1000);
+        assertEquals(1, call.getActiveSpeaker().getUid());
+
+        // uid 2 is louder by more than the margin; the local report after
+        // each remote one changes nothing.
+        for (long t = 1000; t < 6000; t += TICK_MS) {
+            engine.speakers(t, 1, 60, 2, 90);
+            engine.speakers(t, 0, 150);
+        }
+        engine.advanceTo(6000);
+        assertEquals(2, call.getActiveSpeaker().getUid());
+    }
+
+    private void play(long durationMs, AudioVolumeInfo... speakers) {
+        for (long t = 0; t < durationMs; t += TICK_MS) {
+            mNow += TICK_MS;
+            mSpeaker.onAudioVolumeIndication(speakers, mNow);
+        }
+    }
+
+    private static AudioVolumeInfo speaker(int uid, int volume) {
+        AudioVolumeInfo info = new AudioVolumeInfo();
+        info.uid = uid;
+        info.volume = volume;
+        return info;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.zurivideosample.video;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.agora.rtc.Constants;
+
+import static org.junit.Assert.*;
+
+public class AudioOnlyFallbackTest {
+    // onNetworkQuality and onRtcStats both arrive every two seconds.
+    private static final long ROUND_MS = 2000;
+
+    // Recorded rounds: quality, loss %.
+    private static final int[] GOOD = {Constants.QUALITY_GOOD, 1};
+    private static final int[] LOSSY = {Constants.QUALITY_POOR, 20};
+    private static final int[] BAD = {Constants.QUALITY_VBAD, 8};
+    private static final int[] MEDIOCRE = {Constants.QUALITY_BAD, 10};
+
+    private final List<String> mChanges = new ArrayList<>();
+    private AudioOnlyFallback mFallback;
+    private long mNow = 100000;
+
+    @Before
+    public void setUp() {
+        mFallback = new AudioOnlyFallback(new AudioOnlyFallback.Listener() {
+            @Override
+            public void onLocalVideoSuspended(boolean suspended) {
+                mChanges.add(suspended ? "local off" : "local on");
+            }
+
+            @Override
+            public void onRemoteVideoSuspended(boolean suspended) {
+                mChanges.add(suspended ? "remote off" : "remote on");
+            }
+        });
+    }
+
+    @Test
+    public void sustainedLossSuspendsOnlyThatDirection() {
+        replay(LOSSY, GOOD, 2);
+        assertTrue(mChanges.isEmpty());
+        replay(LOSSY, GOOD, 1);
+        assertTrue(mFallback.isLocalVideoSuspended());
+        assertFalse(mFallback.isRemoteVideoSuspended());
+        assertEquals("[local off]", mChanges.toString());
+    }
+
+    @Test
+    public void briefDropDoesNotSuspend() {
+        for (int i = 0; i < 20; i++) {
+            replay(BAD, BAD, 2);
+            replay(GOOD, GOOD, 1);
+        }
+        assertTrue(mChanges.isEmpty());
+    }
+
+    @Test
+    public void resumesOnlyAfterHoldAndGoodRun() {
+        replay(GOOD, BAD, 3);
+        assertTrue(mFallback.isRemoteVideoSuspended());
+        // Five good rounds are 10 seconds, exactly the minimum hold.
+        replay(GOOD, MEDIOCRE, 10);
+        assertTrue(mFallback.isRemoteVideoSuspended());
+        replay(GOOD, GOOD, 4);
+        assertTrue(mFallback.isRemoteVideoSuspended());
+        replay(GOOD, GOOD, 1);
+        assertFalse(mFallback.isRemoteVideoSuspended());
+        assertEquals("[remote off, remote on]", mChanges.toString());
+    }
+
+    @Test
+    public void unknownQualityDoesNotResume() {
+        replay(BAD, GOOD, 3);
+        replay(new int[]{Constants.QUALITY_UNKNOWN, 0}, GOOD, 20);
+        assertTrue(mFallback.isLocalVideoSuspended());
+    }
+
+    @Test
+    public void flappingLinkBacksOffResumes() {
+        // Good for 12s, then bad for 6s, for 10 minutes.
+        for (int cycle = 0; cycle < 33; cycle++) {
+            replay(GOOD, GOOD, 6);
+            replay(BAD, GOOD, 3);
+        }
+        // Without backoff every cycle would suspend and resume once.
+        assertTrue(mFallback.getSuspensionCount() < 12);
+    }
+
+    @Test
+    public void sdkFallbackSuspendsImmediately() {
+        mFallback.onLocalPublishFallback(true, mNow);
+        assertTrue(mFallback.isLocalVideoSuspended());
+        mFallback.onLocalPublishFallback(false, mNow);
+        assertTrue(mFallback.isLocalVideoSuspended());
+        replay(GOOD, GOOD, 5);
+        assertFalse(mFallback.isLocalVideoSuspended());
+        assertEquals("[local off, local on]", mChanges.toString());
+    }
+
+    private void replay(int[] tx, int[] rx, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            mNow += ROUND_MS;
+            mFallback.onPacketLoss(tx[1], rx[1]);
+            mFallback.onNetworkQuality(tx[0], rx[0], mNow);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.zurivideosample.video;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+public class EncoderProfileControllerTest {
+    // onLocalVideoStats and onNetworkQuality both arrive every two seconds.
+    private static final long ROUND_MS = 2000;
+
+    // Recorded rounds: tx quality, loss %, sent kbps, target kbps, sent fps, target fps.
+    private static final int[] GOOD = {1, 0, 800, 800, 15, 15};
+    private static final int[] CONGESTED = {4, 12, 300, 800, 9, 15};
+    private static final int[] MEDIOCRE = {3, 4, 700, 800, 14, 15};
+    private static final int[] CPU_BOUND = {1, 0, 780, 800, 8, 15};
+
+    private final List<EncoderProfile> mApplied = new ArrayList<>();
+    private EncoderProfileController mController;
+    private long mNow = 100000;
+
+    @Before
+    public void setUp() {
+        mController = new EncoderProfileController(new EncoderProfileController.Listener() {
+            @Override
+            public void onProfileChanged(EncoderProfile profile) {
+                mApplied.add(profile);
+            }
+        });
+    }
+
+    @Test
+    public void startsAtPreviousFixedProfile() {
+        EncoderProfile profile = mController.getProfile();
+        assertEquals(640, profile.width);
+        assertEquals(360, profile.height);
+        assertEquals(15, profile.frameRate.getValue());
+    }
+
+    @Test
+    public void goodLinkClimbsToTopOfLadderRateLimited() {
+        replay(GOOD, 30);
+        assertEquals(EncoderProfileController.LADDER.length - 1, mController.getLevel());
+        EncoderProfile top = mController.getProfile();
+        assertEquals(1280, top.width);
+        assertEquals(30, top.frameRate.getValue());
+        // 60 seconds of headroom, at most one step up per 15 seconds.
+        assertTrue(mApplied.size() <= 4);
+    }
+
+    @Test
+    public void congestionStepsDownToFloor() {
+        replay(CONGESTED, 30);
+        assertEquals(0, mController.getLevel());
+        assertEquals(7, mController.getProfile().frameRate.getValue());
+    }
+
+    @Test
+    public void cpuBoundEncoderStepsDown() {
+        replay(CPU_BOUND, 3);
+        assertTrue(mController.getLevel() < EncoderProfileController.DEFAULT_LEVEL);
+    }
+
+    @Test
+    public void mediocreLinkHoldsSteady() {
+        replay(MEDIOCRE, 100);
+        assertEquals(0, mController.getStepCount());
+    }
+
+    @Test
+    public void flappingLinkBacksOffStepUps() {
+        // A link that is fine for 12s then congested for 4s, for 10 minutes.
+        for (int cycle = 0; cycle < 37; cycle++) {
+            replay(GOOD, 6);
+            replay(CONGESTED, 2);
+        }
+        // Without backoff this would step on almost every cycle.
+        assertTrue("steps: " + mController.getStepCount(), mController.getStepCount() < 20);
+    }
+
+    @Test
+    public void heatCapsLadderWithHysteresis() {
+        replay(GOOD, 30);
+        mController.onBatteryTemperature(460, mNow);
+        assertEquals(1, mController.getLevel());
+
+        // Cooling a little is not enough to lift the cap.
+        mController.onBatteryTemperature(445, mNow);
+        replay(GOOD, 30);
+        assertEquals(1, mController.getLevel());
+
+        mController.onBatteryTemperature(300, mNow);
+        replay(GOOD, 60);
+        assertEquals(EncoderProfileController.LADDER.length - 1, mController.getLevel());
+    }
+
+    @Test
+    public void crowdedRoomsCapLadder() {
+        replay(GOOD, 30);
+        mController.onParticipantCount(6, mNow);
+        assertEquals(2, mController.getLevel());
+        mController.onParticipantCount(12, mNow);
+        assertEquals(1, mController.getLevel());
+        replay(GOOD, 30);
+        assertEquals(1, mController.getLevel());
+    }
+
+    private void replay(int[] round, int rounds) {
+        IRtcEngineEventHandler.LocalVideoStats stats = new IRtcEngineEventHandler.LocalVideoStats();
+        for (int i = 0; i < rounds; i++) {
+            mNow += ROUND_MS;
+            mController.onNetworkQuality(round[0]);
+            stats.txPacketLossRate = round[1];
+            stats.sentBitrate = round[2];
+            stats.targetBitrate = round[3];
+            stats.sentFrameRate = round[4];
+            stats.targetFrameRate = round[5];
+            mController.onLocalVideoStats(stats, mNow);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.zurivideosample.video;
+
+import android.view.SurfaceView;
+import android.view.View;
+
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.render.TileCompositor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+
+import static org.junit.Assert.*;
+
+public class RemoteVideoGridTest {
+    private static final int POOL_CAPACITY = 12;
+
+    private FakeCallEngine mEngine;
+    private RendererPool mPool;
+    private RemoteVideoGrid mGrid;
+
+    @Before
+    public void setUp() {
+        mEngine = new FakeCallEngine(new IRtcEngineEventHandler() {
+            @Override
+            public void onFirstRemoteVideoDecoded(int uid, int width, int height, int elapsed) {
+                mGrid.add(uid);
+            }
+
+            @Override
+            public void onUserOffline(int uid, int reason) {
+                mGrid.remove(uid);
+            }
+        }, 42);
+        mPool = new RendererPool(new RendererPool.Factory() {
+            @Override
+            public SurfaceView create() {
+                return mEngine.createRendererView(null);
+            }
+        }, POOL_CAPACITY);
+        mGrid = new RemoteVideoGrid(new VideoGridLayout(null), mPool, POOL_CAPACITY);
+        mGrid.setEngine(mEngine);
+    }
+
+    @Test
+    public void everyRemoteUserGetsItsOwnTile() {
+        mEngine.joinChannel(null, "test", null, 0);
+        for (int uid = 1; uid <= 8; uid++) {
+            mEngine.userJoins(uid, 100 + uid);
+        }
+        mEngine.advanceBy(1000);
+
+        assertEquals(8, mGrid.size());
+        assertEquals(8, mEngine.getBoundRemoteCount());
+        for (int uid = 1; uid <= 8; uid++) {
+            assertSame(mGrid.get(uid), mEngine.getRemoteCanvas(uid));
+        }
+    }
+
+    @Test
+    public void duplicateDecodeDoesNotAddSecondTile() {
+        assertTrue(mGrid.add(7));
+        assertFalse(mGrid.add(7));
+        assertEquals(1, mGrid.size());
+        assertEquals(1, mPool.getCreatedCount());
+    }
+
+    @Test
+    public void suspendedTilesShowRecycledPlaceholders() {
+        final int[] created = new int[1];
+        mGrid.setPlaceholderFactory(new RemoteVideoGrid.PlaceholderFactory() {
+            @Override
+            public View create() {
+                created[0]++;
+                return new View(null);
+            }
+        });
+        mGrid.add(1);
+        mGrid.add(2);
+        mGrid.setAudioOnlyFallback(2, true);
+        assertFalse(mGrid.isShowingPlaceholder(1));
+        assertTrue(mGrid.isShowingPlaceholder(2));
+
+        mGrid.setAllSuspended(true);
+        mGrid.add(3);
+        assertTrue(mGrid.isShowingPlaceholder(1));
+        assertTrue(mGrid.isShowingPlaceholder(3));
+
+        // The SDK still has user 2 on audio only.
+        mGrid.setAllSuspended(false);
+        assertFalse(mGrid.isShowingPlaceholder(1));
+        assertTrue(mGrid.isShowingPlaceholder(2));
+
+        mGrid.remove(2);
+        mGrid.setAllSuspended(true);
+        assertEquals(3, created[0]);
+        assertFalse(mGrid.isShowingPlaceholder(2));
+    }
+
+    @Test
+    public void leavingUsersReturnViewsToPool() {
+        mEngine.joinChannel(null, "test", null, 0);
+        for (int uid = 1; uid <= 6; uid++) {
+            mEngine.userJoins(uid, 100);
+            mEngine.userLeaves(uid, 2000);
+        }
+        mEngine.advanceBy(3000);
+
+        assertEquals(0, mGrid.size());
+        assertEquals(0, mEngine.getBoundRemoteCount());
+        assertEquals(6, mPool.getIdleCount());
+    }
+
+    @Test
+    public void churnAcrossThousandsOfCallsReusesViews() {
+        for (int call = 0; call < 2000; call++) {
+            long start = mEngine.now();
+            mEngine.joinChannel(null, "test", null, 0);
+            mEngine.churn(1, 10, start + 100, 30000, 2.0, 5000);
+            mEngine.advanceBy(31000);
+            assertEquals(mEngine.getRemoteUserCount(), mGrid.size());
+            assertEquals(mGrid.size(), mEngine.getBoundRemoteCount());
+
+            mGrid.clear();
+            mEngine.leaveChannel();
+            mEngine.advanceBy(10);
+        }
+
+        // Never more views than users who were ever on screen at once.
+        assertTrue(mPool.getCreatedCount() <= 10);
+        assertEquals(mPool.getCreatedCount(), mEngine.getRendererViewsCreated());
+    }
+
+    @Test
+    public void compositorTilesNeedNoViews() {
+        TileCompositor compositor = new TileCompositor(0);
+        mGrid.setCompositor(compositor);
+        mEngine.joinChannel(null, "test", null, 0);
+        for (int uid = 1; uid <= 4; uid++) {
+            mEngine.userJoins(uid, 100);
+        }
+        mEngine.advanceBy(1000);
+
+        assertEquals(4, mGrid.size());
+        assertEquals(4, compositor.getTileCount());
+        assertEquals(4, mEngine.getRemoteRendererCount());
+        assertEquals(0, mEngine.getBoundRemoteCount());
+        assertEquals(0, mPool.getCreatedCount());
+
+        mGrid.setAudioOnlyFallback(2, true);
+        assertTrue(mGrid.isShowingPlaceholder(2));
+        assertTrue(compositor.isSuspended(2));
+        mGrid.setAttached(false);
+        assertFalse(compositor.isGridVisible());
+
+        mGrid.remove(2);
+        assertFalse(compositor.hasTile(2));
+        assertNull(mEngine.getRemoteRenderer(2));
+        mGrid.clear();
+        assertEquals(0, compositor.getTileCount());
+        assertEquals(0, mEngine.getRemoteRendererCount());
+    }
+}
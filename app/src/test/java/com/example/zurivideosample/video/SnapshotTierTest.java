@@ -0,0 +1,230 @@
+package com.example.zurivideosample.video;
+
+import android.content.ComponentCallbacks2;
+
+import com.example.zurivideosample.effects.I420Frame;
+import com.example.zurivideosample.engine.FakeCallEngine;
+import com.example.zurivideosample.render.Snapshot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.IRtcEngineEventHandler.AudioVolumeInfo;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTierTest {
+    private static final int MAX_LIVE = 2;
+
+    // Stands in for the subscriptions and tiles.
+    private final Set<Integer> mStill = new HashSet<>();
+    private final Set<Integer> mCapturing = new HashSet<>();
+    private final Set<Integer> mRequested = new HashSet<>();
+    private final Map<Integer, Snapshot> mShown = new HashMap<>();
+    private final Map<Integer, Integer> mCaptures = new HashMap<>();
+    private boolean mFramesArrive = true;
+    private int mMaxConcurrentCaptures;
+
+    private FakeCallEngine mEngine;
+    private SnapshotTier mTier;
+
+    @Before
+    public void setUp() {
+        mEngine = new FakeCallEngine(new IRtcEngineEventHandler() {
+        });
+        mTier = new SnapshotTier(new SnapshotTier.Host() {
+            @Override
+            public void setLive(int uid, boolean live) {
+                if (live) {
+                    mStill.remove(uid);
+                } else {
+                    mStill.add(uid);
+                }
+            }
+
+            @Override
+            public void setCapturing(int uid, boolean capturing) {
+                if (capturing) {
+                    mCapturing.add(uid);
+                    Integer count = mCaptures.get(uid);
+                    mCaptures.put(uid, count == null ? 1 : count + 1);
+                    mMaxConcurrentCaptures = Math.max(mMaxConcurrentCaptures, mCapturing.size());
+                } else {
+                    mCapturing.remove(uid);
+                }
+            }
+
+            @Override
+            public boolean requestSnapshot(int uid) {
+                mRequested.add(uid);
+                return true;
+            }
+
+            @Override
+            public Snapshot takeSnapshot(int uid) {
+                return mFramesArrive && mRequested.remove(uid) ? snapshot(16, 9) : null;
+            }
+
+            @Override
+            public void showSnapshot(int uid, Snapshot snapshot) {
+                mShown.put(uid, snapshot);
+            }
+        }, mEngine.getTimer(), new SnapshotCache(), MAX_LIVE);
+    }
+
+    private static Snapshot snapshot(int width, int height) {
+        return Snapshot.fromI420(ByteBuffer.allocate(I420Frame.sizeOf(width, height)), width, height,
+                0, Snapshot.LONG_EDGE, 0);
+    }
+
+    private void addUsers(int count) {
+        for (int uid = 1; uid <= count; uid++) {
+            mTier.addUser(uid);
+        }
+    }
+
+    private void speak(int uid) {
+        AudioVolumeInfo info = new AudioVolumeInfo();
+        info.uid = uid;
+        info.volume = 200;
+        mTier.onAudioVolumeIndication(new AudioVolumeInfo[]{info});
+    }
+
+    @Test
+    public void tilesBeyondTheBudgetGoStillWithTheirLastFrame() {
+        addUsers(4);
+        assertEquals(4, mTier.getLiveCount());
+
+        // Not before they have been live for a while.
+        mEngine.advanceBy(SnapshotTier.MIN_LIVE_MS - SnapshotTier.TICK_MS);
+        assertEquals(4, mTier.getLiveCount());
+        mEngine.advanceBy(2 * SnapshotTier.TICK_MS);
+        assertEquals(MAX_LIVE, mTier.getLiveCount());
+        assertTrue(mTier.isLive(1));
+        assertTrue(mTier.isLive(2));
+        // Each took a snapshot of its video before going still.
+        for (int uid = 3; uid <= 4; uid++) {
+            assertTrue(mStill.contains(uid));
+            assertNotNull(mShown.get(uid));
+        }
+        assertEquals(2, mTier.getCache().size());
+        assertTrue(mCaptures.isEmpty());
+    }
+
+    @Test
+    public void speakersGoLiveStraightAway() {
+        addUsers(4);
+        mEngine.advanceBy(SnapshotTier.MIN_LIVE_MS + SnapshotTier.TICK_MS);
+        assertFalse(mTier.isLive(4));
+
+        speak(4);
+        assertTrue(mTier.isLive(4));
+        assertFalse(mStill.contains(4));
+        // Its snapshot stays until video arrives.
+        assertNotNull(mShown.get(4));
+
+        // The quietest takes its place, once it has been live long enough.
+        mEngine.advanceBy(SnapshotTier.MIN_LIVE_MS + SnapshotTier.TICK_MS);
+        assertEquals(MAX_LIVE, mTier.getLiveCount());
+        assertTrue(mTier.isLive(4));
+        assertTrue(mTier.isLive(1));
+        assertFalse(mTier.isLive(2));
+
+        // The pinned user is live whatever the budget.
+        mTier.setPinned(3);
+        assertTrue(mTier.isLive(3));
+        assertTrue(mTier.isLive(4));
+    }
+
+    @Test
+    public void snapshotsAreRefreshedOldestFirstAFewAtATime() {
+        addUsers(8);
+        mEngine.advanceBy(SnapshotTier.MIN_LIVE_MS + SnapshotTier.TICK_MS);
+        assertEquals(6, mStill.size());
+        assertTrue(mCaptures.isEmpty());
+
+        // Two at a time, each done by the next tick.
+        mEngine.advanceBy(SnapshotTier.REFRESH_INTERVAL_MS + 3 * SnapshotTier.TICK_MS);
+        for (int uid = 3; uid <= 8; uid++) {
+            assertEquals("refreshes of " + uid, Integer.valueOf(1), mCaptures.get(uid));
+        }
+        assertEquals(SnapshotTier.MAX_CAPTURES, mMaxConcurrentCaptures);
+        assertTrue(mCapturing.isEmpty());
+
+        // Suspended, nothing is refreshed.
+        mTier.setSuspended(true);
+        mEngine.advanceBy(2 * SnapshotTier.REFRESH_INTERVAL_MS);
+        assertEquals(Integer.valueOf(1), mCaptures.get(3));
+        assertEquals(0, mTier.getCaptureCount());
+    }
+
+    @Test
+    public void captureGivesUpWithoutAFrame() {
+        mFramesArrive = false;
+        addUsers(3);
+        mEngine.advanceBy(SnapshotTier.MIN_LIVE_MS + SnapshotTier.SNAPSHOT_TIMEOUT_MS);
+        // Went still without one: the placeholder.
+        assertTrue(mStill.contains(3));
+        assertNull(mShown.get(3));
+
+        mEngine.advanceBy(SnapshotTier.TICK_MS);
+        assertTrue(mCapturing.contains(3));
+        mEngine.advanceBy(SnapshotTier.SNAPSHOT_TIMEOUT_MS);
+        assertFalse(mCapturing.contains(3));
+        assertEquals(0, mTier.getCaptureCount());
+        // And waits a full interval before trying again.
+        mEngine.advanceBy(SnapshotTier.REFRESH_INTERVAL_MS - SnapshotTier.SNAPSHOT_TIMEOUT_MS
+                - 2 * SnapshotTier.TICK_MS);
+        assertEquals(Integer.valueOf(1), mCaptures.get(3));
+        mEngine.advanceBy(SnapshotTier.TICK_MS);
+        assertEquals(Integer.valueOf(2), mCaptures.get(3));
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsedAndOnTrimMemory() {
+        Snapshot snapshot = snapshot(160, 90);
+        SnapshotCache cache = new SnapshotCache(3 * snapshot.getByteCount());
+        final Set<Integer> evicted = new HashSet<>();
+        cache.setListener(new SnapshotCache.Listener() {
+            @Override
+            public void onEvicted(int uid) {
+                evicted.add(uid);
+            }
+        });
+        cache.put(1, snapshot);
+        cache.put(2, snapshot);
+        cache.put(3, snapshot);
+        assertSame(snapshot, cache.get(1));
+        cache.put(4, snapshot);
+        // 2 was used least recently.
+        assertNull(cache.get(2));
+        assertTrue(evicted.contains(2));
+        assertEquals(3 * snapshot.getByteCount(), cache.getByteCount());
+        assertEquals(1, cache.getMisses());
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(1, cache.size());
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getByteCount());
+        assertEquals(4, cache.getEvictions());
+    }
+
+    @Test
+    public void evictedTilesShowThePlaceholder() {
+        addUsers(3);
+        mEngine.advanceBy(SnapshotTier.MIN_LIVE_MS + SnapshotTier.TICK_MS);
+        assertNotNull(mShown.get(3));
+        mTier.getCache().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertTrue(mShown.containsKey(3));
+        assertNull(mShown.get(3));
+        assertTrue(mStill.contains(3));
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.zurivideosample.video;
+
+import com.example.zurivideosample.call.CallController;
+import com.example.zurivideosample.call.TestCalls;
+import com.example.zurivideosample.engine.FakeCallEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.agora.rtc.Constants;
+import io.agora.rtc.IRtcEngineEventHandler;
+import io.agora.rtc.IRtcEngineEventHandler.AudioVolumeInfo;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionSchedulerTest {
+    private static final long TICK_MS = 200;
+
+    private FakeCallEngine mEngine;
+    private SubscriptionScheduler mScheduler;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mEngine = new FakeCallEngine(new IRtcEngineEventHandler() {
+        });
+        mScheduler = new SubscriptionScheduler(mEngine, 2, 24f, 3000);
+        for (int uid = 1; uid <= 4; uid++) {
+            mScheduler.addUser(uid, mNow);
+        }
+    }
+
+    @Test
+    public void firstUsersFillFreeHighSlots() {
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mScheduler.getStreamType(1));
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mScheduler.getStreamType(2));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mScheduler.getStreamType(3));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mScheduler.getStreamType(4));
+        assertEquals(2, mScheduler.getHighStreamCount());
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mEngine.getRemoteStreamType(1));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mEngine.getRemoteStreamType(3));
+    }
+
+    @Test
+    public void loudSpeakerIsPromotedOnlyAfterDwell() {
+        // uid 3 starts talking loudly while 1 and 2 are silent.
+        play(1000, speaker(3, 200));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mScheduler.getStreamType(3));
+
+        play(2500, speaker(3, 200));
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mScheduler.getStreamType(3));
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mEngine.getRemoteStreamType(3));
+        assertEquals(2, mScheduler.getHighStreamCount());
+    }
+
+    @Test
+    public void similarLevelsDoNotFlap() {
+        mNow = 10000;
+        int changes = mEngine.getStreamTypeChanges();
+        // Everyone talks at roughly the same level, alternating loudest.
+        for (int i = 0; i < 100; i++) {
+            int loud = 1 + (i % 4);
+            tick(speaker(loud, 120), speaker(1 + ((i + 1) % 4), 110));
+        }
+        assertEquals(changes, mEngine.getStreamTypeChanges());
+    }
+
+    @Test
+    public void alternatingDominantSpeakersSwapAtMostOncePerDwell() {
+        mNow = 10000;
+        int changes = mEngine.getStreamTypeChanges();
+        // uid 3 and uid 4 take turns dominating every second.
+        for (int second = 0; second < 20; second++) {
+            play(1000, speaker(second % 2 == 0 ? 3 : 4, 220));
+        }
+        // Each swap changes two streams; 20s at one swap per 3s dwell at most.
+        assertTrue(mEngine.getStreamTypeChanges() - changes <= 2 * (20000 / 3000 + 1));
+        assertEquals(2, mScheduler.getHighStreamCount());
+    }
+
+    @Test
+    public void hiddenTilesAreUnsubscribedAndNeverHigh() {
+        mScheduler.setVisible(3, false, mNow);
+        assertEquals(SubscriptionScheduler.STREAM_OFF, mScheduler.getStreamType(3));
+        assertTrue(mEngine.isRemoteVideoMuted(3));
+
+        play(10000, speaker(3, 255));
+        assertEquals(SubscriptionScheduler.STREAM_OFF, mScheduler.getStreamType(3));
+
+        mScheduler.setVisible(3, true, mNow);
+        assertFalse(mEngine.isRemoteVideoMuted(3));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mScheduler.getStreamType(3));
+    }
+
+    @Test
+    public void leavingHighUserFreesSlot() {
+        mScheduler.removeUser(1, mNow);
+        assertEquals(2, mScheduler.getHighStreamCount());
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mScheduler.getStreamType(3));
+    }
+
+    @Test
+    public void focusSubscribesOnlyThatUserToTheLowStream() {
+        mScheduler.setFocus(1, mNow);
+        assertEquals(Constants.VIDEO_STREAM_LOW, mScheduler.getStreamType(1));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mEngine.getRemoteStreamType(1));
+        assertFalse(mEngine.isRemoteVideoMuted(1));
+        for (int uid = 2; uid <= 4; uid++) {
+            assertEquals(SubscriptionScheduler.STREAM_OFF, mScheduler.getStreamType(uid));
+            assertTrue(mEngine.isRemoteVideoMuted(uid));
+        }
+        assertEquals(0, mScheduler.getHighStreamCount());
+
+        // Nobody is promoted, however loud; new users are not subscribed.
+        play(10000, speaker(1, 255), speaker(3, 255));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mScheduler.getStreamType(1));
+        assertEquals(SubscriptionScheduler.STREAM_OFF, mScheduler.getStreamType(3));
+        mScheduler.addUser(5, mNow);
+        assertTrue(mEngine.isRemoteVideoMuted(5));
+
+        // The focus moves.
+        mScheduler.setFocus(3, mNow);
+        assertTrue(mEngine.isRemoteVideoMuted(1));
+        assertEquals(Constants.VIDEO_STREAM_LOW, mScheduler.getStreamType(3));
+
+        // Back to the usual schedule, the loudest on the high stream again.
+        mScheduler.setFocus(0, mNow);
+        for (int uid = 1; uid <= 5; uid++) {
+            assertFalse(mEngine.isRemoteVideoMuted(uid));
+        }
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mScheduler.getStreamType(1));
+        assertEquals(Constants.VIDEO_STREAM_HIGH, mScheduler.getStreamType(3));
+        assertEquals(2, mScheduler.getHighStreamCount());
+    }
+
+    @Test
+    public void localReportsDoNotSilenceRemoteSpeakers() {
+        CallController call = TestCalls.newController();
+        FakeCallEngine engine = new FakeCallEngine(call.getEventHandler(), 3);
+        TestCalls.setUp(call, engine);
+        call.joinChannel("test");
+        for (int uid = 1; uid <= 3; uid++) {
+            engine.userJoins(uid, 100);
+        }
+        engine.advanceTo(1000);
+        SubscriptionScheduler scheduler = call.getSubscriptions();
+        assertEquals(Constants.VIDEO_STREAM_LOW, scheduler.getStreamType(3));
+
+        // uid 3 is louder than the high stream users by more than the
+        // margin; the local report after each remote one changes nothing.
+        for (long t = 1000; t < 10000; t += TICK_MS) {
+            engine.speakers(t, 1, 60, 2, 60, 3, 90);
+            engine.speakers(t, 0, 150);
+        }
+        engine.advanceTo(10000);
+        assertEquals(Constants.VIDEO_STREAM_HIGH, scheduler.getStreamType(3));
+        assertEquals(2, scheduler.getHighStreamCount());
+    }
+
+    private void play(long durationMs, AudioVolumeInfo... speakers) {
+        for (long t = 0; t < durationMs; t += TICK_MS) {
+            tick(speakers);
+        }
+    }
+
+    private void tick(AudioVolumeInfo... speakers) {
+        mNow += TICK_MS;
+        mScheduler.onAudioVolumeIndication(speakers, mNow);
+    }
+
+    private static AudioVolumeInfo speaker(int uid, int volume) {
+        AudioVolumeInfo info = new AudioVolumeInfo();
+        info.uid = uid;
+        info.volume = volume;
+        return info;
+    }
+}